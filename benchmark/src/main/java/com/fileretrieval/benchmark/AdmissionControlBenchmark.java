@@ -0,0 +1,138 @@
+package com.fileretrieval.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import com.fileretrieval.client.ClientProcessingEngine;
+import com.fileretrieval.common.dto.IndexResult;
+import com.fileretrieval.server.IndexStore;
+import com.fileretrieval.server.IngestLimiter;
+import com.fileretrieval.server.ServerMode;
+import com.fileretrieval.server.ServerProcessingEngine;
+
+// many clients index their folders at the same time against an in-process server, without limits,
+// with the default limits and with tight ones (one request at a time, no queue), and reports the
+// indexing time, the BUSY replies and retries, and the most requests the server was decoding and
+// merging at once (every one of them holds its decoded word frequencies on the heap), every document
+// has to end up in the index whatever the limits
+public class AdmissionControlBenchmark {
+    private static final int VOCABULARY_SIZE = 50_000;
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static Path createFolders(int clients, int files, int wordsPerFile) throws IOException {
+        Path root = Files.createTempDirectory("admission");
+        Random random = new Random(19);
+        for (int c = 0; c < clients; c++) {
+            Path folder = Files.createDirectory(root.resolve("client" + c));
+            for (int f = 0; f < files; f++) {
+                try (BufferedWriter writer = Files.newBufferedWriter(folder.resolve("doc" + f + ".txt"),
+                        StandardCharsets.UTF_8)) {
+                    for (int w = 0; w < wordsPerFile; w++) {
+                        double skewed = Math.pow(random.nextDouble(), 3.0);
+                        writer.write("word" + (int) (skewed * VOCABULARY_SIZE));
+                        writer.write(w % 16 == 15 ? '\n' : ' ');
+                    }
+                }
+            }
+        }
+        return root;
+    }
+
+    private static void deleteFolders(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static String run(String label, Path root, int clients, int files, int maxRequests, long maxBytes,
+            int maxQueued, long maxWaitMillis) throws Exception {
+        IndexStore store = new IndexStore();
+        ServerProcessingEngine engine = new ServerProcessingEngine(store, null);
+        // platform threads are preempted in the middle of a merge, so the requests of the clients overlap
+        // even on one core
+        engine.setMode(ServerMode.PLATFORM);
+        engine.setCompactionInterval(0);
+        engine.setIngestLimits(maxRequests, maxBytes, maxQueued, maxWaitMillis);
+        int port = freePort();
+        engine.initialize(port);
+        Thread.sleep(200);
+
+        AtomicLong retried = new AtomicLong();
+        ArrayList<Thread> threads = new ArrayList<>();
+        long startTime = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            Path folder = root.resolve("client" + c);
+            threads.add(new Thread(() -> {
+                ClientProcessingEngine client = new ClientProcessingEngine();
+                // large batches, so every request holds a lot of the heap while it is merged, and a
+                // small window, so the clients in this JVM hold little of it themselves
+                client.setBatchLimits(64, 1 << 20, 50);
+                client.setIndexWindow(2);
+                client.setTokenizerThreads(1);
+                client.connect("127.0.0.1", String.valueOf(port));
+                IndexResult result = client.indexFolder(folder.toString());
+                retried.addAndGet(result.retriedCount);
+                client.disconnect();
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - startTime) / 1_000_000_000.0;
+
+        IngestLimiter limiter = engine.getIngestLimiter();
+        engine.shutdown();
+        if (store.getDocumentCount() != clients * files) {
+            throw new IllegalStateException(label + ": indexed " + store.getDocumentCount() + " of "
+                + clients * files + " documents");
+        }
+        return String.format("| %s | %.2f | %.0f | %d | %d | %d |%n", label, seconds, clients * files / seconds,
+            limiter.getRejectedCount(), retried.get(), limiter.getPeakRequests());
+    }
+
+    public static void main(String[] args) throws Exception {
+        // usage: [clients] [files per client] [words per file]
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int files = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int wordsPerFile = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+
+        Path root = createFolders(clients, files, wordsPerFile);
+        // the server and the clients print a line per connection and per error, keep only the table
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        StringBuilder table = new StringBuilder();
+        table.append("| Limits | Seconds | Documents/s | BUSY replies | Retries | Most requests merged at once |\n");
+        table.append("|--------|---------|-------------|--------------|---------|------------------------------|\n");
+        try {
+            // the first run only warms up, without limits the limiter only counts
+            run("warm-up", root, clients, files, Integer.MAX_VALUE, Long.MAX_VALUE, 0, 0);
+            table.append(run("none", root, clients, files, Integer.MAX_VALUE, Long.MAX_VALUE, 0, 0));
+            table.append(run("default", root, clients, files, IngestLimiter.DEFAULT_MAX_REQUESTS,
+                IngestLimiter.DEFAULT_MAX_BYTES, IngestLimiter.DEFAULT_MAX_QUEUED, IngestLimiter.DEFAULT_MAX_WAIT_MILLIS));
+            table.append(run("1 request, no queue", root, clients, files, 1, IngestLimiter.DEFAULT_MAX_BYTES, 0, 0));
+        } finally {
+            System.setOut(console);
+            deleteFolders(root);
+        }
+        System.out.print(table);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,111 @@
+package com.fileretrieval.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import com.fileretrieval.common.dto.DocPathFreqPair;
+import com.fileretrieval.common.protocol.Scoring;
+import com.fileretrieval.server.IndexStore;
+import com.fileretrieval.server.QueryEngine;
+
+// builds an index of documents of varied lengths where most occurrences of a term are one or two
+// and a few are in the hundreds, then measures, for every scoring, the postings scored and the
+// latency of top-10 searches mixing common and rare terms with block-max pruning off and on, both
+// have to return the same hits
+public class BlockMaxPruningBenchmark {
+    private static final long MIN_MEASURE_NANOS = 1_000_000_000L;
+
+    // terms and the fraction of documents that contain them
+    private static final String[] TERMS = {"common", "frequent", "medium", "rare"};
+    private static final double[] DENSITY = {0.5, 0.25, 0.05, 0.005};
+
+    private static final List<List<String>> QUERIES = Arrays.asList(
+        Arrays.asList("common"),
+        Arrays.asList("common", "frequent"),
+        Arrays.asList("medium", "common"),
+        Arrays.asList("rare", "common"));
+
+    private static String results(ArrayList<DocPathFreqPair> hits) {
+        StringBuilder results = new StringBuilder();
+        for (DocPathFreqPair pair : hits) {
+            results.append(pair.documentPath).append('=').append(pair.wordFrequency).append('\n');
+        }
+        return results.toString();
+    }
+
+    // median and 99th percentile latency in microseconds, repeating until the measurement is long enough
+    private static double[] measure(QueryEngine queryEngine, List<String> query, Scoring scoring) {
+        for (int i = 0; i < 5; i++) {
+            queryEngine.search(query, 10, scoring);
+        }
+        long[] latencies = new long[1 << 10];
+        int searches = 0;
+        long end = System.nanoTime() + MIN_MEASURE_NANOS;
+        while (System.nanoTime() < end) {
+            long startTime = System.nanoTime();
+            queryEngine.search(query, 10, scoring);
+            if (searches == latencies.length) {
+                latencies = Arrays.copyOf(latencies, latencies.length * 2);
+            }
+            latencies[searches++] = System.nanoTime() - startTime;
+        }
+        Arrays.sort(latencies, 0, searches);
+        return new double[] {latencies[searches / 2] / 1_000.0, latencies[(int) (searches * 0.99)] / 1_000.0};
+    }
+
+    // postings scored by one search
+    private static long scoredPostings(QueryEngine queryEngine, List<String> query, Scoring scoring) {
+        long before = queryEngine.getScoredPostings();
+        queryEngine.search(query, 10, scoring);
+        return queryEngine.getScoredPostings() - before;
+    }
+
+    public static void main(String[] args) {
+        // usage: [documents]
+        int documents = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        IndexStore store = new IndexStore();
+        Random random = new Random(24);
+        for (int d = 0; d < documents; d++) {
+            HashMap<String, Long> wordFrequencies = new HashMap<>();
+            long used = 0;
+            for (int t = 0; t < TERMS.length; t++) {
+                if (random.nextDouble() < DENSITY[t]) {
+                    // Pareto distributed, half are 1 and one in a thousand is above 100
+                    long frequency = Math.min(1000, (long) Math.pow(random.nextDouble(), -1.0));
+                    wordFrequencies.put(TERMS[t], frequency);
+                    used += frequency;
+                }
+            }
+            // the other words of the document, lengths spread evenly on a log scale
+            int length = (int) (50 * Math.pow(100, random.nextDouble()));
+            wordFrequencies.put("filler", Math.max(1, length - used));
+            int documentNumber = store.putDocument("doc" + d, 1L);
+            store.updateIndex(documentNumber, wordFrequencies);
+        }
+
+        QueryEngine exhaustive = new QueryEngine(store);
+        exhaustive.setPruning(false);
+        QueryEngine pruned = new QueryEngine(store);
+
+        System.out.println("Documents: " + documents);
+        System.out.println("| Query | Scoring | Postings scored, off / on | p50 off / on (us) | p99 off / on (us) | Same top 10 |");
+        System.out.println("|-------|---------|---------------------------|-------------------|-------------------|-------------|");
+        for (List<String> query : QUERIES) {
+            for (Scoring scoring : Scoring.values()) {
+                boolean same = results(exhaustive.search(query, 10, scoring)).equals(
+                    results(pruned.search(query, 10, scoring)));
+                long exhaustiveScored = scoredPostings(exhaustive, query, scoring);
+                long prunedScored = scoredPostings(pruned, query, scoring);
+                double[] exhaustiveLatency = measure(exhaustive, query, scoring);
+                double[] prunedLatency = measure(pruned, query, scoring);
+                System.out.println(String.format("| %s | %s | %d / %d | %.0f / %.0f | %.0f / %.0f | %s |",
+                    String.join(" AND ", query), scoring.toWireFormat(), exhaustiveScored, prunedScored,
+                    exhaustiveLatency[0], prunedLatency[0], exhaustiveLatency[1], prunedLatency[1],
+                    same ? "yes" : "NO"));
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.fileretrieval.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import com.fileretrieval.common.dto.DocPathFreqPair;
+import com.fileretrieval.common.protocol.Query;
+import com.fileretrieval.common.protocol.QueryParser;
+import com.fileretrieval.common.protocol.Scoring;
+import com.fileretrieval.server.IndexStore;
+import com.fileretrieval.server.QueryEngine;
+
+// builds an index with terms in half, a quarter, a twentieth and a two hundredth of the documents
+// and measures the latency of top-10 searches with AND, OR, NOT and groups, planned by the
+// QueryPlanner and evaluated as written, both have to return the same hits
+// the queries are written with the longest lists first and with terms that are in no document,
+// what the planner's reordering and its cut of empty branches are there for
+public class BooleanQueryBenchmark {
+    private static final long MIN_MEASURE_NANOS = 1_000_000_000L;
+
+    // terms and the fraction of documents that contain them, "missing" is in none
+    private static final String[] TERMS = {"common", "frequent", "medium", "rare"};
+    private static final double[] DENSITY = {0.5, 0.25, 0.05, 0.005};
+
+    private static final List<String> QUERIES = Arrays.asList(
+        "common AND rare",
+        "common AND frequent AND medium",
+        "rare OR medium",
+        "common OR frequent",
+        "medium AND NOT common",
+        "common AND NOT rare",
+        "frequent AND (rare OR medium)",
+        "(common OR frequent) AND (rare OR missing)",
+        "common AND frequent AND missing",
+        "(common AND missing) OR rare",
+        "rare AND NOT missing");
+
+    private static String results(ArrayList<DocPathFreqPair> hits) {
+        StringBuilder results = new StringBuilder();
+        for (DocPathFreqPair pair : hits) {
+            results.append(pair.documentPath).append('=').append(pair.wordFrequency).append('\n');
+        }
+        return results.toString();
+    }
+
+    // median and 99th percentile latency in microseconds, repeating until the measurement is long enough
+    private static double[] measure(QueryEngine queryEngine, Query query) {
+        for (int i = 0; i < 5; i++) {
+            queryEngine.search(query, 10, Scoring.FREQUENCY);
+        }
+        long[] latencies = new long[1 << 10];
+        int searches = 0;
+        long end = System.nanoTime() + MIN_MEASURE_NANOS;
+        while (System.nanoTime() < end) {
+            long startTime = System.nanoTime();
+            queryEngine.search(query, 10, Scoring.FREQUENCY);
+            if (searches == latencies.length) {
+                latencies = Arrays.copyOf(latencies, latencies.length * 2);
+            }
+            latencies[searches++] = System.nanoTime() - startTime;
+        }
+        Arrays.sort(latencies, 0, searches);
+        return new double[] {latencies[searches / 2] / 1_000.0, latencies[(int) (searches * 0.99)] / 1_000.0};
+    }
+
+    public static void main(String[] args) {
+        // usage: [documents]
+        int documents = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        IndexStore store = new IndexStore();
+        Random random = new Random(25);
+        for (int d = 0; d < documents; d++) {
+            HashMap<String, Long> wordFrequencies = new HashMap<>();
+            for (int t = 0; t < TERMS.length; t++) {
+                if (random.nextDouble() < DENSITY[t]) {
+                    wordFrequencies.put(TERMS[t], 1L + random.nextInt(20));
+                }
+            }
+            wordFrequencies.put("filler", 100L);
+            int documentNumber = store.putDocument("doc" + d, 1L);
+            store.updateIndex(documentNumber, wordFrequencies);
+        }
+
+        QueryEngine planned = new QueryEngine(store);
+        QueryEngine asWritten = new QueryEngine(store);
+        asWritten.setPlanning(false);
+
+        System.out.println("Documents: " + documents);
+        System.out.println("| Query | p50 as written / planned (us) | p99 as written / planned (us) | Same top 10 |");
+        System.out.println("|-------|-------------------------------|-------------------------------|-------------|");
+        for (String text : QUERIES) {
+            Query query = QueryParser.parse(text);
+            boolean same = results(asWritten.search(query, 10, Scoring.FREQUENCY)).equals(
+                results(planned.search(query, 10, Scoring.FREQUENCY)));
+            double[] asWrittenLatency = measure(asWritten, query);
+            double[] plannedLatency = measure(planned, query);
+            System.out.println(String.format("| %s | %.0f / %.0f | %.0f / %.0f | %s |", text,
+                asWrittenLatency[0], plannedLatency[0], asWrittenLatency[1], plannedLatency[1], same ? "yes" : "NO"));
+        }
+    }
+}
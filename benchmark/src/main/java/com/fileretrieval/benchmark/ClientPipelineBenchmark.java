@@ -0,0 +1,79 @@
+package com.fileretrieval.benchmark;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+import com.fileretrieval.client.ClientProcessingEngine;
+import com.fileretrieval.common.dto.IndexResult;
+import com.fileretrieval.server.IndexStore;
+import com.fileretrieval.server.ServerProcessingEngine;
+
+// indexes one folder with one client and 1, 2, 4, ... tokenizer threads, and prints the busy time
+// and throughput of every stage of the client pipeline (crawl, tokenize, send) next to the total
+// the total follows the slowest stage: tokenizing, until there are enough threads for the cores
+public class ClientPipelineBenchmark {
+    private static Path generateFolder(int folders, int filesPerFolder) throws IOException {
+        Path root = Files.createTempDirectory("pipeline-benchmark");
+        Random random = new Random(12);
+        for (int f = 0; f < folders; f++) {
+            Path folder = Files.createDirectory(root.resolve("folder" + f));
+            for (int i = 0; i < filesPerFolder; i++) {
+                StringBuilder text = new StringBuilder();
+                for (int w = 0; w < 1_500; w++) {
+                    text.append("word").append(random.nextInt(20_000)).append(w % 12 == 11 ? '\n' : ' ');
+                }
+                Files.writeString(folder.resolve("Document" + i + ".txt"), text);
+            }
+        }
+        return root;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        // usage: [folders] [files per folder]
+        int folders = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int filesPerFolder = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        Path root = generateFolder(folders, filesPerFolder);
+
+        int serverPort = freePort();
+        ServerProcessingEngine engine = new ServerProcessingEngine(new IndexStore(), null);
+        engine.initialize(serverPort);
+        Thread.sleep(500);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("%d files, %d cores, stage times in seconds%n", folders * filesPerFolder, cores));
+        table.append(String.format("%-9s %9s %9s %9s %9s %12s%n", "threads", "crawl", "tokenize", "send", "total", "documents/s"));
+        // the first run only warms up
+        for (int threads = 1, run = 0; threads <= Math.max(4, cores * 2); run++) {
+            ClientProcessingEngine client = new ClientProcessingEngine();
+            client.connect("127.0.0.1", Integer.toString(serverPort));
+            client.setTokenizerThreads(threads);
+            IndexResult result = client.indexFolder(root.toString());
+            client.disconnect();
+            if (run == 0) {
+                continue;
+            }
+            table.append(String.format("%-9d %9.3f %9.3f %9.3f %9.3f %12.0f%n", threads, result.crawlTime,
+                result.tokenizeTime, result.sendTime, result.executionTime, result.documentCount / result.executionTime));
+            threads *= 2;
+        }
+        System.out.print(table);
+
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+        System.exit(0);
+    }
+}
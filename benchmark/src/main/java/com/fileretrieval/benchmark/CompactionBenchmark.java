@@ -0,0 +1,117 @@
+package com.fileretrieval.benchmark;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import com.fileretrieval.common.dto.DocPathFreqPair;
+import com.fileretrieval.server.CompactionStatistics;
+import com.fileretrieval.server.IndexStore;
+import com.fileretrieval.server.QueryEngine;
+
+// deletes a share of the documents of an index and measures the compaction pass that drops their
+// postings: dead posting ratio, postings rewritten per second, bytes reclaimed, and top-10 AND-query
+// latency before and after the pass, and while it runs (searches must not wait for it)
+public class CompactionBenchmark {
+    private static final int VOCABULARY_SIZE = 100_000;
+    private static final long MIN_MEASURE_NANOS = 1_000_000_000L;
+
+    private static final List<List<String>> QUERIES = Arrays.asList(
+        Arrays.asList("term0", "term1"),
+        Arrays.asList("term5", "term500"),
+        Arrays.asList("term100", "term20000"),
+        Arrays.asList("term2", "term3", "term40"));
+
+    private static IndexStore buildIndex(int documents, int termsPerDocument) {
+        IndexStore store = new IndexStore();
+        Random random = new Random(16);
+        for (int d = 0; d < documents; d++) {
+            HashMap<String, Long> wordFrequencies = new HashMap<>();
+            for (int t = 0; t < termsPerDocument; t++) {
+                // skewed distribution: low term ids are much more frequent
+                double skewed = Math.pow(random.nextDouble(), 3.0);
+                wordFrequencies.merge("term" + (int) (skewed * VOCABULARY_SIZE), 1L, Long::sum);
+            }
+            int documentNumber = store.putDocument("doc" + d, 1L);
+            store.updateIndex(documentNumber, wordFrequencies);
+        }
+        // the first pass only marks lists as idle, the second one seals them
+        store.sealIdleHotBuffers(16);
+        store.sealIdleHotBuffers(16);
+        return store;
+    }
+
+    // average latency in microseconds of the QUERIES through the query engine
+    private static double queryLatency(QueryEngine queryEngine) {
+        long queries = 0;
+        long startTime = System.nanoTime();
+        long elapsed;
+        do {
+            for (List<String> query : QUERIES) {
+                queryEngine.search(query, 10);
+                queries++;
+            }
+            elapsed = System.nanoTime() - startTime;
+        } while (elapsed < MIN_MEASURE_NANOS);
+        return elapsed / 1_000.0 / queries;
+    }
+
+    // the results of every query as "path=frequency" lines, compaction must not change them
+    private static String results(QueryEngine queryEngine) {
+        StringBuilder results = new StringBuilder();
+        for (List<String> query : QUERIES) {
+            for (DocPathFreqPair pair : queryEngine.search(query, 10)) {
+                results.append(pair.documentPath).append('=').append(pair.wordFrequency).append('\n');
+            }
+        }
+        return results.toString();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        // usage: [documents] [terms per document]
+        int documents = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int termsPerDocument = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+        double[] deletedShares = {0.01, 0.1, 0.3, 0.5};
+
+        System.out.println("| Deleted | Dead postings | Rewritten postings/s | Reclaimed | Query before (us) | Query during (us) | Query after (us) |");
+        System.out.println("|---------|---------------|----------------------|-----------|-------------------|-------------------|------------------|");
+        for (double deletedShare : deletedShares) {
+            IndexStore store = buildIndex(documents, termsPerDocument);
+            long bytesBefore = store.statistics().sealedBytes;
+            Random random = new Random(17);
+            for (int d = 0; d < documents; d++) {
+                if (random.nextDouble() < deletedShare) {
+                    store.removeDocument("doc" + d, 1L);
+                }
+            }
+            QueryEngine queryEngine = new QueryEngine(store);
+            double before = queryLatency(queryEngine);
+            String expected = results(queryEngine);
+
+            // search on another thread for as long as the pass runs
+            CompactionStatistics[] pass = new CompactionStatistics[1];
+            Thread compactor = new Thread(() -> pass[0] = store.compactDeletedPostings());
+            long queries = 0;
+            long searchNanos = 0;
+            compactor.start();
+            while (compactor.isAlive() || queries == 0) {
+                for (List<String> query : QUERIES) {
+                    long startTime = System.nanoTime();
+                    queryEngine.search(query, 10);
+                    searchNanos += System.nanoTime() - startTime;
+                    queries++;
+                }
+            }
+            compactor.join();
+            double during = searchNanos / 1_000.0 / queries;
+            double after = queryLatency(queryEngine);
+            if (!results(queryEngine).equals(expected)) {
+                throw new IllegalStateException("Compaction changed the search results");
+            }
+
+            System.out.println(String.format("| %.0f%% | %.1f%% | %.1f M | %.1f%% of %.1f MB | %.1f | %.1f | %.1f |",
+                deletedShare * 100, pass[0].deadPostingRatio() * 100, pass[0].rewrittenPostingsPerSecond() / 1e6,
+                100.0 * pass[0].reclaimedBytes / bytesBefore, bytesBefore / (1024.0 * 1024.0), before, during, after));
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.fileretrieval.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import com.fileretrieval.common.protocol.BinaryFrameReader;
+import com.fileretrieval.common.protocol.BinaryFrameWriter;
+import com.fileretrieval.common.protocol.MessageType;
+import com.fileretrieval.common.protocol.SearchRequest;
+import com.fileretrieval.server.IndexStore;
+import com.fileretrieval.server.ServerMode;
+import com.fileretrieval.server.ServerProcessingEngine;
+
+// holds 50, 500 and 5000 binary connections open against an in-process server in each ServerMode,
+// while a few driver threads send searches round robin over all of them, so every connection is
+// idle most of the time, reports the time to connect, search throughput and latency, and the
+// threads and heap the JVM (server and clients together) uses with every connection open
+public class ConnectionScalingBenchmark {
+    private static final int[] CONNECTION_COUNTS = {50, 500, 5000};
+    private static final int DRIVERS = 8;
+    private static final long MEASURE_NANOS = 3_000_000_000L;
+    private static final int DOCUMENTS = 5_000;
+
+    // one client connection, used by a single driver thread
+    private static class Connection {
+        final Socket socket;
+        final BinaryFrameReader reader;
+        final BinaryFrameWriter writer;
+
+        Connection(int port) throws IOException {
+            socket = new Socket("127.0.0.1", port);
+            OutputStream out = socket.getOutputStream();
+            out.write("REGISTER REQUEST binary\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            // read the REGISTER REPLY byte by byte, nothing after it may be buffered
+            InputStream in = socket.getInputStream();
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    throw new IOException("Connection rejected");
+                }
+            }
+            reader = new BinaryFrameReader(new BufferedInputStream(in));
+            writer = new BinaryFrameWriter(new BufferedOutputStream(out));
+        }
+
+        void search(SearchRequest request) throws IOException {
+            writer.writeSearchRequest(request);
+            writer.flush();
+            if (reader.readFrame() != MessageType.SEARCH_REPLY) {
+                throw new IOException("Unexpected reply to SEARCH REQUEST");
+            }
+            reader.readSearchReply();
+        }
+
+        void close() throws IOException {
+            writer.writeQuit();
+            writer.flush();
+            socket.close();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static IndexStore buildIndex() {
+        IndexStore store = new IndexStore();
+        Random random = new Random(17);
+        for (int d = 0; d < DOCUMENTS; d++) {
+            HashMap<String, Long> wordFrequencies = new HashMap<>();
+            for (int t = 0; t < 100; t++) {
+                double skewed = Math.pow(random.nextDouble(), 3.0);
+                wordFrequencies.merge("term" + (int) (skewed * 10_000), 1L, Long::sum);
+            }
+            store.updateIndex(store.putDocument("doc" + d, 1L), wordFrequencies);
+        }
+        return store;
+    }
+
+    private static void waitForLiveConnections(ServerProcessingEngine engine, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + 30_000_000_000L;
+        while (engine.getLiveConnectionCount() != count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static String run(IndexStore store, ServerMode mode, int connectionCount) throws Exception {
+        int port = freePort();
+        ServerProcessingEngine engine = new ServerProcessingEngine(store, null);
+        engine.setMode(mode);
+        engine.setMaxConnections(connectionCount);
+        engine.setCompactionInterval(0);
+        engine.initialize(port);
+        Thread.sleep(200);
+
+        long connectStart = System.nanoTime();
+        ArrayList<Connection> connections = new ArrayList<>();
+        for (int i = 0; i < connectionCount; i++) {
+            connections.add(new Connection(port));
+        }
+        double connectSeconds = (double) (System.nanoTime() - connectStart) / 1_000_000_000.0;
+        waitForLiveConnections(engine, connectionCount);
+        int live = engine.getLiveConnectionCount();
+
+        // every driver owns a slice of the connections and searches through them in turn
+        long[][] latencies = new long[DRIVERS][];
+        int[] searches = new int[DRIVERS];
+        Thread[] drivers = new Thread[DRIVERS];
+        for (int d = 0; d < DRIVERS; d++) {
+            int driver = d;
+            drivers[d] = new Thread(() -> {
+                long[] driverLatencies = new long[1 << 16];
+                Random random = new Random(driver);
+                SearchRequest request = new SearchRequest();
+                request.topK = 10;
+                int next = driver;
+                long end = System.nanoTime() + MEASURE_NANOS;
+                try {
+                    while (System.nanoTime() < end) {
+                        request.terms = Arrays.asList("term" + random.nextInt(20), "term" + random.nextInt(200));
+                        long startTime = System.nanoTime();
+                        connections.get(next).search(request);
+                        if (searches[driver] == driverLatencies.length) {
+                            driverLatencies = Arrays.copyOf(driverLatencies, driverLatencies.length * 2);
+                        }
+                        driverLatencies[searches[driver]++] = System.nanoTime() - startTime;
+                        next += DRIVERS;
+                        if (next >= connections.size()) {
+                            next = driver;
+                        }
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                latencies[driver] = driverLatencies;
+            });
+            drivers[d].start();
+        }
+        // threads and heap while every connection is open
+        Thread.sleep(MEASURE_NANOS / 2_000_000L);
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        double heapMegabytes = (runtime.totalMemory() - runtime.freeMemory()) / (1024.0 * 1024.0);
+        for (Thread driver : drivers) {
+            driver.join();
+        }
+
+        int total = 0;
+        for (int count : searches) {
+            total += count;
+        }
+        long[] all = new long[total];
+        int position = 0;
+        for (int d = 0; d < DRIVERS; d++) {
+            System.arraycopy(latencies[d], 0, all, position, searches[d]);
+            position += searches[d];
+        }
+        Arrays.sort(all);
+
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        waitForLiveConnections(engine, 0);
+        engine.shutdown();
+
+        return String.format("| %s | %d | %d | %.2f | %.0f | %.0f | %.0f | %d | %.0f |%n", mode.getName(), connectionCount,
+            live, connectSeconds, total / (MEASURE_NANOS / 1_000_000_000.0), all[total / 2] / 1_000.0,
+            all[(int) (total * 0.99)] / 1_000.0, threads, heapMegabytes);
+    }
+
+    public static void main(String[] args) throws Exception {
+        // usage: [platform|virtual|nio ...], every mode otherwise
+        ArrayList<ServerMode> modes = new ArrayList<>();
+        for (String arg : args) {
+            modes.add(ServerMode.fromName(arg));
+        }
+        if (modes.isEmpty()) {
+            modes.addAll(Arrays.asList(ServerMode.values()));
+        }
+
+        IndexStore store = buildIndex();
+        // the server prints a line per connection, keep only the table
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        StringBuilder table = new StringBuilder();
+        table.append("| Mode | Connections | Live | Connect (s) | Searches/s | p50 (us) | p99 (us) | JVM threads | Heap (MB) |\n");
+        table.append("|------|-------------|------|-------------|------------|----------|----------|-------------|-----------|\n");
+        for (ServerMode mode : modes) {
+            // the first run only warms up
+            run(store, mode, CONNECTION_COUNTS[0]);
+            for (int connectionCount : CONNECTION_COUNTS) {
+                table.append(run(store, mode, connectionCount));
+            }
+        }
+        System.setOut(console);
+        System.out.print(table);
+        System.exit(0);
+    }
+}
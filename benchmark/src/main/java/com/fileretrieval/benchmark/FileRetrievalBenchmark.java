@@ -5,6 +5,10 @@ import com.fileretrieval.client.ClientProcessingEngine;
 import com.fileretrieval.common.dto.DocPathFreqPair;
 import com.fileretrieval.common.dto.IndexResult;
 import com.fileretrieval.common.dto.SearchResult;
+import com.fileretrieval.common.protocol.Query;
+import com.fileretrieval.common.protocol.QueryParser;
+import com.fileretrieval.common.protocol.Scoring;
+import com.fileretrieval.common.protocol.SearchRequest;
 
 class BenchmarkWorker implements Runnable {
     private ClientProcessingEngine engine;
@@ -35,10 +39,10 @@ class BenchmarkWorker implements Runnable {
         totalReadBytes = indexResult.totalBytesRead;
     }
 
-    public void search(ArrayList<String> terms) {
+    public void search(Query query) {
         // perform search operations on the ClientProcessingEngine
-        System.out.println("Searching for " + String.join(" ", terms));
-        SearchResult searchResult = engine.search(terms);
+        System.out.println("Searching for " + query);
+        SearchResult searchResult = engine.search(query, SearchRequest.DEFAULT_TOP_K, Scoring.FREQUENCY);
 
         // print the results and performance
         System.out.println("Search completed in " + String.format("%.3f", searchResult.executionTime) + " seconds");
@@ -99,6 +103,9 @@ public class FileRetrievalBenchmark {
         queries.add("vortex");
         queries.add("moon AND vortex");
         queries.add("distortion AND adaptation");
+        queries.add("distortion OR adaptation");
+        queries.add("vortex AND NOT moon");
+        queries.add("(distortion OR adaptation) AND moon");
 
         // check for correct number of arguments
         if (args.length < 3) {
@@ -165,14 +172,7 @@ public class FileRetrievalBenchmark {
 
         // run search queries on the first client (benchmark worker thread number 1)
         for (String query : queries) {
-            String[] parts = query.split(" ");
-            ArrayList<String> terms = new ArrayList<>();
-            for (String part : parts) {
-                if (!part.equals("AND") && !part.isEmpty()) {
-                    terms.add(part);
-                }
-            }
-            workers.get(0).search(terms);
+            workers.get(0).search(QueryParser.parse(query));
         }
 
         // disconnect all clients (all benchmark worker threads)
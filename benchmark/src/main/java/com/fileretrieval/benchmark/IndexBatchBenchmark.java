@@ -0,0 +1,155 @@
+package com.fileretrieval.benchmark;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+import com.fileretrieval.client.ClientProcessingEngine;
+import com.fileretrieval.common.dto.IndexResult;
+import com.fileretrieval.server.IndexStore;
+import com.fileretrieval.server.ServerProcessingEngine;
+
+// measures what INDEX BATCH saves for small documents:
+// 1. in the IndexStore: putDocument + updateIndex per document versus putDocuments + updateIndexBatch
+//    per batch, with several concurrent indexers
+// 2. end to end over loopback: one client indexing a folder of small files with several batch sizes
+public class IndexBatchBenchmark {
+    private static final int VOCABULARY_SIZE = 20_000;
+    private static final int TERMS_PER_DOCUMENT = 40;
+    private static final int INDEXERS = 4;
+    private static final int DOCUMENTS_PER_INDEXER = 20_000;
+    private static final int[] BATCH_SIZES = {1, 8, 32, 128};
+
+    // the documents share one String instance per term, like the documents decoded from an INDEX BATCH frame
+    private static ArrayList<Map<String, Long>> generateDocuments(int count, long seed) {
+        Random random = new Random(seed);
+        ArrayList<Map<String, Long>> documents = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            HashMap<String, Long> wordFrequencies = new HashMap<>();
+            while (wordFrequencies.size() < TERMS_PER_DOCUMENT) {
+                double skewed = Math.pow(random.nextDouble(), 3.0);
+                wordFrequencies.merge(("term" + (int) (skewed * VOCABULARY_SIZE)).intern(), 1L, Long::sum);
+            }
+            documents.add(wordFrequencies);
+        }
+        return documents;
+    }
+
+    // documents merged per second by INDEXERS threads, batchSize 1 uses the per-document path
+    private static double mergeThroughput(ArrayList<ArrayList<Map<String, Long>>> workload, int batchSize)
+            throws InterruptedException {
+        IndexStore store = new IndexStore();
+        CountDownLatch start = new CountDownLatch(1);
+        ArrayList<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < INDEXERS; i++) {
+            ArrayList<Map<String, Long>> documents = workload.get(i);
+            long clientID = i + 1;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int d = 0; d < documents.size(); d += batchSize) {
+                    if (batchSize == 1) {
+                        int documentNumber = store.putDocument("doc" + d, clientID);
+                        store.updateIndex(documentNumber, documents.get(d));
+                        continue;
+                    }
+                    List<Map<String, Long>> batch = documents.subList(d, Math.min(d + batchSize, documents.size()));
+                    ArrayList<String> paths = new ArrayList<>();
+                    for (int b = 0; b < batch.size(); b++) {
+                        paths.add("doc" + (d + b));
+                    }
+                    int firstDocumentNumber = store.putDocuments(paths, clientID);
+                    store.updateIndexBatch(firstDocumentNumber, batch);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (double) (System.nanoTime() - startTime) / 1_000_000_000.0;
+        return INDEXERS * DOCUMENTS_PER_INDEXER / seconds;
+    }
+
+    private static Path generateFolder(int files) throws IOException {
+        Path folder = Files.createTempDirectory("batch-benchmark");
+        Random random = new Random(11);
+        for (int i = 0; i < files; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int w = 0; w < 60; w++) {
+                text.append("word").append(random.nextInt(3_000)).append(w % 12 == 11 ? '\n' : ' ');
+            }
+            Files.writeString(folder.resolve("Document" + i + ".txt"), text);
+        }
+        return folder;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        // usage: [files for the end-to-end run]
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+
+        ArrayList<ArrayList<Map<String, Long>>> workload = new ArrayList<>();
+        for (int i = 0; i < INDEXERS; i++) {
+            workload.add(generateDocuments(DOCUMENTS_PER_INDEXER, i));
+        }
+        // warm up both paths
+        mergeThroughput(workload, 1);
+        mergeThroughput(workload, 32);
+
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("IndexStore merge, %d indexers, %d terms per document%n", INDEXERS, TERMS_PER_DOCUMENT));
+        for (int batchSize : BATCH_SIZES) {
+            table.append(String.format("  batch %4d   %10.0f documents/s%n", batchSize, mergeThroughput(workload, batchSize)));
+        }
+
+        Path folder = generateFolder(files);
+        int serverPort = freePort();
+        ServerProcessingEngine engine = new ServerProcessingEngine(new IndexStore(), null);
+        engine.initialize(serverPort);
+        Thread.sleep(500);
+
+        table.append(String.format("End to end, 1 client, %d small files%n", files));
+        for (int round = 0; round < 2; round++) {
+            for (int batchSize : BATCH_SIZES) {
+                ClientProcessingEngine client = new ClientProcessingEngine();
+                client.connect("127.0.0.1", Integer.toString(serverPort));
+                client.setBatchLimits(batchSize, ClientProcessingEngine.DEFAULT_BATCH_BYTES,
+                    ClientProcessingEngine.DEFAULT_BATCH_TIMEOUT_MILLIS);
+                IndexResult result = client.indexFolder(folder.toString());
+                client.disconnect();
+                // the first round only warms up
+                if (round == 1) {
+                    table.append(String.format("  batch %4d   %10.0f documents/s%n", batchSize, files / result.executionTime));
+                }
+            }
+        }
+        System.out.print(table);
+
+        try (Stream<Path> paths = Files.walk(folder)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+        System.exit(0);
+    }
+}
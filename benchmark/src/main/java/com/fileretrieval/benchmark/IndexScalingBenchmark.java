@@ -0,0 +1,112 @@
+package com.fileretrieval.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import com.fileretrieval.server.IndexStore;
+
+// measures IndexStore merge throughput (documents merged per second) with 1 to 32 concurrent indexers
+// each indexer plays the role of a ServerWorker handling INDEX REQUESTs, without any socket I/O
+public class IndexScalingBenchmark {
+    private static final int VOCABULARY_SIZE = 200_000;
+    private static final int TERMS_PER_DOCUMENT = 400;
+    private static final int DOCUMENTS_PER_INDEXER = 1_000;
+    private static final int[] INDEXER_COUNTS = {1, 2, 4, 8, 16, 32};
+
+    // pre-generate documents so that the measured time only covers putDocument + updateIndex
+    private static ArrayList<HashMap<String, Long>> generateDocuments(int count, long seed) {
+        Random random = new Random(seed);
+        ArrayList<HashMap<String, Long>> documents = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            HashMap<String, Long> wordFrequencies = new HashMap<>();
+            while (wordFrequencies.size() < TERMS_PER_DOCUMENT) {
+                // skew the term distribution so that a few terms are shared by most documents
+                double skewed = Math.pow(random.nextDouble(), 3.0);
+                String term = "term" + (int) (skewed * VOCABULARY_SIZE);
+                wordFrequencies.merge(term, 1L + random.nextInt(5), Long::sum);
+            }
+            documents.add(wordFrequencies);
+        }
+        return documents;
+    }
+
+    // run one round with the given number of indexers and return the documents merged per second
+    private static double run(int indexers, ArrayList<ArrayList<HashMap<String, Long>>> workload, boolean globalLock)
+            throws InterruptedException {
+        IndexStore store = new IndexStore();
+        // emulates the previous single termInvertedIndexLock for comparison
+        Lock lock = new ReentrantLock();
+        CountDownLatch start = new CountDownLatch(1);
+        ArrayList<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < indexers; i++) {
+            ArrayList<HashMap<String, Long>> documents = workload.get(i);
+            long clientID = i + 1;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                int documentIndex = 0;
+                for (HashMap<String, Long> wordFrequencies : documents) {
+                    int documentNumber = store.putDocument("doc" + documentIndex++, clientID);
+                    if (globalLock) {
+                        lock.lock();
+                        try {
+                            store.updateIndex(documentNumber, wordFrequencies);
+                        } finally {
+                            lock.unlock();
+                        }
+                    } else {
+                        store.updateIndex(documentNumber, wordFrequencies);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long stopTime = System.nanoTime();
+
+        double execTime = (double) (stopTime - startTime) / 1_000_000_000.0;
+        return (indexers * (double) DOCUMENTS_PER_INDEXER) / execTime;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxIndexers = INDEXER_COUNTS[INDEXER_COUNTS.length - 1];
+        ArrayList<ArrayList<HashMap<String, Long>>> workload = new ArrayList<>();
+        for (int i = 0; i < maxIndexers; i++) {
+            workload.add(generateDocuments(DOCUMENTS_PER_INDEXER, i));
+        }
+
+        // warm up the JIT before measuring
+        run(4, workload, false);
+        run(4, workload, true);
+
+        System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+        System.out.println("| Indexers | Global lock (docs/s) | Concurrent (docs/s) | Speedup | Efficiency |");
+        System.out.println("|----------|----------------------|---------------------|---------|------------|");
+
+        double baseline = 0.0;
+        for (int indexers : INDEXER_COUNTS) {
+            double locked = run(indexers, workload, true);
+            double concurrent = run(indexers, workload, false);
+            if (indexers == 1) {
+                baseline = concurrent;
+            }
+            double speedup = concurrent / baseline;
+            System.out.println(String.format("| %8d | %20.0f | %19.0f | %6.2fx | %9.0f%% |",
+                indexers, locked, concurrent, speedup, speedup / indexers * 100.0));
+        }
+    }
+}
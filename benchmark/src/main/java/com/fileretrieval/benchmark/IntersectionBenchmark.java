@@ -0,0 +1,130 @@
+package com.fileretrieval.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import com.fileretrieval.server.IndexStore;
+import com.fileretrieval.server.PostingsCursor;
+import com.fileretrieval.server.PostingsSnapshot;
+import com.fileretrieval.server.QueryEngine;
+
+// compares the sorted-postings galloping intersection in QueryEngine with the nested linear scan
+// that ServerWorker used to run for multi-term AND queries
+public class IntersectionBenchmark {
+    private static final int DOCUMENTS = 50_000;
+    private static final long MIN_MEASURE_NANOS = 1_000_000_000L;
+
+    // terms and the fraction of documents that contain them
+    private static final String[] TERMS = {"common", "frequent", "medium", "uncommon", "rare"};
+    private static final double[] DENSITY = {0.5, 0.3, 0.1, 0.01, 0.001};
+
+    private static ArrayList<LegacyDocFreqPair> toLegacy(PostingsSnapshot snapshot) {
+        ArrayList<LegacyDocFreqPair> pairs = new ArrayList<>();
+        for (PostingsCursor cursor = snapshot.cursor(); !cursor.exhausted(); cursor.next()) {
+            pairs.add(new LegacyDocFreqPair(cursor.documentNumber(), cursor.wordFrequency()));
+        }
+        return pairs;
+    }
+
+    // the previous ServerWorker loop: for every posting of the first term, scan each other list from the start
+    private static int nestedLoopIntersect(List<ArrayList<LegacyDocFreqPair>> postingsList) {
+        int matches = 0;
+        ArrayList<LegacyDocFreqPair> termsList = postingsList.get(0);
+        for (LegacyDocFreqPair pair : termsList) {
+            long frequencyAcc = pair.wordFrequency;
+            boolean inAllTermsLists = true;
+            for (int i = 1; i < postingsList.size(); i++) {
+                boolean inThisTermList = false;
+                for (LegacyDocFreqPair otherPair : postingsList.get(i)) {
+                    if (otherPair.documentNumber == pair.documentNumber) {
+                        frequencyAcc += otherPair.wordFrequency;
+                        inThisTermList = true;
+                        break;
+                    }
+                }
+                if (!inThisTermList) {
+                    inAllTermsLists = false;
+                    break;
+                }
+            }
+            if (inAllTermsLists && frequencyAcc > 0) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    private static int gallopingIntersect(List<PostingsSnapshot> postingsList) {
+        int[] matches = new int[1];
+        QueryEngine.intersect(postingsList, (documentNumber, score) -> matches[0]++);
+        return matches[0];
+    }
+
+    private interface Intersection {
+        int run();
+    }
+
+    // returns the average time per query in microseconds, repeating until the measurement is long enough
+    private static double measure(Intersection intersection) {
+        // warm up
+        for (int i = 0; i < 3; i++) {
+            intersection.run();
+        }
+        long iterations = 0;
+        long startTime = System.nanoTime();
+        long elapsed;
+        do {
+            intersection.run();
+            iterations++;
+            elapsed = System.nanoTime() - startTime;
+        } while (elapsed < MIN_MEASURE_NANOS);
+        return elapsed / 1_000.0 / iterations;
+    }
+
+    public static void main(String[] args) {
+        IndexStore store = new IndexStore();
+        Random random = new Random(42);
+        for (int d = 0; d < DOCUMENTS; d++) {
+            HashMap<String, Long> wordFrequencies = new HashMap<>();
+            for (int t = 0; t < TERMS.length; t++) {
+                if (random.nextDouble() < DENSITY[t]) {
+                    wordFrequencies.put(TERMS[t], 1L + random.nextInt(10));
+                }
+            }
+            int documentNumber = store.putDocument("doc" + d, 1L);
+            store.updateIndex(documentNumber, wordFrequencies);
+        }
+
+        String[][] queries = {
+            {"rare", "common"},
+            {"uncommon", "frequent"},
+            {"medium", "common"},
+            {"frequent", "common"},
+            {"common", "frequent", "medium"},
+        };
+
+        System.out.println("Documents: " + DOCUMENTS);
+        System.out.println("| Query | Matches | Nested loop (us) | Galloping merge (us) | Speedup |");
+        System.out.println("|-------|---------|------------------|----------------------|---------|");
+        for (String[] query : queries) {
+            ArrayList<PostingsSnapshot> postingsList = new ArrayList<>();
+            ArrayList<ArrayList<LegacyDocFreqPair>> legacyList = new ArrayList<>();
+            for (String term : query) {
+                postingsList.add(store.lookupIndex(term));
+                legacyList.add(toLegacy(store.lookupIndex(term)));
+            }
+
+            int matches = gallopingIntersect(postingsList);
+            if (matches != nestedLoopIntersect(legacyList)) {
+                throw new IllegalStateException("Intersections disagree for " + Arrays.toString(query));
+            }
+
+            double nested = measure(() -> nestedLoopIntersect(legacyList));
+            double galloping = measure(() -> gallopingIntersect(postingsList));
+            System.out.println(String.format("| %s | %d | %.1f | %.1f | %.0fx |",
+                String.join(" AND ", query), matches, nested, galloping, nested / galloping));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.fileretrieval.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.Scanner;
+import com.fileretrieval.client.ByteTokenizer;
+
+// tokenizes one large file of each dataset size (128 MB, 512 MB and 2 GB, see docs/performance-evaluation.md)
+// with the Scanner + split tokenizer the client used before, with the ByteTokenizer reading into its
+// direct buffer, and with the ByteTokenizer mapping the file, in MB per second
+// the file is written just before it is read, so the page cache is warm and the numbers show the cost
+// of reading and tokenizing rather than the disk
+public class LargeFileTokenizerBenchmark {
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    private static Path generateFile(long megabytes) throws IOException {
+        Path file = Files.createTempFile("large-file-benchmark", ".txt");
+        Random random = new Random(14);
+        long bytes = megabytes * MEGABYTE;
+        long written = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            StringBuilder line = new StringBuilder();
+            while (written < bytes) {
+                line.setLength(0);
+                for (int w = 0; w < 12; w++) {
+                    line.append("word").append(random.nextInt(100_000)).append(w % 5 == 4 ? ", " : " ");
+                }
+                line.append('\n');
+                writer.append(line);
+                written += line.length();
+            }
+        }
+        return file;
+    }
+
+    private static HashMap<String, Long> scannerTokenize(Path filePath) throws IOException {
+        File file = filePath.toFile();
+        HashMap<String, Long> wordFrequencies = new HashMap<>();
+        try (Scanner fileScanner = new Scanner(file)) {
+            while (fileScanner.hasNextLine()) {
+                String line = fileScanner.nextLine();
+                String[] lineWords = line.split("[^a-zA-Z0-9_-]+");
+                for (String word : lineWords) {
+                    if (word.length() > 3) {
+                        wordFrequencies.put(word, wordFrequencies.getOrDefault(word, 0L) + 1);
+                    }
+                }
+            }
+        }
+        return wordFrequencies;
+    }
+
+    private interface Tokenizer {
+        HashMap<String, Long> tokenize(Path file) throws IOException;
+    }
+
+    // MB per second of the faster of two rounds, the word counts of the first round are kept in counts
+    private static double megabytesPerSecond(Path file, long megabytes, Tokenizer tokenizer,
+            ArrayList<HashMap<String, Long>> counts) throws IOException {
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < 2; round++) {
+            long startTime = System.nanoTime();
+            HashMap<String, Long> wordFrequencies = tokenizer.tokenize(file);
+            best = Math.min(best, (double) (System.nanoTime() - startTime) / 1_000_000_000.0);
+            if (round == 0) {
+                counts.add(wordFrequencies);
+            }
+        }
+        return megabytes / best;
+    }
+
+    public static void main(String[] args) throws IOException {
+        // usage: [--skip-scanner] [file sizes in MB ...]
+        boolean skipScanner = false;
+        ArrayList<Long> sizes = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--skip-scanner")) {
+                skipScanner = true;
+            } else {
+                sizes.add(Long.parseLong(arg));
+            }
+        }
+        if (sizes.isEmpty()) {
+            sizes.add(128L);
+            sizes.add(512L);
+            sizes.add(2048L);
+        }
+
+        ByteTokenizer directTokenizer = new ByteTokenizer(Long.MAX_VALUE);
+        ByteTokenizer mappedTokenizer = new ByteTokenizer(0);
+
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("%-8s %16s %16s %16s%n", "size", "Scanner MB/s", "direct MB/s", "mapped MB/s"));
+        for (long megabytes : sizes) {
+            Path file = generateFile(megabytes);
+            ArrayList<HashMap<String, Long>> counts = new ArrayList<>();
+            String scanner = "-";
+            if (!skipScanner) {
+                scanner = String.format("%.1f", megabytesPerSecond(file, megabytes, LargeFileTokenizerBenchmark::scannerTokenize, counts));
+            }
+            double direct = megabytesPerSecond(file, megabytes, directTokenizer::tokenize, counts);
+            double mapped = megabytesPerSecond(file, megabytes, mappedTokenizer::tokenize, counts);
+            for (HashMap<String, Long> wordFrequencies : counts) {
+                if (!wordFrequencies.equals(counts.get(0))) {
+                    throw new IllegalStateException("Tokenizers disagree on a " + megabytes + " MB file");
+                }
+            }
+            Files.delete(file);
+            table.append(String.format("%-8s %16s %16.1f %16.1f%n", megabytes + " MB", scanner, direct, mapped));
+        }
+        System.out.print(table);
+    }
+}
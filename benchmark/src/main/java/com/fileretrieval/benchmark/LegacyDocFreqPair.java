@@ -0,0 +1,13 @@
+package com.fileretrieval.benchmark;
+
+// posting in the representation IndexStore used before primitive posting lists:
+// one object with two longs per document and frequency, kept in an ArrayList per term
+class LegacyDocFreqPair {
+    final long documentNumber;
+    final long wordFrequency;
+
+    LegacyDocFreqPair(long documentNumber, long wordFrequency) {
+        this.documentNumber = documentNumber;
+        this.wordFrequency = wordFrequency;
+    }
+}
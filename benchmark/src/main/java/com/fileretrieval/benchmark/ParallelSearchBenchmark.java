@@ -0,0 +1,110 @@
+package com.fileretrieval.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import com.fileretrieval.common.dto.DocPathFreqPair;
+import com.fileretrieval.server.IndexStore;
+import com.fileretrieval.server.QueryEngine;
+
+// builds an index with posting lists of hundreds of thousands of documents and measures the latency
+// of top-10 searches on the calling thread and split over search pools of 2 and 4 threads, every
+// pool has to return the same hits as the calling thread
+public class ParallelSearchBenchmark {
+    private static final long MIN_MEASURE_NANOS = 2_000_000_000L;
+
+    // terms and the fraction of documents that contain them
+    private static final String[] TERMS = {"common", "frequent", "medium", "rare"};
+    private static final double[] DENSITY = {0.6, 0.4, 0.2, 0.001};
+    private static final int[] POOL_THREADS = {2, 4};
+
+    private static final List<List<String>> QUERIES = Arrays.asList(
+        Arrays.asList("common"),
+        Arrays.asList("common", "frequent"),
+        Arrays.asList("common", "frequent", "medium"),
+        Arrays.asList("rare", "common"));
+
+    private static String results(ArrayList<DocPathFreqPair> hits) {
+        StringBuilder results = new StringBuilder();
+        for (DocPathFreqPair pair : hits) {
+            results.append(pair.documentPath).append('=').append(pair.wordFrequency).append('\n');
+        }
+        return results.toString();
+    }
+
+    // median and 99th percentile latency in microseconds, repeating until the measurement is long enough
+    private static double[] measure(QueryEngine queryEngine, List<String> query) {
+        for (int i = 0; i < 5; i++) {
+            queryEngine.search(query, 10);
+        }
+        long[] latencies = new long[1 << 10];
+        int searches = 0;
+        long end = System.nanoTime() + MIN_MEASURE_NANOS;
+        while (System.nanoTime() < end) {
+            long startTime = System.nanoTime();
+            queryEngine.search(query, 10);
+            if (searches == latencies.length) {
+                latencies = Arrays.copyOf(latencies, latencies.length * 2);
+            }
+            latencies[searches++] = System.nanoTime() - startTime;
+        }
+        Arrays.sort(latencies, 0, searches);
+        return new double[] {latencies[searches / 2] / 1_000.0, latencies[(int) (searches * 0.99)] / 1_000.0};
+    }
+
+    public static void main(String[] args) {
+        // usage: [documents]
+        int documents = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        IndexStore store = new IndexStore();
+        Random random = new Random(22);
+        for (int d = 0; d < documents; d++) {
+            HashMap<String, Long> wordFrequencies = new HashMap<>();
+            for (int t = 0; t < TERMS.length; t++) {
+                if (random.nextDouble() < DENSITY[t]) {
+                    wordFrequencies.put(TERMS[t], 1L + random.nextInt(50));
+                }
+            }
+            int documentNumber = store.putDocument("doc" + d, 1L);
+            store.updateIndex(documentNumber, wordFrequencies);
+        }
+
+        // every query is above the threshold except the one led by the rare term
+        QueryEngine sequential = new QueryEngine(store);
+        ArrayList<ForkJoinPool> pools = new ArrayList<>();
+        ArrayList<QueryEngine> parallel = new ArrayList<>();
+        for (int threads : POOL_THREADS) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            pools.add(pool);
+            parallel.add(new QueryEngine(store, pool, QueryEngine.DEFAULT_PARALLEL_THRESHOLD));
+        }
+
+        System.out.println("Documents: " + documents + ", processors: " + Runtime.getRuntime().availableProcessors());
+        System.out.println("| Query | Shortest list | 1 thread p50 / p99 (ms) | 2 threads p50 / p99 (ms) | 4 threads p50 / p99 (ms) | Same top 10 |");
+        System.out.println("|-------|---------------|-------------------------|--------------------------|--------------------------|-------------|");
+        for (List<String> query : QUERIES) {
+            int shortest = Integer.MAX_VALUE;
+            for (String term : query) {
+                shortest = Math.min(shortest, store.lookupIndex(term).size());
+            }
+            String expected = results(sequential.search(query, 10));
+            boolean same = true;
+            StringBuilder row = new StringBuilder();
+            double[] latency = measure(sequential, query);
+            row.append(String.format(" %.2f / %.2f |", latency[0] / 1_000.0, latency[1] / 1_000.0));
+            for (QueryEngine queryEngine : parallel) {
+                same &= results(queryEngine.search(query, 10)).equals(expected);
+                latency = measure(queryEngine, query);
+                row.append(String.format(" %.2f / %.2f |", latency[0] / 1_000.0, latency[1] / 1_000.0));
+            }
+            System.out.println(String.format("| %s | %d |%s %s |", String.join(" AND ", query), shortest, row,
+                same ? "yes" : "NO"));
+        }
+        for (ForkJoinPool pool : pools) {
+            pool.shutdown();
+        }
+    }
+}
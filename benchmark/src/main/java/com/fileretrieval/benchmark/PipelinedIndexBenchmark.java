@@ -0,0 +1,179 @@
+package com.fileretrieval.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import com.fileretrieval.client.ClientProcessingEngine;
+import com.fileretrieval.common.dto.IndexResult;
+import com.fileretrieval.server.IndexStore;
+import com.fileretrieval.server.ServerProcessingEngine;
+
+// measures indexing throughput of one client over loopback for several INDEX REQUEST windows,
+// with a proxy between client and server that delays every chunk of bytes by a fixed one-way latency
+// window 1 is the old stop-and-wait behaviour, every document costs a full round trip
+public class PipelinedIndexBenchmark {
+    private static final long[] ONE_WAY_DELAYS_MICROS = {0, 500, 2500};
+    private static final int[] WINDOWS = {1, 4, 16, 64};
+
+    // forwards connections to the server, delaying the bytes in both directions
+    private static class LatencyProxy implements Runnable {
+        private final ServerSocket serverSocket;
+        private final int targetPort;
+        private final long delayNanos;
+
+        LatencyProxy(int targetPort, long delayMicros) throws IOException {
+            this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            this.targetPort = targetPort;
+            this.delayNanos = delayMicros * 1000L;
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        void close() throws IOException {
+            serverSocket.close();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Socket client = serverSocket.accept();
+                    Socket server = new Socket(InetAddress.getLoopbackAddress(), targetPort);
+                    client.setTcpNoDelay(true);
+                    server.setTcpNoDelay(true);
+                    pipe(client, server);
+                    pipe(server, client);
+                }
+            } catch (IOException e) {
+                // proxy closed
+            }
+        }
+
+        // copy bytes from one socket to the other, each chunk is written delayNanos after it was read
+        private void pipe(Socket from, Socket to) {
+            LinkedBlockingQueue<Object[]> chunks = new LinkedBlockingQueue<>();
+            Thread reader = new Thread(() -> {
+                byte[] buffer = new byte[65536];
+                try (InputStream in = from.getInputStream()) {
+                    int count;
+                    while ((count = in.read(buffer)) > 0) {
+                        chunks.add(new Object[] {System.nanoTime() + delayNanos, Arrays.copyOf(buffer, count)});
+                    }
+                } catch (IOException e) {
+                    // connection closed
+                }
+                chunks.add(new Object[] {System.nanoTime() + delayNanos, null});
+            });
+            Thread writer = new Thread(() -> {
+                try {
+                    OutputStream out = to.getOutputStream();
+                    while (true) {
+                        Object[] chunk = chunks.take();
+                        long wait = (long) chunk[0] - System.nanoTime();
+                        if (wait > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                        if (chunk[1] == null) {
+                            to.shutdownOutput();
+                            return;
+                        }
+                        out.write((byte[]) chunk[1]);
+                        out.flush();
+                    }
+                } catch (IOException | InterruptedException e) {
+                    // connection closed
+                }
+            });
+            reader.setDaemon(true);
+            writer.setDaemon(true);
+            reader.start();
+            writer.start();
+        }
+    }
+
+    // small text files like the ones that dominate the datasets
+    private static Path generateFolder(int files) throws IOException {
+        Path folder = Files.createTempDirectory("pipelined-benchmark");
+        Random random = new Random(10);
+        for (int i = 0; i < files; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int w = 0; w < 300; w++) {
+                text.append("word").append(random.nextInt(5_000)).append(w % 12 == 11 ? '\n' : ' ');
+            }
+            Files.writeString(folder.resolve("Document" + i + ".txt"), text);
+        }
+        return folder;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        // usage: [files]
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        Path folder = generateFolder(files);
+
+        int serverPort = freePort();
+        ServerProcessingEngine engine = new ServerProcessingEngine(new IndexStore(), null);
+        engine.initialize(serverPort);
+        Thread.sleep(500);
+
+        // warm up client and server code paths with one untimed run
+        ClientProcessingEngine warmup = new ClientProcessingEngine();
+        warmup.connect("127.0.0.1", Integer.toString(serverPort));
+        warmup.indexFolder(folder.toString());
+        warmup.disconnect();
+
+        // the client prints its own messages, so every row is assembled first and printed at the end
+        StringBuilder table = new StringBuilder();
+        table.append(files).append(" files, throughput in documents per second\n");
+        table.append(String.format("%-20s", "one-way delay"));
+        for (int window : WINDOWS) {
+            table.append(String.format("%12s", "window " + window));
+        }
+        table.append('\n');
+
+        for (long delayMicros : ONE_WAY_DELAYS_MICROS) {
+            LatencyProxy proxy = new LatencyProxy(serverPort, delayMicros);
+            Thread proxyThread = new Thread(proxy);
+            proxyThread.setDaemon(true);
+            proxyThread.start();
+
+            table.append(String.format("%-20s", String.format("%.1f ms", delayMicros / 1000.0)));
+            for (int window : WINDOWS) {
+                ClientProcessingEngine client = new ClientProcessingEngine();
+                client.connect("127.0.0.1", Integer.toString(proxy.getPort()));
+                client.setIndexWindow(window);
+                IndexResult result = client.indexFolder(folder.toString());
+                client.disconnect();
+                table.append(String.format("%12.0f", files / result.executionTime));
+            }
+            table.append('\n');
+            proxy.close();
+        }
+        System.out.print(table);
+
+        try (Stream<Path> paths = Files.walk(folder)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+        System.exit(0);
+    }
+}
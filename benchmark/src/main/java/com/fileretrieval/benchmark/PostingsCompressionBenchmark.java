@@ -0,0 +1,121 @@
+package com.fileretrieval.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import com.fileretrieval.server.IndexStatistics;
+import com.fileretrieval.server.IndexStore;
+import com.fileretrieval.server.PostingsCursor;
+import com.fileretrieval.server.PostingsSnapshot;
+import com.fileretrieval.server.QueryEngine;
+
+// reports the compression ratio of sealed posting blocks, the decode throughput of the search path
+// and AND-query latency before and after the idle hot buffers are sealed
+public class PostingsCompressionBenchmark {
+    private static final int VOCABULARY_SIZE = 100_000;
+    private static final long MIN_MEASURE_NANOS = 1_000_000_000L;
+
+    private static final String[][] QUERIES = {
+        {"term0", "term1"},
+        {"term5", "term500"},
+        {"term100", "term20000"},
+        {"term2", "term3", "term40"},
+    };
+
+    private static void printStatistics(String label, IndexStatistics statistics) {
+        long totalBytes = statistics.hotBytes + statistics.sealedBytes;
+        System.out.println(String.format("| %s | %d | %.1f%% | %d (%.0f%% bit-packed) | %.2fx | %.2f |",
+            label, statistics.postings,
+            100.0 * statistics.sealedPostings() / statistics.postings,
+            statistics.sealedBlocks,
+            statistics.sealedBlocks == 0 ? 0.0 : 100.0 * statistics.bitPackedBlocks / statistics.sealedBlocks,
+            statistics.compressionRatio(),
+            (double) totalBytes / statistics.postings));
+    }
+
+    // postings decoded per second when scanning every posting list from start to end
+    private static double decodeThroughput(IndexStore store, String[] vocabulary) {
+        long postings = 0;
+        long checksum = 0;
+        long startTime = System.nanoTime();
+        long elapsed;
+        do {
+            for (String term : vocabulary) {
+                for (PostingsCursor cursor = store.lookupIndex(term).cursor(); !cursor.exhausted(); cursor.next()) {
+                    checksum += cursor.documentNumber() + cursor.wordFrequency();
+                    postings++;
+                }
+            }
+            elapsed = System.nanoTime() - startTime;
+        } while (elapsed < MIN_MEASURE_NANOS);
+        if (checksum == 42) {
+            System.out.println();
+        }
+        return postings / (elapsed / 1_000_000_000.0);
+    }
+
+    // average AND-query latency in microseconds over all QUERIES
+    private static double queryLatency(IndexStore store) {
+        long queries = 0;
+        int[] matches = new int[1];
+        long startTime = System.nanoTime();
+        long elapsed;
+        do {
+            for (String[] query : QUERIES) {
+                ArrayList<PostingsSnapshot> postingsList = new ArrayList<>();
+                for (String term : query) {
+                    postingsList.add(store.lookupIndex(term));
+                }
+                QueryEngine.intersect(postingsList, (documentNumber, score) -> matches[0]++);
+                queries++;
+            }
+            elapsed = System.nanoTime() - startTime;
+        } while (elapsed < MIN_MEASURE_NANOS);
+        return elapsed / 1_000.0 / queries;
+    }
+
+    public static void main(String[] args) {
+        // usage: [documents] [terms per document]
+        int documents = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int termsPerDocument = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+
+        String[] vocabulary = new String[VOCABULARY_SIZE];
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            vocabulary[i] = "term" + i;
+        }
+
+        IndexStore store = new IndexStore();
+        Random random = new Random(11);
+        for (int d = 0; d < documents; d++) {
+            HashMap<String, Long> wordFrequencies = new HashMap<>();
+            for (int t = 0; t < termsPerDocument; t++) {
+                // skewed distribution: low term ids are much more frequent
+                double skewed = Math.pow(random.nextDouble(), 3.0);
+                wordFrequencies.merge(vocabulary[(int) (skewed * VOCABULARY_SIZE)], 1L, Long::sum);
+            }
+            int documentNumber = store.putDocument("doc" + d, 1L);
+            store.updateIndex(documentNumber, wordFrequencies);
+        }
+
+        System.out.println("| Index | Postings | Sealed | Blocks | Compression | Bytes per posting |");
+        System.out.println("|-------|----------|--------|--------|-------------|-------------------|");
+        IndexStatistics before = store.statistics();
+        printStatistics("full blocks only", before);
+        double decodeBefore = decodeThroughput(store, vocabulary);
+        double latencyBefore = queryLatency(store);
+
+        // the first pass only marks lists as idle, the second one seals them
+        store.sealIdleHotBuffers(16);
+        store.sealIdleHotBuffers(16);
+        IndexStatistics after = store.statistics();
+        printStatistics("idle buffers sealed", after);
+        double decodeAfter = decodeThroughput(store, vocabulary);
+        double latencyAfter = queryLatency(store);
+
+        System.out.println();
+        System.out.println("| Index | Decode (M postings/s) | AND query (us) |");
+        System.out.println("|-------|-----------------------|----------------|");
+        System.out.println(String.format("| full blocks only | %.1f | %.1f |", decodeBefore / 1e6, latencyBefore));
+        System.out.println(String.format("| idle buffers sealed | %.1f | %.1f |", decodeAfter / 1e6, latencyAfter));
+    }
+}
@@ -0,0 +1,97 @@
+package com.fileretrieval.benchmark;
+
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import com.fileretrieval.server.IndexStore;
+
+// reports the heap used per posting by the previous ArrayList<DocFreqPair> inverted index and by
+// the current IndexStore (primitive hot buffers plus delta-encoded sealed blocks)
+// heap usage is measured as the difference in used memory after a full GC, so term strings and
+// map entries are included on both sides
+public class PostingsMemoryBenchmark {
+    private static final int VOCABULARY_SIZE = 100_000;
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // each index is built and measured in its own method so that nothing outlives its measurement
+    private static long measureLegacyIndex(ArrayList<HashMap<String, Long>> corpus) {
+        long baseline = usedMemory();
+        HashMap<String, ArrayList<LegacyDocFreqPair>> legacyIndex = new HashMap<>();
+        for (int d = 0; d < corpus.size(); d++) {
+            for (Map.Entry<String, Long> entry : corpus.get(d).entrySet()) {
+                legacyIndex.computeIfAbsent(entry.getKey(), term -> new ArrayList<>())
+                    .add(new LegacyDocFreqPair(d, entry.getValue()));
+            }
+        }
+        long bytes = usedMemory() - baseline;
+        Reference.reachabilityFence(legacyIndex);
+        return bytes;
+    }
+
+    private static long measureIndexStore(ArrayList<HashMap<String, Long>> corpus, boolean withPostings) {
+        long baseline = usedMemory();
+        IndexStore store = new IndexStore();
+        for (int d = 0; d < corpus.size(); d++) {
+            int documentNumber = store.putDocument("doc" + d, 1L);
+            if (withPostings) {
+                store.updateIndex(documentNumber, corpus.get(d));
+            }
+        }
+        long bytes = usedMemory() - baseline;
+        Reference.reachabilityFence(store);
+        return bytes;
+    }
+
+    public static void main(String[] args) {
+        // usage: [documents] [terms per document]
+        int documents = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int termsPerDocument = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+
+        String[] vocabulary = new String[VOCABULARY_SIZE];
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            vocabulary[i] = "term" + i;
+        }
+
+        // pre-generate the documents so both indexes are built from the same input
+        Random random = new Random(7);
+        ArrayList<HashMap<String, Long>> corpus = new ArrayList<>();
+        long postings = 0;
+        for (int d = 0; d < documents; d++) {
+            HashMap<String, Long> wordFrequencies = new HashMap<>();
+            for (int t = 0; t < termsPerDocument; t++) {
+                // skewed distribution: low term ids are much more frequent
+                double skewed = Math.pow(random.nextDouble(), 3.0);
+                wordFrequencies.merge(vocabulary[(int) (skewed * VOCABULARY_SIZE)], 1L, Long::sum);
+            }
+            postings += wordFrequencies.size();
+            corpus.add(wordFrequencies);
+        }
+
+        long legacyBytes = measureLegacyIndex(corpus);
+        long storeBytes = measureIndexStore(corpus, true);
+        // the IndexStore also holds the document maps, measure them separately to isolate postings
+        long documentMapBytes = measureIndexStore(corpus, false);
+
+        System.out.println("Documents: " + documents + ", postings: " + postings);
+        System.out.println("| Index | Heap (MB) | Bytes per posting |");
+        System.out.println("|-------|-----------|-------------------|");
+        System.out.println(String.format("| ArrayList<DocFreqPair> | %.1f | %.1f |",
+            legacyBytes / 1048576.0, legacyBytes / (double) postings));
+        System.out.println(String.format("| IndexStore postings | %.1f | %.1f |",
+            (storeBytes - documentMapBytes) / 1048576.0, (storeBytes - documentMapBytes) / (double) postings));
+    }
+}
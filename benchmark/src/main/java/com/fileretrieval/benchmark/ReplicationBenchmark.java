@@ -0,0 +1,237 @@
+package com.fileretrieval.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import com.fileretrieval.client.ClientProcessingEngine;
+import com.fileretrieval.common.dto.DocPathFreqPair;
+import com.fileretrieval.common.dto.IndexResult;
+import com.fileretrieval.common.protocol.WireProtocol;
+
+// starts a primary server and 0, 1 and 2 followers as separate processes on localhost, indexes one
+// folder through the primary (which forwards every document to its followers), checks that every
+// replica finds the same top 10, then lets several threads search through one client that spreads
+// the searches over the replicas by least outstanding requests, and reports indexing time, search
+// throughput and latency, and the share of the searches every replica got
+public class ReplicationBenchmark {
+    private static final int[] REPLICA_COUNTS = {1, 2, 3};
+    private static final int VOCABULARY_SIZE = 20_000;
+    private static final int SEARCH_THREADS = 16;
+    private static final long MEASURE_NANOS = 3_000_000_000L;
+
+    private static final List<List<String>> QUERIES = Arrays.asList(
+        Arrays.asList("word1"),
+        Arrays.asList("word2", "word30"),
+        Arrays.asList("word5", "word500"),
+        Arrays.asList("word10", "word11", "word2000"));
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static Path createFolder(int files, int wordsPerFile) throws IOException {
+        Path folder = Files.createTempDirectory("replicated");
+        Random random = new Random(21);
+        for (int f = 0; f < files; f++) {
+            try (BufferedWriter writer = Files.newBufferedWriter(folder.resolve("doc" + f + ".txt"),
+                    StandardCharsets.UTF_8)) {
+                for (int w = 0; w < wordsPerFile; w++) {
+                    double skewed = Math.pow(random.nextDouble(), 3.0);
+                    writer.write("word" + (int) (skewed * VOCABULARY_SIZE));
+                    writer.write(w % 16 == 15 ? '\n' : ' ');
+                }
+            }
+        }
+        return folder;
+    }
+
+    private static void deleteFolder(Path folder) throws IOException {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    // a server process with the classpath of this one, ready once it accepts connections
+    private static Process startServer(int port, String replicas) throws IOException, InterruptedException {
+        ArrayList<String> command = new ArrayList<>(Arrays.asList(
+            Paths.get(System.getProperty("java.home"), "bin", "java").toString(), "-Xmx512m",
+            "-cp", System.getProperty("java.class.path"), "com.fileretrieval.server.FileRetrievalServer",
+            String.valueOf(port), "--compaction-interval-millis", "0"));
+        if (replicas != null) {
+            command.add("--replicas");
+            command.add(replicas);
+        }
+        Process process = new ProcessBuilder(command)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .redirectError(ProcessBuilder.Redirect.DISCARD)
+            .start();
+        long deadline = System.nanoTime() + 30_000_000_000L;
+        while (System.nanoTime() < deadline) {
+            try {
+                new Socket("127.0.0.1", port).close();
+                return process;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        process.destroyForcibly();
+        throw new IOException("Server on port " + port + " did not start");
+    }
+
+    private static void stopServer(Process process) throws InterruptedException {
+        try {
+            OutputStream commands = process.getOutputStream();
+            commands.write("quit\n".getBytes(StandardCharsets.UTF_8));
+            commands.flush();
+        } catch (IOException e) {
+            // already gone
+        }
+        if (!process.waitFor(10, java.util.concurrent.TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+        }
+    }
+
+    // the hits of every query in path order without the client ID suffix, the paths of the hits with
+    // the frequency of the last one are left out, which of them make the top 10 depends on the order
+    // the replica numbered the documents in
+    private static String results(ClientProcessingEngine client) {
+        StringBuilder results = new StringBuilder();
+        for (List<String> query : QUERIES) {
+            ArrayList<DocPathFreqPair> hits = client.search(new ArrayList<>(query), 10).documentFrequencies;
+            long last = hits.isEmpty() ? 0 : hits.get(hits.size() - 1).wordFrequency;
+            ArrayList<String> lines = new ArrayList<>();
+            for (DocPathFreqPair pair : hits) {
+                String path = pair.documentPath.substring(0, pair.documentPath.lastIndexOf('_'));
+                lines.add((pair.wordFrequency > last ? path : "") + "=" + pair.wordFrequency);
+            }
+            lines.sort(null);
+            results.append(String.join("\n", lines)).append('\n');
+        }
+        return results.toString();
+    }
+
+    private static String run(Path folder, int replicaCount) throws Exception {
+        // the followers first, the primary connects to them when it starts
+        ArrayList<Process> processes = new ArrayList<>();
+        ArrayList<String> followers = new ArrayList<>();
+        for (int r = 1; r < replicaCount; r++) {
+            int port = freePort();
+            processes.add(startServer(port, null));
+            followers.add("127.0.0.1:" + port);
+        }
+        int primaryPort = freePort();
+        processes.add(0, startServer(primaryPort, followers.isEmpty() ? null : String.join(",", followers)));
+        ArrayList<String> replicas = new ArrayList<>();
+        replicas.add("127.0.0.1:" + primaryPort);
+        replicas.addAll(followers);
+
+        ClientProcessingEngine client = new ClientProcessingEngine();
+        client.connectCluster(Arrays.asList(String.join(",", replicas)), WireProtocol.BINARY);
+        IndexResult indexResult = client.indexFolder(folder.toString());
+
+        // every replica on its own must find what the primary finds
+        boolean same = true;
+        String expected = null;
+        for (String replica : replicas) {
+            ClientProcessingEngine direct = new ClientProcessingEngine();
+            direct.connect("127.0.0.1", replica.substring(replica.indexOf(':') + 1));
+            String results = results(direct);
+            direct.disconnect();
+            if (expected == null) {
+                expected = results;
+            }
+            same &= results.equals(expected);
+        }
+
+        long[][] latencies = new long[SEARCH_THREADS][];
+        int[] searches = new int[SEARCH_THREADS];
+        Thread[] threads = new Thread[SEARCH_THREADS];
+        for (int t = 0; t < SEARCH_THREADS; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                long[] threadLatencies = new long[1 << 14];
+                int query = thread;
+                long end = System.nanoTime() + MEASURE_NANOS;
+                while (System.nanoTime() < end) {
+                    long startTime = System.nanoTime();
+                    client.search(new ArrayList<>(QUERIES.get(query++ % QUERIES.size())), 10);
+                    if (searches[thread] == threadLatencies.length) {
+                        threadLatencies = Arrays.copyOf(threadLatencies, threadLatencies.length * 2);
+                    }
+                    threadLatencies[searches[thread]++] = System.nanoTime() - startTime;
+                }
+                latencies[thread] = threadLatencies;
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        int total = 0;
+        for (int count : searches) {
+            total += count;
+        }
+        long[] all = new long[total];
+        int position = 0;
+        for (int t = 0; t < SEARCH_THREADS; t++) {
+            System.arraycopy(latencies[t], 0, all, position, searches[t]);
+            position += searches[t];
+        }
+        Arrays.sort(all);
+
+        // share of the measured searches (and of the few result checks) every replica got
+        long[] counts = client.getReplicaSearchCounts()[0];
+        long countTotal = Arrays.stream(counts).sum();
+        StringBuilder shares = new StringBuilder();
+        for (long count : counts) {
+            shares.append(shares.length() == 0 ? "" : " / ").append(String.format("%.0f%%", 100.0 * count / countTotal));
+        }
+
+        client.disconnect();
+        for (Process process : processes) {
+            stopServer(process);
+        }
+        return String.format("| %d | %.2f | %.0f | %.0f | %.0f | %s | %s |%n", replicaCount, indexResult.executionTime,
+            total / (MEASURE_NANOS / 1_000_000_000.0), all[total / 2] / 1_000.0, all[(int) (total * 0.99)] / 1_000.0,
+            shares, same ? "yes" : "NO");
+    }
+
+    public static void main(String[] args) throws Exception {
+        // usage: [files] [words per file]
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int wordsPerFile = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+
+        Path folder = createFolder(files, wordsPerFile);
+        // the client prints a line per connection, keep only the table
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        StringBuilder table = new StringBuilder();
+        table.append("| Replicas | Index (s) | Searches/s | p50 (us) | p99 (us) | Searches per replica | Same top 10 on every replica |\n");
+        table.append("|----------|-----------|------------|----------|----------|----------------------|------------------------------|\n");
+        try {
+            for (int replicaCount : REPLICA_COUNTS) {
+                table.append(run(folder, replicaCount));
+            }
+        } finally {
+            System.setOut(console);
+            deleteFolder(folder);
+        }
+        System.out.print(table);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,103 @@
+package com.fileretrieval.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import com.fileretrieval.common.dto.DocPathFreqPair;
+import com.fileretrieval.common.protocol.Scoring;
+import com.fileretrieval.server.IndexStore;
+import com.fileretrieval.server.QueryEngine;
+
+// builds an index of documents from 50 to 5000 words, "the" makes up 5% of every one of them and
+// each topic term is in a tenth of the documents at a density of its own, then measures the latency
+// of top-10 searches ranked by frequency, TF-IDF and BM25, and, as a measure of what they rank
+// first, the average length of the top 10 and the average density of the topic term in them
+// (the share of the document's words it makes up, higher is more on topic)
+public class ScoringBenchmark {
+    private static final long MIN_MEASURE_NANOS = 1_000_000_000L;
+    private static final int TOPICS = 20;
+
+    private static final List<List<String>> QUERIES = Arrays.asList(
+        Arrays.asList("topic1"),
+        Arrays.asList("the", "topic1"),
+        Arrays.asList("topic1", "topic2"),
+        Arrays.asList("the", "topic3", "topic4"));
+
+    // median latency in microseconds, repeating until the measurement is long enough
+    private static double measure(QueryEngine queryEngine, List<String> query, Scoring scoring) {
+        for (int i = 0; i < 20; i++) {
+            queryEngine.search(query, 10, scoring);
+        }
+        long[] latencies = new long[1 << 12];
+        int searches = 0;
+        long end = System.nanoTime() + MIN_MEASURE_NANOS;
+        while (System.nanoTime() < end) {
+            long startTime = System.nanoTime();
+            queryEngine.search(query, 10, scoring);
+            if (searches == latencies.length) {
+                latencies = Arrays.copyOf(latencies, latencies.length * 2);
+            }
+            latencies[searches++] = System.nanoTime() - startTime;
+        }
+        Arrays.sort(latencies, 0, searches);
+        return latencies[searches / 2] / 1_000.0;
+    }
+
+    public static void main(String[] args) {
+        // usage: [documents]
+        int documents = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        IndexStore store = new IndexStore();
+        Random random = new Random(23);
+        // the length and the topic densities of every document, by document number
+        int[] lengths = new int[documents];
+        double[][] densities = new double[documents][TOPICS];
+        for (int d = 0; d < documents; d++) {
+            // lengths spread evenly on a log scale
+            int length = (int) (50 * Math.pow(100, random.nextDouble()));
+            HashMap<String, Long> wordFrequencies = new HashMap<>();
+            long used = Math.max(1, length / 20);
+            wordFrequencies.put("the", used);
+            for (int t = 0; t < TOPICS; t++) {
+                if (random.nextDouble() < 0.1) {
+                    double density = 0.002 + 0.05 * random.nextDouble();
+                    long frequency = Math.max(1, Math.round(density * length));
+                    wordFrequencies.put("topic" + t, frequency);
+                    densities[d][t] = (double) frequency / length;
+                    used += frequency;
+                }
+            }
+            // the other words of the document, as one term
+            wordFrequencies.put("filler", Math.max(1, length - used));
+            lengths[d] = (int) (used + Math.max(1, length - used));
+            int documentNumber = store.putDocument("doc" + d, 1L);
+            store.updateIndex(documentNumber, wordFrequencies);
+        }
+
+        QueryEngine queryEngine = new QueryEngine(store);
+        System.out.println(String.format("Documents: %d, average length: %.0f words", documents,
+            store.getAverageDocumentLength()));
+        System.out.println("| Query | Scoring | p50 (us) | Average length of the top 10 | Topic density of the top 10 |");
+        System.out.println("|-------|---------|----------|------------------------------|-----------------------------|");
+        for (List<String> query : QUERIES) {
+            // the density of the last topic term of the query
+            int topic = Integer.parseInt(query.get(query.size() - 1).substring("topic".length()));
+            for (Scoring scoring : Scoring.values()) {
+                ArrayList<DocPathFreqPair> hits = queryEngine.search(query, 10, scoring);
+                double length = 0;
+                double density = 0;
+                for (DocPathFreqPair pair : hits) {
+                    // "doc<number>_1", documents were numbered in order
+                    int document = Integer.parseInt(pair.documentPath.substring(3, pair.documentPath.lastIndexOf('_')));
+                    length += lengths[document];
+                    density += densities[document][topic];
+                }
+                int count = Math.max(1, hits.size());
+                System.out.println(String.format("| %s | %s | %.0f | %.0f | %.2f%% |", String.join(" AND ", query),
+                    scoring.toWireFormat(), measure(queryEngine, query, scoring), length / count, 100.0 * density / count));
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.fileretrieval.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import com.fileretrieval.common.dto.DocPathFreqPair;
+import com.fileretrieval.server.IndexStore;
+import com.fileretrieval.server.QueryEngine;
+
+// measures how long it takes to flush an index to a segment file and to reopen it, and the
+// latency of the first searches served from the memory-mapped segment
+public class SegmentRestartBenchmark {
+    private static final int VOCABULARY_SIZE = 100_000;
+
+    private static double seconds(long startTime) {
+        return (double) (System.nanoTime() - startTime) / 1_000_000_000.0;
+    }
+
+    public static void main(String[] args) throws IOException {
+        // usage: [documents] [terms per document]
+        int documents = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int termsPerDocument = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+        Path dataDirectory = Files.createTempDirectory("segment-benchmark");
+
+        IndexStore store = IndexStore.open(dataDirectory);
+        Random random = new Random(5);
+        long startTime = System.nanoTime();
+        for (int d = 0; d < documents; d++) {
+            HashMap<String, Long> wordFrequencies = new HashMap<>();
+            for (int t = 0; t < termsPerDocument; t++) {
+                double skewed = Math.pow(random.nextDouble(), 3.0);
+                wordFrequencies.merge("term" + (int) (skewed * VOCABULARY_SIZE), 1L, Long::sum);
+            }
+            int documentNumber = store.putDocument("folder/Document" + d + ".txt", 1L);
+            store.updateIndex(documentNumber, wordFrequencies);
+        }
+        System.out.println(String.format("Indexed %d documents in %.3f s", documents, seconds(startTime)));
+
+        startTime = System.nanoTime();
+        store.flush();
+        Path segmentFile;
+        try (var files = Files.list(dataDirectory)) {
+            segmentFile = files.findFirst().orElseThrow();
+        }
+        System.out.println(String.format("Flushed %.1f MB segment in %.3f s",
+            Files.size(segmentFile) / 1048576.0, seconds(startTime)));
+        store = null;
+        System.gc();
+
+        startTime = System.nanoTime();
+        IndexStore reopened = IndexStore.open(dataDirectory);
+        System.out.println(String.format("Reopened index with %d documents in %.3f s",
+            reopened.getDocumentCount(), seconds(startTime)));
+
+        QueryEngine queryEngine = new QueryEngine(reopened);
+        String[][] queries = {{"term0"}, {"term1", "term2"}, {"term10", "term5000"}, {"term300", "term40000"}};
+        for (String[] query : queries) {
+            ArrayList<String> terms = new ArrayList<>(java.util.List.of(query));
+            startTime = System.nanoTime();
+            ArrayList<DocPathFreqPair> results = queryEngine.search(terms, 10);
+            double first = seconds(startTime);
+            startTime = System.nanoTime();
+            queryEngine.search(terms, 10);
+            double second = seconds(startTime);
+            System.out.println(String.format("%s: %d results, first search %.3f ms, second search %.3f ms",
+                String.join(" AND ", query), results.size(), first * 1000, second * 1000));
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        System.out.println(String.format("Heap used after reopening and searching: %.1f MB",
+            (runtime.totalMemory() - runtime.freeMemory()) / 1048576.0));
+
+        Files.deleteIfExists(segmentFile);
+        Files.deleteIfExists(dataDirectory);
+    }
+}
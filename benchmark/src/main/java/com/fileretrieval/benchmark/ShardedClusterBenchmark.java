@@ -0,0 +1,169 @@
+package com.fileretrieval.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import com.fileretrieval.client.ClientProcessingEngine;
+import com.fileretrieval.common.dto.DocPathFreqPair;
+import com.fileretrieval.common.dto.IndexResult;
+import com.fileretrieval.common.protocol.WireProtocol;
+import com.fileretrieval.server.IndexStore;
+import com.fileretrieval.server.ServerProcessingEngine;
+
+// starts 1, 2 and 4 in-process servers on localhost, indexes one folder into them through a client
+// connected to all of them (every server gets the files of its shard) and sends top-10 searches that
+// every server answers for its shard, reports indexing time, how evenly the documents are spread,
+// and search throughput and latency, and checks that every cluster finds the same top 10 as one server
+public class ShardedClusterBenchmark {
+    private static final int[] SHARD_COUNTS = {1, 2, 4};
+    private static final int VOCABULARY_SIZE = 20_000;
+    private static final long MEASURE_NANOS = 2_000_000_000L;
+
+    private static final List<List<String>> QUERIES = Arrays.asList(
+        Arrays.asList("word1"),
+        Arrays.asList("word2", "word30"),
+        Arrays.asList("word5", "word500"),
+        Arrays.asList("word10", "word11", "word2000"));
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static Path createFolder(int files, int wordsPerFile) throws IOException {
+        Path folder = Files.createTempDirectory("sharded");
+        Random random = new Random(20);
+        for (int f = 0; f < files; f++) {
+            try (BufferedWriter writer = Files.newBufferedWriter(folder.resolve("doc" + f + ".txt"),
+                    StandardCharsets.UTF_8)) {
+                for (int w = 0; w < wordsPerFile; w++) {
+                    double skewed = Math.pow(random.nextDouble(), 3.0);
+                    writer.write("word" + (int) (skewed * VOCABULARY_SIZE));
+                    writer.write(w % 16 == 15 ? '\n' : ' ');
+                }
+            }
+        }
+        return folder;
+    }
+
+    private static void deleteFolder(Path folder) throws IOException {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    // the hits of every query without the client ID suffix, which differs from server to server, in
+    // path order, as the order of equal frequencies depends on the shards, and the paths of the hits
+    // with the frequency of the last one are left out, which of them make the top 10 depends on it too
+    private static String results(ClientProcessingEngine client) {
+        StringBuilder results = new StringBuilder();
+        for (List<String> query : QUERIES) {
+            ArrayList<DocPathFreqPair> hits = client.search(new ArrayList<>(query), 10).documentFrequencies;
+            long last = hits.isEmpty() ? 0 : hits.get(hits.size() - 1).wordFrequency;
+            ArrayList<String> lines = new ArrayList<>();
+            for (DocPathFreqPair pair : hits) {
+                String path = pair.documentPath.substring(0, pair.documentPath.lastIndexOf('_'));
+                lines.add((pair.wordFrequency > last ? path : "") + "=" + pair.wordFrequency);
+            }
+            lines.sort(null);
+            results.append(String.join("\n", lines)).append('\n');
+        }
+        return results.toString();
+    }
+
+    private static String run(Path folder, int shardCount, String[] expected) throws Exception {
+        ArrayList<IndexStore> stores = new ArrayList<>();
+        ArrayList<ServerProcessingEngine> servers = new ArrayList<>();
+        ArrayList<String> addresses = new ArrayList<>();
+        for (int s = 0; s < shardCount; s++) {
+            IndexStore store = new IndexStore();
+            ServerProcessingEngine server = new ServerProcessingEngine(store, null);
+            server.setCompactionInterval(0);
+            int port = freePort();
+            server.initialize(port);
+            stores.add(store);
+            servers.add(server);
+            addresses.add("127.0.0.1:" + port);
+        }
+        Thread.sleep(200);
+
+        ClientProcessingEngine client = new ClientProcessingEngine();
+        client.connectCluster(addresses, WireProtocol.BINARY);
+        IndexResult indexResult = client.indexFolder(folder.toString());
+        long documents = 0;
+        long largest = 0;
+        for (IndexStore store : stores) {
+            documents += store.getDocumentCount();
+            largest = Math.max(largest, store.getDocumentCount());
+        }
+
+        String results = results(client);
+        if (expected[0] == null) {
+            expected[0] = results;
+        }
+
+        long[] latencies = new long[1 << 16];
+        int searches = 0;
+        long end = System.nanoTime() + MEASURE_NANOS;
+        while (System.nanoTime() < end) {
+            for (List<String> query : QUERIES) {
+                long startTime = System.nanoTime();
+                client.search(new ArrayList<>(query), 10);
+                if (searches == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, latencies.length * 2);
+                }
+                latencies[searches++] = System.nanoTime() - startTime;
+            }
+        }
+        Arrays.sort(latencies, 0, searches);
+
+        client.disconnect();
+        for (ServerProcessingEngine server : servers) {
+            server.shutdown();
+        }
+        return String.format("| %d | %.2f | %.0f | %d | %.1f%% | %.0f | %.0f | %.0f | %s |%n", shardCount,
+            indexResult.executionTime, documents / indexResult.executionTime, documents, 100.0 * largest / documents,
+            searches / (MEASURE_NANOS / 1_000_000_000.0), latencies[searches / 2] / 1_000.0,
+            latencies[(int) (searches * 0.99)] / 1_000.0, results.equals(expected[0]) ? "yes" : "NO");
+    }
+
+    public static void main(String[] args) throws Exception {
+        // usage: [files] [words per file]
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int wordsPerFile = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+        Path folder = createFolder(files, wordsPerFile);
+        // the servers and the client print a line per connection, keep only the table
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        StringBuilder table = new StringBuilder();
+        table.append("| Shards | Index (s) | Documents/s | Documents | Largest shard | Searches/s | p50 (us) | p99 (us) | Same top 10 as 1 shard |\n");
+        table.append("|--------|-----------|-------------|-----------|---------------|------------|----------|----------|------------------------|\n");
+        // the results of the single server, the clusters are checked against them
+        String[] expected = new String[1];
+        try {
+            // the first run only warms up
+            run(folder, 1, expected);
+            for (int shardCount : SHARD_COUNTS) {
+                table.append(run(folder, shardCount, expected));
+            }
+        } finally {
+            System.setOut(console);
+            deleteFolder(folder);
+        }
+        System.out.print(table);
+        System.exit(0);
+    }
+}
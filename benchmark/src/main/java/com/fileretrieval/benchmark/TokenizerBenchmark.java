@@ -0,0 +1,123 @@
+package com.fileretrieval.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import com.fileretrieval.client.ByteTokenizer;
+
+// compares the ByteTokenizer with the Scanner + String.split tokenizer the client used before, on one
+// thread over the files of a folder (page cache warm), in MB of file data per second
+// both must produce the same word frequencies for every file
+// the Scanner path mirrors the old ClientProcessingEngine.indexFolder loop
+public class TokenizerBenchmark {
+    private static final String[] WORDS = {"the", "and", "moon", "river", "stone", "forest", "galaxy", "vortex",
+        "thunder", "whisper", "adaptation", "distortion", "child-like", "self_aware", "x-ray", "2024", "mid-2020s"};
+
+    // text like the datasets: frequent short words, hyphenated words, punctuation and some non-ASCII
+    private static Path generateFolder(int files, int wordsPerFile) throws IOException {
+        Path folder = Files.createTempDirectory("tokenizer-benchmark");
+        Random random = new Random(13);
+        for (int i = 0; i < files; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int w = 0; w < wordsPerFile; w++) {
+                if (random.nextInt(4) == 0) {
+                    text.append("word").append(random.nextInt(50_000));
+                } else {
+                    text.append(WORDS[random.nextInt(WORDS.length)]);
+                }
+                int separator = random.nextInt(40);
+                text.append(separator == 0 ? ", " : separator == 1 ? ". " : separator == 2 ? " café " : " ");
+                if (w % 12 == 11) {
+                    text.append('\n');
+                }
+            }
+            Files.writeString(folder.resolve("Document" + i + ".txt"), text);
+        }
+        return folder;
+    }
+
+    private static HashMap<String, Long> scannerTokenize(Path filePath) throws IOException {
+        File file = filePath.toFile();
+        HashMap<String, Long> wordFrequencies = new HashMap<>();
+        try (Scanner fileScanner = new Scanner(file)) {
+            while (fileScanner.hasNextLine()) {
+                String line = fileScanner.nextLine();
+                String[] lineWords = line.split("[^a-zA-Z0-9_-]+");
+                for (String word : lineWords) {
+                    if (word.length() > 3) {
+                        wordFrequencies.put(word, wordFrequencies.getOrDefault(word, 0L) + 1);
+                    }
+                }
+            }
+        }
+        return wordFrequencies;
+    }
+
+    private interface Tokenizer {
+        HashMap<String, Long> tokenize(Path file) throws IOException;
+    }
+
+    // best of several rounds over all files, returns seconds per round
+    private static double time(List<Path> files, Tokenizer tokenizer) throws IOException {
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long words = 0;
+            long startTime = System.nanoTime();
+            for (Path file : files) {
+                words += tokenizer.tokenize(file).size();
+            }
+            double seconds = (double) (System.nanoTime() - startTime) / 1_000_000_000.0;
+            if (words == 0) {
+                throw new IllegalStateException("No words found");
+            }
+            best = Math.min(best, seconds);
+        }
+        return best;
+    }
+
+    public static void main(String[] args) throws IOException {
+        // usage: [folder], a generated corpus otherwise
+        Path folder = args.length > 0 ? Paths.get(args[0]) : generateFolder(400, 2_000);
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(folder)) {
+            files = paths.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        long bytes = 0;
+        for (Path file : files) {
+            bytes += Files.size(file);
+        }
+
+        ByteTokenizer byteTokenizer = new ByteTokenizer();
+        for (Path file : files) {
+            if (!scannerTokenize(file).equals(byteTokenizer.tokenize(file))) {
+                throw new IllegalStateException("Tokenizers disagree on " + file);
+            }
+        }
+
+        double scannerSeconds = time(files, TokenizerBenchmark::scannerTokenize);
+        double byteSeconds = time(files, byteTokenizer::tokenize);
+        double megabytes = bytes / (1024.0 * 1024.0);
+        System.out.println(String.format("%d files, %.1f MB", files.size(), megabytes));
+        System.out.println(String.format("%-22s %10.1f MB/s", "Scanner + split", megabytes / scannerSeconds));
+        System.out.println(String.format("%-22s %10.1f MB/s", "ByteTokenizer", megabytes / byteSeconds));
+        System.out.println(String.format("speedup %.1fx", scannerSeconds / byteSeconds));
+
+        if (args.length == 0) {
+            try (Stream<Path> paths = Files.walk(folder)) {
+                for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.fileretrieval.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+import com.fileretrieval.server.IndexStore;
+import com.fileretrieval.server.WriteAheadLog;
+
+// measures the INDEX REQUEST acknowledgement latency and throughput with the write-ahead log
+// for several group commit batch windows, compared to the in-memory path without a log
+// each indexer plays the role of a ServerWorker: putDocument, updateIndex, append, then "ack"
+public class WalGroupCommitBenchmark {
+    private static final int VOCABULARY_SIZE = 100_000;
+    private static final int TERMS_PER_DOCUMENT = 200;
+    private static final long[] BATCH_WINDOWS_MICROS = {0, 100, 500, 2000};
+
+    private static ArrayList<HashMap<String, Long>> generateDocuments(int count, long seed) {
+        Random random = new Random(seed);
+        ArrayList<HashMap<String, Long>> documents = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            HashMap<String, Long> wordFrequencies = new HashMap<>();
+            while (wordFrequencies.size() < TERMS_PER_DOCUMENT) {
+                double skewed = Math.pow(random.nextDouble(), 3.0);
+                String term = "term" + (int) (skewed * VOCABULARY_SIZE);
+                wordFrequencies.merge(term, 1L + random.nextInt(5), Long::sum);
+            }
+            documents.add(wordFrequencies);
+        }
+        return documents;
+    }
+
+    // run one round and print throughput and acknowledgement latency percentiles
+    // batchWindowMicros < 0 runs without a write-ahead log
+    private static void run(int indexers, ArrayList<ArrayList<HashMap<String, Long>>> workload,
+            long batchWindowMicros) throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("wal-benchmark");
+        IndexStore store = new IndexStore();
+        WriteAheadLog log = batchWindowMicros < 0 ? null : WriteAheadLog.open(directory, batchWindowMicros);
+        int documentsPerIndexer = workload.get(0).size();
+        long[] latencies = new long[indexers * documentsPerIndexer];
+        CountDownLatch start = new CountDownLatch(1);
+        ArrayList<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < indexers; i++) {
+            ArrayList<HashMap<String, Long>> documents = workload.get(i);
+            long clientID = i + 1;
+            int offset = i * documentsPerIndexer;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int d = 0; d < documents.size(); d++) {
+                        long requestTime = System.nanoTime();
+                        String documentPath = "doc" + d;
+                        int documentNumber = store.putDocument(documentPath, clientID);
+                        store.updateIndex(documentNumber, documents.get(d));
+                        if (log != null) {
+                            log.append(documentNumber, documentPath, clientID, documents.get(d));
+                        }
+                        latencies[offset + d] = System.nanoTime() - requestTime;
+                    }
+                } catch (InterruptedException | IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (double) (System.nanoTime() - startTime) / 1_000_000_000.0;
+
+        Arrays.sort(latencies);
+        String mode = log == null ? "in-memory" : "window " + batchWindowMicros + " us";
+        System.out.println(String.format("%-16s %10.0f docs/s   ack p50 %7.3f ms   p99 %7.3f ms   %s",
+            mode, latencies.length / seconds,
+            latencies[latencies.length / 2] / 1_000_000.0,
+            latencies[(int) (latencies.length * 0.99)] / 1_000_000.0,
+            log == null ? "" : String.format("%.1f records/fsync", log.recordsPerSync())));
+
+        if (log != null) {
+            log.close();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        // usage: [indexers] [documents per indexer]
+        int indexers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int documentsPerIndexer = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+        ArrayList<ArrayList<HashMap<String, Long>>> workload = new ArrayList<>();
+        for (int i = 0; i < indexers; i++) {
+            workload.add(generateDocuments(documentsPerIndexer, i));
+        }
+
+        System.out.println(indexers + " indexers, " + documentsPerIndexer + " documents each, "
+            + TERMS_PER_DOCUMENT + " terms per document");
+        // warm up the JIT with one untimed round
+        run(indexers, workload, -1);
+        run(indexers, workload, -1);
+        for (long batchWindowMicros : BATCH_WINDOWS_MICROS) {
+            run(indexers, workload, batchWindowMicros);
+        }
+    }
+}
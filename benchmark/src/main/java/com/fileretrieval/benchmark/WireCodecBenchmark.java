@@ -0,0 +1,145 @@
+package com.fileretrieval.benchmark;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import com.fileretrieval.common.protocol.BinaryFrameReader;
+import com.fileretrieval.common.protocol.BinaryFrameWriter;
+import com.fileretrieval.common.protocol.IndexRequest;
+import com.fileretrieval.common.protocol.MessageType;
+
+// compares encoding and decoding INDEX REQUESTs with the line based text protocol and with
+// binary frames, entirely in memory so only the codec cost is measured
+// the text codec mirrors ClientProcessingEngine / ServerWorker: one println per word=count pair,
+// readLine + split("=") + Long.parseLong on the other side
+public class WireCodecBenchmark {
+    private static final int[] TERMS_PER_DOCUMENT = {100, 1_000, 10_000};
+    private static final int DOCUMENTS = 200;
+
+    private static ArrayList<IndexRequest> generateRequests(int termsPerDocument, long seed) {
+        Random random = new Random(seed);
+        ArrayList<IndexRequest> requests = new ArrayList<>();
+        for (int i = 0; i < DOCUMENTS; i++) {
+            HashMap<String, Long> wordFrequencies = new HashMap<>();
+            while (wordFrequencies.size() < termsPerDocument) {
+                // word-like terms of 4 to 12 characters
+                int length = 4 + random.nextInt(9);
+                StringBuilder term = new StringBuilder();
+                for (int c = 0; c < length; c++) {
+                    term.append((char) ('a' + random.nextInt(26)));
+                }
+                wordFrequencies.merge(term.toString(), 1L + random.nextInt(20), Long::sum);
+            }
+            IndexRequest request = new IndexRequest();
+            request.clientID = 4171946711138518682L;
+            request.documentPath = "datasets/dataset1/folder" + i + "/Document" + i + ".txt";
+            request.wordFrequencies = wordFrequencies;
+            requests.add(request);
+        }
+        return requests;
+    }
+
+    private static byte[] encodeText(ArrayList<IndexRequest> requests) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8));
+        for (IndexRequest request : requests) {
+            out.println("INDEX REQUEST");
+            out.println(request.clientID);
+            out.println(request.documentPath);
+            out.println(request.wordFrequencies.size());
+            for (Map.Entry<String, Long> entry : request.wordFrequencies.entrySet()) {
+                out.println(entry.getKey() + "=" + entry.getValue());
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static long decodeText(byte[] encoded) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(encoded), StandardCharsets.UTF_8));
+        long checksum = 0;
+        while (in.readLine() != null) {
+            long clientID = Long.parseLong(in.readLine());
+            String documentPath = in.readLine();
+            int pairsSize = Integer.parseInt(in.readLine());
+            HashMap<String, Long> wordFrequencies = new HashMap<>();
+            for (int i = 0; i < pairsSize; i++) {
+                String[] entry = in.readLine().split("=");
+                wordFrequencies.put(entry[0], Long.parseLong(entry[1]));
+            }
+            checksum += clientID + documentPath.length() + wordFrequencies.size();
+        }
+        return checksum;
+    }
+
+    private static byte[] encodeBinary(ArrayList<IndexRequest> requests) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryFrameWriter writer = new BinaryFrameWriter(bytes);
+        for (IndexRequest request : requests) {
+            writer.writeIndexRequest(request);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static long decodeBinary(byte[] encoded) throws IOException {
+        BinaryFrameReader reader = new BinaryFrameReader(new ByteArrayInputStream(encoded));
+        long checksum = 0;
+        while (reader.readFrame() == MessageType.INDEX_REQUEST) {
+            IndexRequest request = reader.readIndexRequest();
+            checksum += request.clientID + request.documentPath.length() + request.wordFrequencies.size();
+        }
+        return checksum;
+    }
+
+    private interface Codec {
+        Object run() throws IOException;
+    }
+
+    // best of several rounds, returns the time per round in seconds
+    private static double time(Codec codec) throws IOException {
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < 7; round++) {
+            long startTime = System.nanoTime();
+            Object result = codec.run();
+            double seconds = (double) (System.nanoTime() - startTime) / 1_000_000_000.0;
+            if (result == null) {
+                throw new IllegalStateException();
+            }
+            best = Math.min(best, seconds);
+        }
+        return best;
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.out.println(String.format("%-8s %-7s %12s %14s %14s", "terms", "codec", "bytes/term", "encode ns/term", "decode ns/term"));
+        for (int termsPerDocument : TERMS_PER_DOCUMENT) {
+            ArrayList<IndexRequest> requests = generateRequests(termsPerDocument, termsPerDocument);
+            long terms = (long) termsPerDocument * DOCUMENTS;
+
+            byte[] text = encodeText(requests);
+            byte[] binary = encodeBinary(requests);
+            if (decodeText(text) != decodeBinary(binary)) {
+                throw new IllegalStateException("Text and binary codecs disagree");
+            }
+
+            double textEncode = time(() -> encodeText(requests));
+            double textDecode = time(() -> decodeText(text));
+            double binaryEncode = time(() -> encodeBinary(requests));
+            double binaryDecode = time(() -> decodeBinary(binary));
+
+            System.out.println(String.format("%-8d %-7s %12.2f %14.1f %14.1f", termsPerDocument, "text",
+                (double) text.length / terms, textEncode * 1e9 / terms, textDecode * 1e9 / terms));
+            System.out.println(String.format("%-8d %-7s %12.2f %14.1f %14.1f", termsPerDocument, "binary",
+                (double) binary.length / terms, binaryEncode * 1e9 / terms, binaryDecode * 1e9 / terms));
+        }
+    }
+}
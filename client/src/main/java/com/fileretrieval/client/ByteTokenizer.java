@@ -0,0 +1,292 @@
+package com.fileretrieval.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.CRC32C;
+
+// counts the words of a file by scanning its raw bytes, a word is a run of [a-zA-Z0-9_-] longer
+// than 3 characters, the same words as splitting every line on "[^a-zA-Z0-9_-]+"
+// bytes outside ASCII, including every byte of a multi-byte UTF-8 character, are separators, so the
+// file never has to be decoded
+// words are counted in an open addressing table keyed on their bytes, a String is only created for
+// each distinct word of a file, when the counts are handed out at the end
+// files of at least mapThreshold bytes are memory-mapped and scanned in place, region by region,
+// smaller ones are read into a direct buffer, so neither is copied into the Java heap
+// the read buffer and the table are reused from file to file, so one tokenizer per thread, each
+// tokenizer thread keeps its buffer for the whole indexFolder call
+// every byte scanned also goes through a CRC32C, the content hash incremental indexing compares with
+// the manifest, computed on the buffer the words are scanned from, so the file is still read only once
+public class ByteTokenizer {
+    // mapping is opt-in: on the machines measured so far the page faults of a mapping cost more than
+    // the copy out of the page cache saves (see LargeFileTokenizerBenchmark)
+    public static final long DEFAULT_MAP_THRESHOLD = Long.MAX_VALUE;
+    private static final int MIN_WORD_LENGTH = 4;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final int INITIAL_TABLE_SIZE = 1024;
+    // a mapping can be at most 2 GB, large files are mapped in regions of this size
+    private static final int MAP_REGION_SIZE = 256 * 1024 * 1024;
+
+    private static final boolean[] WORD_BYTE = new boolean[256];
+    static {
+        for (int c = 'a'; c <= 'z'; c++) {
+            WORD_BYTE[c] = true;
+        }
+        for (int c = 'A'; c <= 'Z'; c++) {
+            WORD_BYTE[c] = true;
+        }
+        for (int c = '0'; c <= '9'; c++) {
+            WORD_BYTE[c] = true;
+        }
+        WORD_BYTE['_'] = true;
+        WORD_BYTE['-'] = true;
+    }
+
+    private final long mapThreshold;
+    private final int mapRegionSize;
+    private final CRC32C checksum = new CRC32C();
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+
+    // slots hold entry + 1, 0 is an empty slot
+    private int[] slots = new int[INITIAL_TABLE_SIZE];
+    // per entry: hash, position and length of its bytes in the pool, count and the slot it occupies
+    private int[] hashes = new int[INITIAL_TABLE_SIZE / 2];
+    private int[] starts = new int[INITIAL_TABLE_SIZE / 2];
+    private int[] lengths = new int[INITIAL_TABLE_SIZE / 2];
+    private long[] counts = new long[INITIAL_TABLE_SIZE / 2];
+    private int[] entrySlots = new int[INITIAL_TABLE_SIZE / 2];
+    private int entryCount = 0;
+    private byte[] pool = new byte[INITIAL_BUFFER_SIZE];
+    private int poolSize = 0;
+
+    public ByteTokenizer() {
+        this(DEFAULT_MAP_THRESHOLD);
+    }
+
+    public ByteTokenizer(long mapThreshold) {
+        this(mapThreshold, MAP_REGION_SIZE);
+    }
+
+    // smaller regions let a test move words across region boundaries without a file of several GB
+    ByteTokenizer(long mapThreshold, int mapRegionSize) {
+        this.mapThreshold = Math.max(0, mapThreshold);
+        this.mapRegionSize = Math.max(1, mapRegionSize);
+    }
+
+    public HashMap<String, Long> tokenize(Path file) throws IOException {
+        checksum.reset();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > 0 && size >= mapThreshold) {
+                tokenizeMapped(channel, size);
+            } else {
+                tokenizeRead(channel);
+            }
+        } catch (IOException e) {
+            reset();
+            throw e;
+        }
+        return frequencies();
+    }
+
+    public HashMap<String, Long> tokenize(byte[] bytes, int offset, int length) {
+        checksum.reset();
+        checksum.update(bytes, offset, length);
+        ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+        int openWord = scan(wrapped, offset, offset + length);
+        finishWord(wrapped, openWord, offset + length - openWord);
+        return frequencies();
+    }
+
+    // CRC32C of the bytes of the last tokenized file
+    public long contentHash() {
+        return checksum.getValue();
+    }
+
+    // map the file region by region, a region starts at the word left open by the previous one
+    private void tokenizeMapped(FileChannel channel, long size) throws IOException {
+        long position = 0;
+        long regionSize = mapRegionSize;
+        // regions overlap by the open word, only the bytes past the previous region are hashed
+        long hashedEnd = 0;
+        while (position < size) {
+            int length = (int) Math.min(regionSize, size - position);
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            // a region after one that grew over a long word can end before the bytes hashed already
+            if (position + length > hashedEnd) {
+                int hashed = (int) (hashedEnd - position);
+                checksum.update(region.slice(hashed, length - hashed));
+                hashedEnd = position + length;
+            }
+            int openWord = scan(region, 0, length);
+            if (position + length == size) {
+                finishWord(region, openWord, length - openWord);
+                return;
+            }
+            if (openWord == 0) {
+                // a single word fills the whole region, map more of it at once
+                regionSize = Math.min(regionSize * 2, Integer.MAX_VALUE);
+                if (length == Integer.MAX_VALUE) {
+                    finishWord(region, 0, length);
+                    position += length;
+                }
+                continue;
+            }
+            position += openWord;
+            regionSize = mapRegionSize;
+        }
+    }
+
+    // read the file into the direct buffer, the bytes of a word that may continue in the next read
+    // are moved to the front of the buffer
+    private void tokenizeRead(FileChannel channel) throws IOException {
+        buffer.clear();
+        int readStart = 0;
+        while (channel.read(buffer) > 0) {
+            int end = buffer.position();
+            checksum.update(buffer.slice(readStart, end - readStart));
+            int openWord = scan(buffer, 0, end);
+            buffer.limit(end).position(openWord);
+            buffer.compact();
+            if (!buffer.hasRemaining()) {
+                // a single word fills the whole buffer
+                ByteBuffer larger = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+            readStart = buffer.position();
+        }
+        finishWord(buffer, 0, buffer.position());
+    }
+
+    // count the complete words in bytes[from, to), returns where the word still open at `to` starts
+    // (to if the range ends with a separator)
+    private int scan(ByteBuffer bytes, int from, int to) {
+        int i = from;
+        while (i < to) {
+            while (i < to && !WORD_BYTE[bytes.get(i) & 0xFF]) {
+                i++;
+            }
+            int start = i;
+            int hash = 0;
+            byte b;
+            while (i < to && WORD_BYTE[(b = bytes.get(i)) & 0xFF]) {
+                hash = 31 * hash + b;
+                i++;
+            }
+            if (i == to) {
+                return start;
+            }
+            if (i - start >= MIN_WORD_LENGTH) {
+                count(bytes, start, i - start, hash);
+            }
+        }
+        return to;
+    }
+
+    // count the word that ends at the end of the input
+    private void finishWord(ByteBuffer bytes, int start, int length) {
+        if (length < MIN_WORD_LENGTH) {
+            return;
+        }
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + bytes.get(i);
+        }
+        count(bytes, start, length, hash);
+    }
+
+    private void count(ByteBuffer bytes, int start, int length, int hash) {
+        int mask = slots.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (true) {
+            int entry = slots[slot] - 1;
+            if (entry < 0) {
+                break;
+            }
+            if (hashes[entry] == hash && lengths[entry] == length && sameBytes(starts[entry], bytes, start, length)) {
+                counts[entry]++;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // a new word, keep its bytes in the pool
+        if (entryCount == hashes.length) {
+            int capacity = entryCount * 2;
+            hashes = Arrays.copyOf(hashes, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            entrySlots = Arrays.copyOf(entrySlots, capacity);
+        }
+        if (poolSize + length > pool.length) {
+            pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + length));
+        }
+        bytes.get(start, pool, poolSize, length);
+        int entry = entryCount++;
+        hashes[entry] = hash;
+        starts[entry] = poolSize;
+        lengths[entry] = length;
+        counts[entry] = 1;
+        entrySlots[entry] = slot;
+        slots[slot] = entry + 1;
+        poolSize += length;
+
+        // at most half full
+        if (entryCount * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+    }
+
+    private boolean sameBytes(int poolStart, ByteBuffer bytes, int start, int length) {
+        for (int k = 0; k < length; k++) {
+            if (pool[poolStart + k] != bytes.get(start + k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int entry = 0; entry < entryCount; entry++) {
+            int hash = hashes[entry];
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = entry + 1;
+            entrySlots[entry] = slot;
+        }
+    }
+
+    // hand out the counts of the current file and empty the table for the next one
+    private HashMap<String, Long> frequencies() {
+        HashMap<String, Long> wordFrequencies = new HashMap<>(entryCount * 4 / 3 + 1);
+        for (int entry = 0; entry < entryCount; entry++) {
+            // only ASCII bytes are word bytes, Latin-1 decodes them with a plain copy
+            String word = new String(pool, starts[entry], lengths[entry], StandardCharsets.ISO_8859_1);
+            wordFrequencies.put(word, counts[entry]);
+        }
+        reset();
+        return wordFrequencies;
+    }
+
+    // clear only the slots in use, the table of a large file is not swept for every small one
+    private void reset() {
+        for (int entry = 0; entry < entryCount; entry++) {
+            slots[entrySlots[entry]] = 0;
+        }
+        entryCount = 0;
+        poolSize = 0;
+    }
+}
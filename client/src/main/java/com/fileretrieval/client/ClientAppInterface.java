@@ -1,11 +1,17 @@
 package com.fileretrieval.client;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Scanner;
 
 import com.fileretrieval.common.dto.DocPathFreqPair;
 import com.fileretrieval.common.dto.IndexResult;
 import com.fileretrieval.common.dto.SearchResult;
+import com.fileretrieval.common.protocol.Query;
+import com.fileretrieval.common.protocol.QueryParser;
+import com.fileretrieval.common.protocol.Scoring;
+import com.fileretrieval.common.protocol.SearchRequest;
+import com.fileretrieval.common.protocol.WireProtocol;
 
 public class ClientAppInterface {
     private ClientProcessingEngine engine;
@@ -32,18 +38,39 @@ public class ClientAppInterface {
 
             // if the command begins with connect, connect to the given server
             if (command.startsWith("connect")) {
-                // parse command for given IP address and port number
+                // parse command for given IP address and port number, or for the "<IP>:<port>"
+                // addresses of every shard of a cluster, each one followed by the addresses of its
+                // replicas after commas
                 String[] parts = command.split(" ");
+                if (parts.length > 1 && parts[1].contains(":")) {
+                    ArrayList<String> addresses = new ArrayList<>();
+                    WireProtocol protocol = WireProtocol.BINARY;
+                    for (int i = 1; i < parts.length; i++) {
+                        if (parts[i].contains(":")) {
+                            addresses.add(parts[i]);
+                        } else if (!parts[i].isEmpty()) {
+                            protocol = WireProtocol.fromWireFormat(parts[i]);
+                        }
+                    }
+                    engine.connectCluster(addresses, protocol);
+                    continue;
+                }
                 // make sure there are enough arguments
                 if (parts.length < 3) {
-                    System.out.println("Usage: connect <IP> <port>");
+                    System.out.println("Usage: connect <IP> <port> [binary|text]");
+                    System.out.println("       connect <IP>:<port>[,<replica IP>:<port>...] ... [binary|text]");
                     continue;
                 }
                 String IP = parts[1];
                 String port = parts[2];
+                // binary frames by default, text keeps the line based protocol
+                WireProtocol protocol = WireProtocol.BINARY;
+                if (parts.length > 3) {
+                    protocol = WireProtocol.fromWireFormat(parts[3]);
+                }
 
                 // call connect on the processing engine
-                engine.connect(IP, port);
+                engine.connect(IP, port, protocol);
 
                 continue;
             }
@@ -55,6 +82,11 @@ public class ClientAppInterface {
                 
                 // print the client ID
                 System.out.println("client ID: " + ID);
+                // and the ID every server of a cluster gave this client
+                long[] shardIDs = engine.getShardInfo();
+                for (int i = 0; i < shardIDs.length; i++) {
+                    System.out.println("shard " + i + " client ID: " + shardIDs[i]);
+                }
 
                 continue;
             }
@@ -62,37 +94,145 @@ public class ClientAppInterface {
             // if the command begins with index, index the files from the specified directory
             if (command.startsWith("index")) {
                 // parse command and call indexFolder on the processing engine
-                // start after "index "
+                // start after "index ", an optional "-w <window>" sets the number of pipelined requests,
+                // an optional "-b <documents>" the number of documents per INDEX BATCH,
+                // an optional "-t <threads>" the number of tokenizer threads
+                // an optional "-m <megabytes>" the size from which files are memory-mapped
+                // an optional "-i" only sends the files changed since the last "-i" run of the folder
+                // on this server (see Manifest), which is only right if the server kept its index since,
+                // and an optional "-f" sends every file and records them for the next "-i" run
                 String folderPath = command.substring(6);
+                boolean validOptions = true;
+                boolean incremental = false;
+                boolean fullIndex = false;
+                while (validOptions && (folderPath.startsWith("-w ") || folderPath.startsWith("-b ")
+                        || folderPath.startsWith("-t ") || folderPath.startsWith("-m ")
+                        || folderPath.startsWith("-i ") || folderPath.startsWith("-f "))) {
+                    if (folderPath.startsWith("-i ") || folderPath.startsWith("-f ")) {
+                        incremental = true;
+                        fullIndex |= folderPath.startsWith("-f ");
+                        folderPath = folderPath.substring(3);
+                        continue;
+                    }
+                    String[] parts = folderPath.split(" ", 3);
+                    try {
+                        int value = Integer.parseInt(parts[1]);
+                        if (parts[0].equals("-w")) {
+                            engine.setIndexWindow(value);
+                        } else if (parts[0].equals("-t")) {
+                            engine.setTokenizerThreads(value);
+                        } else if (parts[0].equals("-m")) {
+                            engine.setMapThreshold(value * 1024L * 1024L);
+                        } else {
+                            engine.setBatchLimits(value, ClientProcessingEngine.DEFAULT_BATCH_BYTES,
+                                ClientProcessingEngine.DEFAULT_BATCH_TIMEOUT_MILLIS);
+                        }
+                        folderPath = parts[2];
+                    } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                        validOptions = false;
+                    }
+                }
+                if (!validOptions) {
+                    System.out.println("Usage: index [-w <window>] [-b <documents>] [-t <threads>] [-m <megabytes>] [-i] [-f] <path>");
+                    continue;
+                }
 
-                IndexResult result = engine.indexFolder(folderPath);
+                engine.setManifestDirectory(incremental ? ClientProcessingEngine.DEFAULT_MANIFEST_DIRECTORY : null);
+                IndexResult result = engine.indexFolder(folderPath, fullIndex);
 
                 // print the execution time and the total number of bytes read
                 System.out.println("Completed indexing " + result.totalBytesRead + " bytes of data");
                 System.out.println("Completed indexing in " + String.format("%.3f", result.executionTime) + " seconds");
+                System.out.println("Sent " + result.documentCount + " new or changed files, skipped "
+                    + result.unchangedCount + " unchanged files, deleted " + result.deletedCount + " removed files");
+                if (result.retriedCount > 0) {
+                    System.out.println("Sent " + result.retriedCount + " requests again because the server was busy");
+                }
+                // and the throughput of every pipeline stage, the slowest one limits the total
+                System.out.println(String.format("Crawl: %.3f s, tokenize (%d threads): %.3f s, send: %.3f s",
+                    result.crawlTime, result.tokenizerThreads, result.tokenizeTime, result.sendTime));
+                System.out.println(String.format("Documents per second: crawl %.0f, tokenize %.0f, send %.0f",
+                    perSecond(result.documentCount, result.crawlTime),
+                    perSecond(result.documentCount, result.tokenizeTime / Math.max(1, result.tokenizerThreads)),
+                    perSecond(result.documentCount, result.sendTime)));
                 
                 continue;
             }
 
+            // if the command begins with delete, delete an indexed document
+            if (command.startsWith("delete")) {
+                // parse command for the document path, as sent by index, and an optional "-c <client ID>"
+                // the document was indexed under, the client ID of this connection by default
+                String[] parts = command.split(" ", 4);
+                long clientID = engine.getInfo();
+                String documentPath = null;
+                try {
+                    if (parts.length > 3 && parts[1].equals("-c")) {
+                        clientID = Long.parseLong(parts[2]);
+                        documentPath = parts[3];
+                    } else if (parts.length > 1 && !parts[1].equals("-c")) {
+                        documentPath = command.substring(7);
+                    }
+                } catch (NumberFormatException e) {
+                    documentPath = null;
+                }
+                if (documentPath == null || documentPath.isEmpty()) {
+                    System.out.println("Usage: delete [-c <client ID>] <document path>");
+                    continue;
+                }
+
+                if (engine.deleteDocument(documentPath, clientID)) {
+                    System.out.println("Document deleted");
+                } else {
+                    System.out.println("Document not found");
+                }
+                continue;
+            }
+
             // if the command begins with search, search for files that matches the query
             if (command.startsWith("search")) {
                 // parse command and call search on the processing engine
-                // start after " search "
-				String[] parts = command.substring(7).split(" ");
-				ArrayList<String> terms = new ArrayList<>();
-				    
-				// only add words that don't include "AND" to terms ArrayList
-				for (String part : parts) {
-					if (!part.equals("AND") && !part.isEmpty()) {
-						terms.add(part);
+                // start after " search ", an optional "-k <K>" sets the number of results and an
+                // optional "-s frequency|tfidf|bm25" how they are ranked, the rest is the query
+                // (terms combined with AND, OR, NOT and parentheses, see QueryParser)
+				String[] parts = command.length() > 7 ? command.substring(7).split(" ") : new String[0];
+				int topK = SearchRequest.DEFAULT_TOP_K;
+				Scoring scoring = Scoring.FREQUENCY;
+				int first = 0;
+				boolean valid = true;
+
+				while (valid && first + 1 < parts.length && (parts[first].equals("-k") || parts[first].equals("-s"))) {
+					try {
+						if (parts[first].equals("-k")) {
+							topK = Integer.parseInt(parts[first + 1]);
+						} else {
+							scoring = Scoring.fromWireFormat(parts[first + 1]);
+						}
+					} catch (IllegalArgumentException e) {
+						valid = false;
 					}
-				}	
+					first += 2;
+				}
+				if (!valid) {
+					System.out.println("Usage: search [-k <K>] [-s frequency|tfidf|bm25] <term> [AND|OR <term> ...]");
+					continue;
+				}
+
+				Query query;
+				try {
+					query = QueryParser.parse(String.join(" ", Arrays.copyOfRange(parts, first, parts.length)));
+				} catch (IllegalArgumentException e) {
+					System.out.println(e.getMessage());
+					System.out.println("Usage: search [-k <K>] [-s frequency|tfidf|bm25] <term> [AND|OR <term> ...]"
+						+ ", NOT <term> after AND, (...) to group");
+					continue;
+				}
 		
-				SearchResult result = engine.search(terms);
+				SearchResult result = engine.search(query, topK, scoring);
 
-                // print the execution time and the top 10 search results
+                // print the execution time and the top K search results
                 System.out.println("Search completed in " + String.format("%.3f", result.executionTime) + " seconds");
-				System.out.println("Search results (top 10):");
+				System.out.println("Search results (top " + topK + "):");
 				for (DocPathFreqPair pair : result.documentFrequencies) {
 					// split by last underscore to separate path from clientID
                     int lastUnderscore = pair.documentPath.lastIndexOf('_');
@@ -123,7 +263,7 @@ public class ClientAppInterface {
                         relativePath = String.join("/",
                         java.util.Arrays.copyOfRange(pathSegments, start, pathSegments.length));
                     }
-                    System.out.println("* client " + clientID + ":" + relativePath + ":" + pair.wordFrequency);
+                    System.out.println("* client " + clientID + ":" + relativePath + ":" + scoring.formatScore(pair.wordFrequency));
 				}
                 continue;
             }
@@ -131,4 +271,8 @@ public class ClientAppInterface {
         }
         sc.close();
     }
+
+    private static double perSecond(long count, double seconds) {
+        return seconds > 0 ? count / seconds : 0.0;
+    }
 }
\ No newline at end of file
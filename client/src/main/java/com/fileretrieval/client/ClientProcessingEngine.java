@@ -1,27 +1,38 @@
 package com.fileretrieval.client;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.PrintWriter;
 import java.net.Socket;
 import java.net.UnknownHostException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Random;
 
 import com.fileretrieval.common.dto.DocPathFreqPair;
 import com.fileretrieval.common.dto.IndexResult;
 import com.fileretrieval.common.dto.SearchResult;
+import com.fileretrieval.common.protocol.BinaryFrameReader;
+import com.fileretrieval.common.protocol.BinaryFrameWriter;
+import com.fileretrieval.common.protocol.BusyResponse;
+import com.fileretrieval.common.protocol.DeleteRequest;
+import com.fileretrieval.common.protocol.IndexBatchRequest;
+import com.fileretrieval.common.protocol.IndexRequest;
+import com.fileretrieval.common.protocol.IndexResponse;
+import com.fileretrieval.common.protocol.MessageType;
+import com.fileretrieval.common.protocol.Query;
+import com.fileretrieval.common.protocol.Scoring;
+import com.fileretrieval.common.protocol.SearchRequest;
+import com.fileretrieval.common.protocol.SearchResponse;
+import com.fileretrieval.common.protocol.WireProtocol;
 
 public class ClientProcessingEngine {
     // keep track of the connection (socket)
@@ -29,10 +40,152 @@ public class ClientProcessingEngine {
     private BufferedReader in;
     private PrintWriter out;
     private long clientId;
+    // "<IP>:<port>" of the server, names the manifests of the folders indexed on it
+    private String serverAddress;
+    // protocol accepted by the server at REGISTER time, binary connections use the frame reader and writer
+    private WireProtocol protocol = WireProtocol.TEXT;
+    private BufferedInputStream frameInput;
+    private BinaryFrameReader frameReader;
+    private BinaryFrameWriter frameWriter;
+
+    // binary protocol: number of INDEX REQUESTs sent ahead without waiting for their replies,
+    // 1 is stop-and-wait, the text protocol is always stop-and-wait
+    public static final int DEFAULT_INDEX_WINDOW = 32;
+    public static final int MAX_INDEX_WINDOW = 1024;
+    private int indexWindow = DEFAULT_INDEX_WINDOW;
+    // INDEX REQUESTs waiting for their reply, by request ID
+    private HashMap<Long, InFlightRequest> inFlightRequests = new HashMap<>();
+    private long nextRequestID = 1;
+
+    // admission control: a request the server turned away with BUSY is sent again after the delay the
+    // server asked for, doubled for every further BUSY of the same request up to MAX_RETRY_DELAY_MILLIS,
+    // with +-50% jitter so that clients turned away together do not come back together
+    // indexing fails after MAX_BUSY_RETRIES of one request
+    public static final int MAX_BUSY_RETRIES = 10;
+    private static final long MAX_RETRY_DELAY_MILLIS = 5000;
+    private final Random retryJitter = new Random();
+    // in-flight requests waiting for their retry time, and requests sent again during indexFolder
+    private int waitingRetries = 0;
+    private long retriedCount = 0;
+
+    // a request sent ahead, kept until its reply so it can be sent again after a BUSY reply
+    private static class InFlightRequest {
+        final String label;
+        // IndexRequest, IndexBatchRequest or DeleteRequest
+        final Object request;
+        int attempts = 0;
+        boolean waiting = false;
+        long retryTime;
+
+        InFlightRequest(String label, Object request) {
+            this.label = label;
+            this.request = request;
+        }
+    }
+
+    // binary protocol: documents are collected into INDEX BATCH frames, a batch is sent once it
+    // holds maxBatchDocuments documents or about maxBatchBytes bytes, or once its oldest document
+    // waited batchTimeoutMillis (checked whenever a document is added, and whenever the sender waited
+    // that long for the next document), 1 sends single INDEX REQUESTs
+    public static final int DEFAULT_BATCH_DOCUMENTS = 32;
+    public static final long DEFAULT_BATCH_BYTES = 256 * 1024;
+    public static final long DEFAULT_BATCH_TIMEOUT_MILLIS = 20;
+    private int maxBatchDocuments = DEFAULT_BATCH_DOCUMENTS;
+    private long maxBatchBytes = DEFAULT_BATCH_BYTES;
+    private long batchTimeoutMillis = DEFAULT_BATCH_TIMEOUT_MILLIS;
+    private ArrayList<String> batchPaths = new ArrayList<>();
+    private ArrayList<Map<String, Long>> batchFrequencies = new ArrayList<>();
+    private long batchBytes = 0;
+    private long batchStartTime = 0;
+
+    // threads reading and tokenizing files while indexing a folder, one per core by default
+    public static final int MAX_TOKENIZER_THREADS = 64;
+    private int tokenizerThreads = Runtime.getRuntime().availableProcessors();
+    // files of at least this many bytes are memory-mapped, smaller ones are read into a direct buffer
+    private long mapThreshold = ByteTokenizer.DEFAULT_MAP_THRESHOLD;
+
+    // incremental indexing: where the manifest of every indexed folder is kept (see Manifest), null
+    // sends every file of the folder on each indexFolder call
+    // the manifest cannot tell whether the server still has the documents (an in-memory server that
+    // restarted, a wiped data directory), so it is only used when asked for, the CLI's "index -i"
+    public static final Path DEFAULT_MANIFEST_DIRECTORY = Paths.get(System.getProperty("user.home"), ".fileretrieval");
+    private Path manifestDirectory;
+    // client ID the documents of the current indexFolder call are indexed under: the ID of the first
+    // run over the folder, so that changed and deleted files replace the documents it indexed
+    private long indexClientID;
+
+    // sharded cluster: every server owns the documents whose path hashes to its shard (see shardOf),
+    // this engine then only coordinates one engine per server: indexFolder runs them in parallel,
+    // each one sending only the files of its shard, search sends the query to every server before
+    // reading any reply and merges their top K, delete goes to the server owning the path
+    // a shard can have replicas, servers its primary forwards the documents to: searches are spread
+    // over the primary and its replicas (see ReplicaSet) and may come from several threads at once
+    private ArrayList<ClientProcessingEngine> shards = new ArrayList<>();
+    private ArrayList<ReplicaSet> shardReplicas = new ArrayList<>();
+    // the files a shard engine sends: those with shardOf(path, shardCount) == shard
+    private int shard = 0;
+    private int shardCount = 1;
 
     public ClientProcessingEngine() { }
 
+    // the shard of a document path in a cluster of shardCount servers, String.hashCode is the same
+    // in every JVM, so every client routes a path to the same server
+    public static int shardOf(String documentPath, int shardCount) {
+        return Math.floorMod(documentPath.hashCode(), shardCount);
+    }
+
+    public void setIndexWindow(int indexWindow) {
+        this.indexWindow = Math.max(1, Math.min(indexWindow, MAX_INDEX_WINDOW));
+    }
+
+    public int getIndexWindow() {
+        return indexWindow;
+    }
+
+    public void setBatchLimits(int maxBatchDocuments, long maxBatchBytes, long batchTimeoutMillis) {
+        this.maxBatchDocuments = Math.max(1, maxBatchDocuments);
+        this.maxBatchBytes = Math.max(1, maxBatchBytes);
+        this.batchTimeoutMillis = Math.max(0, batchTimeoutMillis);
+    }
+
+    public int getMaxBatchDocuments() {
+        return maxBatchDocuments;
+    }
+
+    public void setTokenizerThreads(int tokenizerThreads) {
+        this.tokenizerThreads = Math.max(1, Math.min(tokenizerThreads, MAX_TOKENIZER_THREADS));
+    }
+
+    public int getTokenizerThreads() {
+        return tokenizerThreads;
+    }
+
+    public void setMapThreshold(long mapThreshold) {
+        this.mapThreshold = Math.max(0, mapThreshold);
+    }
+
+    public long getMapThreshold() {
+        return mapThreshold;
+    }
+
+    public void setManifestDirectory(Path manifestDirectory) {
+        this.manifestDirectory = manifestDirectory;
+    }
+
+    public Path getManifestDirectory() {
+        return manifestDirectory;
+    }
+
     public IndexResult indexFolder(String folderPath) {
+        return indexFolder(folderPath, false);
+    }
+
+    // fullIndex sends every file even if the manifest shows it did not change, e.g. after the server
+    // lost its index
+    public IndexResult indexFolder(String folderPath, boolean fullIndex) {
+        if (!shards.isEmpty()) {
+            return indexFolderOnShards(folderPath, fullIndex);
+        }
         // make sure we are connected to server first
         if (socket == null || socket.isClosed()) {
             System.err.println("Not connected to server! Use 'connect <IP> <port>' first.");
@@ -40,76 +193,84 @@ public class ClientProcessingEngine {
         }
 
         IndexResult result = new IndexResult(0.0, 0);
-        // initialize total read bytes to 0
-        long totalReadBytes = 0L;
 
         // get the start time
         long startTime = System.nanoTime();
 
-        // crawl the folder path and extract all file paths
-		// convert String folderPath to a Path
-		Path folder = Paths.get(folderPath);
-
-		try (Stream<Path> paths = Files.walk(folder)) {
-			List<Path> filePaths = paths
-				.filter(Files::isRegularFile)
-				.collect(Collectors.toList());
-	
-			for (Path filePath : filePaths) {	
-				// convert the type Path to type File for Scanner
-				File file = filePath.toFile();
-	
-				// increment the total number of read bytes
-				totalReadBytes += Files.size(filePath);
-	
-				// create HashMap for each file
-				HashMap<String, Long> wordFrequencies = new HashMap<>();
-	
-				// for each file extract words/terms and count their frequencies
-				// scan through each line
-				try (Scanner fileScanner = new Scanner(file)) {
-					while (fileScanner.hasNextLine()) {
-						String line = fileScanner.nextLine();
-						// split based on assignment definition of word
-						String[] lineWords = line.split("[^a-zA-Z0-9_-]+");
-	
-						// add the words to the HashMap with their frequencies 
-						for (String word : lineWords) {
-							if (word.length() > 3) {
-								// get current count + 1 or if new, default to 0 + 1
-								wordFrequencies.put(word, wordFrequencies.getOrDefault(word, 0L) + 1);
-							}
-						}	
-					}
-				} catch (FileNotFoundException e) {
-					System.err.println("File not found: " + e.getMessage());
-				}
-
-                // for each file prepare an INDEX REQUEST message and send to the server
-                //       the document path, the client ID and the word frequencies
-                out.println("INDEX REQUEST");
-                out.println(clientId);
-                out.println(filePath.toString());
-                out.println(wordFrequencies.size());
-                
-                for (Map.Entry<String, Long> entry : wordFrequencies.entrySet()) {
-                    out.println(entry.getKey() + "=" + entry.getValue());
+        // the files as they were on the last run, only new, changed and deleted files are sent
+        Manifest manifest = null;
+        indexClientID = clientId;
+        if (manifestDirectory != null) {
+            try {
+                manifest = Manifest.load(manifestDirectory, serverAddress, Paths.get(folderPath));
+                manifest.setFull(fullIndex);
+                if (manifest.getClientID() != 0) {
+                    indexClientID = manifest.getClientID();
                 }
+                manifest.setClientID(indexClientID);
+            } catch (IOException e) {
+                System.err.println("Could not read the manifest, indexing every file");
+                e.printStackTrace();
+            }
+        }
+
+        // crawl the folder path and tokenize the files on other threads (see IndexingPipeline),
+        // this thread sends the documents in the order the tokenizers finish them
+        IndexingPipeline pipeline = new IndexingPipeline(Paths.get(folderPath), tokenizerThreads, mapThreshold, manifest);
+        pipeline.setShard(shard, shardCount);
+        retriedCount = 0;
+        pipeline.start();
+        long documentCount = 0;
+        long deletedCount = 0;
+        long sendNanos = 0;
 
-                // receive for each INDEX REQUEST message an INDEX REPLY message
-                if (socket != null && !socket.isClosed()) {
-                    try {
-                        String response = in.readLine(); 
-                        // don't print reply
-                    } catch (IOException e) {
-                        System.err.println("Error reading response from server!");
-                        e.printStackTrace();
+        try {
+            while (!pipeline.isFinished()) {
+                // time spent waiting for the tokenizers is not part of the send stage
+                IndexingPipeline.TokenizedDocument document = pipeline.next(Math.max(1, batchTimeoutMillis));
+                long sendStart = System.nanoTime();
+                if (document == null) {
+                    // no document for a whole batch timeout, send the partial batch instead of holding it back
+                    if (protocol == WireProtocol.BINARY) {
+                        flushBatch();
                     }
+                } else {
+                    sendDocument(document.documentPath, document.wordFrequencies);
+                    documentCount++;
                 }
-			}
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+                sendNanos += System.nanoTime() - sendStart;
+            }
+
+            // send the last partial batch, delete the documents of the files that are gone,
+            // and wait for the replies of the requests still in flight
+            long sendStart = System.nanoTime();
+            if (protocol == WireProtocol.BINARY) {
+                flushBatch();
+            }
+            if (manifest != null && pipeline.isCrawlComplete()) {
+                for (String documentPath : manifest.removedPaths()) {
+                    sendDelete(documentPath);
+                    deletedCount++;
+                }
+            }
+            while (!inFlightRequests.isEmpty()) {
+                receiveIndexReply();
+            }
+            sendNanos += System.nanoTime() - sendStart;
+
+            // every change is acknowledged, the next run starts from here
+            if (manifest != null && pipeline.isCrawlComplete()) {
+                manifest.save();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            pipeline.cancel();
+            clearIndexState();
+        } catch (InterruptedException e) {
+            pipeline.cancel();
+            clearIndexState();
+            Thread.currentThread().interrupt();
+        }
 
         // get the stop time and calculate the execution time
         long stopTime = System.nanoTime();
@@ -119,12 +280,368 @@ public class ClientProcessingEngine {
 
         // return the execution time and the total number of bytes read
         result.executionTime = execTime;
-        result.totalBytesRead = totalReadBytes;
+        result.totalBytesRead = pipeline.getBytesRead();
+        // and the figures of every stage
+        result.documentCount = documentCount;
+        result.unchangedCount = pipeline.getUnchangedFiles();
+        result.deletedCount = deletedCount;
+        result.retriedCount = retriedCount;
+        result.tokenizerThreads = pipeline.getTokenizerThreads();
+        result.crawlTime = pipeline.getCrawlTime();
+        result.tokenizeTime = pipeline.getTokenizeTime();
+        result.sendTime = (double) sendNanos / 1_000_000_000.0;
 
         return result;
     }
-    
+
+    // index the folder on every server of the cluster at once, every shard engine crawls the folder
+    // and tokenizes the files of its shard only, and keeps its own manifest (a file moving to another
+    // shard after the cluster changed is deleted from its old server and sent to its new one)
+    private IndexResult indexFolderOnShards(String folderPath, boolean fullIndex) {
+        long startTime = System.nanoTime();
+        IndexResult[] results = new IndexResult[shards.size()];
+        ArrayList<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            ClientProcessingEngine shardEngine = shards.get(i);
+            // the settings may have changed since connect, the tokenizer threads are shared out
+            shardEngine.indexWindow = indexWindow;
+            shardEngine.setBatchLimits(maxBatchDocuments, maxBatchBytes, batchTimeoutMillis);
+            shardEngine.tokenizerThreads = Math.max(1, tokenizerThreads / shards.size());
+            shardEngine.mapThreshold = mapThreshold;
+            shardEngine.manifestDirectory = manifestDirectory;
+            int index = i;
+            threads.add(new Thread(() -> results[index] = shardEngine.indexFolder(folderPath, fullIndex),
+                "index-shard-" + i));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // the shards read disjoint files, their counts add up, their crawls and sends overlap
+        IndexResult result = new IndexResult(0.0, 0);
+        for (IndexResult shardResult : results) {
+            if (shardResult == null) {
+                continue;
+            }
+            result.totalBytesRead += shardResult.totalBytesRead;
+            result.documentCount += shardResult.documentCount;
+            result.unchangedCount += shardResult.unchangedCount;
+            result.deletedCount += shardResult.deletedCount;
+            result.retriedCount += shardResult.retriedCount;
+            result.tokenizerThreads += shardResult.tokenizerThreads;
+            result.crawlTime = Math.max(result.crawlTime, shardResult.crawlTime);
+            result.tokenizeTime += shardResult.tokenizeTime;
+            result.sendTime = Math.max(result.sendTime, shardResult.sendTime);
+        }
+        result.executionTime = (double) (System.nanoTime() - startTime) / 1_000_000_000.0;
+        return result;
+    }
+
+    // for each file prepare an INDEX REQUEST message and send to the server
+    //       the document path, the client ID and the word frequencies
+    private void sendDocument(String documentPath, Map<String, Long> wordFrequencies) throws IOException {
+        if (protocol == WireProtocol.BINARY) {
+            queueDocument(documentPath, wordFrequencies);
+            return;
+        }
+        String busyPrefix = MessageType.BUSY.toWireFormat() + " ";
+        for (int attempts = 1; ; attempts++) {
+            out.println("INDEX REQUEST");
+            out.println(indexClientID);
+            out.println(documentPath);
+            out.println(wordFrequencies.size());
+
+            for (Map.Entry<String, Long> entry : wordFrequencies.entrySet()) {
+                out.println(entry.getKey() + "=" + entry.getValue());
+            }
+
+            // receive for each INDEX REQUEST message an INDEX REPLY message, or BUSY if the server
+            // turned it away, then send it again after a while
+            String reply = in.readLine();
+            if (reply == null) {
+                throw new IOException("Connection closed by the server");
+            }
+            if (!reply.startsWith(busyPrefix)) {
+                return;
+            }
+            if (attempts > MAX_BUSY_RETRIES) {
+                throw new IOException("Server still busy after " + MAX_BUSY_RETRIES + " retries of " + documentPath);
+            }
+            try {
+                Thread.sleep(retryDelayMillis(attempts, Long.parseLong(reply.substring(busyPrefix.length()).trim())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to retry " + documentPath);
+            }
+            retriedCount++;
+        }
+    }
+
+    // delay before the attempt-th retry of a request: the server's estimate, doubled for every earlier
+    // retry, with +-50% jitter
+    private long retryDelayMillis(int attempt, long retryAfterMillis) {
+        long delay = Math.max(1, retryAfterMillis);
+        for (int i = 1; i < attempt && delay < MAX_RETRY_DELAY_MILLIS; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, MAX_RETRY_DELAY_MILLIS);
+        return delay / 2 + (long) (retryJitter.nextDouble() * delay);
+    }
+
+    // delete the document of a file that was removed from the folder, acknowledged like an INDEX REQUEST
+    private void sendDelete(String documentPath) throws IOException {
+        if (protocol == WireProtocol.TEXT) {
+            out.println("DELETE REQUEST");
+            out.println(indexClientID);
+            out.println(documentPath);
+            if (in.readLine() == null) {
+                throw new IOException("Connection closed by the server");
+            }
+            return;
+        }
+        waitForIndexWindow();
+        DeleteRequest request = new DeleteRequest();
+        request.requestID = nextRequestID++;
+        request.clientID = indexClientID;
+        request.documentPath = documentPath;
+        inFlightRequests.put(request.requestID, new InFlightRequest("delete of " + documentPath, request));
+        frameWriter.writeDeleteRequest(request);
+        frameWriter.flush();
+        receiveAvailableIndexReplies();
+    }
+
+    // forget the requests of an indexFolder call that failed
+    private void clearIndexState() {
+        inFlightRequests.clear();
+        waitingRetries = 0;
+        batchPaths.clear();
+        batchFrequencies.clear();
+        batchBytes = 0;
+    }
+
+    // add a document to the current batch and send the batch once it is full or too old
+    private void queueDocument(String documentPath, Map<String, Long> wordFrequencies) throws IOException {
+        if (maxBatchDocuments == 1) {
+            sendIndexRequest(documentPath, wordFrequencies);
+            return;
+        }
+        if (batchPaths.isEmpty()) {
+            batchStartTime = System.nanoTime();
+        }
+        batchPaths.add(documentPath);
+        batchFrequencies.add(wordFrequencies);
+        // rough size of the frame: path, and each term with its index and frequency
+        batchBytes += documentPath.length();
+        for (String term : wordFrequencies.keySet()) {
+            batchBytes += term.length() + 3;
+        }
+
+        long age = (System.nanoTime() - batchStartTime) / 1_000_000L;
+        if (batchPaths.size() >= maxBatchDocuments || batchBytes >= maxBatchBytes || age >= batchTimeoutMillis) {
+            flushBatch();
+        }
+    }
+
+    // send the documents collected so far as one INDEX BATCH frame
+    private void flushBatch() throws IOException {
+        if (batchPaths.isEmpty()) {
+            return;
+        }
+        if (batchPaths.size() == 1) {
+            sendIndexRequest(batchPaths.get(0), batchFrequencies.get(0));
+        } else {
+            waitForIndexWindow();
+            IndexBatchRequest request = new IndexBatchRequest();
+            request.requestID = nextRequestID++;
+            request.clientID = indexClientID;
+            request.documentPaths = batchPaths;
+            request.wordFrequencies = batchFrequencies;
+            inFlightRequests.put(request.requestID, new InFlightRequest("batch of " + batchPaths.size()
+                + " documents starting with " + batchPaths.get(0), request));
+            frameWriter.writeIndexBatch(request);
+            frameWriter.flush();
+            receiveAvailableIndexReplies();
+        }
+        batchPaths = new ArrayList<>();
+        batchFrequencies = new ArrayList<>();
+        batchBytes = 0;
+    }
+
+    private void sendIndexRequest(String documentPath, Map<String, Long> wordFrequencies) throws IOException {
+        waitForIndexWindow();
+        IndexRequest request = new IndexRequest();
+        request.requestID = nextRequestID++;
+        request.clientID = indexClientID;
+        request.documentPath = documentPath;
+        request.wordFrequencies = wordFrequencies;
+        inFlightRequests.put(request.requestID, new InFlightRequest(documentPath, request));
+        frameWriter.writeIndexRequest(request);
+        frameWriter.flush();
+        receiveAvailableIndexReplies();
+    }
+
+    // only wait for a reply once the window of in-flight requests is full
+    private void waitForIndexWindow() throws IOException {
+        while (inFlightRequests.size() >= indexWindow) {
+            receiveIndexReply();
+        }
+    }
+
+    // match the replies that already arrived, without blocking
+    private void receiveAvailableIndexReplies() throws IOException {
+        sendDueRetries();
+        while (!inFlightRequests.isEmpty() && frameInput.available() > 0) {
+            receiveIndexReply();
+        }
+    }
+
+    // read one INDEX REPLY or BUSY frame and match it with its request
+    // requests whose retry time came are sent first, and if every request in flight waits for its
+    // retry there is no reply to read, so wait for the first retry time instead
+    private void receiveIndexReply() throws IOException {
+        sendDueRetries();
+        while (waitingRetries == inFlightRequests.size()) {
+            long firstRetryTime = Long.MAX_VALUE;
+            for (InFlightRequest inFlight : inFlightRequests.values()) {
+                if (inFlight.waiting && inFlight.retryTime - firstRetryTime < 0) {
+                    firstRetryTime = inFlight.retryTime;
+                }
+            }
+            long sleepNanos = firstRetryTime - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    Thread.sleep(sleepNanos / 1_000_000L, (int) (sleepNanos % 1_000_000L));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting to retry a request");
+                }
+            }
+            sendDueRetries();
+        }
+
+        MessageType message = frameReader.readFrame();
+        if (message == MessageType.BUSY) {
+            BusyResponse busy = frameReader.readBusy();
+            InFlightRequest inFlight = inFlightRequests.get(busy.requestID);
+            if (inFlight == null) {
+                throw new IOException("BUSY for unknown request " + busy.requestID);
+            }
+            if (++inFlight.attempts > MAX_BUSY_RETRIES) {
+                throw new IOException("Server still busy after " + MAX_BUSY_RETRIES + " retries of " + inFlight.label);
+            }
+            inFlight.waiting = true;
+            inFlight.retryTime = System.nanoTime() + retryDelayMillis(inFlight.attempts, busy.retryAfterMillis) * 1_000_000L;
+            waitingRetries++;
+            return;
+        }
+        if (message != MessageType.INDEX_REPLY) {
+            throw new IOException("Unexpected reply to INDEX REQUEST");
+        }
+        IndexResponse response = frameReader.readIndexReply();
+        InFlightRequest inFlight = inFlightRequests.remove(response.requestID);
+        if (inFlight == null) {
+            throw new IOException("INDEX REPLY for unknown request " + response.requestID);
+        }
+        if (!response.success) {
+            System.err.println("Server could not process " + inFlight.label + ": " + response.message);
+        }
+    }
+
+    // send the turned away requests whose retry time came, under their old request IDs
+    private void sendDueRetries() throws IOException {
+        if (waitingRetries == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        boolean sent = false;
+        for (InFlightRequest inFlight : inFlightRequests.values()) {
+            if (!inFlight.waiting || inFlight.retryTime - now > 0) {
+                continue;
+            }
+            if (inFlight.request instanceof IndexBatchRequest) {
+                frameWriter.writeIndexBatch((IndexBatchRequest) inFlight.request);
+            } else if (inFlight.request instanceof IndexRequest) {
+                frameWriter.writeIndexRequest((IndexRequest) inFlight.request);
+            } else {
+                frameWriter.writeDeleteRequest((DeleteRequest) inFlight.request);
+            }
+            inFlight.waiting = false;
+            waitingRetries--;
+            retriedCount++;
+            sent = true;
+        }
+        if (sent) {
+            frameWriter.flush();
+        }
+    }
+
+    // delete the document indexed under the path and client ID, returns false if the server has no such document
+    public boolean deleteDocument(String documentPath, long clientID) {
+        if (!shards.isEmpty()) {
+            ClientProcessingEngine shardEngine = shards.get(shardOf(documentPath, shards.size()));
+            // every server gave this client its own ID
+            return shardEngine.deleteDocument(documentPath, clientID == clientId ? shardEngine.clientId : clientID);
+        }
+        // make sure we are connected to server first
+        if (socket == null || socket.isClosed()) {
+            System.err.println("Not connected to server! Use 'connect <IP> <port>' first.");
+            return false;
+        }
+
+        try {
+            if (protocol == WireProtocol.BINARY) {
+                DeleteRequest request = new DeleteRequest();
+                request.requestID = nextRequestID++;
+                request.clientID = clientID;
+                request.documentPath = documentPath;
+                frameWriter.writeDeleteRequest(request);
+                frameWriter.flush();
+                // no other request is in flight outside indexFolder, the next reply is this one
+                if (frameReader.readFrame() != MessageType.INDEX_REPLY) {
+                    throw new IOException("Unexpected reply to DELETE REQUEST");
+                }
+                return frameReader.readIndexReply().success;
+            }
+            out.println("DELETE REQUEST");
+            out.println(clientID);
+            out.println(documentPath);
+            String reply = in.readLine();
+            if (reply == null) {
+                throw new IOException("Connection closed by the server");
+            }
+            return reply.equals("Document deleted");
+        } catch (IOException e) {
+            System.err.println("Error reading response from server!");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
     public SearchResult search(ArrayList<String> terms) {
+        return search(terms, SearchRequest.DEFAULT_TOP_K);
+    }
+
+    public SearchResult search(ArrayList<String> terms, int topK) {
+        return search(terms, topK, Scoring.FREQUENCY);
+    }
+
+    // TF-IDF and BM25 scores come back in the frequency field of every hit, see Scoring
+    public SearchResult search(ArrayList<String> terms, int topK, Scoring scoring) {
+        return search(Query.conjunction(terms), topK, scoring);
+    }
+
+    // a query with OR, NOT and groups, see QueryParser
+    public SearchResult search(Query query, int topK, Scoring scoring) {
+        if (!shards.isEmpty()) {
+            return searchShards(query, topK, scoring);
+        }
         // make sure we are connected to server first
         if (socket == null || socket.isClosed()) {
             System.err.println("Not connected to server! Use 'connect <IP> <port>' first.");
@@ -135,32 +652,13 @@ public class ClientProcessingEngine {
         // get the start time
         long startTime = System.nanoTime();
 
-        // prepare a SEARCH REQUEST message that includes the search terms and send it to the server
-        out.println("SEARCH REQUEST");
-        out.println(terms.size());
-        
-        for (String term : terms) {
-            out.println(term);
-        }
-
-        // receive one or more SEARCH REPLY messages with the results of the search query
-        if (socket != null && !socket.isClosed()) {
-            try {
-                int size = Integer.parseInt(in.readLine());
-
-                for (int i = 0; i < size; i++) {
-                    String line = in.readLine();
-                    String[] parts = line.split("=");
-                    String documentPath = parts[0];
-                    long wordFrequency = Long.parseLong(parts[1]);
-                    // add top 10 documents and frequencies to result
-                    result.documentFrequencies.add(new DocPathFreqPair(documentPath, wordFrequency));
-                }
-
-            } catch (IOException e) {
-                System.err.println("Error reading response from server!");
-                e.printStackTrace();
-            }
+        try {
+            sendSearchRequest(query, topK, scoring);
+            // add top K documents and frequencies to result
+            result.documentFrequencies.addAll(receiveSearchReply());
+        } catch (IOException e) {
+            System.err.println("Error reading response from server!");
+            e.printStackTrace();
         }
 
         // get the stop time and calculate the execution time
@@ -169,32 +667,237 @@ public class ClientProcessingEngine {
         // convert calcTime to double and seconds
         double execTime = (double) calcTime / 1_000_000_000.0;
 
-        // return the execution time and the top 10 documents and frequencies
+        // return the execution time and the top K documents and frequencies
         result.executionTime = execTime;
 
         return result;
     }
 
+    // scatter-gather: every shard is searched at the same time on one of its replicas, each one returns
+    // its own top K and the top K of the cluster are among them, a replica that fails is replaced by
+    // another one of its shard, a shard without any replica left is missing from the results
+    // TF-IDF and BM25 scores are computed from the statistics of each shard, so they are close to,
+    // but not exactly, what one server holding every document would compute
+    private SearchResult searchShards(Query query, int topK, Scoring scoring) {
+        SearchResult result = new SearchResult(0.0, new ArrayList<DocPathFreqPair>());
+        long startTime = System.nanoTime();
+
+        ReplicaSet.Lease[] leases = new ReplicaSet.Lease[shardReplicas.size()];
+        for (int i = 0; i < leases.length; i++) {
+            leases[i] = sendSearchRequest(shardReplicas.get(i), -1, query, topK, scoring);
+        }
+        ArrayList<DocPathFreqPair> hits = new ArrayList<>();
+        for (int i = 0; i < leases.length; i++) {
+            ReplicaSet replicas = shardReplicas.get(i);
+            ReplicaSet.Lease lease = leases[i];
+            boolean answered = false;
+            // one more replica is asked if the first one fails before it replies
+            for (int attempt = 0; attempt < 2 && lease != null && !answered; attempt++) {
+                try {
+                    hits.addAll(lease.connection.receiveSearchReply());
+                    replicas.release(lease, false);
+                    answered = true;
+                } catch (IOException e) {
+                    System.err.println("Error reading response from " + replicas.getAddress(lease.replica));
+                    replicas.release(lease, true);
+                    lease = attempt == 0 ? sendSearchRequest(replicas, lease.replica, query, topK, scoring) : null;
+                }
+            }
+            if (!answered) {
+                System.err.println("No replica of shard " + i + " answered, its documents are missing");
+            }
+        }
+        // a stable sort, equal frequencies (or scores) stay in shard order and in the order of their server
+        hits.sort((hit1, hit2) -> Long.compare(hit2.wordFrequency, hit1.wordFrequency));
+        result.documentFrequencies.addAll(hits.subList(0, Math.min(topK, hits.size())));
+
+        result.executionTime = (double) (System.nanoTime() - startTime) / 1_000_000_000.0;
+        return result;
+    }
+
+    // send the search to the least loaded replica of a shard other than skip, null if none takes it
+    private static ReplicaSet.Lease sendSearchRequest(ReplicaSet replicas, int skip, Query query,
+            int topK, Scoring scoring) {
+        ReplicaSet.Lease lease;
+        while ((lease = replicas.acquire(skip)) != null) {
+            try {
+                lease.connection.sendSearchRequest(query, topK, scoring);
+                return lease;
+            } catch (IOException e) {
+                System.err.println("Could not send the search to " + replicas.getAddress(lease.replica));
+                replicas.release(lease, true);
+            }
+        }
+        return null;
+    }
+
+    // a conjunction is sent as a list of terms, as before the query language, so any server answers it
+    private void sendSearchRequest(Query query, int topK, Scoring scoring) throws IOException {
+        if (socket == null || socket.isClosed()) {
+            throw new IOException("Not connected to " + serverAddress);
+        }
+        boolean conjunction = query.isConjunction();
+        List<String> terms = conjunction ? query.conjunctionTerms() : query.terms();
+        if (protocol == WireProtocol.BINARY) {
+            SearchRequest request = new SearchRequest();
+            request.terms = terms;
+            request.query = conjunction ? null : query;
+            request.topK = topK;
+            request.scoring = scoring;
+            frameWriter.writeSearchRequest(request);
+            frameWriter.flush();
+            return;
+        }
+
+        // prepare a SEARCH REQUEST message that includes the search terms, the number of
+        // requested results and the scoring unless it is frequency, and send it to the server
+        out.println("SEARCH REQUEST");
+        if (!conjunction) {
+            // any other query goes as one line in the query language
+            out.println("1 " + topK + " " + scoring.toWireFormat() + " query");
+            out.println(query.toString());
+            return;
+        }
+        out.println(terms.size() + " " + topK + (scoring == Scoring.FREQUENCY ? "" : " " + scoring.toWireFormat()));
+        
+        for (String term : terms) {
+            out.println(term);
+        }
+    }
+
+    // the top K documents and frequencies of the reply to sendSearchRequest
+    private ArrayList<DocPathFreqPair> receiveSearchReply() throws IOException {
+        if (protocol == WireProtocol.BINARY) {
+            // receive the SEARCH REPLY frame with the top K documents and frequencies
+            if (frameReader.readFrame() != MessageType.SEARCH_REPLY) {
+                throw new IOException("Unexpected reply to SEARCH REQUEST");
+            }
+            SearchResponse response = frameReader.readSearchReply();
+            return new ArrayList<>(response.results);
+        }
+
+        // receive one or more SEARCH REPLY messages with the results of the search query
+        ArrayList<DocPathFreqPair> results = new ArrayList<>();
+        String sizeLine = in.readLine();
+        if (sizeLine == null) {
+            throw new IOException("Connection closed by the server");
+        }
+        int size = Integer.parseInt(sizeLine);
+
+        for (int i = 0; i < size; i++) {
+            String line = in.readLine();
+            String[] parts = line.split("=");
+            String documentPath = parts[0];
+            long wordFrequency = Long.parseLong(parts[1]);
+            results.add(new DocPathFreqPair(documentPath, wordFrequency));
+        }
+        return results;
+    }
+
     public long getInfo() {
         // return the client ID
         return clientId;
     }
 
+    // the client ID every server of the cluster gave this client, in shard order, empty if connected
+    // to a single server
+    public long[] getShardInfo() {
+        long[] clientIDs = new long[shards.size()];
+        for (int i = 0; i < shards.size(); i++) {
+            clientIDs[i] = shards.get(i).clientId;
+        }
+        return clientIDs;
+    }
+
+    // searches sent to every replica of every shard so far, in shard and replica order
+    public long[][] getReplicaSearchCounts() {
+        long[][] counts = new long[shardReplicas.size()][];
+        for (int i = 0; i < shardReplicas.size(); i++) {
+            counts[i] = shardReplicas.get(i).getSearchCounts();
+        }
+        return counts;
+    }
+
+    // connect to every server of a sharded cluster, one entry per shard, in shard order, which has to
+    // stay the same for as long as the servers keep their documents, an entry is "<IP>:<port>" of the
+    // shard's server, or "<IP>:<port>,<IP>:<port>,..." of its primary and the replicas it forwards to
+    public void connectCluster(List<String> shardAddresses, WireProtocol requestedProtocol) {
+        disconnect();
+        for (int i = 0; i < shardAddresses.size(); i++) {
+            ArrayList<String> replicaAddresses = new ArrayList<>();
+            for (String address : shardAddresses.get(i).split(",")) {
+                if (!address.isEmpty()) {
+                    replicaAddresses.add(address);
+                }
+            }
+            String primary = replicaAddresses.isEmpty() ? "" : replicaAddresses.get(0);
+            int colon = primary.lastIndexOf(':');
+            ClientProcessingEngine shardEngine = new ClientProcessingEngine();
+            shardEngine.shard = i;
+            shardEngine.shardCount = shardAddresses.size();
+            if (colon > 0) {
+                shardEngine.connect(primary.substring(0, colon), primary.substring(colon + 1), requestedProtocol);
+            }
+            shards.add(shardEngine);
+            ReplicaSet replicas = new ReplicaSet(replicaAddresses, requestedProtocol);
+            shardReplicas.add(replicas);
+            if (!shardEngine.isConnected()) {
+                System.err.println("Could not connect to shard " + i + " at " + primary);
+                disconnect();
+                return;
+            }
+            // a replica that is down now is only skipped, searches go to the others
+            if (!replicas.connectAll()) {
+                System.err.println("Could not connect to every replica of shard " + i);
+            }
+        }
+        clientId = shards.get(0).clientId;
+        System.out.println("Connected to " + shards.size() + " shards");
+    }
+
+    boolean isConnected() {
+        return socket != null && !socket.isClosed();
+    }
+
     public void connect(String serverIP, String serverPort) {
+        connect(serverIP, serverPort, WireProtocol.BINARY);
+    }
+
+    // the requested protocol is only used if the server accepts it, otherwise the connection stays text
+    public void connect(String serverIP, String serverPort, WireProtocol requestedProtocol) {
+        // a single server replaces the cluster
+        if (!shards.isEmpty()) {
+            disconnect();
+        }
         try {
             // create a new TCP/IP socket and connect to the server
             socket = new Socket(serverIP, Integer.parseInt(serverPort));
+            serverAddress = serverIP + ":" + serverPort;
 
             // for handing I/O streams
             out = new PrintWriter(socket.getOutputStream(), true);
             in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
 
             // send a REGISTER REQUEST message and receive a REGISTER REPLY message with the client ID
-            out.println("REGISTER REQUEST");
+            // and the protocol accepted by the server
+            if (requestedProtocol == WireProtocol.TEXT) {
+                out.println("REGISTER REQUEST");
+            } else {
+                out.println("REGISTER REQUEST " + requestedProtocol.toWireFormat());
+            }
 
-            String response = in.readLine();
-            clientId = Long.parseLong(response);
-            System.out.println("Connection successful!");
+            String[] response = in.readLine().trim().split(" ");
+            clientId = Long.parseLong(response[0]);
+            protocol = response.length > 1 ? WireProtocol.fromWireFormat(response[1]) : WireProtocol.TEXT;
+            if (protocol == WireProtocol.BINARY) {
+                // the server sends nothing after the REGISTER REPLY until it gets a request,
+                // so the text reader holds no buffered bytes of the frames that follow
+                frameInput = new BufferedInputStream(socket.getInputStream());
+                frameReader = new BinaryFrameReader(frameInput);
+                frameWriter = new BinaryFrameWriter(new BufferedOutputStream(socket.getOutputStream()));
+                clearIndexState();
+            }
+            System.out.println("Connection successful! (" + protocol.toWireFormat() + " protocol)");
 
         } catch (UnknownHostException e) {
             System.err.println("Unknown host: " + serverIP);
@@ -206,10 +909,23 @@ public class ClientProcessingEngine {
     }
 
     public void disconnect() {
+        for (ClientProcessingEngine shardEngine : shards) {
+            shardEngine.disconnect();
+        }
+        shards.clear();
+        for (ReplicaSet replicas : shardReplicas) {
+            replicas.close();
+        }
+        shardReplicas.clear();
         if (socket != null && !socket.isClosed()) {
             try {
                 // send a QUIT message to the server
-                out.println("QUIT");
+                if (protocol == WireProtocol.BINARY) {
+                    frameWriter.writeQuit();
+                    frameWriter.flush();
+                } else {
+                    out.println("QUIT");
+                }
 
                 // close streams
                 if (in != null) in.close();
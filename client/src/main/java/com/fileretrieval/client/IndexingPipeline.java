@@ -0,0 +1,254 @@
+package com.fileretrieval.client;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// the crawling and tokenizing stages of one indexFolder call:
+//   crawler thread -> bounded path queue -> tokenizer threads -> bounded document queue -> sender
+// the sender is the thread calling next(), which owns the connection to the server
+// both queues are bounded, a stage that runs ahead blocks until the next one catches up, so at most
+// PATH_QUEUE_CAPACITY paths and DOCUMENT_QUEUE_CAPACITY tokenized documents wait in memory
+// however large the folder is
+// with a manifest only new and changed files reach the sender: the crawler skips files whose size and
+// modification time did not change, the tokenizers drop files whose content hash did not change
+// (a touched file), both record every file they saw in the manifest
+class IndexingPipeline {
+    static final int PATH_QUEUE_CAPACITY = 4096;
+    static final int DOCUMENT_QUEUE_CAPACITY = 64;
+
+    // a tokenized file on its way from a tokenizer to the sender
+    static class TokenizedDocument {
+        final String documentPath;
+        final HashMap<String, Long> wordFrequencies;
+
+        TokenizedDocument(String documentPath, HashMap<String, Long> wordFrequencies) {
+            this.documentPath = documentPath;
+            this.wordFrequencies = wordFrequencies;
+        }
+    }
+
+    // a file on its way from the crawler to a tokenizer, with the attributes the crawler read
+    private static class CrawledFile {
+        final Path path;
+        final long size;
+        final long modifiedTime;
+
+        CrawledFile(Path path, long size, long modifiedTime) {
+            this.path = path;
+            this.size = size;
+            this.modifiedTime = modifiedTime;
+        }
+    }
+
+    // end markers, the crawler queues one per tokenizer and every tokenizer queues one when it is done
+    private static final CrawledFile END_OF_PATHS = new CrawledFile(Paths.get(""), 0, 0);
+    private static final TokenizedDocument END_OF_DOCUMENTS = new TokenizedDocument(null, null);
+
+    private final Path folder;
+    private final int tokenizerThreads;
+    // files of at least this many bytes are memory-mapped by the tokenizers
+    private final long mapThreshold;
+    // null to send every file
+    private final Manifest manifest;
+    // sharded cluster: only the files with ClientProcessingEngine.shardOf(path, shardCount) == shard
+    private int shard = 0;
+    private int shardCount = 1;
+    private final ArrayBlockingQueue<CrawledFile> paths = new ArrayBlockingQueue<>(PATH_QUEUE_CAPACITY);
+    private final ArrayBlockingQueue<TokenizedDocument> documents = new ArrayBlockingQueue<>(DOCUMENT_QUEUE_CAPACITY);
+    private final ArrayList<Thread> threads = new ArrayList<>();
+    private volatile boolean cancelled = false;
+    // false if the folder could not be walked to the end, the files missing from the manifest may still exist
+    private volatile boolean crawlComplete = false;
+    // only used by the sender
+    private int finishedTokenizers = 0;
+
+    // stage statistics, busy time excludes the time a stage was blocked on a queue
+    private final AtomicLong crawledFiles = new AtomicLong();
+    private final AtomicLong crawlNanos = new AtomicLong();
+    private final AtomicLong tokenizeNanos = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong unchangedFiles = new AtomicLong();
+
+    IndexingPipeline(Path folder, int tokenizerThreads, long mapThreshold) {
+        this(folder, tokenizerThreads, mapThreshold, null);
+    }
+
+    IndexingPipeline(Path folder, int tokenizerThreads, long mapThreshold, Manifest manifest) {
+        this.folder = folder;
+        this.tokenizerThreads = Math.max(1, tokenizerThreads);
+        this.mapThreshold = mapThreshold;
+        this.manifest = manifest;
+    }
+
+    // only crawl the files of one shard, called before start
+    void setShard(int shard, int shardCount) {
+        this.shard = shard;
+        this.shardCount = Math.max(1, shardCount);
+    }
+
+    void start() {
+        Thread crawler = new Thread(this::crawl, "index-crawler");
+        threads.add(crawler);
+        for (int i = 0; i < tokenizerThreads; i++) {
+            threads.add(new Thread(this::tokenizeFiles, "index-tokenizer-" + i));
+        }
+        for (Thread thread : threads) {
+            // never keep the client alive if the sender gave up
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    // the next tokenized document, null if none arrived within timeoutMillis or if every file was handed out
+    TokenizedDocument next(long timeoutMillis) throws InterruptedException {
+        while (finishedTokenizers < tokenizerThreads) {
+            TokenizedDocument document = documents.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+            if (document != END_OF_DOCUMENTS) {
+                return document;
+            }
+            finishedTokenizers++;
+        }
+        return null;
+    }
+
+    boolean isFinished() {
+        return finishedTokenizers == tokenizerThreads;
+    }
+
+    // stop the crawler and the tokenizers, used when the sender cannot go on
+    void cancel() {
+        cancelled = true;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+    }
+
+    long getCrawledFiles() {
+        return crawledFiles.get();
+    }
+
+    long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    boolean isCrawlComplete() {
+        return crawlComplete;
+    }
+
+    // files left out because the manifest shows they did not change
+    long getUnchangedFiles() {
+        return unchangedFiles.get();
+    }
+
+    int getTokenizerThreads() {
+        return tokenizerThreads;
+    }
+
+    double getCrawlTime() {
+        return (double) crawlNanos.get() / 1_000_000_000.0;
+    }
+
+    // summed over the tokenizer threads
+    double getTokenizeTime() {
+        return (double) tokenizeNanos.get() / 1_000_000_000.0;
+    }
+
+    // walk the folder and queue every regular file, blocks while the tokenizers are behind
+    private void crawl() {
+        long busyStart = System.nanoTime();
+        try (Stream<Path> walk = Files.walk(folder)) {
+            Iterator<Path> iterator = walk.iterator();
+            while (!cancelled && iterator.hasNext()) {
+                Path path = iterator.next();
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    continue;
+                }
+                if (!attributes.isRegularFile()) {
+                    continue;
+                }
+                if (shardCount > 1 && ClientProcessingEngine.shardOf(path.toString(), shardCount) != shard) {
+                    continue;
+                }
+                crawledFiles.incrementAndGet();
+                long size = attributes.size();
+                long modifiedTime = attributes.lastModifiedTime().toMillis();
+                if (manifest != null) {
+                    Manifest.Entry entry = manifest.unchanged(path.toString(), size, modifiedTime);
+                    if (entry != null) {
+                        manifest.record(path.toString(), entry);
+                        unchangedFiles.incrementAndGet();
+                        continue;
+                    }
+                }
+                crawlNanos.addAndGet(System.nanoTime() - busyStart);
+                paths.put(new CrawledFile(path, size, modifiedTime));
+                busyStart = System.nanoTime();
+            }
+            crawlNanos.addAndGet(System.nanoTime() - busyStart);
+            crawlComplete = !cancelled;
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Error crawling " + folder);
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            return;
+        }
+
+        try {
+            for (int i = 0; i < tokenizerThreads; i++) {
+                paths.put(END_OF_PATHS);
+            }
+        } catch (InterruptedException e) {
+            // cancelled
+        }
+    }
+
+    private void tokenizeFiles() {
+        // extract the words/terms of each file and count their frequencies
+        ByteTokenizer tokenizer = new ByteTokenizer(mapThreshold);
+        try {
+            CrawledFile file;
+            while ((file = paths.take()) != END_OF_PATHS) {
+                long busyStart = System.nanoTime();
+                HashMap<String, Long> wordFrequencies;
+                try {
+                    // increment the total number of read bytes
+                    bytesRead.addAndGet(file.size);
+                    wordFrequencies = tokenizer.tokenize(file.path);
+                } catch (IOException e) {
+                    System.err.println("Could not read " + file.path + ": " + e.getMessage());
+                    continue;
+                } finally {
+                    tokenizeNanos.addAndGet(System.nanoTime() - busyStart);
+                }
+                String documentPath = file.path.toString();
+                if (manifest != null) {
+                    long contentHash = tokenizer.contentHash();
+                    boolean sameContent = manifest.sameContent(documentPath, file.size, contentHash);
+                    manifest.record(documentPath, new Manifest.Entry(file.size, file.modifiedTime, contentHash));
+                    if (sameContent) {
+                        unchangedFiles.incrementAndGet();
+                        continue;
+                    }
+                }
+                documents.put(new TokenizedDocument(documentPath, wordFrequencies));
+            }
+            documents.put(END_OF_DOCUMENTS);
+        } catch (InterruptedException e) {
+            // cancelled
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.fileretrieval.client;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// the files of a folder as they were when the folder was last indexed on a server: size, modification
+// time and content hash per document path, and the client ID the documents were indexed under
+// one manifest per server and folder, a text file in the manifest directory:
+//   server <host>:<port>
+//   folder <absolute folder path>
+//   client <client ID>
+//   <size> TAB <modification time in ms> TAB <content hash in hex> TAB <document path>   (one line per file)
+// entries of the previous run are read only, the crawler and the tokenizers record the files of the
+// current run concurrently, the files left over in the previous entries were deleted from the folder
+// the manifest is only saved after every document of the run was acknowledged by the server
+class Manifest {
+    static class Entry {
+        final long size;
+        final long modifiedTime;
+        final long contentHash;
+
+        Entry(long size, long modifiedTime, long contentHash) {
+            this.size = size;
+            this.modifiedTime = modifiedTime;
+            this.contentHash = contentHash;
+        }
+    }
+
+    private final Path file;
+    private final String server;
+    private final String folder;
+    // 0 if the folder was never indexed on the server
+    private long clientID = 0;
+    // send every file again, the previous entries only tell which files were deleted
+    private boolean full = false;
+    private final Map<String, Entry> previous = new ConcurrentHashMap<>();
+    private final Map<String, Entry> current = new ConcurrentHashMap<>();
+
+    private Manifest(Path file, String server, String folder) {
+        this.file = file;
+        this.server = server;
+        this.folder = folder;
+    }
+
+    // the manifest of the folder on the server, empty if there is none yet
+    static Manifest load(Path directory, String server, Path folder) throws IOException {
+        String folderName = folder.toAbsolutePath().normalize().toString();
+        // the file name only spreads the manifests, the header tells whether it is the right one
+        String fileName = String.format("%08x.manifest", (server + "\n" + folderName).hashCode());
+        Manifest manifest = new Manifest(directory.resolve(fileName), server, folderName);
+
+        try (BufferedReader reader = Files.newBufferedReader(manifest.file, StandardCharsets.UTF_8)) {
+            if (!("server " + server).equals(reader.readLine()) || !("folder " + folderName).equals(reader.readLine())) {
+                return manifest;
+            }
+            String clientLine = reader.readLine();
+            if (clientLine == null || !clientLine.startsWith("client ")) {
+                return manifest;
+            }
+            long clientID = Long.parseLong(clientLine.substring(7));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 4);
+                if (fields.length < 4) {
+                    continue;
+                }
+                manifest.previous.put(fields[3], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                    Long.parseUnsignedLong(fields[2], 16)));
+            }
+            manifest.clientID = clientID;
+        } catch (NoSuchFileException e) {
+            // first run for this folder
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring damaged manifest " + manifest.file);
+            manifest.previous.clear();
+        }
+        return manifest;
+    }
+
+    long getClientID() {
+        return clientID;
+    }
+
+    void setClientID(long clientID) {
+        this.clientID = clientID;
+    }
+
+    void setFull(boolean full) {
+        this.full = full;
+    }
+
+    // the entry of the previous run if the file still has the same size and modification time
+    Entry unchanged(String documentPath, long size, long modifiedTime) {
+        Entry entry = full ? null : previous.get(documentPath);
+        if (entry != null && entry.size == size && entry.modifiedTime == modifiedTime) {
+            return entry;
+        }
+        return null;
+    }
+
+    // true if the file was indexed before with the same size and content
+    boolean sameContent(String documentPath, long size, long contentHash) {
+        Entry entry = full ? null : previous.get(documentPath);
+        return entry != null && entry.size == size && entry.contentHash == contentHash;
+    }
+
+    void record(String documentPath, Entry entry) {
+        current.put(documentPath, entry);
+    }
+
+    // document paths of the previous run that are gone from the folder, call once the crawl is over
+    ArrayList<String> removedPaths() {
+        ArrayList<String> removed = new ArrayList<>();
+        for (String documentPath : previous.keySet()) {
+            if (!current.containsKey(documentPath)) {
+                removed.add(documentPath);
+            }
+        }
+        return removed;
+    }
+
+    // write the files of the current run, through a temporary file so a crash leaves the old manifest
+    void save() throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            writer.write("server " + server + "\n");
+            writer.write("folder " + folder + "\n");
+            writer.write("client " + clientID + "\n");
+            for (Map.Entry<String, Entry> entry : current.entrySet()) {
+                Entry value = entry.getValue();
+                writer.write(value.size + "\t" + value.modifiedTime + "\t" + Long.toHexString(value.contentHash)
+                    + "\t" + entry.getKey() + "\n");
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,173 @@
+package com.fileretrieval.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.fileretrieval.common.protocol.WireProtocol;
+
+// the servers holding a copy of one shard, the first one is the primary the documents are indexed on,
+// searches go to the replica with the fewest searches of this client outstanding (least outstanding
+// requests), ties are taken in turn, a busy or slow replica gets fewer searches as its replies take
+// longer to come back
+// connections are only used by one search at a time, idle ones are kept per replica and a search that
+// finds none opens one, so several threads can search through the set at once
+// a replica that fails is skipped for FAILED_MILLIS, then tried again
+class ReplicaSet {
+    static final long FAILED_MILLIS = 1000;
+
+    // a connection taken for one search, handed back with release
+    static class Lease {
+        final int replica;
+        final ClientProcessingEngine connection;
+
+        Lease(int replica, ClientProcessingEngine connection) {
+            this.replica = replica;
+            this.connection = connection;
+        }
+    }
+
+    private final String[] addresses;
+    private final WireProtocol protocol;
+    private final Lock lock = new ReentrantLock();
+    private final int[] outstanding;
+    private final long[] searches;
+    private final long[] failedUntil;
+    private final ArrayList<ArrayDeque<ClientProcessingEngine>> idle = new ArrayList<>();
+    // where the search for the least loaded replica starts, moves on with every search
+    private int next = 0;
+
+    ReplicaSet(List<String> addresses, WireProtocol protocol) {
+        this.addresses = addresses.toArray(new String[0]);
+        this.protocol = protocol;
+        outstanding = new int[this.addresses.length];
+        searches = new long[this.addresses.length];
+        failedUntil = new long[this.addresses.length];
+        for (int i = 0; i < this.addresses.length; i++) {
+            idle.add(new ArrayDeque<>());
+        }
+    }
+
+    int size() {
+        return addresses.length;
+    }
+
+    String getAddress(int replica) {
+        return addresses[replica];
+    }
+
+    // a connection to the replica with the fewest outstanding searches, except the one in skip (-1 for
+    // none), null if no replica could be connected to
+    Lease acquire(int skip) {
+        while (true) {
+            int replica = -1;
+            ClientProcessingEngine connection;
+            lock.lock();
+            try {
+                long now = System.currentTimeMillis();
+                for (int i = 0; i < addresses.length; i++) {
+                    int candidate = (next + i) % addresses.length;
+                    if (candidate == skip || failedUntil[candidate] > now) {
+                        continue;
+                    }
+                    if (replica < 0 || outstanding[candidate] < outstanding[replica]) {
+                        replica = candidate;
+                    }
+                }
+                if (replica < 0) {
+                    return null;
+                }
+                next = (next + 1) % addresses.length;
+                outstanding[replica]++;
+                searches[replica]++;
+                connection = idle.get(replica).poll();
+            } finally {
+                lock.unlock();
+            }
+            if (connection == null) {
+                connection = connect(replica);
+            }
+            if (connection != null) {
+                return new Lease(replica, connection);
+            }
+            release(new Lease(replica, null), true);
+        }
+    }
+
+    // hand the connection back, a failed one is closed and its replica skipped for a while
+    void release(Lease lease, boolean failed) {
+        lock.lock();
+        try {
+            outstanding[lease.replica]--;
+            if (failed) {
+                failedUntil[lease.replica] = System.currentTimeMillis() + FAILED_MILLIS;
+            } else {
+                idle.get(lease.replica).push(lease.connection);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (failed && lease.connection != null) {
+            lease.connection.disconnect();
+        }
+    }
+
+    // open the first connection to every replica, so that failures show up at connect time
+    boolean connectAll() {
+        boolean connected = true;
+        for (int i = 0; i < addresses.length; i++) {
+            ClientProcessingEngine connection = connect(i);
+            lock.lock();
+            try {
+                if (connection == null) {
+                    failedUntil[i] = System.currentTimeMillis() + FAILED_MILLIS;
+                    connected = false;
+                } else {
+                    idle.get(i).push(connection);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return connected;
+    }
+
+    private ClientProcessingEngine connect(int replica) {
+        String address = addresses[replica];
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0) {
+            return null;
+        }
+        ClientProcessingEngine connection = new ClientProcessingEngine();
+        connection.connect(address.substring(0, colon), address.substring(colon + 1), protocol);
+        return connection.isConnected() ? connection : null;
+    }
+
+    // searches sent to every replica so far
+    long[] getSearchCounts() {
+        lock.lock();
+        try {
+            return searches.clone();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        ArrayList<ClientProcessingEngine> connections = new ArrayList<>();
+        lock.lock();
+        try {
+            for (ArrayDeque<ClientProcessingEngine> replicaConnections : idle) {
+                connections.addAll(replicaConnections);
+                replicaConnections.clear();
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (ClientProcessingEngine connection : connections) {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.fileretrieval.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import com.fileretrieval.common.dto.IndexResult;
+import com.fileretrieval.common.protocol.BinaryFrameReader;
+import com.fileretrieval.common.protocol.BinaryFrameWriter;
+import com.fileretrieval.common.protocol.BusyResponse;
+import com.fileretrieval.common.protocol.IndexBatchRequest;
+import com.fileretrieval.common.protocol.IndexRequest;
+import com.fileretrieval.common.protocol.IndexResponse;
+import com.fileretrieval.common.protocol.MessageType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+// the client against a server that turns every request away with BUSY before it accepts it:
+// nothing may be dropped, and the requests come back under their own IDs after a jittered delay
+public class BusyRetryTest {
+    private static final long RETRY_AFTER_MILLIS = 40;
+    private static final int FILES = 30;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // a binary server that answers the first attempt of every request with BUSY, and the first
+    // two of every third one, and acknowledges the next one
+    private static class BusyServer implements Runnable {
+        final ServerSocket serverSocket;
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        // attempts and time of the last BUSY per request ID
+        final HashMap<Long, Integer> attempts = new HashMap<>();
+        final HashMap<Long, Long> busyTimes = new HashMap<>();
+        // delay between a BUSY and the request coming back, and the attempt it was for
+        final ArrayList<long[]> retryDelays = new ArrayList<>();
+        final ArrayList<String> acknowledgedPaths = new ArrayList<>();
+        int busyCount = 0;
+
+        BusyServer() throws IOException {
+            serverSocket = new ServerSocket(0);
+        }
+
+        @Override
+        public void run() {
+            try (Socket socket = serverSocket.accept()) {
+                InputStream in = socket.getInputStream();
+                while (in.read() != '\n') {
+                    // the REGISTER REQUEST line
+                }
+                OutputStream out = socket.getOutputStream();
+                out.write("42 binary\n".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                BinaryFrameReader reader = new BinaryFrameReader(new BufferedInputStream(in));
+                BinaryFrameWriter writer = new BinaryFrameWriter(new BufferedOutputStream(out));
+                MessageType message;
+                while ((message = reader.readFrame()) != null && message != MessageType.QUIT) {
+                    long requestID;
+                    List<String> paths;
+                    if (message == MessageType.INDEX_REQUEST) {
+                        IndexRequest request = reader.readIndexRequest();
+                        requestID = request.requestID;
+                        paths = List.of(request.documentPath);
+                    } else if (message == MessageType.INDEX_BATCH) {
+                        IndexBatchRequest request = reader.readIndexBatch();
+                        requestID = request.requestID;
+                        paths = request.documentPaths;
+                    } else {
+                        throw new IOException("Unexpected frame " + message.toWireFormat());
+                    }
+                    long now = System.nanoTime();
+                    int attempt = attempts.merge(requestID, 1, Integer::sum);
+                    if (attempt > 1) {
+                        retryDelays.add(new long[] {attempt - 1, now - busyTimes.get(requestID)});
+                    }
+                    if (attempt == 1 || (attempt == 2 && requestID % 3 == 0)) {
+                        BusyResponse busy = new BusyResponse();
+                        busy.requestID = requestID;
+                        busy.retryAfterMillis = RETRY_AFTER_MILLIS;
+                        writer.writeBusy(busy);
+                        busyTimes.put(requestID, System.nanoTime());
+                        busyCount++;
+                    } else {
+                        IndexResponse response = new IndexResponse();
+                        response.requestID = requestID;
+                        response.success = true;
+                        response.message = "IndexStore updated successfully!";
+                        writer.writeIndexReply(response);
+                        acknowledgedPaths.addAll(paths);
+                    }
+                    writer.flush();
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+    }
+
+    @Test
+    public void busyRequestsAreSentAgainAfterAJitteredDelay() throws Exception {
+        Path documents = folder.newFolder("documents").toPath();
+        HashSet<String> expectedPaths = new HashSet<>();
+        for (int i = 0; i < FILES; i++) {
+            Path file = documents.resolve("document" + i + ".txt");
+            Files.write(file, ("moonlight river number" + i + " galaxy").getBytes(StandardCharsets.UTF_8));
+            expectedPaths.add(file.toString());
+        }
+
+        BusyServer server = new BusyServer();
+        Thread serverThread = new Thread(server);
+        serverThread.start();
+        ClientProcessingEngine engine = new ClientProcessingEngine();
+        engine.setIndexWindow(8);
+        // batches and single requests, both have to be sent again
+        engine.setBatchLimits(4, ClientProcessingEngine.DEFAULT_BATCH_BYTES, 5);
+        engine.connect("127.0.0.1", String.valueOf(server.serverSocket.getLocalPort()));
+        IndexResult result = engine.indexFolder(documents.toString());
+        engine.disconnect();
+        serverThread.join(TimeUnit.SECONDS.toMillis(30));
+        server.serverSocket.close();
+        if (server.failure.get() != null) {
+            throw new AssertionError("server failed", server.failure.get());
+        }
+
+        // every file acknowledged exactly once, none dropped
+        assertEquals(FILES, result.documentCount);
+        assertEquals(FILES, server.acknowledgedPaths.size());
+        assertEquals(expectedPaths, new HashSet<>(server.acknowledgedPaths));
+        assertEquals(server.busyCount, result.retriedCount);
+        assertEquals(server.busyCount, server.retryDelays.size());
+        assertTrue(server.busyCount > server.attempts.size());
+
+        // the delay of the n-th retry is the server's estimate doubled n - 1 times, +-50%, the upper bound
+        // leaves room for the client being slow to notice the retry time came
+        HashSet<Long> distinctDelays = new HashSet<>();
+        for (long[] retry : server.retryDelays) {
+            long base = RETRY_AFTER_MILLIS << (retry[0] - 1);
+            long delayMillis = TimeUnit.NANOSECONDS.toMillis(retry[1]);
+            assertTrue("retry " + retry[0] + " after " + delayMillis + " ms", delayMillis >= base / 2);
+            assertTrue("retry " + retry[0] + " after " + delayMillis + " ms", delayMillis <= base * 3 / 2 + 1000);
+            distinctDelays.add(retry[1] / 1_000_000L);
+        }
+        // jittered, not all the same
+        assertTrue(distinctDelays.size() > 1);
+    }
+}
@@ -0,0 +1,176 @@
+package com.fileretrieval.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.zip.CRC32C;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+// ByteTokenizer has to count the same words as the line-by-line regex split it replaced
+public class ByteTokenizerTest {
+    // the read buffer the tokenizer starts with
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String WORD_CHARACTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789_-";
+    private static final String[] SEPARATORS = {" ", "  ", "\n", "\r\n", ", ", ".", "\t", "(", ")!", "é", "日本",
+        "🌙", "'"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // what the client counted before ByteTokenizer: every line split on the regex, words longer than 3
+    private static HashMap<String, Long> regexCount(byte[] content) {
+        HashMap<String, Long> frequencies = new HashMap<>();
+        for (String line : new String(content, StandardCharsets.UTF_8).split("\r?\n|\r")) {
+            for (String word : line.split("[^a-zA-Z0-9_-]+")) {
+                if (word.length() > 3) {
+                    frequencies.merge(word, 1L, Long::sum);
+                }
+            }
+        }
+        return frequencies;
+    }
+
+    private static long crc32c(byte[] content) {
+        CRC32C checksum = new CRC32C();
+        checksum.update(content);
+        return checksum.getValue();
+    }
+
+    private Path write(String name, byte[] content) throws IOException {
+        Path file = folder.getRoot().toPath().resolve(name);
+        Files.write(file, content);
+        return file;
+    }
+
+    private static String word(Random random, int length) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            word.append(WORD_CHARACTERS.charAt(random.nextInt(WORD_CHARACTERS.length())));
+        }
+        return word.toString();
+    }
+
+    // words of 1 to 12 characters, many of them repeated, between ASCII and multi-byte separators
+    private static byte[] randomText(Random random, int size) {
+        String[] vocabulary = new String[300];
+        for (int i = 0; i < vocabulary.length; i++) {
+            vocabulary[i] = word(random, 1 + random.nextInt(12));
+        }
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        while (text.size() < size) {
+            String word = random.nextInt(4) == 0 ? word(random, 1 + random.nextInt(12))
+                : vocabulary[random.nextInt(vocabulary.length)];
+            text.writeBytes(word.getBytes(StandardCharsets.UTF_8));
+            text.writeBytes(SEPARATORS[random.nextInt(SEPARATORS.length)].getBytes(StandardCharsets.UTF_8));
+        }
+        return text.toByteArray();
+    }
+
+    // put a word of the given length so it crosses offset, with separators around it
+    private static byte[] withWordAcross(byte[] content, int offset, String word) {
+        int start = offset - word.length() / 2;
+        byte[] placed = content.clone();
+        placed[start - 1] = ' ';
+        System.arraycopy(word.getBytes(StandardCharsets.US_ASCII), 0, placed, start, word.length());
+        placed[start + word.length()] = ' ';
+        return placed;
+    }
+
+    private static void assertTokenizes(ByteTokenizer tokenizer, Path file, byte[] content) throws IOException {
+        HashMap<String, Long> frequencies = tokenizer.tokenize(file);
+        assertEquals(regexCount(content), frequencies);
+        assertEquals(crc32c(content), tokenizer.contentHash());
+    }
+
+    @Test
+    public void countsWordsAcrossReadBufferBoundaries() throws IOException {
+        Random random = new Random(13);
+        byte[] content = randomText(random, 5 * BUFFER_SIZE + 123);
+        // words that straddle the first and the second buffer boundary
+        content = withWordAcross(content, BUFFER_SIZE, "straddling");
+        content = withWordAcross(content, 2 * BUFFER_SIZE, "boundaryword");
+        Path file = write("straddle.txt", content);
+        ByteTokenizer tokenizer = new ByteTokenizer();
+        assertTokenizes(tokenizer, file, content);
+        assertTrue(tokenizer.tokenize(file).containsKey("straddling"));
+
+        // the buffer and the table are reused for the next file
+        byte[] small = "moon river moon, galaxy-far galaxy_far\nend".getBytes(StandardCharsets.UTF_8);
+        assertTokenizes(tokenizer, write("small.txt", small), small);
+    }
+
+    @Test
+    public void countsAWordLongerThanTheReadBuffer() throws IOException {
+        Random random = new Random(17);
+        String longWord = word(random, 3 * BUFFER_SIZE + 7);
+        byte[] content = ("before words " + longWord + " after words\n" + longWord + "\nlast")
+            .getBytes(StandardCharsets.UTF_8);
+        Path file = write("long.txt", content);
+        ByteTokenizer tokenizer = new ByteTokenizer();
+        assertTokenizes(tokenizer, file, content);
+        assertEquals(Long.valueOf(2), tokenizer.tokenize(file).get(longWord));
+
+        // a file that ends in the middle of a long word
+        byte[] unterminated = ("word " + longWord).getBytes(StandardCharsets.UTF_8);
+        assertTokenizes(tokenizer, write("unterminated.txt", unterminated), unterminated);
+    }
+
+    @Test
+    public void treatsNonAsciiBytesAsSeparators() throws IOException {
+        Random random = new Random(19);
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        while (text.size() < 3 * BUFFER_SIZE) {
+            text.writeBytes(word(random, 1 + random.nextInt(10)).getBytes(StandardCharsets.US_ASCII));
+            // any byte above 0x7F, also ones that are not valid UTF-8
+            int nonAscii = 1 + random.nextInt(3);
+            for (int i = 0; i < nonAscii; i++) {
+                text.write(0x80 + random.nextInt(0x80));
+            }
+        }
+        byte[] content = text.toByteArray();
+        assertTokenizes(new ByteTokenizer(), write("binary.txt", content), content);
+    }
+
+    @Test
+    public void mappedFilesCountTheSameWordsAcrossRegions() throws IOException {
+        Random random = new Random(23);
+        byte[] content = randomText(random, 3 * BUFFER_SIZE);
+        // regions of 4 KB: most of them end in the middle of a word
+        ByteTokenizer mapped = new ByteTokenizer(1, 4096);
+        Path file = write("mapped.txt", content);
+        assertTokenizes(mapped, file, content);
+
+        // a word longer than a region makes it map twice, four times ... as much
+        String longWord = word(random, 20_000);
+        byte[] long1 = ("start " + longWord + " middle " + longWord).getBytes(StandardCharsets.UTF_8);
+        assertTokenizes(mapped, write("mapped-long.txt", long1), long1);
+        // and a region that starts with a word left open by the previous one
+        byte[] edge = withWordAcross(content, 4096, "regionedge");
+        assertTokenizes(mapped, write("mapped-edge.txt", edge), edge);
+
+        // the same counts and hash as the read path
+        ByteTokenizer read = new ByteTokenizer();
+        assertEquals(read.tokenize(file), mapped.tokenize(file));
+        assertEquals(read.contentHash(), mapped.contentHash());
+    }
+
+    @Test
+    public void hashesEmptyAndTinyFiles() throws IOException {
+        byte[] empty = new byte[0];
+        ByteTokenizer tokenizer = new ByteTokenizer(0);
+        assertTokenizes(tokenizer, write("empty.txt", empty), empty);
+        byte[] tiny = "abc".getBytes(StandardCharsets.UTF_8);
+        assertTokenizes(tokenizer, write("tiny.txt", tiny), tiny);
+        byte[] one = "word".getBytes(StandardCharsets.UTF_8);
+        assertTokenizes(tokenizer, write("one.txt", one), one);
+    }
+}
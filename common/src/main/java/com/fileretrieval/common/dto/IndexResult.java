@@ -4,6 +4,21 @@ public class IndexResult {
   public double executionTime;
   public long totalBytesRead;
 
+  // per-stage figures of the client indexing pipeline, in seconds of busy time, the stages overlap
+  // crawlTime: walking the folder, tokenizeTime: reading and tokenizing files summed over all
+  // tokenizer threads, sendTime: sending documents and waiting for INDEX REPLYs
+  public long documentCount;
+  // incremental indexing: files left out because they did not change, and documents deleted
+  // because their files are gone
+  public long unchangedCount;
+  public long deletedCount;
+  // requests sent again because the server was busy
+  public long retriedCount;
+  public int tokenizerThreads;
+  public double crawlTime;
+  public double tokenizeTime;
+  public double sendTime;
+
   public IndexResult(double executionTime, long totalBytesRead) {
     this.executionTime = executionTime;
     this.totalBytesRead = totalBytesRead;
@@ -0,0 +1,300 @@
+package com.fileretrieval.common.protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import com.fileretrieval.common.dto.DocPathFreqPair;
+
+// decodes frames written by BinaryFrameWriter, one reader per connection
+// the frame header is read byte by byte, so the input stream should be buffered
+// readFrame() loads the next payload into a reusable buffer and returns its type, the matching
+// read method then decodes it (or setFrame() hands over a payload that is already in memory)
+public class BinaryFrameReader {
+    // refuse frames above this size instead of allocating whatever a corrupt header claims
+    public static final int MAX_FRAME_SIZE = 256 << 20;
+
+    private final InputStream in;
+    private byte[] buffer = new byte[8192];
+    private int position;
+    private int limit;
+    private int[] termLengths = new int[256];
+
+    public BinaryFrameReader(InputStream in) {
+        this.in = in;
+    }
+
+    // read the next frame, returns null if the connection was closed between two frames
+    public MessageType readFrame() throws IOException {
+        int opcode = in.read();
+        if (opcode < 0) {
+            return null;
+        }
+        MessageType type;
+        try {
+            type = MessageType.fromOpcode((byte) opcode);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+
+        long length = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Connection closed inside a frame header");
+            }
+            length |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            if (shift > 28) {
+                throw new IOException("Malformed frame length");
+            }
+        }
+        if (length > MAX_FRAME_SIZE) {
+            throw new IOException("Frame of " + length + " bytes exceeds the limit of " + MAX_FRAME_SIZE);
+        }
+
+        if (buffer.length < length || buffer.length > (1 << 20) && length <= 8192) {
+            buffer = new byte[Math.max(8192, (int) length)];
+        }
+        int read = 0;
+        while (read < length) {
+            int count = in.read(buffer, read, (int) length - read);
+            if (count < 0) {
+                throw new EOFException("Connection closed inside a frame");
+            }
+            read += count;
+        }
+        position = 0;
+        limit = (int) length;
+        return type;
+    }
+
+    // load the payload of a frame that was read elsewhere, e.g. by an event loop on a non-blocking
+    // socket, the read methods then decode it in place, the array must not change until they return
+    public void setFrame(byte[] payload, int length) {
+        buffer = payload;
+        position = 0;
+        limit = length;
+    }
+
+    // payload size of the frame that was just loaded
+    public int getFrameLength() {
+        return limit;
+    }
+
+    // the request ID INDEX REQUEST, INDEX BATCH and DELETE REQUEST payloads start with, without
+    // consuming it, so a request can be answered without decoding it
+    public long peekRequestID() throws IOException {
+        int start = position;
+        try {
+            return getVarLong();
+        } finally {
+            position = start;
+        }
+    }
+
+    public IndexRequest readIndexRequest() throws IOException {
+        IndexRequest request = new IndexRequest();
+        request.requestID = getVarLong();
+        request.clientID = getVarLong();
+        request.documentPath = getString();
+        int termCount = getLength();
+        if (termLengths.length < termCount) {
+            termLengths = new int[termCount];
+        }
+        for (int i = 0; i < termCount; i++) {
+            termLengths[i] = getLength();
+        }
+        // the terms are back to back, slice them out before the frequencies that follow them
+        String[] terms = new String[termCount];
+        for (int i = 0; i < termCount; i++) {
+            terms[i] = getUtf8(termLengths[i]);
+        }
+        HashMap<String, Long> wordFrequencies = new HashMap<>(termCount * 4 / 3 + 1);
+        for (int i = 0; i < termCount; i++) {
+            wordFrequencies.put(terms[i], getVarLong());
+        }
+        request.wordFrequencies = wordFrequencies;
+        return request;
+    }
+
+    // the documents of the batch share the String instances of the batch dictionary
+    public IndexBatchRequest readIndexBatch() throws IOException {
+        IndexBatchRequest request = new IndexBatchRequest();
+        request.requestID = getVarLong();
+        request.clientID = getVarLong();
+        int documentCount = getLength();
+        ArrayList<String> documentPaths = new ArrayList<>(documentCount);
+        for (int i = 0; i < documentCount; i++) {
+            documentPaths.add(getString());
+        }
+        request.documentPaths = documentPaths;
+
+        int termCount = getLength();
+        if (termLengths.length < termCount) {
+            termLengths = new int[termCount];
+        }
+        for (int i = 0; i < termCount; i++) {
+            termLengths[i] = getLength();
+        }
+        String[] terms = new String[termCount];
+        for (int i = 0; i < termCount; i++) {
+            terms[i] = getUtf8(termLengths[i]);
+        }
+
+        ArrayList<Map<String, Long>> wordFrequencies = new ArrayList<>(documentCount);
+        for (int i = 0; i < documentCount; i++) {
+            int pairCount = getLength();
+            HashMap<String, Long> documentFrequencies = new HashMap<>(pairCount * 4 / 3 + 1);
+            for (int p = 0; p < pairCount; p++) {
+                long termIndex = getVarLong();
+                if (termIndex < 0 || termIndex >= termCount) {
+                    throw new IOException("Malformed frame: term index " + termIndex + " outside the dictionary");
+                }
+                documentFrequencies.put(terms[(int) termIndex], getVarLong());
+            }
+            wordFrequencies.add(documentFrequencies);
+        }
+        request.wordFrequencies = wordFrequencies;
+        return request;
+    }
+
+    public DeleteRequest readDeleteRequest() throws IOException {
+        DeleteRequest request = new DeleteRequest();
+        request.requestID = getVarLong();
+        request.clientID = getVarLong();
+        request.documentPath = getString();
+        return request;
+    }
+
+    public IndexResponse readIndexReply() throws IOException {
+        IndexResponse response = new IndexResponse();
+        response.requestID = getVarLong();
+        if (position >= limit) {
+            throw new IOException("Truncated frame");
+        }
+        response.success = buffer[position++] != 0;
+        response.message = getString();
+        return response;
+    }
+
+    public BusyResponse readBusy() throws IOException {
+        BusyResponse response = new BusyResponse();
+        response.requestID = getVarLong();
+        response.retryAfterMillis = getVarLong();
+        return response;
+    }
+
+    public SearchRequest readSearchRequest() throws IOException {
+        SearchRequest request = new SearchRequest();
+        // not a length, the server caps it at MAX_TOP_K
+        request.topK = (int) Math.max(0, Math.min(getVarLong(), Integer.MAX_VALUE));
+        int termCount = getLength();
+        ArrayList<String> terms = new ArrayList<>(termCount);
+        for (int i = 0; i < termCount; i++) {
+            terms.add(getString());
+        }
+        request.terms = terms;
+        if (position < limit) {
+            try {
+                request.scoring = Scoring.fromCode(buffer[position++]);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+        if (position < limit) {
+            try {
+                request.query = getQuery(terms, 1);
+                request.query.validate();
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+        return request;
+    }
+
+    private Query getQuery(ArrayList<String> terms, int depth) throws IOException {
+        if (depth > Query.MAX_DEPTH) {
+            throw new IOException("Query nested deeper than " + Query.MAX_DEPTH + " levels");
+        }
+        if (position >= limit) {
+            throw new IOException("Truncated frame");
+        }
+        Query.Operator operator = Query.Operator.fromCode(buffer[position++]);
+        switch (operator) {
+            case TERM:
+                long index = getVarLong();
+                if (index < 0 || index >= terms.size()) {
+                    throw new IOException("Query term " + index + " out of range");
+                }
+                return Query.term(terms.get((int) index));
+            case NOT:
+                return Query.not(getQuery(terms, depth + 1));
+            default:
+                // every operand takes at least two bytes
+                int count = getLength();
+                ArrayList<Query> operands = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    operands.add(getQuery(terms, depth + 1));
+                }
+                Query query = new Query();
+                query.operator = operator;
+                query.operands = operands;
+                return query;
+        }
+    }
+
+    public SearchResponse readSearchReply() throws IOException {
+        SearchResponse response = new SearchResponse();
+        int resultCount = getLength();
+        ArrayList<DocPathFreqPair> results = new ArrayList<>(resultCount);
+        for (int i = 0; i < resultCount; i++) {
+            String documentPath = getString();
+            results.add(new DocPathFreqPair(documentPath, getVarLong()));
+        }
+        response.results = results;
+        return response;
+    }
+
+    private long getVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position >= limit) {
+                throw new IOException("Truncated frame");
+            }
+            byte b = buffer[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    // a count or byte length, which can never exceed the bytes left in the frame
+    private int getLength() throws IOException {
+        long value = getVarLong();
+        if (value < 0 || value > limit - position) {
+            throw new IOException("Malformed frame: length " + value + " exceeds the frame");
+        }
+        return (int) value;
+    }
+
+    private String getString() throws IOException {
+        return getUtf8(getLength());
+    }
+
+    private String getUtf8(int length) throws IOException {
+        if (length > limit - position) {
+            throw new IOException("Truncated frame");
+        }
+        String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+}
@@ -0,0 +1,301 @@
+package com.fileretrieval.common.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import com.fileretrieval.common.dto.DocPathFreqPair;
+
+// encodes messages of the binary protocol into length-prefixed frames
+//
+// frame:           byte opcode (MessageType), varint payload length, payload
+// varint:          unsigned LEB128, 7 bits per byte, lowest bits first
+// string:          varint byte length + UTF-8 bytes
+//
+// INDEX REQUEST    varint request ID, varint client ID, string document path, varint term count,
+//                  term dictionary: varint byte length per term, then the UTF-8 bytes of all terms,
+//                  then a varint frequency per term
+// INDEX BATCH      varint request ID, varint client ID, varint document count, string path per document,
+//                  term dictionary shared by the whole batch: varint term count, varint byte length
+//                  per term, then the UTF-8 bytes of all terms, followed per document by a varint
+//                  pair count and per pair: varint term index in the dictionary, varint frequency
+// DELETE REQUEST   varint request ID, varint client ID, string document path
+// INDEX REPLY      varint request ID, byte success, string message (also acknowledges DELETE REQUESTs)
+// BUSY             varint request ID, varint retry after in milliseconds (instead of an INDEX REPLY)
+// SEARCH REQUEST   varint top K, varint term count, string per term, byte Scoring code (left out for
+//                  FREQUENCY, so servers that predate it read the frame unchanged), then for a query
+//                  that is not a conjunction of the terms, the Query tree in prefix order: per node
+//                  byte Operator code, followed for TERM by the varint index of its term, for AND and
+//                  OR by a varint operand count and the operands, for NOT by its operand
+// SEARCH REPLY     varint result count, per result: string document path, varint frequency (or score)
+// QUIT             empty payload
+//
+// request IDs let a client keep several INDEX REQUESTs in flight and match the replies
+//
+// the payload is built in a reusable buffer and written with a single call, one writer per connection
+// frames are not flushed, call flush() once the frames that should go out together are written
+public class BinaryFrameWriter {
+    // upper bound of an encoded frame header: opcode + 5 byte varint
+    private static final int HEADER_SIZE = 6;
+
+    private final OutputStream out;
+    private byte[] buffer = new byte[8192];
+    private int position;
+    private MessageType frameType;
+    // dictionary of the batch being encoded, reused between batches
+    private final HashMap<String, Integer> termIndexes = new HashMap<>();
+    private final ArrayList<String> terms = new ArrayList<>();
+
+    public BinaryFrameWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    public void writeIndexRequest(IndexRequest request) throws IOException {
+        begin(MessageType.INDEX_REQUEST);
+        putVarLong(request.requestID);
+        putVarLong(request.clientID);
+        putString(request.documentPath);
+        putVarLong(request.wordFrequencies.size());
+        // lengths first, then the bytes of every term back to back, so the reader slices
+        // all terms out of one contiguous region
+        for (String term : request.wordFrequencies.keySet()) {
+            putVarLong(utf8Length(term));
+        }
+        for (String term : request.wordFrequencies.keySet()) {
+            putUtf8(term);
+        }
+        for (Long frequency : request.wordFrequencies.values()) {
+            putVarLong(frequency);
+        }
+        end();
+    }
+
+    // terms shared by several documents of the batch are only sent once
+    public void writeIndexBatch(IndexBatchRequest request) throws IOException {
+        termIndexes.clear();
+        terms.clear();
+        for (Map<String, Long> wordFrequencies : request.wordFrequencies) {
+            for (String term : wordFrequencies.keySet()) {
+                if (termIndexes.putIfAbsent(term, terms.size()) == null) {
+                    terms.add(term);
+                }
+            }
+        }
+
+        begin(MessageType.INDEX_BATCH);
+        putVarLong(request.requestID);
+        putVarLong(request.clientID);
+        putVarLong(request.documentPaths.size());
+        for (String documentPath : request.documentPaths) {
+            putString(documentPath);
+        }
+        putVarLong(terms.size());
+        for (String term : terms) {
+            putVarLong(utf8Length(term));
+        }
+        for (String term : terms) {
+            putUtf8(term);
+        }
+        for (Map<String, Long> wordFrequencies : request.wordFrequencies) {
+            putVarLong(wordFrequencies.size());
+            for (Map.Entry<String, Long> entry : wordFrequencies.entrySet()) {
+                putVarLong(termIndexes.get(entry.getKey()));
+                putVarLong(entry.getValue());
+            }
+        }
+        end();
+        // don't hold on to the strings of a large batch
+        if (terms.size() > 65536) {
+            termIndexes.clear();
+            terms.clear();
+        }
+    }
+
+    public void writeDeleteRequest(DeleteRequest request) throws IOException {
+        begin(MessageType.DELETE_REQUEST);
+        putVarLong(request.requestID);
+        putVarLong(request.clientID);
+        putString(request.documentPath);
+        end();
+    }
+
+    public void writeIndexReply(IndexResponse response) throws IOException {
+        begin(MessageType.INDEX_REPLY);
+        putVarLong(response.requestID);
+        ensure(1);
+        buffer[position++] = (byte) (response.success ? 1 : 0);
+        putString(response.message == null ? "" : response.message);
+        end();
+    }
+
+    public void writeBusy(BusyResponse response) throws IOException {
+        begin(MessageType.BUSY);
+        putVarLong(response.requestID);
+        putVarLong(response.retryAfterMillis);
+        end();
+    }
+
+    public void writeSearchRequest(SearchRequest request) throws IOException {
+        begin(MessageType.SEARCH_REQUEST);
+        putVarLong(request.topK);
+        putVarLong(request.terms.size());
+        for (String term : request.terms) {
+            putString(term);
+        }
+        if (request.scoring != Scoring.FREQUENCY || request.query != null) {
+            ensure(1);
+            buffer[position++] = request.scoring.toCode();
+        }
+        if (request.query != null) {
+            putQuery(request.query, request.terms);
+        }
+        end();
+    }
+
+    private void putQuery(Query query, List<String> terms) {
+        ensure(1);
+        buffer[position++] = query.operator.toCode();
+        switch (query.operator) {
+            case TERM:
+                putVarLong(terms.indexOf(query.term));
+                break;
+            case NOT:
+                putQuery(query.operands.get(0), terms);
+                break;
+            default:
+                putVarLong(query.operands.size());
+                for (Query operand : query.operands) {
+                    putQuery(operand, terms);
+                }
+                break;
+        }
+    }
+
+    public void writeSearchReply(SearchResponse response) throws IOException {
+        begin(MessageType.SEARCH_REPLY);
+        putVarLong(response.results.size());
+        for (DocPathFreqPair pair : response.results) {
+            putString(pair.documentPath);
+            putVarLong(pair.wordFrequency);
+        }
+        end();
+    }
+
+    public void writeQuit() throws IOException {
+        begin(MessageType.QUIT);
+        end();
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    // the header is written in front of the payload once its length is known, so the
+    // payload starts HEADER_SIZE bytes into the buffer
+    private void begin(MessageType type) {
+        frameType = type;
+        position = HEADER_SIZE;
+    }
+
+    private void end() throws IOException {
+        int payloadLength = position - HEADER_SIZE;
+        int headerLength = 1 + varIntSize(payloadLength);
+        int start = HEADER_SIZE - headerLength;
+        buffer[start] = frameType.toOpcode();
+        int index = start + 1;
+        long value = payloadLength;
+        while ((value & ~0x7FL) != 0) {
+            buffer[index++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[index] = (byte) value;
+        out.write(buffer, start, position - start);
+        // don't keep a huge buffer around after an unusually large document
+        if (buffer.length > (1 << 20)) {
+            buffer = new byte[8192];
+        }
+    }
+
+    private static int varIntSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private void ensure(int bytes) {
+        if (position + bytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+        }
+    }
+
+    private void putVarLong(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private void putString(String value) {
+        putVarLong(utf8Length(value));
+        putUtf8(value);
+    }
+
+    // number of bytes of the UTF-8 encoding, unpaired surrogates are encoded as '?' like String.getBytes
+    private static int utf8Length(String value) {
+        int length = value.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    bytes += 1;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    bytes += 2; // four bytes for the pair of chars
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    // '?' takes a single byte
+                } else {
+                    bytes += 2;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    // encode straight into the frame buffer instead of allocating a byte[] per string
+    private void putUtf8(String value) {
+        int length = value.length();
+        ensure(length * 3);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buffer[position++] = (byte) '?';
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+}
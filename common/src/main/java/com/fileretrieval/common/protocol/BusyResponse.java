@@ -0,0 +1,11 @@
+package com.fileretrieval.common.protocol;
+
+// the server turned an INDEX REQUEST or INDEX BATCH away because too much is being indexed already,
+// nothing of it was indexed, the client sends it again after retryAfterMillis
+public class BusyResponse {
+    // binary protocol only: the requestID of the turned away request
+    public long requestID;
+    public long retryAfterMillis;
+
+    public BusyResponse() {}
+}
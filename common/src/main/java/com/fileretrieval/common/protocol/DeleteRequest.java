@@ -0,0 +1,14 @@
+package com.fileretrieval.common.protocol;
+
+// removes the document indexed under documentPath and clientID, sent by an incremental index run
+// for files that disappeared since the previous run
+// binary protocol: acknowledged with an INDEX REPLY carrying the requestID, like INDEX REQUESTs,
+// so deletions share the in-flight window with them
+public class DeleteRequest {
+    public MessageType type = MessageType.DELETE_REQUEST;
+    public long clientID;
+    public long requestID;
+    public String documentPath;
+
+    public DeleteRequest() {}
+}
@@ -0,0 +1,18 @@
+package com.fileretrieval.common.protocol;
+
+import java.util.List;
+import java.util.Map;
+
+// several documents of one client sent in a single INDEX BATCH frame (binary protocol only)
+// the server numbers them consecutively in list order and acknowledges the whole batch
+// with one INDEX REPLY carrying the requestID
+public class IndexBatchRequest {
+    public MessageType type = MessageType.INDEX_BATCH;
+    public long requestID;
+    public long clientID;
+    public List<String> documentPaths;
+    // one map per document, in the same order as documentPaths
+    public List<Map<String, Long>> wordFrequencies;
+
+    public IndexBatchRequest() {}
+}
@@ -5,6 +5,8 @@ import java.util.Map;
 public class IndexRequest {
     public MessageType type = MessageType.INDEX_REQUEST;
     public long clientID;
+    // binary protocol only: echoed in the INDEX REPLY, so pipelined requests can be matched with their replies
+    public long requestID;
     public String documentPath;
     public Map<String, Long> wordFrequencies;
 
@@ -3,6 +3,8 @@ package com.fileretrieval.common.protocol;
 public class IndexResponse {
     public String message;
     public boolean success;
+    // binary protocol only: the requestID of the INDEX REQUEST being acknowledged
+    public long requestID;
 
     public IndexResponse() {}
 }
\ No newline at end of file
@@ -1,21 +1,38 @@
 package com.fileretrieval.common.protocol;
 
 public enum MessageType {
-  REGISTER_REQUEST("REGISTER REQUEST"),
-  INDEX_REQUEST("INDEX REQUEST"),
-  SEARCH_REQUEST("SEARCH REQUEST"),
-  QUIT("QUIT");
+  REGISTER_REQUEST("REGISTER REQUEST", 1),
+  INDEX_REQUEST("INDEX REQUEST", 2),
+  SEARCH_REQUEST("SEARCH REQUEST", 3),
+  QUIT("QUIT", 4),
+  // replies only appear as frames in the binary protocol, the text protocol sends them unlabelled
+  INDEX_REPLY("INDEX REPLY", 5),
+  SEARCH_REPLY("SEARCH REPLY", 6),
+  // many documents in one frame, binary protocol only
+  INDEX_BATCH("INDEX BATCH", 7),
+  // removal of an indexed document, acknowledged like an INDEX REQUEST
+  DELETE_REQUEST("DELETE REQUEST", 8),
+  // reply to an INDEX REQUEST or INDEX BATCH the server had no room for, the client retries it later
+  // (the text protocol replies "BUSY <retry after ms>" instead of the INDEX REPLY line)
+  BUSY("BUSY", 9);
 
   private final String wireFormat;
+  // opcode of the message in the binary protocol, see BinaryFrameWriter
+  private final byte opcode;
 
-  MessageType(String wireFormat) {
+  MessageType(String wireFormat, int opcode) {
     this.wireFormat = wireFormat;
+    this.opcode = (byte) opcode;
   }
 
   public String toWireFormat() {
     return wireFormat;
   }
 
+  public byte toOpcode() {
+    return opcode;
+  }
+
   public static MessageType fromWireFormat(String wire) {
     for (MessageType type : values()) {
       if (type.wireFormat.equals(wire)) {
@@ -24,4 +41,13 @@ public enum MessageType {
     }
     throw new IllegalArgumentException("Unknown message type: " + wire);
   }
+
+  public static MessageType fromOpcode(byte opcode) {
+    for (MessageType type : values()) {
+      if (type.opcode == opcode) {
+        return type;
+      }
+    }
+    throw new IllegalArgumentException("Unknown message opcode: " + opcode);
+  }
 }
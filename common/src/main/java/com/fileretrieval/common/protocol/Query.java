@@ -0,0 +1,216 @@
+package com.fileretrieval.common.protocol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+// boolean query of a SEARCH REQUEST, a tree built by QueryParser from the client's query language
+// a TERM matches the documents that contain the term, an AND the documents matching every operand,
+// an OR those matching at least one, and a NOT, only valid as an operand of an AND that has an
+// operand without NOT, removes the documents matching its own operand
+// a document's score is the sum of the scores of the terms it matched, terms under a NOT add nothing
+public class Query {
+    // deepest nesting of operators a query may have, parser and frame reader reject deeper ones
+    public static final int MAX_DEPTH = 32;
+
+    public enum Operator {
+        TERM(0), AND(1), OR(2), NOT(3);
+
+        private final byte code;
+
+        Operator(int code) {
+            this.code = (byte) code;
+        }
+
+        public byte toCode() {
+            return code;
+        }
+
+        public static Operator fromCode(byte code) {
+            for (Operator operator : values()) {
+                if (operator.code == code) {
+                    return operator;
+                }
+            }
+            throw new IllegalArgumentException("Unknown query operator code: " + code);
+        }
+    }
+
+    public Operator operator;
+    // TERM only
+    public String term;
+    // AND and OR: two or more operands, NOT: one
+    public List<Query> operands;
+
+    public Query() {}
+
+    public static Query term(String term) {
+        Query query = new Query();
+        query.operator = Operator.TERM;
+        query.term = term;
+        query.operands = new ArrayList<>();
+        return query;
+    }
+
+    public static Query and(List<Query> operands) {
+        return combine(Operator.AND, operands);
+    }
+
+    public static Query or(List<Query> operands) {
+        return combine(Operator.OR, operands);
+    }
+
+    public static Query not(Query operand) {
+        Query query = new Query();
+        query.operator = Operator.NOT;
+        query.operands = new ArrayList<>(Arrays.asList(operand));
+        return query;
+    }
+
+    // the documents containing every term, what a list of terms has always meant
+    public static Query conjunction(List<String> terms) {
+        ArrayList<Query> operands = new ArrayList<>();
+        for (String term : terms) {
+            operands.add(term(term));
+        }
+        return and(operands);
+    }
+
+    // an AND or OR of a single operand is that operand
+    private static Query combine(Operator operator, List<Query> operands) {
+        if (operands.size() == 1) {
+            return operands.get(0);
+        }
+        Query query = new Query();
+        query.operator = operator;
+        query.operands = new ArrayList<>(operands);
+        return query;
+    }
+
+    // a single term or an AND of terms, sent as a plain list of terms so servers that predate the
+    // query language still answer it
+    public boolean isConjunction() {
+        if (operator == Operator.TERM) {
+            return true;
+        }
+        if (operator != Operator.AND) {
+            return false;
+        }
+        for (Query operand : operands) {
+            if (operand.operator != Operator.TERM) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the terms of a conjunction in query order, repeated terms included
+    public List<String> conjunctionTerms() {
+        ArrayList<String> terms = new ArrayList<>();
+        if (operator == Operator.TERM) {
+            terms.add(term);
+        } else {
+            for (Query operand : operands) {
+                terms.add(operand.term);
+            }
+        }
+        return terms;
+    }
+
+    // every distinct term of the query, in the order they first appear
+    public List<String> terms() {
+        LinkedHashSet<String> terms = new LinkedHashSet<>();
+        addTerms(terms);
+        return new ArrayList<>(terms);
+    }
+
+    private void addTerms(LinkedHashSet<String> terms) {
+        if (operator == Operator.TERM) {
+            terms.add(term);
+            return;
+        }
+        for (Query operand : operands) {
+            operand.addTerms(terms);
+        }
+    }
+
+    // throws IllegalArgumentException unless the tree is well formed: terms are not empty, AND and OR
+    // have operands, NOT has one and sits in an AND with an operand without NOT (negations alone
+    // would match nearly every document), and it is at most MAX_DEPTH operators deep
+    public void validate() {
+        validate(null, 1);
+    }
+
+    private void validate(Query parent, int depth) {
+        if (depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("Query nested deeper than " + MAX_DEPTH + " levels");
+        }
+        if (operator == null) {
+            throw new IllegalArgumentException("Query without an operator");
+        }
+        switch (operator) {
+            case TERM:
+                if (term == null || term.isEmpty()) {
+                    throw new IllegalArgumentException("Empty query term");
+                }
+                return;
+            case NOT:
+                if (parent == null || parent.operator != Operator.AND || operands == null || operands.size() != 1) {
+                    throw new IllegalArgumentException("NOT needs documents to exclude from, as in moon AND NOT river");
+                }
+                break;
+            default:
+                if (operands == null || operands.isEmpty()) {
+                    throw new IllegalArgumentException(operator + " without operands");
+                }
+                break;
+        }
+        boolean positive = false;
+        for (Query operand : operands) {
+            operand.validate(this, depth + 1);
+            positive |= operand.operator != Operator.NOT;
+        }
+        if (operator == Operator.AND && !positive) {
+            throw new IllegalArgumentException("NOT needs documents to exclude from, as in moon AND NOT river");
+        }
+    }
+
+    // the query in the query language, QueryParser.parse reads it back into the same tree
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        append(text);
+        return text.toString();
+    }
+
+    private void append(StringBuilder text) {
+        switch (operator) {
+            case TERM:
+                text.append(term);
+                break;
+            case NOT:
+                text.append("NOT ");
+                appendOperand(text, operands.get(0));
+                break;
+            default:
+                for (int i = 0; i < operands.size(); i++) {
+                    if (i > 0) {
+                        text.append(' ').append(operator.name()).append(' ');
+                    }
+                    appendOperand(text, operands.get(i));
+                }
+                break;
+        }
+    }
+
+    private static void appendOperand(StringBuilder text, Query operand) {
+        if (operand.operator == Operator.AND || operand.operator == Operator.OR) {
+            text.append('(');
+            operand.append(text);
+            text.append(')');
+        } else {
+            operand.append(text);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.fileretrieval.common.protocol;
+
+import java.util.ArrayList;
+
+// parses the query language of the search command into a Query tree
+//   query   := and { "OR" and }
+//   and     := unary { "AND" unary }
+//   unary   := "NOT" unary | "(" query ")" | term
+// NOT binds tighter than AND, AND tighter than OR, so "moon OR river AND NOT galaxy" is
+// "moon OR (river AND (NOT galaxy))", operators are upper case and indexed words are longer than
+// three characters, so no word is mistaken for one
+// phrases ("...") are rejected, the index keeps no word positions to match them with
+// malformed queries throw IllegalArgumentException with a message for the user
+public final class QueryParser {
+    private final ArrayList<String> tokens = new ArrayList<>();
+    private int position = 0;
+    private int depth = 0;
+
+    private QueryParser(String text) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                throw new IllegalArgumentException("Phrase queries are not supported, the index has no word positions");
+            }
+            if (c == '(' || c == ')' || Character.isWhitespace(c)) {
+                if (word.length() > 0) {
+                    tokens.add(word.toString());
+                    word.setLength(0);
+                }
+                if (!Character.isWhitespace(c)) {
+                    tokens.add(String.valueOf(c));
+                }
+            } else {
+                word.append(c);
+            }
+        }
+        if (word.length() > 0) {
+            tokens.add(word.toString());
+        }
+    }
+
+    public static Query parse(String text) {
+        QueryParser parser = new QueryParser(text);
+        if (parser.tokens.isEmpty()) {
+            throw new IllegalArgumentException("Empty query");
+        }
+        Query query = parser.parseOr();
+        if (parser.position < parser.tokens.size()) {
+            throw new IllegalArgumentException("Unexpected \"" + parser.tokens.get(parser.position) + "\" in query");
+        }
+        query.validate();
+        return query;
+    }
+
+    private boolean accept(String token) {
+        if (position < tokens.size() && tokens.get(position).equals(token)) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private Query parseOr() {
+        ArrayList<Query> operands = new ArrayList<>();
+        operands.add(parseAnd());
+        while (accept("OR")) {
+            operands.add(parseAnd());
+        }
+        return Query.or(operands);
+    }
+
+    private Query parseAnd() {
+        ArrayList<Query> operands = new ArrayList<>();
+        operands.add(parseUnary());
+        while (accept("AND")) {
+            operands.add(parseUnary());
+        }
+        return Query.and(operands);
+    }
+
+    private Query parseUnary() {
+        if (++depth > Query.MAX_DEPTH) {
+            throw new IllegalArgumentException("Query nested deeper than " + Query.MAX_DEPTH + " levels");
+        }
+        Query query;
+        if (accept("NOT")) {
+            query = Query.not(parseUnary());
+        } else if (accept("(")) {
+            query = parseOr();
+            if (!accept(")")) {
+                throw new IllegalArgumentException("Missing \")\" in query");
+            }
+        } else if (position >= tokens.size()) {
+            throw new IllegalArgumentException("Query ends where a term was expected");
+        } else {
+            String token = tokens.get(position++);
+            if (token.equals(")") || token.equals("AND") || token.equals("OR")) {
+                throw new IllegalArgumentException("Unexpected \"" + token + "\" where a term was expected");
+            }
+            query = Query.term(token);
+        }
+        depth--;
+        return query;
+    }
+}
@@ -3,6 +3,7 @@ package com.fileretrieval.common.protocol;
 public class RegisterRequest {
     public MessageType type = MessageType.REGISTER_REQUEST;
     public long clientID;
+    public WireProtocol protocol = WireProtocol.TEXT;
 
     public RegisterRequest() {}
-}
\ No newline at end of file
+}
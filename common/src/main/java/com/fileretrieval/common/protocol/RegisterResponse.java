@@ -2,6 +2,7 @@ package com.fileretrieval.common.protocol;
 
 public class RegisterResponse {
     public long clientID;
+    public WireProtocol protocol = WireProtocol.TEXT;
 
     public RegisterResponse() {}
-}
\ No newline at end of file
+}
@@ -0,0 +1,59 @@
+package com.fileretrieval.common.protocol;
+
+// how the server ranks the documents matching a SEARCH REQUEST, chosen per request
+// the text protocol appends the name to the header line ("2 10 bm25"), the binary protocol appends
+// the code to the frame, a request without one is ranked by FREQUENCY
+public enum Scoring {
+  // sum of the frequencies of the terms in the document
+  FREQUENCY("frequency", 0),
+  // sum of (1 + ln tf) * ln(N / df) over the terms, terms in every document add nothing
+  TF_IDF("tfidf", 1),
+  // Okapi BM25 with k1 = 1.2 and b = 0.75, frequencies saturate and long documents are normalized
+  BM25("bm25", 2);
+
+  // TF-IDF and BM25 scores travel in the frequency field of a result, in millionths, so terms that
+  // are in almost every document still rank the documents apart
+  public static final int SCORE_SCALE = 1_000_000;
+
+  private final String name;
+  private final byte code;
+
+  Scoring(String name, int code) {
+    this.name = name;
+    this.code = (byte) code;
+  }
+
+  public String toWireFormat() {
+    return name;
+  }
+
+  public byte toCode() {
+    return code;
+  }
+
+  // the score of a result as the user reads it
+  public String formatScore(long score) {
+    if (this == FREQUENCY) {
+      return String.valueOf(score);
+    }
+    return String.format("%.4f", (double) score / SCORE_SCALE);
+  }
+
+  public static Scoring fromWireFormat(String wire) {
+    for (Scoring scoring : values()) {
+      if (scoring.name.equals(wire)) {
+        return scoring;
+      }
+    }
+    throw new IllegalArgumentException("Unknown scoring: " + wire);
+  }
+
+  public static Scoring fromCode(byte code) {
+    for (Scoring scoring : values()) {
+      if (scoring.code == code) {
+        return scoring;
+      }
+    }
+    throw new IllegalArgumentException("Unknown scoring code: " + code);
+  }
+}
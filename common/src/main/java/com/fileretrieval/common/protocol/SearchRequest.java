@@ -3,8 +3,18 @@ package com.fileretrieval.common.protocol;
 import java.util.List;
 
 public class SearchRequest {
+    // number of results returned when the request does not ask for a specific amount
+    public static final int DEFAULT_TOP_K = 10;
+    // upper bound on the number of results a single request may ask for
+    public static final int MAX_TOP_K = 1000;
+
     public MessageType type = MessageType.SEARCH_REQUEST;
+    // the terms of a conjunction, or the distinct terms the query refers to by index
     public List<String> terms;
+    public int topK = DEFAULT_TOP_K;
+    public Scoring scoring = Scoring.FREQUENCY;
+    // null when the request is the conjunction of its terms
+    public Query query;
 
     public SearchRequest() {}
-}
\ No newline at end of file
+}
@@ -0,0 +1,32 @@
+package com.fileretrieval.common.protocol;
+
+// framing used on a connection after the REGISTER exchange
+// the client asks for a protocol by appending its name to the REGISTER REQUEST line
+// ("REGISTER REQUEST binary") and the server appends the accepted one to the REGISTER REPLY
+// ("<clientID> binary"), a bare REGISTER REQUEST or REGISTER REPLY means text
+public enum WireProtocol {
+  // one line per message field and per word=count pair
+  TEXT("text"),
+  // length-prefixed frames, see BinaryFrameWriter
+  BINARY("binary");
+
+  private final String name;
+
+  WireProtocol(String name) {
+    this.name = name;
+  }
+
+  public String toWireFormat() {
+    return name;
+  }
+
+  // unknown names fall back to text, so that either side can be older than the other
+  public static WireProtocol fromWireFormat(String wire) {
+    for (WireProtocol protocol : values()) {
+      if (protocol.name.equals(wire)) {
+        return protocol;
+      }
+    }
+    return TEXT;
+  }
+}
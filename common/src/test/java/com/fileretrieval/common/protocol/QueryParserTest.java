@@ -0,0 +1,116 @@
+package com.fileretrieval.common.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+public class QueryParserTest {
+    // the tree in prefix form, operators with their operands in parentheses
+    private static String tree(Query query) {
+        if (query.operator == Query.Operator.TERM) {
+            return query.term;
+        }
+        StringBuilder text = new StringBuilder(query.operator.name()).append('(');
+        for (int i = 0; i < query.operands.size(); i++) {
+            if (i > 0) {
+                text.append(", ");
+            }
+            text.append(tree(query.operands.get(i)));
+        }
+        return text.append(')').toString();
+    }
+
+    private static void assertParses(String expectedTree, String text) {
+        Query query = QueryParser.parse(text);
+        assertEquals(expectedTree, tree(query));
+        // the query language form reads back into the same tree
+        assertEquals(expectedTree, tree(QueryParser.parse(query.toString())));
+    }
+
+    private static void assertRejected(String text, String messagePart) {
+        try {
+            QueryParser.parse(text);
+            fail("parsed \"" + text + "\"");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(messagePart));
+        }
+    }
+
+    private static String repeat(String text, int count) {
+        StringBuilder repeated = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            repeated.append(text);
+        }
+        return repeated.toString();
+    }
+
+    @Test
+    public void notBindsTighterThanAndAndAndTighterThanOr() {
+        assertParses("OR(moon, AND(river, NOT(galaxy)))", "moon OR river AND NOT galaxy");
+        assertParses("OR(AND(moon, river), AND(galaxy, star))", "moon AND river OR galaxy AND star");
+        assertParses("OR(moon, river, galaxy)", "moon OR river OR galaxy");
+        assertParses("AND(moon, river, galaxy)", "moon AND river AND galaxy");
+    }
+
+    @Test
+    public void parenthesesOverridePrecedence() {
+        assertParses("AND(OR(moon, river), galaxy)", "(moon OR river) AND galaxy");
+        assertParses("AND(moon, NOT(OR(river, galaxy)))", "moon AND NOT (river OR galaxy)");
+        // redundant parentheses leave no trace in the tree
+        assertParses("moon", "((moon))");
+        assertParses("AND(moon, river)", "(moon)AND(river)");
+    }
+
+    @Test
+    public void toStringParenthesizesNestedOperators() {
+        Query query = QueryParser.parse("moon AND (river OR galaxy) AND NOT (star OR comet)");
+        assertEquals("moon AND (river OR galaxy) AND NOT (star OR comet)", query.toString());
+        assertEquals(Arrays.asList("moon", "river", "galaxy", "star", "comet"), query.terms());
+        assertEquals("moon OR river", QueryParser.parse("  moon\tOR   river ").toString());
+    }
+
+    @Test
+    public void termsAreConjunctionsOnlyWithoutOtherOperators() {
+        assertTrue(QueryParser.parse("moon AND river").isConjunction());
+        assertTrue(QueryParser.parse("moon").isConjunction());
+        assertTrue(!QueryParser.parse("moon OR river").isConjunction());
+        assertTrue(!QueryParser.parse("moon AND NOT river").isConjunction());
+    }
+
+    @Test
+    public void rejectsMalformedQueries() {
+        assertRejected("", "Empty query");
+        assertRejected("   ", "Empty query");
+        assertRejected("(moon OR river", "Missing \")\"");
+        assertRejected("moon OR river)", "Unexpected \")\"");
+        assertRejected(")moon", "Unexpected \")\"");
+        assertRejected("AND moon", "Unexpected \"AND\"");
+        assertRejected("moon OR OR river", "Unexpected \"OR\"");
+        assertRejected("moon AND", "Query ends where a term was expected");
+        assertRejected("moon AND NOT", "Query ends where a term was expected");
+        assertRejected("()", "Unexpected \")\"");
+        assertRejected("moon river", "Unexpected \"river\"");
+        assertRejected("\"moon river\"", "Phrase queries are not supported");
+    }
+
+    @Test
+    public void rejectsNegationsWithNothingToExcludeFrom() {
+        assertRejected("NOT galaxy", "NOT needs documents to exclude from");
+        assertRejected("NOT moon AND NOT river", "NOT needs documents to exclude from");
+        assertRejected("moon OR NOT river", "NOT needs documents to exclude from");
+        assertRejected("moon AND NOT NOT river", "NOT needs documents to exclude from");
+    }
+
+    @Test
+    public void rejectsQueriesNestedDeeperThanTheLimit() {
+        // every parenthesis and the term inside them is one level
+        int limit = Query.MAX_DEPTH - 1;
+        assertParses("moon", repeat("(", limit) + "moon" + repeat(")", limit));
+        assertRejected(repeat("(", limit + 1) + "moon" + repeat(")", limit + 1), "nested deeper than");
+        // a deep chain of NOT stops at the limit instead of overflowing the stack
+        assertRejected("moon AND " + repeat("NOT ", 100000) + "river", "nested deeper than");
+    }
+}
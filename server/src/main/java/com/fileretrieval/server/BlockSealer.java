@@ -0,0 +1,36 @@
+package com.fileretrieval.server;
+
+// background thread that periodically seals the hot append buffers of idle terms into
+// compressed posting blocks, so terms that stop short of a full block are compressed too
+public class BlockSealer implements Runnable {
+    // hot buffers smaller than this are only trimmed, a block would cost more than it saves
+    private static final int MIN_SEAL_POSTINGS = 16;
+
+    private IndexStore store;
+    private long intervalMillis;
+    private volatile boolean terminate;
+
+    public BlockSealer(IndexStore store, long intervalMillis) {
+        this.store = store;
+        this.intervalMillis = intervalMillis;
+    }
+
+    public void setTerminate() {
+        this.terminate = true;
+    }
+
+    @Override
+    public void run() {
+        terminate = false;
+
+        while (!terminate) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                // interrupted by shutdown
+                break;
+            }
+            store.sealIdleHotBuffers(MIN_SEAL_POSTINGS);
+        }
+    }
+}
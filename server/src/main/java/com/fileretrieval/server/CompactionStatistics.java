@@ -0,0 +1,58 @@
+package com.fileretrieval.server;
+
+// figures of one compaction pass over the in-memory posting lists, or the sum of every pass so far
+public class CompactionStatistics {
+    public long passes;
+    public long terms;
+    public long postings;
+    // postings of deleted documents found at the start of the pass (sealed blocks and hot buffers)
+    public long deadPostings;
+    // posting lists whose blocks were rewritten, and the postings decoded from the rewritten blocks
+    public long rewrittenTerms;
+    public long rewrittenPostings;
+    public long droppedPostings;
+    public long reclaimedBytes;
+    // posting lists that changed while being compacted, they are compacted again by the next pass
+    public long retriedTerms;
+    public long nanos;
+
+    public CompactionStatistics() {}
+
+    // share of the postings that belong to deleted documents, as seen by the pass
+    public double deadPostingRatio() {
+        if (postings == 0) {
+            return 0.0;
+        }
+        return (double) deadPostings / postings;
+    }
+
+    // share of the postings that still belong to deleted documents once the pass dropped what it could
+    public double remainingDeadPostingRatio() {
+        if (postings - droppedPostings == 0) {
+            return 0.0;
+        }
+        return (double) (deadPostings - droppedPostings) / (postings - droppedPostings);
+    }
+
+    public double seconds() {
+        return (double) nanos / 1_000_000_000.0;
+    }
+
+    // postings decoded and re-encoded per second of compaction
+    public double rewrittenPostingsPerSecond() {
+        return nanos > 0 ? rewrittenPostings / seconds() : 0.0;
+    }
+
+    void add(CompactionStatistics pass) {
+        passes += pass.passes;
+        terms += pass.terms;
+        postings += pass.postings;
+        deadPostings += pass.deadPostings;
+        rewrittenTerms += pass.rewrittenTerms;
+        rewrittenPostings += pass.rewrittenPostings;
+        droppedPostings += pass.droppedPostings;
+        reclaimedBytes += pass.reclaimedBytes;
+        retriedTerms += pass.retriedTerms;
+        nanos += pass.nanos;
+    }
+}
@@ -0,0 +1,34 @@
+package com.fileretrieval.server;
+
+// background thread that periodically drops the postings of deleted documents from the posting
+// lists (see IndexStore.compactDeletedPostings), a pass only runs when documents were deleted since
+// the previous one, searches never wait for it
+public class Compactor implements Runnable {
+    private IndexStore store;
+    private long intervalMillis;
+    private volatile boolean terminate;
+
+    public Compactor(IndexStore store, long intervalMillis) {
+        this.store = store;
+        this.intervalMillis = intervalMillis;
+    }
+
+    public void setTerminate() {
+        this.terminate = true;
+    }
+
+    @Override
+    public void run() {
+        terminate = false;
+
+        while (!terminate) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                // interrupted by shutdown
+                break;
+            }
+            store.compactDeletedPostings();
+        }
+    }
+}
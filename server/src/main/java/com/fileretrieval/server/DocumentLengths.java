@@ -0,0 +1,103 @@
+package com.fileretrieval.server;
+
+import java.util.Arrays;
+
+// number of words of every document, recorded before its postings are merged, together with the
+// number and total length of the live documents whose length is known, the average BM25 normalizes
+// document lengths by, so scoring needs no pass over the documents
+// a deleted document no longer counts towards the average, documents of a segment written before
+// lengths were recorded have none, they are scored as if they had the average length
+// the shortest length ever recorded bounds BM25 scores from above, it is not raised when that
+// document is deleted
+// length() is lock-free like Tombstones.contains, the array is copied into a larger one when it has
+// to grow, writers are serialized by the monitor
+class DocumentLengths {
+    // the length of a deleted document, 0 stands for a length that is not known
+    private static final int DELETED = -1;
+
+    private volatile int[] lengths = new int[1024];
+    private long totalLength = 0;
+    private int documentCount = 0;
+    private volatile double averageLength = 0.0;
+    // 0 until a length is known
+    private volatile int minimumLength = 0;
+
+    synchronized void set(int documentNumber, int length) {
+        int[] current = lengths;
+        if (documentNumber >= current.length) {
+            current = Arrays.copyOf(current, Math.max(documentNumber + 1, current.length * 2));
+            lengths = current;
+        }
+        int previous = current[documentNumber];
+        if (previous == DELETED) {
+            // deleted before its postings were merged, only while replaying the log
+            return;
+        }
+        if (previous > 0) {
+            // replayed after it was already flushed into the segment
+            totalLength -= previous;
+            documentCount--;
+        }
+        if (length > 0) {
+            totalLength += length;
+            documentCount++;
+            if (minimumLength == 0 || length < minimumLength) {
+                minimumLength = length;
+            }
+        }
+        current[documentNumber] = length;
+        updateAverage();
+    }
+
+    synchronized void remove(int documentNumber) {
+        int[] current = lengths;
+        if (documentNumber >= current.length) {
+            current = Arrays.copyOf(current, Math.max(documentNumber + 1, current.length * 2));
+            lengths = current;
+        }
+        int previous = current[documentNumber];
+        if (previous > 0) {
+            totalLength -= previous;
+            documentCount--;
+            updateAverage();
+        }
+        current[documentNumber] = DELETED;
+    }
+
+    // called with the monitor held
+    private void updateAverage() {
+        averageLength = documentCount == 0 ? 0.0 : (double) totalLength / documentCount;
+    }
+
+    // the number of words of the document, 0 if it is not known or the document is deleted
+    int length(int documentNumber) {
+        int[] current = lengths;
+        return documentNumber < current.length ? Math.max(0, current[documentNumber]) : 0;
+    }
+
+    // average length of the live documents with a known length, 0 if there is none
+    double averageLength() {
+        return averageLength;
+    }
+
+    // no document with a known length is shorter, 0 if there is none
+    int minimumLength() {
+        return minimumLength;
+    }
+
+    // the lengths of the documents below documentCount, -1 for deleted ones, for the segment file
+    synchronized int[] toArray(int documentCount) {
+        return Arrays.copyOf(lengths, documentCount);
+    }
+
+    // restore the lengths of a segment file, before anything is indexed
+    synchronized void addAll(int[] segmentLengths) {
+        for (int documentNumber = 0; documentNumber < segmentLengths.length; documentNumber++) {
+            if (segmentLengths[documentNumber] == DELETED) {
+                remove(documentNumber);
+            } else {
+                set(documentNumber, segmentLengths[documentNumber]);
+            }
+        }
+    }
+}
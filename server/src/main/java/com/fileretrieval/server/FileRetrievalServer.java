@@ -1,12 +1,17 @@
 package com.fileretrieval.server;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
 public class FileRetrievalServer
 {
     public static void main( String[] args )
     {
         // check for arguments
         if (args.length < 1) {
-            System.out.println("Usage: java FileRetrievalServer <port>");
+            System.out.println("Usage: java FileRetrievalServer <port> [--data-dir <directory>] [--wal-window-micros <n>] [--delete-on-disconnect] [--compaction-interval-millis <n>] [--mode platform|virtual|nio] [--max-connections <n>] [--selector-workers <n>] [--ingest-max-requests <n>] [--ingest-max-bytes <n>] [--ingest-queue <n>] [--ingest-wait-millis <n>] [--replicas <IP>:<port>,...] [--search-threads <n>] [--parallel-search-postings <n>]");
             return;
         }
 
@@ -24,10 +29,149 @@ public class FileRetrievalServer
         if (serverPort < 1024) {
             System.out.println("Please enter a non-privileged port number (>= 1024)");
             return;
-        } 
+        }
+
+        // parse the optional settings that follow the port
+        Path dataDirectory = null;
+        // how long the write-ahead log waits to batch more documents into one fsync
+        long walWindowMicros = 0;
+        // whether the documents of a client are deleted when it disconnects, and how often the
+        // postings of deleted documents are compacted away (0 never)
+        boolean deleteOnDisconnect = false;
+        long compactionIntervalMillis = ServerProcessingEngine.DEFAULT_COMPACTION_INTERVAL_MILLIS;
+        // platform or virtual worker threads or the selector, and the connection limit (0: the default
+        // of the mode), and the worker threads behind the selector
+        ServerMode mode = ServerMode.PLATFORM;
+        int maxConnections = 0;
+        int selectorWorkers = ServerProcessingEngine.DEFAULT_SELECTOR_WORKERS;
+        // admission control: requests merged at once (0 admits every request), bytes of their frames,
+        // requests waiting for a turn and how long they wait before they get a BUSY reply
+        int ingestMaxRequests = IngestLimiter.DEFAULT_MAX_REQUESTS;
+        long ingestMaxBytes = IngestLimiter.DEFAULT_MAX_BYTES;
+        int ingestQueue = IngestLimiter.DEFAULT_MAX_QUEUED;
+        long ingestWaitMillis = IngestLimiter.DEFAULT_MAX_WAIT_MILLIS;
+        // followers every indexed document is forwarded to, this server is then the primary
+        ArrayList<String> replicas = new ArrayList<>();
+        // threads one large search is split over, and from how many postings of its shortest list
+        int searchThreads = ServerProcessingEngine.DEFAULT_SEARCH_THREADS;
+        int parallelSearchPostings = QueryEngine.DEFAULT_PARALLEL_THRESHOLD;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--data-dir") && i + 1 < args.length) {
+                dataDirectory = Paths.get(args[++i]);
+            } else if (args[i].equals("--wal-window-micros") && i + 1 < args.length) {
+                try {
+                    walWindowMicros = Long.parseLong(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.out.println("WAL window must be a valid integer");
+                    return;
+                }
+            } else if (args[i].equals("--delete-on-disconnect")) {
+                deleteOnDisconnect = true;
+            } else if (args[i].equals("--compaction-interval-millis") && i + 1 < args.length) {
+                try {
+                    compactionIntervalMillis = Long.parseLong(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.out.println("Compaction interval must be a valid integer");
+                    return;
+                }
+            } else if (args[i].equals("--mode") && i + 1 < args.length) {
+                try {
+                    mode = ServerMode.fromName(args[++i]);
+                } catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage());
+                    return;
+                }
+            } else if (args[i].equals("--max-connections") && i + 1 < args.length) {
+                try {
+                    maxConnections = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.out.println("Maximum number of connections must be a valid integer");
+                    return;
+                }
+            } else if (args[i].equals("--selector-workers") && i + 1 < args.length) {
+                try {
+                    selectorWorkers = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.out.println("Number of selector workers must be a valid integer");
+                    return;
+                }
+            } else if (args[i].equals("--replicas") && i + 1 < args.length) {
+                for (String address : args[++i].split(",")) {
+                    if (!address.isEmpty()) {
+                        replicas.add(address);
+                    }
+                }
+            } else if (args[i].equals("--search-threads") && i + 1 < args.length) {
+                try {
+                    searchThreads = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.out.println("Number of search threads must be a valid integer");
+                    return;
+                }
+            } else if (args[i].equals("--parallel-search-postings") && i + 1 < args.length) {
+                try {
+                    parallelSearchPostings = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.out.println("Parallel search postings must be a valid integer");
+                    return;
+                }
+            } else if (args[i].startsWith("--ingest-") && i + 1 < args.length) {
+                try {
+                    if (args[i].equals("--ingest-max-requests")) {
+                        ingestMaxRequests = Integer.parseInt(args[++i]);
+                    } else if (args[i].equals("--ingest-max-bytes")) {
+                        ingestMaxBytes = Long.parseLong(args[++i]);
+                    } else if (args[i].equals("--ingest-queue")) {
+                        ingestQueue = Integer.parseInt(args[++i]);
+                    } else if (args[i].equals("--ingest-wait-millis")) {
+                        ingestWaitMillis = Long.parseLong(args[++i]);
+                    } else {
+                        System.out.println("Unknown option: " + args[i]);
+                        return;
+                    }
+                } catch (NumberFormatException e) {
+                    System.out.println("Ingest limits must be valid integers");
+                    return;
+                }
+            } else {
+                System.out.println("Unknown option: " + args[i]);
+                return;
+            }
+        }
+
+        // without a data directory the index only lives in memory
+        IndexStore store;
+        WriteAheadLog log = null;
+        if (dataDirectory == null) {
+            store = new IndexStore();
+        } else {
+            try {
+                long startTime = System.nanoTime();
+                store = IndexStore.open(dataDirectory);
+                // re-apply the documents acknowledged after the last flush
+                log = WriteAheadLog.open(dataDirectory, walWindowMicros);
+                long replayed = log.replay(store);
+                double openTime = (double) (System.nanoTime() - startTime) / 1_000_000_000.0;
+                System.out.println("Opened index with " + store.getDocumentCount() + " documents ("
+                    + replayed + " replayed from the write-ahead log) in "
+                    + String.format("%.3f", openTime) + " seconds");
+            } catch (IOException e) {
+                System.err.println("Could not open index in " + dataDirectory);
+                e.printStackTrace();
+                return;
+            }
+        }
 
-        IndexStore store = new IndexStore();
-        ServerProcessingEngine engine = new ServerProcessingEngine(store);
+        ServerProcessingEngine engine = new ServerProcessingEngine(store, log);
+        engine.setDeleteOnDisconnect(deleteOnDisconnect);
+        engine.setCompactionInterval(compactionIntervalMillis);
+        engine.setMode(mode);
+        engine.setMaxConnections(maxConnections);
+        engine.setSelectorWorkers(selectorWorkers);
+        engine.setIngestLimits(ingestMaxRequests, ingestMaxBytes, ingestQueue, ingestWaitMillis);
+        engine.setReplicas(replicas);
+        engine.setSearchThreads(searchThreads);
+        engine.setParallelSearchThreshold(parallelSearchPostings);
         ServerAppInterface appInterface = new ServerAppInterface(engine);
         
         // create a thread that creates and server TCP/IP socket and listens to connections
@@ -36,4 +180,4 @@ public class FileRetrievalServer
         // read commands from the user
         appInterface.readCommands();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,12 @@
+package com.fileretrieval.server;
+
+// receives every matching document of a query together with its score
+public interface HitCollector {
+    void collect(int documentNumber, long score);
+
+    // a later document whose score is not above this one would not be kept, so the search may skip
+    // documents whose score cannot be higher, Long.MIN_VALUE keeps every document
+    default long minCompetitiveScore() {
+        return Long.MIN_VALUE;
+    }
+}
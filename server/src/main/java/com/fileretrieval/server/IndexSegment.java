@@ -0,0 +1,352 @@
+package com.fileretrieval.server;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+// immutable on-disk copy of the index, written by IndexStore.flush() and memory-mapped on startup
+// searches read posting blocks straight from the mapped pages, only the block headers of the
+// terms that are actually used are loaded onto the heap
+//
+// file layout (big-endian, offsets are from the start of the file):
+//   documents       per document: int length + UTF-8 "path_clientID" (length -1 if absent)
+//   terms           per term, sorted by UTF-8 bytes: int length + UTF-8 term, int posting count,
+//                   int block count, then per block: int count, int first document,
+//                   int last document, int largest frequency, int byte length + encoded
+//                   PostingBlock bytes
+//   document index  int offset per document number
+//   term index      int offset per term, in term order
+//   deleted         long per 64 documents, bit n % 64 of long n / 64 is set if document n is deleted
+//   lengths         int number of words per document number, -1 if deleted, 0 if not known
+//   footer          int lengths offset, int deleted offset, int deleted long count, then
+//                   int magic, int version, int document count, int term count,
+//                   int document index offset, int term index offset
+// version 1 files have no deleted section and no deleted fields in the footer, version 2 files no
+// lengths section and no lengths offset, block headers before version 4 have no largest frequency,
+// the terms of such a file are rewritten rather than copied by the next write
+class IndexSegment {
+    static final String FILE_NAME = "index.seg";
+
+    private static final int MAGIC = 0x46524958;
+    private static final int VERSION = 4;
+    private static final int FOOTER_SIZE = 6 * Integer.BYTES;
+    private static final int DELETED_FOOTER_SIZE = 2 * Integer.BYTES;
+    private static final int LENGTHS_FOOTER_SIZE = Integer.BYTES;
+    private static final int BLOCK_HEADER_SIZE = 5 * Integer.BYTES;
+    private static final int OLD_BLOCK_HEADER_SIZE = 4 * Integer.BYTES;
+
+    private final MappedByteBuffer buffer;
+    private final int version;
+    final int documentCount;
+    final int termCount;
+    private final int documentIndexOffset;
+    private final int termIndexOffset;
+    private final int deletedOffset;
+    private final int deletedLongCount;
+    // 0 if the file has no lengths section
+    private final int lengthsOffset;
+
+    private IndexSegment(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        int footer = buffer.capacity() - FOOTER_SIZE;
+        if (footer < 0 || buffer.getInt(footer) != MAGIC) {
+            throw new IOException("Not an index segment file");
+        }
+        this.version = buffer.getInt(footer + 4);
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported index segment version " + version);
+        }
+        this.documentCount = buffer.getInt(footer + 8);
+        this.termCount = buffer.getInt(footer + 12);
+        this.documentIndexOffset = buffer.getInt(footer + 16);
+        this.termIndexOffset = buffer.getInt(footer + 20);
+        if (version == 1) {
+            this.deletedOffset = 0;
+            this.deletedLongCount = 0;
+        } else {
+            this.deletedOffset = buffer.getInt(footer - DELETED_FOOTER_SIZE);
+            this.deletedLongCount = buffer.getInt(footer - DELETED_FOOTER_SIZE + 4);
+        }
+        if (version < 3) {
+            this.lengthsOffset = 0;
+        } else {
+            this.lengthsOffset = buffer.getInt(footer - DELETED_FOOTER_SIZE - LENGTHS_FOOTER_SIZE);
+        }
+    }
+
+    static IndexSegment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Index segment larger than 2 GB: " + file);
+            }
+            // the mapping stays valid after the channel is closed
+            return new IndexSegment(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    String document(int documentNumber) {
+        if (documentNumber < 0 || documentNumber >= documentCount) {
+            return null;
+        }
+        int offset = buffer.getInt(documentIndexOffset + documentNumber * Integer.BYTES);
+        int length = buffer.getInt(offset);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(offset + Integer.BYTES, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // the deleted documents, see Tombstones.toArray(int)
+    long[] deleted() {
+        long[] bits = new long[deletedLongCount];
+        for (int i = 0; i < deletedLongCount; i++) {
+            bits[i] = buffer.getLong(deletedOffset + i * Long.BYTES);
+        }
+        return bits;
+    }
+
+    // the document lengths, see DocumentLengths.toArray(int), all 0 if the file has none
+    int[] lengths() {
+        int[] lengths = new int[documentCount];
+        if (lengthsOffset > 0) {
+            for (int i = 0; i < documentCount; i++) {
+                lengths[i] = buffer.getInt(lengthsOffset + i * Integer.BYTES);
+            }
+        }
+        return lengths;
+    }
+
+    // binary search the term index, returns the offset of the term's entry or -1
+    private int find(byte[] term) {
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int offset = termOffset(middle);
+            int comparison = compareTerm(offset, term);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    private int termOffset(int index) {
+        return buffer.getInt(termIndexOffset + index * Integer.BYTES);
+    }
+
+    // unsigned byte comparison of the term stored at offset with the given term
+    private int compareTerm(int offset, byte[] term) {
+        int length = buffer.getInt(offset);
+        int common = Math.min(length, term.length);
+        for (int i = 0; i < common; i++) {
+            int comparison = Integer.compare(buffer.get(offset + 4 + i) & 0xFF, term[i] & 0xFF);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(length, term.length);
+    }
+
+    // build a posting list for the term whose blocks read from the mapped file, null if absent
+    PostingList load(String term) {
+        int offset = find(term.getBytes(StandardCharsets.UTF_8));
+        if (offset < 0) {
+            return null;
+        }
+        return load(offset);
+    }
+
+    private PostingList load(int offset) {
+        offset += 4 + buffer.getInt(offset);
+        int size = buffer.getInt(offset);
+        int blockCount = buffer.getInt(offset + 4);
+        offset += 8;
+
+        PostingBlock[] blocks = new PostingBlock[blockCount];
+        int[] blockLastDocuments = new int[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            int count = buffer.getInt(offset);
+            int firstDocument = buffer.getInt(offset + 4);
+            int lastDocument = buffer.getInt(offset + 8);
+            int maxFrequency;
+            int length;
+            int headerSize;
+            if (version < 4) {
+                maxFrequency = PostingBlock.UNKNOWN_MAX_FREQUENCY;
+                length = buffer.getInt(offset + 12);
+                headerSize = OLD_BLOCK_HEADER_SIZE;
+            } else {
+                maxFrequency = buffer.getInt(offset + 12);
+                length = buffer.getInt(offset + 16);
+                headerSize = BLOCK_HEADER_SIZE;
+            }
+            blocks[i] = new PostingBlock(count, firstDocument, lastDocument, maxFrequency, buffer, offset + headerSize, length);
+            blockLastDocuments[i] = lastDocument;
+            offset += headerSize + length;
+        }
+        return new PostingList(blocks, blockLastDocuments, blockCount, size);
+    }
+
+    // number of bytes of the term entry starting at offset
+    private int entryLength(int offset) {
+        int start = offset;
+        offset += 4 + buffer.getInt(offset);
+        int blockCount = buffer.getInt(offset + 4);
+        offset += 8;
+        for (int i = 0; i < blockCount; i++) {
+            offset += BLOCK_HEADER_SIZE + buffer.getInt(offset + 16);
+        }
+        return offset - start;
+    }
+
+    // write a new segment containing every document below documentCount, the postings of the given
+    // in-memory terms and, for every other term, its entry copied unchanged from the previous segment
+    static void write(Path file, IndexSegment previous, Map<String, PostingsSnapshot> terms,
+            IntFunction<String> documents, int documentCount, long[] deleted, int[] lengths) throws IOException {
+        // order the in-memory terms by their UTF-8 bytes, the order the term index is searched in
+        ArrayList<byte[]> memoryTerms = new ArrayList<>();
+        ArrayList<PostingsSnapshot> memoryPostings = new ArrayList<>();
+        ArrayList<Map.Entry<byte[], PostingsSnapshot>> sorted = new ArrayList<>();
+        for (Map.Entry<String, PostingsSnapshot> entry : terms.entrySet()) {
+            sorted.add(Map.entry(entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue()));
+        }
+        sorted.sort((entry1, entry2) -> Arrays.compareUnsigned(entry1.getKey(), entry2.getKey()));
+        for (Map.Entry<byte[], PostingsSnapshot> entry : sorted) {
+            memoryTerms.add(entry.getKey());
+            memoryPostings.add(entry.getValue());
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.toFile()), 1 << 16))) {
+            int[] documentOffsets = new int[documentCount];
+            for (int i = 0; i < documentCount; i++) {
+                documentOffsets[i] = position(out);
+                String document = documents.apply(i);
+                if (document == null) {
+                    out.writeInt(-1);
+                } else {
+                    byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+
+            // merge the sorted in-memory terms with the sorted terms of the previous segment
+            ArrayList<Integer> termOffsets = new ArrayList<>();
+            int memoryIndex = 0;
+            int previousIndex = 0;
+            int previousCount = previous == null ? 0 : previous.termCount;
+            while (memoryIndex < memoryTerms.size() || previousIndex < previousCount) {
+                int comparison;
+                if (memoryIndex >= memoryTerms.size()) {
+                    comparison = 1;
+                } else if (previousIndex >= previousCount) {
+                    comparison = -1;
+                } else {
+                    comparison = -previous.compareTerm(previous.termOffset(previousIndex), memoryTerms.get(memoryIndex));
+                }
+
+                if (comparison <= 0) {
+                    PostingsSnapshot postings = memoryPostings.get(memoryIndex);
+                    if (!postings.isEmpty()) {
+                        termOffsets.add(position(out));
+                        writeTerm(out, memoryTerms.get(memoryIndex), postings);
+                    }
+                    memoryIndex++;
+                    if (comparison == 0) {
+                        // the in-memory list already contains the previous segment's blocks
+                        previousIndex++;
+                    }
+                } else if (previous.version < 4) {
+                    // the term was never touched since startup, its block headers are completed
+                    int offset = previous.termOffset(previousIndex++);
+                    termOffsets.add(position(out));
+                    byte[] term = new byte[previous.buffer.getInt(offset)];
+                    previous.buffer.get(offset + 4, term);
+                    writeTerm(out, term, previous.load(offset).snapshot());
+                } else {
+                    // the term was never touched since startup, copy its entry as is
+                    int offset = previous.termOffset(previousIndex++);
+                    termOffsets.add(position(out));
+                    ByteBuffer entry = previous.buffer.slice(offset, previous.entryLength(offset));
+                    byte[] bytes = new byte[entry.remaining()];
+                    entry.get(bytes);
+                    out.write(bytes);
+                }
+            }
+
+            int documentIndexOffset = position(out);
+            for (int offset : documentOffsets) {
+                out.writeInt(offset);
+            }
+            int termIndexOffset = position(out);
+            for (int offset : termOffsets) {
+                out.writeInt(offset);
+            }
+            int deletedOffset = position(out);
+            for (long bits : deleted) {
+                out.writeLong(bits);
+            }
+            int lengthsOffset = position(out);
+            for (int length : lengths) {
+                out.writeInt(length);
+            }
+
+            out.writeInt(lengthsOffset);
+            out.writeInt(deletedOffset);
+            out.writeInt(deleted.length);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(documentCount);
+            out.writeInt(termOffsets.size());
+            out.writeInt(documentIndexOffset);
+            out.writeInt(termIndexOffset);
+            out.flush();
+        }
+
+        // make the new segment durable before it replaces the old one
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private static void writeTerm(DataOutputStream out, byte[] term, PostingsSnapshot postings) throws IOException {
+        // the hot buffer is written as one more block
+        int blockCount = postings.blockCount + (postings.hotSize > 0 ? 1 : 0);
+        out.writeInt(term.length);
+        out.write(term);
+        out.writeInt(postings.size());
+        out.writeInt(blockCount);
+        for (int i = 0; i < postings.blockCount; i++) {
+            postings.blocks[i].writeTo(out);
+        }
+        if (postings.hotSize > 0) {
+            PostingBlock.encode(postings.hotDocuments, postings.hotFrequencies, postings.hotSize).writeTo(out);
+        }
+    }
+
+    private static int position(DataOutputStream out) throws IOException {
+        // DataOutputStream.size() saturates at Integer.MAX_VALUE
+        if (out.size() == Integer.MAX_VALUE) {
+            throw new IOException("Index segment larger than 2 GB");
+        }
+        return out.size();
+    }
+}
@@ -0,0 +1,28 @@
+package com.fileretrieval.server;
+
+// point-in-time summary of the inverted index, gathered from the posting list snapshots
+public class IndexStatistics {
+    public long terms;
+    public long postings;
+    // postings still in uncompressed hot buffers (two ints each)
+    public long hotPostings;
+    public long hotBytes;
+    // compressed postings
+    public long sealedBlocks;
+    public long bitPackedBlocks;
+    public long sealedBytes;
+
+    public IndexStatistics() {}
+
+    public long sealedPostings() {
+        return postings - hotPostings;
+    }
+
+    // compression ratio of sealed postings against two 4-byte ints per posting
+    public double compressionRatio() {
+        if (sealedBytes == 0) {
+            return 0.0;
+        }
+        return (double) sealedPostings() * 2 * Integer.BYTES / sealedBytes;
+    }
+}
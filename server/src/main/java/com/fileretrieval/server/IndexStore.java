@@ -1,45 +1,105 @@
 package com.fileretrieval.server;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
-// data structure that stores a document number and the number of times a word/term appears in the document
-class DocFreqPair {
-    public long documentNumber;
-    public long wordFrequency;
-
-    public DocFreqPair(long documentNumber, long wordFrequency) {
-        this.documentNumber = documentNumber;
-        this.wordFrequency = wordFrequency;
-    }
-}
-
 public class IndexStore {
     // declare data structures that keep track of DocumentMap and TermInvertedIndex
-    HashMap<String, Long> DocumentMap;
-    HashMap<String, ArrayList<DocFreqPair>> TermInvertedIndex;
+    // document maps are concurrent so getDocument can read them without taking documentMapLock
+    ConcurrentHashMap<String, Integer> DocumentMap;
+    // concurrent map so workers merging different terms never wait on each other,
+    // each posting list is guarded by its own monitor while being appended to
+    ConcurrentHashMap<String, PostingList> TermInvertedIndex;
     // declare data structure for easier lookup in getDocument method
-    HashMap<Long, String> ReverseDocumentMap;
-    // declare and initialize two locks for DocumentMap and TermInvertedIndex
+    ConcurrentHashMap<Integer, String> ReverseDocumentMap;
+    // declare and initialize lock for DocumentMap
     private final Lock documentMapLock = new ReentrantLock();
-    private final Lock termInvertedIndexLock = new ReentrantLock();
+    // only one flush writes the segment file at a time
+    private final Lock flushLock = new ReentrantLock();
+    // only one compaction pass at a time, it also guards the compaction fields below
+    private final Lock compactionLock = new ReentrantLock();
+
+    // directory holding the segment file, null if the index only lives in memory
+    private final Path dataDirectory;
+    // segment mapped at startup, terms and documents not touched since then are read from it
+    private final IndexSegment segment;
+    // documents replaced by a newer version or removed, their postings are skipped by searches
+    private final Tombstones tombstones = new Tombstones();
+    // number of words of every document and their average, for BM25 (see DocumentLengths)
+    private final DocumentLengths documentLengths = new DocumentLengths();
+    // the keys of the segment's documents are only put into DocumentMap when a document is indexed
+    // or removed for the first time after startup, guarded by documentMapLock
+    private boolean segmentKeysLoaded = false;
+    // number of deleted documents at the start of the last compaction pass, and whether that pass
+    // left posting lists to retry, a pass only runs when one of them says there is work
+    private int compactedTombstoneCount = 0;
+    private boolean compactionRetryNeeded = false;
+    private final CompactionStatistics compactionTotals = new CompactionStatistics();
+    private CompactionStatistics lastCompaction = new CompactionStatistics();
 
-    // initialize documentNumber counter to 0
-    long documentNumber = 0L;
+    // initialize documentNumber counter to 0 (or to the number of documents in the segment)
+    // document numbers are ints so that posting lists can store them in primitive int arrays
+    int documentNumber = 0;
 
     public IndexStore() {
+        this(null, null);
+    }
+
+    private IndexStore(Path dataDirectory, IndexSegment segment) {
         // initialize the DocumentMap and TermInvertedIndex members
-        DocumentMap = new HashMap<>();
-        TermInvertedIndex = new HashMap<>();
+        DocumentMap = new ConcurrentHashMap<>();
+        TermInvertedIndex = new ConcurrentHashMap<>();
         // initialize DocumentIndexPair
-        ReverseDocumentMap = new HashMap<>();
+        ReverseDocumentMap = new ConcurrentHashMap<>();
+        this.dataDirectory = dataDirectory;
+        this.segment = segment;
+        if (segment != null) {
+            documentNumber = segment.documentCount;
+            tombstones.addAll(segment.deleted());
+            documentLengths.addAll(segment.lengths());
+            for (int deleted = tombstones.nextDeleted(0); deleted >= 0; deleted = tombstones.nextDeleted(deleted + 1)) {
+                documentLengths.remove(deleted);
+            }
+        }
     }
 
-    public long putDocument(String documentPath, long clientID) {
-        long uniqueNumber;
+    // open the index persisted in the data directory, or an empty one if nothing was flushed yet
+    // the segment is memory-mapped, so startup time does not depend on the size of the index
+    public static IndexStore open(Path dataDirectory) throws IOException {
+        Files.createDirectories(dataDirectory);
+        Path file = dataDirectory.resolve(IndexSegment.FILE_NAME);
+        IndexSegment segment = null;
+        if (Files.exists(file)) {
+            segment = IndexSegment.open(file);
+        }
+        return new IndexStore(dataDirectory, segment);
+    }
+
+    public boolean isPersistent() {
+        return dataDirectory != null;
+    }
+
+    public int getDocumentCount() {
+        documentMapLock.lock();
+        try {
+            return documentNumber;
+        } finally {
+            documentMapLock.unlock();
+        }
+    }
+
+    public int putDocument(String documentPath, long clientID) {
+        int uniqueNumber;
         String fullKey = documentPath + "_" + clientID;
         // acquire lock before entering critical section
         documentMapLock.lock();
@@ -49,8 +109,7 @@ public class IndexStore {
         try {
             uniqueNumber = documentNumber;
             // append client socket ID to the document with delimiter "_"
-            DocumentMap.put(fullKey, uniqueNumber);
-            ReverseDocumentMap.put(documentNumber, fullKey);
+            assignDocument(fullKey, uniqueNumber);
             documentNumber++;
         } finally {
             // release the lock 
@@ -59,43 +118,366 @@ public class IndexStore {
         return uniqueNumber;
     }
 
-    public String getDocument(long documentNumber) {
-        return ReverseDocumentMap.get(documentNumber);
+    // assign a contiguous range of document numbers to a batch of documents in a single critical
+    // section, returns the number of the first one, the others follow in order
+    public int putDocuments(List<String> documentPaths, long clientID) {
+        int firstNumber;
+        documentMapLock.lock();
+        try {
+            firstNumber = documentNumber;
+            for (String documentPath : documentPaths) {
+                assignDocument(documentPath + "_" + clientID, documentNumber);
+                documentNumber++;
+            }
+        } finally {
+            documentMapLock.unlock();
+        }
+        return firstNumber;
     }
 
-    public void updateIndex(long documentNumber, HashMap<String, Long> wordFrequencies) {
-        // acquire lock before entering critical section 
-        termInvertedIndexLock.lock();
+    // map the key to its document number, called with documentMapLock held
+    // a key indexed again (the file changed) keeps the higher, newer number and the older version is
+    // deleted, the gap until the new postings are merged is the time of one updateIndex
+    private void assignDocument(String fullKey, int number) {
+        loadSegmentKeys();
+        Integer previous = DocumentMap.get(fullKey);
+        if (previous == null || previous < number) {
+            DocumentMap.put(fullKey, number);
+            if (previous != null) {
+                delete(previous);
+            }
+        } else if (previous > number) {
+            // only while replaying: the segment already holds a newer version of the document
+            delete(number);
+        }
+        ReverseDocumentMap.put(number, fullKey);
+    }
 
-        // update the TermInvertedIndex with the word frequencies of the specified document
-        // make sure that only one thread at a time can access this method
+    // put the keys of the segment's live documents into DocumentMap, so documents indexed before the
+    // restart are replaced and removed like the others, called with documentMapLock held
+    private void loadSegmentKeys() {
+        if (segmentKeysLoaded) {
+            return;
+        }
+        segmentKeysLoaded = true;
+        if (segment == null) {
+            return;
+        }
+        for (int number = 0; number < segment.documentCount; number++) {
+            String fullKey = segment.document(number);
+            if (fullKey != null && !tombstones.contains(number)) {
+                assignDocument(fullKey, number);
+            }
+        }
+    }
+
+    // delete the current version of a document, returns its number or -1 if there is none
+    public int removeDocument(String documentPath, long clientID) {
+        String fullKey = documentPath + "_" + clientID;
+        documentMapLock.lock();
+        try {
+            loadSegmentKeys();
+            Integer number = DocumentMap.remove(fullKey);
+            if (number == null) {
+                return -1;
+            }
+            delete(number);
+            return number;
+        } finally {
+            documentMapLock.unlock();
+        }
+    }
+
+    // delete every document indexed under the client ID, used when a client disconnects
+    // DocumentMap is scanned under documentMapLock, returns the numbers of the deleted documents
+    public ArrayList<Integer> removeClientDocuments(long clientID) {
+        String suffix = "_" + clientID;
+        ArrayList<Integer> removed = new ArrayList<>();
+        documentMapLock.lock();
         try {
-            for (Map.Entry<String, Long> entry : wordFrequencies.entrySet()) {
-                if (TermInvertedIndex.containsKey(entry.getKey())) {
-                    // add pair to the existing ArrayList
-                    DocFreqPair docFreqPair = new DocFreqPair(documentNumber, entry.getValue());
-                    ArrayList<DocFreqPair> arrayList = TermInvertedIndex.get(entry.getKey());
-                    arrayList.add(docFreqPair);
-                } else {
-                    // create a new ArrayList, add the pair to the list, and update index
-                    DocFreqPair docFreqPair = new DocFreqPair(documentNumber, entry.getValue());
-                    ArrayList<DocFreqPair> arrayList = new ArrayList<>();
-                    arrayList.add(docFreqPair);
-                    TermInvertedIndex.put(entry.getKey(), arrayList); 
+            loadSegmentKeys();
+            for (Map.Entry<String, Integer> entry : DocumentMap.entrySet()) {
+                if (entry.getKey().endsWith(suffix)) {
+                    removed.add(entry.getValue());
+                    delete(entry.getValue());
                 }
             }
+            DocumentMap.keySet().removeIf(key -> key.endsWith(suffix));
         } finally {
-            // release the lock 
-            termInvertedIndexLock.unlock();
+            documentMapLock.unlock();
+        }
+        return removed;
+    }
+
+    // re-apply a removal read from the write-ahead log, the document may have been indexed again
+    // after it, so only the logged version is deleted
+    public void replayRemoval(int documentNumber, String documentPath, long clientID) {
+        String fullKey = documentPath + "_" + clientID;
+        documentMapLock.lock();
+        try {
+            loadSegmentKeys();
+            DocumentMap.remove(fullKey, documentNumber);
+            delete(documentNumber);
+        } finally {
+            documentMapLock.unlock();
         }
     }
 
-    public ArrayList<DocFreqPair> lookupIndex(String term) {
-        ArrayList<DocFreqPair> results = new ArrayList<>();
-        // return the document and frequency pairs for the specified term
-        if (TermInvertedIndex.containsKey(term)) {
-            results = TermInvertedIndex.get(term);
+    // searches skip the document from now on and its length no longer counts towards the average
+    private void delete(int documentNumber) {
+        tombstones.add(documentNumber);
+        documentLengths.remove(documentNumber);
+    }
+
+    public boolean isDeleted(int documentNumber) {
+        return tombstones.contains(documentNumber);
+    }
+
+    public int getDeletedDocumentCount() {
+        return tombstones.count();
+    }
+
+    // documents that are not deleted, the N of the inverse document frequency
+    public int getLiveDocumentCount() {
+        return Math.max(0, getDocumentCount() - getDeletedDocumentCount());
+    }
+
+    // number of words of the document, 0 if it is not known (see DocumentLengths)
+    public int getDocumentLength(int documentNumber) {
+        return documentLengths.length(documentNumber);
+    }
+
+    public double getAverageDocumentLength() {
+        return documentLengths.averageLength();
+    }
+
+    // no document with a known length is shorter, 0 if no length is known
+    public int getMinimumDocumentLength() {
+        return documentLengths.minimumLength();
+    }
+
+    // the length is recorded before the postings are merged, so a search that finds a posting of
+    // the document also finds its length
+    private void recordLength(int documentNumber, Map<String, Long> wordFrequencies) {
+        long length = 0;
+        for (long wordFrequency : wordFrequencies.values()) {
+            length += frequency(wordFrequency);
         }
-        return results;
+        documentLengths.set(documentNumber, (int) Math.min(length, Integer.MAX_VALUE));
     }
-}
\ No newline at end of file
+
+    // frequencies come from the client as longs and postings keep ints of at least 1, a value out of
+    // range is saturated rather than failing half way through merging a document that is already numbered
+    static int frequency(long wordFrequency) {
+        return (int) Math.max(1, Math.min(wordFrequency, Integer.MAX_VALUE));
+    }
+
+    public String getDocument(int documentNumber) {
+        // lock-free read, the document is published before any of its postings
+        String document = ReverseDocumentMap.get(documentNumber);
+        if (document == null && segment != null) {
+            // documents indexed before the last restart are read from the mapped segment
+            document = segment.document(documentNumber);
+        }
+        return document;
+    }
+
+    public void updateIndex(int documentNumber, Map<String, Long> wordFrequencies) {
+        // update the TermInvertedIndex with the word frequencies of the specified document
+        // there is no global lock: the map itself is concurrent and only the posting list
+        // of the term being merged is locked, so workers indexing different terms run in parallel
+        recordLength(documentNumber, wordFrequencies);
+        for (Map.Entry<String, Long> entry : wordFrequencies.entrySet()) {
+            postingList(entry.getKey()).add(documentNumber, frequency(entry.getValue()));
+        }
+    }
+
+    // merge a batch of documents numbered firstDocumentNumber, firstDocumentNumber + 1, ... in one pass:
+    // the postings of the whole batch are grouped by term first, so that each posting list is looked
+    // up, locked and published once per batch instead of once per document
+    public void updateIndexBatch(int firstDocumentNumber, List<? extends Map<String, Long>> wordFrequencies) {
+        int postingCount = 0;
+        for (Map<String, Long> documentFrequencies : wordFrequencies) {
+            postingCount += documentFrequencies.size();
+        }
+        // sized for every posting so the grouping never rehashes
+        HashMap<String, BatchPostings> postingsByTerm = new HashMap<>(postingCount * 4 / 3 + 1);
+        for (int i = 0; i < wordFrequencies.size(); i++) {
+            int documentNumber = firstDocumentNumber + i;
+            recordLength(documentNumber, wordFrequencies.get(i));
+            for (Map.Entry<String, Long> entry : wordFrequencies.get(i).entrySet()) {
+                BatchPostings postings = postingsByTerm.get(entry.getKey());
+                if (postings == null) {
+                    postings = new BatchPostings();
+                    postingsByTerm.put(entry.getKey(), postings);
+                }
+                postings.add(documentNumber, frequency(entry.getValue()));
+            }
+        }
+
+        for (Map.Entry<String, BatchPostings> entry : postingsByTerm.entrySet()) {
+            BatchPostings postings = entry.getValue();
+            postingList(entry.getKey()).addAll(postings.documents, postings.frequencies, postings.count);
+        }
+    }
+
+    // postings of one term within a batch, in increasing document order
+    private static final class BatchPostings {
+        // most terms of a batch occur in a single document
+        int[] documents = new int[1];
+        int[] frequencies = new int[1];
+        int count;
+
+        void add(int documentNumber, int wordFrequency) {
+            if (count == documents.length) {
+                documents = Arrays.copyOf(documents, count * 4);
+                frequencies = Arrays.copyOf(frequencies, count * 4);
+            }
+            documents[count] = documentNumber;
+            frequencies[count] = wordFrequency;
+            count++;
+        }
+    }
+
+    // re-apply a document read from the write-ahead log under the number it had before the restart
+    // the document may already be in the segment, completely or partially if it was being merged
+    // during the last flush, so postings that are already there are skipped
+    public void replayDocument(int documentNumber, String documentPath, long clientID,
+            HashMap<String, Long> wordFrequencies) {
+        String fullKey = documentPath + "_" + clientID;
+        documentMapLock.lock();
+        try {
+            assignDocument(fullKey, documentNumber);
+            // numbers handed out but never logged (crash before the append) are simply skipped
+            this.documentNumber = Math.max(this.documentNumber, documentNumber + 1);
+        } finally {
+            documentMapLock.unlock();
+        }
+
+        recordLength(documentNumber, wordFrequencies);
+        for (Map.Entry<String, Long> entry : wordFrequencies.entrySet()) {
+            PostingList postingList = postingList(entry.getKey());
+            if (!postingList.contains(documentNumber)) {
+                postingList.add(documentNumber, frequency(entry.getValue()));
+            }
+        }
+    }
+
+    // get the existing posting list or atomically load / create one for the term
+    private PostingList postingList(String term) {
+        return TermInvertedIndex.computeIfAbsent(term, key -> {
+            PostingList loaded = segment == null ? null : segment.load(key);
+            return loaded != null ? loaded : new PostingList();
+        });
+    }
+
+    // seal the hot buffers of terms that received no postings since the previous call,
+    // returns the number of postings moved into compressed blocks
+    public long sealIdleHotBuffers(int minPostings) {
+        long sealed = 0;
+        for (PostingList postingList : TermInvertedIndex.values()) {
+            sealed += postingList.sealIfIdle(minPostings);
+        }
+        return sealed;
+    }
+
+    // drop the postings of deleted documents from the posting lists in memory (see PostingList.compact),
+    // terms only in the segment keep them until they are loaded, searches skip them either way
+    // does nothing unless documents were deleted since the previous pass or it left lists to retry,
+    // returns the figures of the pass, null if it did not run
+    public CompactionStatistics compactDeletedPostings() {
+        compactionLock.lock();
+        try {
+            int tombstoneCount = tombstones.count();
+            if (tombstoneCount == compactedTombstoneCount && !compactionRetryNeeded) {
+                return null;
+            }
+            long startTime = System.nanoTime();
+            CompactionStatistics pass = new CompactionStatistics();
+            pass.passes = 1;
+            for (PostingList postingList : TermInvertedIndex.values()) {
+                postingList.compact(tombstones, pass);
+            }
+            pass.nanos = System.nanoTime() - startTime;
+
+            compactedTombstoneCount = tombstoneCount;
+            compactionRetryNeeded = pass.retriedTerms > 0;
+            compactionTotals.add(pass);
+            lastCompaction = pass;
+            return pass;
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    // the sum of every compaction pass so far
+    public CompactionStatistics compactionTotals() {
+        compactionLock.lock();
+        try {
+            CompactionStatistics totals = new CompactionStatistics();
+            totals.add(compactionTotals);
+            return totals;
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    // the last pass that ran, its dead posting ratio is the latest measured one
+    public CompactionStatistics lastCompaction() {
+        compactionLock.lock();
+        try {
+            return lastCompaction;
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    public IndexStatistics statistics() {
+        IndexStatistics statistics = new IndexStatistics();
+        for (PostingList postingList : TermInvertedIndex.values()) {
+            postingList.snapshot().addTo(statistics);
+        }
+        return statistics;
+    }
+
+    public PostingsSnapshot lookupIndex(String term) {
+        // return an immutable snapshot of the document and frequency pairs for the specified term
+        // searching threads never take a lock and never block indexing threads
+        PostingList postingList = TermInvertedIndex.get(term);
+        if (postingList == null && segment != null) {
+            // first use of the term since startup, its blocks stay in the mapped segment
+            postingList = TermInvertedIndex.computeIfAbsent(term, segment::load);
+        }
+        if (postingList == null) {
+            return PostingsSnapshot.EMPTY;
+        }
+        return postingList.snapshot();
+    }
+
+    // write the whole index to a new segment file in the data directory and atomically
+    // replace the previous one, the running server keeps serving from memory and the old mapping
+    public void flush() throws IOException {
+        if (dataDirectory == null) {
+            return;
+        }
+
+        flushLock.lock();
+        try {
+            // snapshot the postings first and read the document counter afterwards, so that every
+            // document referenced by a written posting also gets a document table entry
+            HashMap<String, PostingsSnapshot> snapshots = new HashMap<>();
+            for (Map.Entry<String, PostingList> entry : TermInvertedIndex.entrySet()) {
+                snapshots.put(entry.getKey(), entry.getValue().snapshot());
+            }
+            int documentCount = getDocumentCount();
+
+            Path file = dataDirectory.resolve(IndexSegment.FILE_NAME);
+            Path temporary = dataDirectory.resolve(IndexSegment.FILE_NAME + ".tmp");
+            IndexSegment.write(temporary, segment, snapshots, this::getDocument, documentCount, tombstones.toArray(documentCount),
+                documentLengths.toArray(documentCount));
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+}
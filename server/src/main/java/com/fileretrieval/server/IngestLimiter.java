@@ -0,0 +1,155 @@
+package com.fileretrieval.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+// admission control for INDEX REQUESTs and INDEX BATCHes, shared by every worker
+// at most maxRequests requests are decoded and merged into the index at once, holding at most maxBytes
+// of frames between them (a single larger request is admitted alone), at most maxQueued more requests
+// wait up to maxWaitMillis for a turn, and any other request is turned away with a BUSY reply that
+// tells the client when to retry, so a burst of clients costs retries instead of an unbounded heap
+// (the decoded word frequencies of a request take several times the bytes of its frame)
+public class IngestLimiter {
+    public static final int DEFAULT_MAX_REQUESTS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    public static final long DEFAULT_MAX_BYTES = Runtime.getRuntime().maxMemory() / 16;
+    public static final int DEFAULT_MAX_QUEUED = 4 * DEFAULT_MAX_REQUESTS;
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 100L;
+    // bounds of the retry delay suggested to turned away clients
+    static final long MIN_RETRY_AFTER_MILLIS = 5L;
+    static final long MAX_RETRY_AFTER_MILLIS = 2000L;
+
+    private final int maxRequests;
+    private final long maxBytes;
+    private final int maxQueued;
+    private final long maxWaitNanos;
+
+    private final Lock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private int requests = 0;
+    private long bytes = 0;
+    private int queued = 0;
+    // how long an admitted request held its turn, moving average
+    private long averageHoldNanos = 0;
+    private long admitted = 0;
+    private long rejected = 0;
+    // most requests and frame bytes ever in progress at once
+    private int peakRequests = 0;
+    private long peakBytes = 0;
+
+    public IngestLimiter(int maxRequests, long maxBytes, int maxQueued, long maxWaitMillis) {
+        this.maxRequests = Math.max(1, maxRequests);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.maxQueued = Math.max(0, maxQueued);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMillis));
+    }
+
+    // take a turn for a request with a frame of frameBytes, waiting in the queue if there is room in
+    // it, returns false if the request has to be turned away, true if release has to be called
+    public boolean acquire(long frameBytes) {
+        lock.lock();
+        try {
+            if (!fits(frameBytes)) {
+                if (queued >= maxQueued) {
+                    rejected++;
+                    return false;
+                }
+                queued++;
+                try {
+                    long remaining = maxWaitNanos;
+                    while (!fits(frameBytes)) {
+                        if (remaining <= 0) {
+                            rejected++;
+                            return false;
+                        }
+                        remaining = released.awaitNanos(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    rejected++;
+                    return false;
+                } finally {
+                    queued--;
+                }
+            }
+            requests++;
+            bytes += frameBytes;
+            admitted++;
+            peakRequests = Math.max(peakRequests, requests);
+            peakBytes = Math.max(peakBytes, bytes);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // called with the lock held
+    private boolean fits(long frameBytes) {
+        return requests < maxRequests && (requests == 0 || bytes + frameBytes <= maxBytes);
+    }
+
+    // give the turn back once the request is merged and logged, holdNanos is how long it took
+    public void release(long frameBytes, long holdNanos) {
+        lock.lock();
+        try {
+            requests--;
+            bytes -= frameBytes;
+            averageHoldNanos = averageHoldNanos == 0 ? holdNanos : (averageHoldNanos * 7 + holdNanos) / 8;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // when a turned away request should come back: once the queue ahead of it has drained at the
+    // recent pace, the client adds jitter so the clients turned away together don't return together
+    public long retryAfterMillis() {
+        lock.lock();
+        try {
+            long drainNanos = averageHoldNanos * (queued + 1) / maxRequests;
+            return Math.max(MIN_RETRY_AFTER_MILLIS, Math.min(MAX_RETRY_AFTER_MILLIS,
+                TimeUnit.NANOSECONDS.toMillis(drainNanos)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String describe() {
+        lock.lock();
+        try {
+            return String.format("Ingest: %d admitted, %d turned away (BUSY), %d of %d in progress holding %d of %d bytes"
+                + " (at most %d holding %d bytes so far), %d queued", admitted, rejected, requests, maxRequests, bytes,
+                maxBytes, peakRequests, peakBytes, queued);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getAdmittedCount() {
+        lock.lock();
+        try {
+            return admitted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getRejectedCount() {
+        lock.lock();
+        try {
+            return rejected;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getPeakRequests() {
+        lock.lock();
+        try {
+            return peakRequests;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
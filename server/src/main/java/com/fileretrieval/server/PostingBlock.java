@@ -0,0 +1,258 @@
+package com.fileretrieval.server;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// immutable, sealed run of postings stored as delta-gapped document numbers and frequencies
+// each block picks the smaller of two encodings:
+//   VBYTE  - every value variable-byte encoded (7 bits per byte, high bit set on the last byte)
+//   PACKED - frame of reference bit-packing: every gap uses the bit width of the largest gap,
+//            every frequency (minus one) the bit width of the largest frequency
+// a typical posting shrinks from two ints (8 bytes) to 1-3 bytes
+// the encoded bytes live either in a heap array or in a memory-mapped IndexSegment
+// the largest frequency of a block is kept next to its first and last document, so a search can
+// bound the score of the block's documents without decoding it
+final class PostingBlock {
+    // number of postings collected in a hot buffer before it is sealed into a block
+    static final int BLOCK_SIZE = 128;
+
+    private static final byte VBYTE = 0;
+    private static final byte PACKED = 1;
+    // format byte plus the two bit widths
+    private static final int PACKED_HEADER = 3;
+    // largest frequency of a block read from a segment written before it was recorded, never
+    // lets a search skip the block
+    static final int UNKNOWN_MAX_FREQUENCY = Integer.MAX_VALUE;
+
+    final int count;
+    final int firstDocument;
+    final int lastDocument;
+    final int maxFrequency;
+    // heap bytes, null when the block is read from a mapped segment
+    private final byte[] data;
+    private final ByteBuffer mapped;
+    private final int mappedOffset;
+    private final int length;
+
+    private PostingBlock(int count, int firstDocument, int lastDocument, int maxFrequency, byte[] data) {
+        this.count = count;
+        this.firstDocument = firstDocument;
+        this.lastDocument = lastDocument;
+        this.maxFrequency = maxFrequency;
+        this.data = data;
+        this.mapped = null;
+        this.mappedOffset = 0;
+        this.length = data.length;
+    }
+
+    // block whose encoded bytes stay in a mapped segment file, nothing is copied to the heap
+    PostingBlock(int count, int firstDocument, int lastDocument, int maxFrequency, ByteBuffer mapped,
+            int mappedOffset, int length) {
+        this.count = count;
+        this.firstDocument = firstDocument;
+        this.lastDocument = lastDocument;
+        this.maxFrequency = maxFrequency;
+        this.data = null;
+        this.mapped = mapped;
+        this.mappedOffset = mappedOffset;
+        this.length = length;
+    }
+
+    private byte byteAt(int offset) {
+        return data != null ? data[offset] : mapped.get(mappedOffset + offset);
+    }
+
+    static PostingBlock encode(int[] documents, int[] frequencies, int length) {
+        // size both encodings and keep the smaller one
+        int vbyteSize = 1;
+        int maxGap = 0;
+        int frequencyMask = 0;
+        int maxFrequency = 0;
+        int previous = documents[0];
+        for (int i = 0; i < length; i++) {
+            int gap = documents[i] - previous;
+            vbyteSize += vbyteLength(gap) + vbyteLength(frequencies[i]);
+            maxGap |= gap;
+            frequencyMask |= frequencies[i] - 1;
+            maxFrequency = Math.max(maxFrequency, frequencies[i]);
+            previous = documents[i];
+        }
+        int gapBits = bitWidth(maxGap);
+        int frequencyBits = bitWidth(frequencyMask);
+        int packedSize = PACKED_HEADER + (length * gapBits + 7) / 8 + (length * frequencyBits + 7) / 8;
+
+        byte[] data;
+        if (packedSize < vbyteSize) {
+            data = new byte[packedSize];
+            data[0] = PACKED;
+            data[1] = (byte) gapBits;
+            data[2] = (byte) frequencyBits;
+            int offset = pack(data, PACKED_HEADER, gapBits, length, i -> i == 0 ? 0 : documents[i] - documents[i - 1]);
+            pack(data, offset, frequencyBits, length, i -> frequencies[i] - 1);
+        } else {
+            data = new byte[vbyteSize];
+            data[0] = VBYTE;
+            int offset = 1;
+            previous = documents[0];
+            for (int i = 0; i < length; i++) {
+                offset = writeVByte(data, offset, documents[i] - previous);
+                offset = writeVByte(data, offset, frequencies[i]);
+                previous = documents[i];
+            }
+        }
+        return new PostingBlock(length, documents[0], documents[length - 1], maxFrequency, data);
+    }
+
+    // decode every posting of the block into the given arrays (at least count long)
+    void decode(int[] documents, int[] frequencies) {
+        if (byteAt(0) == PACKED) {
+            decodePacked(documents, frequencies);
+            return;
+        }
+
+        int offset = 1;
+        int document = firstDocument;
+        for (int i = 0; i < count; i++) {
+            // inline variable-byte reads, this is the hot loop of every search
+            int gap = 0;
+            int shift = 0;
+            byte b;
+            while ((b = byteAt(offset++)) >= 0) {
+                gap |= b << shift;
+                shift += 7;
+            }
+            gap |= (b & 0x7F) << shift;
+            document += gap;
+            documents[i] = document;
+
+            int frequency = 0;
+            shift = 0;
+            while ((b = byteAt(offset++)) >= 0) {
+                frequency |= b << shift;
+                shift += 7;
+            }
+            frequency |= (b & 0x7F) << shift;
+            frequencies[i] = frequency;
+        }
+    }
+
+    private void decodePacked(int[] documents, int[] frequencies) {
+        int gapBits = byteAt(1);
+        int frequencyBits = byteAt(2);
+        long gapMask = (1L << gapBits) - 1;
+        long frequencyMask = (1L << frequencyBits) - 1;
+
+        // unpack the gaps into running document numbers
+        int offset = PACKED_HEADER;
+        long buffer = 0;
+        int buffered = 0;
+        int document = firstDocument;
+        for (int i = 0; i < count; i++) {
+            while (buffered < gapBits) {
+                buffer |= (byteAt(offset++) & 0xFFL) << buffered;
+                buffered += 8;
+            }
+            document += (int) (buffer & gapMask);
+            documents[i] = document;
+            buffer >>>= gapBits;
+            buffered -= gapBits;
+        }
+
+        // the frequencies start on the next byte boundary
+        offset = PACKED_HEADER + (count * gapBits + 7) / 8;
+        buffer = 0;
+        buffered = 0;
+        for (int i = 0; i < count; i++) {
+            while (buffered < frequencyBits) {
+                buffer |= (byteAt(offset++) & 0xFFL) << buffered;
+                buffered += 8;
+            }
+            frequencies[i] = (int) (buffer & frequencyMask) + 1;
+            buffer >>>= frequencyBits;
+            buffered -= frequencyBits;
+        }
+    }
+
+    // the largest frequency of a block of an older segment, once, when it is rewritten
+    private int decodeMaxFrequency() {
+        int[] documents = new int[count];
+        int[] frequencies = new int[count];
+        decode(documents, frequencies);
+        int max = 0;
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, frequencies[i]);
+        }
+        return max;
+    }
+
+    boolean isBitPacked() {
+        return byteAt(0) == PACKED;
+    }
+
+    boolean isMapped() {
+        return data == null;
+    }
+
+    int sizeInBytes() {
+        return length;
+    }
+
+    // write the block header and encoded bytes in the IndexSegment format
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(count);
+        out.writeInt(firstDocument);
+        out.writeInt(lastDocument);
+        out.writeInt(maxFrequency != UNKNOWN_MAX_FREQUENCY ? maxFrequency : decodeMaxFrequency());
+        out.writeInt(length);
+        if (data != null) {
+            out.write(data);
+        } else {
+            for (int i = 0; i < length; i++) {
+                out.write(mapped.get(mappedOffset + i));
+            }
+        }
+    }
+
+    private interface IntSource {
+        int get(int index);
+    }
+
+    // write length values of the given bit width starting at offset, returns the next free byte
+    private static int pack(byte[] data, int offset, int bits, int length, IntSource values) {
+        long buffer = 0;
+        int buffered = 0;
+        for (int i = 0; i < length; i++) {
+            buffer |= (values.get(i) & 0xFFFFFFFFL) << buffered;
+            buffered += bits;
+            while (buffered >= 8) {
+                data[offset++] = (byte) buffer;
+                buffer >>>= 8;
+                buffered -= 8;
+            }
+        }
+        if (buffered > 0) {
+            data[offset++] = (byte) buffer;
+        }
+        return offset;
+    }
+
+    private static int bitWidth(int value) {
+        return 32 - Integer.numberOfLeadingZeros(value);
+    }
+
+    private static int vbyteLength(int value) {
+        // one byte per started group of 7 bits, at least one byte
+        return Math.max(1, (bitWidth(value) + 6) / 7);
+    }
+
+    private static int writeVByte(byte[] buffer, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[offset++] = (byte) (value & 0x7F);
+            value >>>= 7;
+        }
+        // mark the last byte of the value with the high bit
+        buffer[offset++] = (byte) (value | 0x80);
+        return offset;
+    }
+}
@@ -0,0 +1,410 @@
+package com.fileretrieval.server;
+
+import java.util.Arrays;
+
+// list of document numbers and frequencies for a single term, kept sorted by document number
+// new postings are appended to a small primitive hot buffer, and every BLOCK_SIZE postings the
+// buffer is sealed into an immutable compressed PostingBlock, the background BlockSealer also
+// seals buffers of terms that stopped receiving postings
+// the last document of every sealed block is kept in a separate skip array so that searches
+// can skip blocks with a binary search without touching the blocks themselves
+// writers append under the list's monitor, readers never lock: every append publishes
+// a new immutable PostingsSnapshot through a volatile field
+class PostingList {
+    private static final int INITIAL_CAPACITY = 4;
+
+    private PostingBlock[] blocks;
+    private int[] blockLastDocuments;
+    private int blockCount;
+    private int[] documents;
+    private int[] frequencies;
+    private int hotSize;
+    private int size;
+    // largest frequency ever appended, bounds the scores of the hot buffer's postings
+    private int maxFrequency;
+    // set by every append and cleared by each BlockSealer pass, a list that stays clear for a
+    // whole interval is considered idle
+    private boolean appendedSinceLastPass;
+    private volatile PostingsSnapshot snapshot;
+
+    public PostingList() {
+        blocks = new PostingBlock[0];
+        blockLastDocuments = new int[0];
+        blockCount = 0;
+        documents = new int[INITIAL_CAPACITY];
+        frequencies = new int[INITIAL_CAPACITY];
+        hotSize = 0;
+        size = 0;
+        maxFrequency = 0;
+        snapshot = PostingsSnapshot.EMPTY;
+    }
+
+    // posting list whose sealed blocks were loaded from a mapped IndexSegment
+    PostingList(PostingBlock[] blocks, int[] blockLastDocuments, int blockCount, int size) {
+        this.blocks = blocks;
+        this.blockLastDocuments = blockLastDocuments;
+        this.blockCount = blockCount;
+        this.documents = new int[INITIAL_CAPACITY];
+        this.frequencies = new int[INITIAL_CAPACITY];
+        this.hotSize = 0;
+        this.size = size;
+        this.maxFrequency = 0;
+        for (int i = 0; i < blockCount; i++) {
+            this.maxFrequency = Math.max(this.maxFrequency, blocks[i].maxFrequency);
+        }
+        publish();
+    }
+
+    public synchronized void add(int documentNumber, int wordFrequency) {
+        append(documentNumber, wordFrequency);
+        appendedSinceLastPass = true;
+        publish();
+    }
+
+    // append the postings of a batch of documents under a single monitor acquisition,
+    // readers see either none or all of them
+    public synchronized void addAll(int[] documentNumbers, int[] wordFrequencies, int count) {
+        int start = 0;
+        // a concurrent batch with higher document numbers may have been merged first, the postings
+        // of this batch that sort before them are then merged with one rebuild of the list's tail
+        // instead of one copy-on-write insertion each
+        if (count > 1 && documentNumbers[0] < lastDocument()) {
+            start = mergeIntoTail(documentNumbers, wordFrequencies, count);
+        }
+        for (int i = start; i < count; i++) {
+            append(documentNumbers[i], wordFrequencies[i]);
+        }
+        appendedSinceLastPass = true;
+        publish();
+    }
+
+    private void append(int documentNumber, int wordFrequency) {
+        maxFrequency = Math.max(maxFrequency, wordFrequency);
+        // document numbers are assigned in increasing order, but two workers can merge their
+        // documents in the opposite order, so an older document may arrive after a newer one
+        if (documentNumber < lastDocument()) {
+            insertOutOfOrder(documentNumber, wordFrequency);
+        } else {
+            // grow the hot buffer, readers holding the old arrays keep seeing their own prefix
+            if (hotSize == documents.length) {
+                int capacity = Math.min(PostingBlock.BLOCK_SIZE, documents.length * 2);
+                documents = Arrays.copyOf(documents, capacity);
+                frequencies = Arrays.copyOf(frequencies, capacity);
+            }
+            // only slots past every published size are written, so published prefixes never change
+            documents[hotSize] = documentNumber;
+            frequencies[hotSize] = wordFrequency;
+            hotSize++;
+            size++;
+        }
+
+        if (hotSize >= PostingBlock.BLOCK_SIZE) {
+            seal();
+        }
+    }
+
+    public boolean contains(int documentNumber) {
+        PostingsCursor cursor = snapshot.cursor();
+        cursor.advance(documentNumber);
+        return !cursor.exhausted() && cursor.documentNumber() == documentNumber;
+    }
+
+    // called periodically by the BlockSealer: seal the hot buffer of an idle list once it holds
+    // at least minPostings postings, and trim the unused tail of smaller idle buffers
+    // returns the number of postings that were sealed
+    public synchronized int sealIfIdle(int minPostings) {
+        if (appendedSinceLastPass) {
+            appendedSinceLastPass = false;
+            return 0;
+        }
+        if (hotSize == 0) {
+            return 0;
+        }
+
+        int sealed = 0;
+        if (hotSize >= minPostings) {
+            sealed = hotSize;
+            seal();
+        } else if (hotSize < documents.length) {
+            documents = Arrays.copyOf(documents, hotSize);
+            frequencies = Arrays.copyOf(frequencies, hotSize);
+        } else {
+            return 0;
+        }
+        publish();
+        return sealed;
+    }
+
+    private int lastDocument() {
+        if (hotSize > 0) {
+            return documents[hotSize - 1];
+        }
+        if (blockCount > 0) {
+            return blocks[blockCount - 1].lastDocument;
+        }
+        return -1;
+    }
+
+    // move the hot buffer into a new sealed block and start an empty buffer
+    private void seal() {
+        if (blockCount == blocks.length) {
+            blocks = Arrays.copyOf(blocks, Math.max(4, blockCount * 2));
+            blockLastDocuments = Arrays.copyOf(blockLastDocuments, blocks.length);
+        }
+        blockLastDocuments[blockCount] = documents[hotSize - 1];
+        blocks[blockCount++] = PostingBlock.encode(documents, frequencies, hotSize);
+
+        // readers may still hold the old buffer, so it is replaced rather than reused,
+        // and it starts small again so that terms which stop growing waste little space
+        documents = new int[INITIAL_CAPACITY];
+        frequencies = new int[INITIAL_CAPACITY];
+        hotSize = 0;
+    }
+
+    // rare path: rebuild the affected block or hot buffer as a copy with the posting at its
+    // sorted position, published arrays are never shifted in place under a reader
+    private void insertOutOfOrder(int documentNumber, int wordFrequency) {
+        if (hotSize > 0 && documentNumber > documents[0]) {
+            int[][] inserted = insertSorted(documents, frequencies, hotSize, documentNumber, wordFrequency);
+            documents = inserted[0];
+            frequencies = inserted[1];
+            hotSize++;
+            size++;
+            return;
+        }
+
+        // find the last sealed block that starts before the document (or the first block)
+        int blockIndex = blockCount - 1;
+        while (blockIndex > 0 && blocks[blockIndex].firstDocument > documentNumber) {
+            blockIndex--;
+        }
+        if (blockIndex < 0) {
+            // no sealed blocks yet, the document goes to the front of the hot buffer
+            int[][] inserted = insertSorted(documents, frequencies, hotSize, documentNumber, wordFrequency);
+            documents = inserted[0];
+            frequencies = inserted[1];
+            hotSize++;
+            size++;
+            return;
+        }
+
+        PostingBlock block = blocks[blockIndex];
+        int[] blockDocuments = new int[block.count];
+        int[] blockFrequencies = new int[block.count];
+        block.decode(blockDocuments, blockFrequencies);
+        int[][] inserted = insertSorted(blockDocuments, blockFrequencies, block.count, documentNumber, wordFrequency);
+
+        PostingBlock[] copy = Arrays.copyOf(blocks, blocks.length);
+        copy[blockIndex] = PostingBlock.encode(inserted[0], inserted[1], block.count + 1);
+        blocks = copy;
+        if (copy[blockIndex].lastDocument != blockLastDocuments[blockIndex]) {
+            int[] lastDocumentsCopy = Arrays.copyOf(blockLastDocuments, blockLastDocuments.length);
+            lastDocumentsCopy[blockIndex] = copy[blockIndex].lastDocument;
+            blockLastDocuments = lastDocumentsCopy;
+        }
+        size++;
+    }
+
+    // merge the leading postings of an ascending batch that sort before the last posting of the list:
+    // the tail they fall into (the sealed blocks from the first affected one, and the hot buffer) is
+    // decoded once, merged with them and appended again, returns how many postings were merged
+    // published arrays are never written, the block arrays are copied before being rebuilt
+    private int mergeIntoTail(int[] documentNumbers, int[] wordFrequencies, int count) {
+        int lastDocument = lastDocument();
+        int merged = 0;
+        while (merged < count && documentNumbers[merged] < lastDocument) {
+            merged++;
+        }
+
+        // every block before firstBlock ends below the first merged posting
+        int firstBlock = blockCount;
+        while (firstBlock > 0 && blockLastDocuments[firstBlock - 1] > documentNumbers[0]) {
+            firstBlock--;
+        }
+        int tailLength = hotSize;
+        for (int b = firstBlock; b < blockCount; b++) {
+            tailLength += blocks[b].count;
+        }
+        int[] tailDocuments = new int[tailLength];
+        int[] tailFrequencies = new int[tailLength];
+        int position = 0;
+        for (int b = firstBlock; b < blockCount; b++) {
+            int[] blockDocuments = new int[blocks[b].count];
+            int[] blockFrequencies = new int[blocks[b].count];
+            blocks[b].decode(blockDocuments, blockFrequencies);
+            System.arraycopy(blockDocuments, 0, tailDocuments, position, blockDocuments.length);
+            System.arraycopy(blockFrequencies, 0, tailFrequencies, position, blockFrequencies.length);
+            position += blockDocuments.length;
+        }
+        System.arraycopy(documents, 0, tailDocuments, position, hotSize);
+        System.arraycopy(frequencies, 0, tailFrequencies, position, hotSize);
+
+        // drop the tail and append the merged postings, which are ascending and above the new end
+        blocks = Arrays.copyOf(blocks, blocks.length);
+        blockLastDocuments = Arrays.copyOf(blockLastDocuments, blockLastDocuments.length);
+        blockCount = firstBlock;
+        documents = new int[INITIAL_CAPACITY];
+        frequencies = new int[INITIAL_CAPACITY];
+        hotSize = 0;
+        size -= tailLength;
+        int tail = 0;
+        int batch = 0;
+        while (tail < tailLength || batch < merged) {
+            if (batch == merged || (tail < tailLength && tailDocuments[tail] < documentNumbers[batch])) {
+                append(tailDocuments[tail], tailFrequencies[tail]);
+                tail++;
+            } else {
+                append(documentNumbers[batch], wordFrequencies[batch]);
+                batch++;
+            }
+        }
+        return merged;
+    }
+
+    // drop the postings of deleted documents from the sealed blocks, called by the Compactor
+    // the blocks are rebuilt from the current snapshot without holding the monitor, blocks without a
+    // deleted document are kept as they are, the live postings of the others are packed into new
+    // blocks of up to BLOCK_SIZE postings, the monitor is only taken to swap the rebuilt blocks in
+    // searches keep reading the snapshot they hold, and the hot buffer is left for a later pass
+    // returns false if the blocks changed in the meantime (out-of-order merge), nothing is swapped then
+    boolean compact(Tombstones tombstones, CompactionStatistics statistics) {
+        PostingsSnapshot current = snapshot;
+        statistics.terms++;
+        statistics.postings += current.size();
+        for (int i = 0; i < current.hotSize; i++) {
+            if (tombstones.contains(current.hotDocuments[i])) {
+                statistics.deadPostings++;
+            }
+        }
+
+        PostingBlock[] compacted = new PostingBlock[current.blockCount];
+        int compactedCount = 0;
+        int[] blockDocuments = new int[PostingBlock.BLOCK_SIZE];
+        int[] blockFrequencies = new int[PostingBlock.BLOCK_SIZE];
+        // live postings of rewritten blocks waiting for a full block
+        int[] liveDocuments = new int[PostingBlock.BLOCK_SIZE];
+        int[] liveFrequencies = new int[PostingBlock.BLOCK_SIZE];
+        int liveCount = 0;
+        int dropped = 0;
+        long rewritten = 0;
+        long bytesBefore = 0;
+        long bytesAfter = 0;
+        for (int b = 0; b < current.blockCount; b++) {
+            PostingBlock block = current.blocks[b];
+            int deleted = tombstones.nextDeleted(block.firstDocument);
+            int blockDropped = 0;
+            if (deleted >= 0 && deleted <= block.lastDocument) {
+                if (blockDocuments.length < block.count) {
+                    blockDocuments = new int[block.count];
+                    blockFrequencies = new int[block.count];
+                }
+                block.decode(blockDocuments, blockFrequencies);
+                for (int i = 0; i < block.count; i++) {
+                    if (tombstones.contains(blockDocuments[i])) {
+                        blockDropped++;
+                    }
+                }
+            }
+            if (blockDropped == 0) {
+                // nothing to drop, keep the block, after the live postings collected so far
+                if (liveCount > 0) {
+                    compacted = ensureCapacity(compacted, compactedCount + 1);
+                    compacted[compactedCount++] = PostingBlock.encode(liveDocuments, liveFrequencies, liveCount);
+                    bytesAfter += compacted[compactedCount - 1].sizeInBytes();
+                    liveCount = 0;
+                }
+                compacted = ensureCapacity(compacted, compactedCount + 1);
+                compacted[compactedCount++] = block;
+                continue;
+            }
+
+            statistics.deadPostings += blockDropped;
+            dropped += blockDropped;
+            rewritten += block.count;
+            bytesBefore += block.sizeInBytes();
+            for (int i = 0; i < block.count; i++) {
+                if (tombstones.contains(blockDocuments[i])) {
+                    continue;
+                }
+                liveDocuments[liveCount] = blockDocuments[i];
+                liveFrequencies[liveCount] = blockFrequencies[i];
+                if (++liveCount == PostingBlock.BLOCK_SIZE) {
+                    compacted = ensureCapacity(compacted, compactedCount + 1);
+                    compacted[compactedCount++] = PostingBlock.encode(liveDocuments, liveFrequencies, liveCount);
+                    bytesAfter += compacted[compactedCount - 1].sizeInBytes();
+                    liveCount = 0;
+                }
+            }
+        }
+        if (dropped == 0) {
+            return true;
+        }
+        if (liveCount > 0) {
+            compacted = ensureCapacity(compacted, compactedCount + 1);
+            compacted[compactedCount++] = PostingBlock.encode(liveDocuments, liveFrequencies, liveCount);
+            bytesAfter += compacted[compactedCount - 1].sizeInBytes();
+        }
+
+        synchronized (this) {
+            // appends only add blocks after the snapshot's, out-of-order merges replace blocks
+            if (blockCount < current.blockCount) {
+                statistics.retriedTerms++;
+                return false;
+            }
+            for (int b = 0; b < current.blockCount; b++) {
+                if (blocks[b] != current.blocks[b]) {
+                    statistics.retriedTerms++;
+                    return false;
+                }
+            }
+            int appendedBlocks = blockCount - current.blockCount;
+            PostingBlock[] newBlocks = Arrays.copyOf(compacted, Math.max(4, compactedCount + appendedBlocks));
+            System.arraycopy(blocks, current.blockCount, newBlocks, compactedCount, appendedBlocks);
+            int[] newLastDocuments = new int[newBlocks.length];
+            for (int b = 0; b < compactedCount + appendedBlocks; b++) {
+                newLastDocuments[b] = newBlocks[b].lastDocument;
+            }
+            blocks = newBlocks;
+            blockLastDocuments = newLastDocuments;
+            blockCount = compactedCount + appendedBlocks;
+            size -= dropped;
+            publish();
+        }
+        statistics.rewrittenTerms++;
+        statistics.rewrittenPostings += rewritten;
+        statistics.droppedPostings += dropped;
+        statistics.reclaimedBytes += bytesBefore - bytesAfter;
+        return true;
+    }
+
+    private static PostingBlock[] ensureCapacity(PostingBlock[] blocks, int capacity) {
+        return capacity <= blocks.length ? blocks : Arrays.copyOf(blocks, Math.max(capacity, blocks.length * 2));
+    }
+
+    private static int[][] insertSorted(int[] documents, int[] frequencies, int length, int documentNumber, int wordFrequency) {
+        int position = length;
+        while (position > 0 && documents[position - 1] > documentNumber) {
+            position--;
+        }
+
+        int capacity = Math.max(documents.length, length + 1);
+        int[] newDocuments = new int[capacity];
+        int[] newFrequencies = new int[capacity];
+        System.arraycopy(documents, 0, newDocuments, 0, position);
+        System.arraycopy(frequencies, 0, newFrequencies, 0, position);
+        newDocuments[position] = documentNumber;
+        newFrequencies[position] = wordFrequency;
+        System.arraycopy(documents, position, newDocuments, position + 1, length - position);
+        System.arraycopy(frequencies, position, newFrequencies, position + 1, length - position);
+        return new int[][] {newDocuments, newFrequencies};
+    }
+
+    private void publish() {
+        snapshot = new PostingsSnapshot(blocks, blockLastDocuments, blockCount, documents, frequencies, hotSize, size,
+            maxFrequency);
+    }
+
+    public PostingsSnapshot snapshot() {
+        return snapshot;
+    }
+}
@@ -0,0 +1,142 @@
+package com.fileretrieval.server;
+
+// forward-only cursor over a sorted PostingsSnapshot
+// sealed blocks are decoded on the fly, one at a time, into reusable primitive buffers, and
+// blocks whose last document is below an advance() target are skipped with a binary search
+// over the snapshot's skip entries, without being decoded
+// within a block or the hot buffer advance() gallops (exponential then binary search)
+public class PostingsCursor {
+    private final PostingsSnapshot postings;
+    // index of the current sealed block, blockCount once the cursor reached the hot buffer
+    private int blockIndex;
+    private int[] documents;
+    private int[] frequencies;
+    private int length;
+    private int position;
+    private int[] blockDocuments;
+    private int[] blockFrequencies;
+
+    PostingsCursor(PostingsSnapshot postings) {
+        this.postings = postings;
+        this.blockIndex = -1;
+        this.blockDocuments = new int[PostingBlock.BLOCK_SIZE];
+        this.blockFrequencies = new int[PostingBlock.BLOCK_SIZE];
+        load(0);
+    }
+
+    // position the cursor at the start of the given segment (a block index or the hot buffer)
+    private void load(int segment) {
+        blockIndex = segment;
+        position = 0;
+        if (segment < postings.blockCount) {
+            PostingBlock block = postings.blocks[segment];
+            if (block.count > blockDocuments.length) {
+                blockDocuments = new int[block.count];
+                blockFrequencies = new int[block.count];
+            }
+            block.decode(blockDocuments, blockFrequencies);
+            documents = blockDocuments;
+            frequencies = blockFrequencies;
+            length = block.count;
+        } else {
+            documents = postings.hotDocuments;
+            frequencies = postings.hotFrequencies;
+            length = postings.hotSize;
+        }
+    }
+
+    public boolean exhausted() {
+        return position >= length;
+    }
+
+    public int documentNumber() {
+        return documents[position];
+    }
+
+    public int wordFrequency() {
+        return frequencies[position];
+    }
+
+    // no posting of a document in [fromDocument, toDocument] has a higher frequency, the postings
+    // before the cursor are left out and no block is decoded
+    int maxFrequency(int fromDocument, int toDocument) {
+        if (position >= length) {
+            return 0;
+        }
+        return postings.maxFrequency(Math.min(blockIndex, postings.blockCount),
+            Math.max(fromDocument, documents[position]), toDocument);
+    }
+
+    public void next() {
+        position++;
+        if (position >= length && blockIndex < postings.blockCount) {
+            load(blockIndex + 1);
+        }
+    }
+
+    // first sealed block after the current one whose last document is >= target,
+    // blockCount if there is none and only the hot buffer is left
+    private int skipTo(int target) {
+        int[] lastDocuments = postings.blockLastDocuments;
+        int low = blockIndex + 1;
+        int high = postings.blockCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (lastDocuments[middle] < target) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // move to the first posting whose document number is >= target
+    public void advance(int target) {
+        if (position >= length || documents[position] >= target) {
+            return;
+        }
+
+        // skip whole segments that end before the target
+        if (documents[length - 1] < target) {
+            int segment = skipTo(target);
+            if (segment >= postings.blockCount && blockIndex >= postings.blockCount) {
+                // already in the hot buffer and nothing is left
+                position = length;
+                return;
+            }
+            load(segment);
+            if (position >= length || documents[position] >= target) {
+                return;
+            }
+        }
+
+        // gallop: double the step until we overshoot the target or run off the end
+        int low = position;
+        int step = 1;
+        int high = position + step;
+        while (high < length && documents[high] < target) {
+            low = high;
+            step <<= 1;
+            high = position + step;
+        }
+        if (high > length) {
+            high = length;
+        }
+
+        // binary search in (low, high] for the first document >= target
+        low++;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (documents[middle] < target) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        position = low;
+        if (position >= length && blockIndex < postings.blockCount) {
+            load(blockIndex + 1);
+        }
+    }
+}
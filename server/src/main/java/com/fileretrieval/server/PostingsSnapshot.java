@@ -0,0 +1,101 @@
+package com.fileretrieval.server;
+
+// consistent, read-only view of a posting list as of one append
+// it references the sealed blocks and the hot buffer prefix that were published together,
+// neither is ever written again, so no lock is needed to read them
+public class PostingsSnapshot {
+    static final PostingsSnapshot EMPTY = new PostingsSnapshot(new PostingBlock[0], new int[0], 0, new int[0], new int[0], 0, 0, 0);
+
+    final PostingBlock[] blocks;
+    // skip entries: the last document number of every sealed block
+    final int[] blockLastDocuments;
+    final int blockCount;
+    final int[] hotDocuments;
+    final int[] hotFrequencies;
+    final int hotSize;
+    private final int size;
+    // no posting of the list has a higher frequency, the sealed blocks also know their own maximum
+    final int maxFrequency;
+
+    PostingsSnapshot(PostingBlock[] blocks, int[] blockLastDocuments, int blockCount,
+            int[] hotDocuments, int[] hotFrequencies, int hotSize, int size, int maxFrequency) {
+        this.blocks = blocks;
+        this.blockLastDocuments = blockLastDocuments;
+        this.blockCount = blockCount;
+        this.hotDocuments = hotDocuments;
+        this.hotFrequencies = hotFrequencies;
+        this.hotSize = hotSize;
+        this.size = size;
+        this.maxFrequency = maxFrequency;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // the largest frequency of the postings of documents in [fromDocument, toDocument], read from
+    // the block headers without decoding, searching the blocks from fromBlock on
+    int maxFrequency(int fromBlock, int fromDocument, int toDocument) {
+        int max = 0;
+        for (int b = blockIndex(fromBlock, fromDocument); b < blockCount; b++) {
+            PostingBlock block = blocks[b];
+            if (block.firstDocument > toDocument) {
+                return max;
+            }
+            max = Math.max(max, block.maxFrequency);
+        }
+        if (hotSize > 0 && hotDocuments[0] <= toDocument && hotDocuments[hotSize - 1] >= fromDocument) {
+            max = Math.max(max, maxFrequency);
+        }
+        return max;
+    }
+
+    // the first sealed block from fromBlock on whose last document is >= documentNumber, blockCount
+    // if there is none and only the hot buffer is left
+    int blockIndex(int fromBlock, int documentNumber) {
+        int low = fromBlock;
+        int high = blockCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (blockLastDocuments[middle] < documentNumber) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // the last document of a block, Integer.MAX_VALUE for the hot buffer
+    int blockLastDocument(int block) {
+        return block < blockCount ? blockLastDocuments[block] : Integer.MAX_VALUE;
+    }
+
+    // no posting of a block has a higher frequency, the hot buffer is bounded by the whole list
+    int blockMaxFrequency(int block) {
+        return block < blockCount ? blocks[block].maxFrequency : maxFrequency;
+    }
+
+    public PostingsCursor cursor() {
+        return new PostingsCursor(this);
+    }
+
+    // add this snapshot's postings to the given statistics
+    void addTo(IndexStatistics statistics) {
+        statistics.terms++;
+        statistics.postings += size;
+        statistics.hotPostings += hotSize;
+        statistics.hotBytes += (long) hotSize * 2 * Integer.BYTES;
+        statistics.sealedBlocks += blockCount;
+        for (int i = 0; i < blockCount; i++) {
+            statistics.sealedBytes += blocks[i].sizeInBytes();
+            if (blocks[i].isBitPacked()) {
+                statistics.bitPackedBlocks++;
+            }
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.fileretrieval.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import com.fileretrieval.common.dto.DocPathFreqPair;
+import com.fileretrieval.common.protocol.Query;
+import com.fileretrieval.common.protocol.Scoring;
+
+// evaluates SEARCH REQUESTs against the IndexStore
+// a list of terms is a conjunction (AND): a document matches only if it contains every term
+// and its score is the sum of the shares of its terms, their frequencies, or their TF-IDF or BM25
+// weights (see TermScorer), depending on the Scoring the request asks for
+// a Query with OR and NOT is planned by the QueryPlanner, a plan that comes down to a conjunction
+// is evaluated as one, any other plan through its QueryIterators on the calling thread
+// a query whose shortest posting list holds at least parallelThreshold postings is split into
+// document number ranges along the skip entries of that list, the ranges are intersected and
+// scored on the search pool, each into its own top K, and the per-range top K are merged, the
+// tie-break on the document number makes the result the same as on one thread
+// once the top K is full, documents that cannot beat its weakest hit are skipped: every sealed block
+// records its largest frequency, so the best score a block of the shortest list and the blocks of
+// the other lists over the same documents can reach is known without decoding them (block-max
+// pruning, see intersect), the hits are the same as without it
+public class QueryEngine {
+    // postings of the shortest list from which a query is split over the search pool
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1 << 16;
+    // a range is not split further below this many postings of the shortest list, and not into
+    // more than RANGES_PER_THREAD ranges per pool thread
+    private static final int MIN_RANGE_POSTINGS = 1 << 13;
+    private static final int RANGES_PER_THREAD = 4;
+
+    private IndexStore store;
+    // null to evaluate every query on the calling thread
+    private ForkJoinPool pool;
+    private int parallelThreshold;
+    private volatile boolean pruning = true;
+    private volatile boolean planning = true;
+    // postings whose score was computed, over every search of this engine
+    private final LongAdder scoredPostings = new LongAdder();
+
+    public QueryEngine(IndexStore store) {
+        this(store, null, DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    public QueryEngine(IndexStore store, ForkJoinPool pool, int parallelThreshold) {
+        this.store = store;
+        this.pool = pool;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    // turn block-max pruning off, to compare the cost of a search with and without it
+    public void setPruning(boolean pruning) {
+        this.pruning = pruning;
+    }
+
+    // evaluate queries as they are written, to compare the cost of a search with and without planning
+    public void setPlanning(boolean planning) {
+        this.planning = planning;
+    }
+
+    public long getScoredPostings() {
+        return scoredPostings.sum();
+    }
+
+    public ArrayList<DocPathFreqPair> search(List<String> terms, int topK) {
+        return search(terms, topK, Scoring.FREQUENCY);
+    }
+
+    public ArrayList<DocPathFreqPair> search(List<String> terms, int topK, Scoring scoring) {
+        TermScorer[] scorers = new TermScorer[terms.size()];
+        for (int i = 0; i < scorers.length; i++) {
+            scorers[i] = new TermScorer(store.lookupIndex(terms.get(i)), scoring, store);
+        }
+        return results(search(scorers, topK));
+    }
+
+    // throws IllegalArgumentException if the query is not valid, see Query.validate()
+    public ArrayList<DocPathFreqPair> search(Query query, int topK, Scoring scoring) {
+        query.validate();
+        boolean optimize = planning;
+        QueryPlanner.Node plan = new QueryPlanner(store, scoring, optimize).plan(query);
+        if (plan == null) {
+            return new ArrayList<>();
+        }
+        if (optimize && plan.isConjunction()) {
+            return results(search(plan.scorers(), topK));
+        }
+
+        TopKCollector collector = new TopKCollector(topK);
+        QueryIterator iterator = plan.iterator();
+        for (int documentNumber = iterator.next(); documentNumber != QueryIterator.NO_MORE_DOCUMENTS;
+                documentNumber = iterator.next()) {
+            if (!store.isDeleted(documentNumber)) {
+                collector.collect(documentNumber, iterator.score());
+            }
+        }
+        return results(collector);
+    }
+
+    // the top K of the conjunction of the scorers
+    private TopKCollector search(TermScorer[] scorers, int topK) {
+        PostingsSnapshot shortest = null;
+        for (TermScorer scorer : scorers) {
+            if (shortest == null || scorer.postings.size() < shortest.size()) {
+                shortest = scorer.postings;
+            }
+        }
+
+        // keep only the best topK hits while matching instead of sorting every match
+        TopKCollector collector;
+        if (pool != null && shortest != null && shortest.size() >= parallelThreshold && pool.getParallelism() > 1) {
+            int rangePostings = Math.max(MIN_RANGE_POSTINGS, shortest.size() / (pool.getParallelism() * RANGES_PER_THREAD));
+            collector = pool.invoke(new RangeSearch(scorers, shortest, 0, shortest.blockCount + 1,
+                Math.max(1, rangePostings / PostingBlock.BLOCK_SIZE), topK));
+        } else {
+            collector = collect(scorers, 0, Integer.MAX_VALUE, topK);
+        }
+        return collector;
+    }
+
+    // document paths are only resolved for the final hits
+    private ArrayList<DocPathFreqPair> results(TopKCollector collector) {
+        ArrayList<DocPathFreqPair> results = new ArrayList<>();
+        int count = collector.sort();
+        for (int i = 0; i < count; i++) {
+            String docPath = store.getDocument(collector.documentNumber(i));
+            results.add(new DocPathFreqPair(docPath, collector.score(i)));
+        }
+        return results;
+    }
+
+    // the top K of the documents in [fromDocument, toDocument)
+    // deleted documents (replaced or removed files) still have postings, they are dropped here
+    private TopKCollector collect(TermScorer[] scorers, int fromDocument, int toDocument, int topK) {
+        TopKCollector collector = new TopKCollector(topK);
+        long scored = intersect(scorers, fromDocument, toDocument, new HitCollector() {
+            @Override
+            public void collect(int documentNumber, long score) {
+                if (!store.isDeleted(documentNumber)) {
+                    collector.collect(documentNumber, score);
+                }
+            }
+
+            @Override
+            public long minCompetitiveScore() {
+                return collector.minCompetitiveScore();
+            }
+        }, pruning);
+        scoredPostings.add(scored);
+        return collector;
+    }
+
+    // the top K of the documents covered by the segments [fromSegment, toSegment) of the shortest
+    // list (its sealed blocks, then its hot buffer), halved until a range has at most
+    // segmentsPerRange segments
+    // only ever run on the pool, never serialized
+    private class RangeSearch extends RecursiveTask<TopKCollector> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient TermScorer[] scorers;
+        private final transient PostingsSnapshot shortest;
+        private final int fromSegment;
+        private final int toSegment;
+        private final int segmentsPerRange;
+        private final int topK;
+
+        RangeSearch(TermScorer[] scorers, PostingsSnapshot shortest, int fromSegment, int toSegment,
+                int segmentsPerRange, int topK) {
+            this.scorers = scorers;
+            this.shortest = shortest;
+            this.fromSegment = fromSegment;
+            this.toSegment = toSegment;
+            this.segmentsPerRange = segmentsPerRange;
+            this.topK = topK;
+        }
+
+        @Override
+        protected TopKCollector compute() {
+            if (toSegment - fromSegment <= segmentsPerRange) {
+                // the range starts after the last document of the block before it and ends after
+                // the last document of its own last block, the hot buffer range is open-ended
+                int fromDocument = fromSegment == 0 ? 0 : shortest.blockLastDocuments[fromSegment - 1] + 1;
+                int toDocument = toSegment > shortest.blockCount ? Integer.MAX_VALUE
+                    : shortest.blockLastDocuments[toSegment - 1] + 1;
+                return collect(scorers, fromDocument, toDocument, topK);
+            }
+            int middle = (fromSegment + toSegment) >>> 1;
+            RangeSearch left = new RangeSearch(scorers, shortest, fromSegment, middle, segmentsPerRange, topK);
+            RangeSearch right = new RangeSearch(scorers, shortest, middle, toSegment, segmentsPerRange, topK);
+            left.fork();
+            TopKCollector merged = right.compute();
+            TopKCollector leftHits = left.join();
+            for (int i = 0; i < leftHits.size(); i++) {
+                merged.collect(leftHits.documentNumber(i), leftHits.score(i));
+            }
+            return merged;
+        }
+    }
+
+    // intersect posting lists sorted by document number, passing every matching document and
+    // its summed frequency to the collector in increasing document order
+    public static void intersect(List<PostingsSnapshot> postingsList, HitCollector collector) {
+        intersect(postingsList, 0, Integer.MAX_VALUE, collector);
+    }
+
+    // the same, for the documents in [fromDocument, toDocument) only
+    public static void intersect(List<PostingsSnapshot> postingsList, int fromDocument, int toDocument,
+            HitCollector collector) {
+        TermScorer[] scorers = new TermScorer[postingsList.size()];
+        for (int i = 0; i < scorers.length; i++) {
+            scorers[i] = TermScorer.frequency(postingsList.get(i));
+        }
+        intersect(scorers, fromDocument, toDocument, collector, true);
+    }
+
+    // the documents in [fromDocument, toDocument) in every posting list of the scorers, each with
+    // the sum of the scores of its terms, returns the number of postings scored
+    // with pruning, once the collector has a competitive score, a block of the lead list is skipped
+    // when the bound of its largest frequency plus the bounds of the other lists over the same
+    // documents cannot beat it, and a candidate as soon as its score so far plus the bounds of the
+    // lists not scored yet cannot, before those lists are advanced to it
+    static long intersect(TermScorer[] scorers, int fromDocument, int toDocument, HitCollector collector,
+            boolean pruning) {
+        if (scorers.length == 0) {
+            return 0;
+        }
+
+        // drive the intersection from the shortest list, every other list is only probed
+        // with advance() so its cost depends on the number of candidates, not its length
+        TermScorer[] ordered = scorers.clone();
+        Arrays.sort(ordered, (scorer1, scorer2) -> Integer.compare(scorer1.postings.size(), scorer2.postings.size()));
+        if (ordered[0].postings.isEmpty()) {
+            return 0;
+        }
+
+        TermScorer leadScorer = ordered[0];
+        PostingsCursor lead = leadScorer.postings.cursor();
+        lead.advance(fromDocument);
+        PostingsCursor[] others = new PostingsCursor[ordered.length - 1];
+        for (int i = 1; i < ordered.length; i++) {
+            others[i - 1] = ordered[i].postings.cursor();
+        }
+
+        long scored = 0;
+        // bounds of the documents in the window [windowStart, windowEnd], a block of the lead: the
+        // lead's own, and remainingBounds[i] the sum of the bounds of the other lists from i on
+        PostingsSnapshot leadPostings = leadScorer.postings;
+        int leadBlock = 0;
+        int windowStart = 0;
+        int windowEnd = -1;
+        long leadBound = 0;
+        long[] remainingBounds = new long[others.length + 1];
+
+        while (!lead.exhausted() && lead.documentNumber() < toDocument) {
+            int candidate = lead.documentNumber();
+            long threshold = pruning ? collector.minCompetitiveScore() : Long.MIN_VALUE;
+            if (threshold != Long.MIN_VALUE) {
+                if (candidate > windowEnd) {
+                    leadBlock = leadPostings.blockIndex(leadBlock, candidate);
+                    windowStart = candidate;
+                    windowEnd = Math.min(leadPostings.blockLastDocument(leadBlock), toDocument - 1);
+                    leadBound = bound(ordered, others, leadBlock, windowStart, windowEnd, remainingBounds);
+                }
+                if (leadBound + remainingBounds[0] <= threshold) {
+                    // no document of the block can make it, move on through the block headers and only
+                    // decode the first block that may hold a hit
+                    do {
+                        if (windowEnd >= toDocument - 1 || leadBlock >= leadPostings.blockCount) {
+                            return scored;
+                        }
+                        leadBlock++;
+                        windowStart = windowEnd + 1;
+                        windowEnd = Math.min(leadPostings.blockLastDocument(leadBlock), toDocument - 1);
+                        leadBound = bound(ordered, others, leadBlock, windowStart, windowEnd, remainingBounds);
+                    } while (leadBound + remainingBounds[0] <= threshold);
+                    lead.advance(windowStart);
+                    continue;
+                }
+            }
+
+            long scoreAcc = leadScorer.score(candidate, lead.wordFrequency());
+            scored++;
+            boolean inAllTermsLists = true;
+
+            for (int i = 0; i < others.length; i++) {
+                if (threshold != Long.MIN_VALUE && scoreAcc + remainingBounds[i] <= threshold) {
+                    lead.next();
+                    inAllTermsLists = false;
+                    break;
+                }
+                PostingsCursor other = others[i];
+                other.advance(candidate);
+                if (other.exhausted()) {
+                    // no later candidate can match either
+                    return scored;
+                }
+                if (other.documentNumber() != candidate) {
+                    // skip the lead ahead to the first document this list could still match
+                    lead.advance(other.documentNumber());
+                    inAllTermsLists = false;
+                    break;
+                }
+                scoreAcc += ordered[i + 1].score(candidate, other.wordFrequency());
+                scored++;
+            }
+
+            if (inAllTermsLists) {
+                collector.collect(candidate, scoreAcc);
+                lead.next();
+            }
+        }
+        return scored;
+    }
+
+    // the bound of the lead's scores in a block, filling remainingBounds with those of the other
+    // lists over the documents in [fromDocument, toDocument]
+    private static long bound(TermScorer[] ordered, PostingsCursor[] others, int leadBlock, int fromDocument,
+            int toDocument, long[] remainingBounds) {
+        for (int i = others.length - 1; i >= 0; i--) {
+            remainingBounds[i] = remainingBounds[i + 1]
+                + ordered[i + 1].bound(others[i].maxFrequency(fromDocument, toDocument));
+        }
+        return ordered[0].bound(ordered[0].postings.blockMaxFrequency(leadBlock));
+    }
+}
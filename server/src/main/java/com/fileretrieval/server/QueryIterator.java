@@ -0,0 +1,183 @@
+package com.fileretrieval.server;
+
+import java.util.List;
+
+// forward-only iterator over the documents matching a node of a query plan, in increasing document
+// order, with the score the node gives the current document
+// an iterator starts before its first document, next() or advance() position it
+abstract class QueryIterator {
+    // documentNumber() once the iterator is exhausted
+    static final int NO_MORE_DOCUMENTS = Integer.MAX_VALUE;
+
+    // the current document, -1 before the first call to next() or advance()
+    abstract int documentNumber();
+
+    // move to the next matching document and return it
+    abstract int next();
+
+    // move to the first matching document >= target and return it, stays put if the current
+    // document already is
+    abstract int advance(int target);
+
+    // the score of the current document
+    abstract long score();
+
+    // the postings of one term
+    static final class TermIterator extends QueryIterator {
+        private final TermScorer scorer;
+        private final PostingsCursor cursor;
+        private int document = -1;
+
+        TermIterator(TermScorer scorer) {
+            this.scorer = scorer;
+            this.cursor = scorer.postings.cursor();
+        }
+
+        @Override
+        int documentNumber() {
+            return document;
+        }
+
+        @Override
+        int next() {
+            if (document >= 0) {
+                cursor.next();
+            }
+            return document = cursor.exhausted() ? NO_MORE_DOCUMENTS : cursor.documentNumber();
+        }
+
+        @Override
+        int advance(int target) {
+            if (document >= target) {
+                return document;
+            }
+            cursor.advance(target);
+            return document = cursor.exhausted() ? NO_MORE_DOCUMENTS : cursor.documentNumber();
+        }
+
+        @Override
+        long score() {
+            return scorer.score(document, cursor.wordFrequency());
+        }
+    }
+
+    // documents matching every required operand and none of the excluded ones, scored by the sum of
+    // the required operands
+    // the first required operand leads, the others and then the excluded ones are only probed
+    // with advance(), so the planner puts the operand with the fewest matches first
+    static final class AndIterator extends QueryIterator {
+        private final QueryIterator[] required;
+        private final QueryIterator[] excluded;
+        private int document = -1;
+
+        AndIterator(List<QueryIterator> required, List<QueryIterator> excluded) {
+            this.required = required.toArray(new QueryIterator[0]);
+            this.excluded = excluded.toArray(new QueryIterator[0]);
+        }
+
+        @Override
+        int documentNumber() {
+            return document;
+        }
+
+        @Override
+        int next() {
+            return document = align(required[0].next());
+        }
+
+        @Override
+        int advance(int target) {
+            if (document >= target) {
+                return document;
+            }
+            return document = align(required[0].advance(target));
+        }
+
+        // the first match from the lead's candidate on
+        private int align(int candidate) {
+            QueryIterator lead = required[0];
+            while (candidate != NO_MORE_DOCUMENTS) {
+                int skipTo = candidate;
+                for (int i = 1; i < required.length && skipTo == candidate; i++) {
+                    skipTo = required[i].advance(candidate);
+                }
+                if (skipTo != candidate) {
+                    // skip the lead ahead to the first document this operand could still match
+                    candidate = lead.advance(skipTo);
+                    continue;
+                }
+                boolean isExcluded = false;
+                for (int i = 0; i < excluded.length && !isExcluded; i++) {
+                    isExcluded = excluded[i].advance(candidate) == candidate;
+                }
+                if (!isExcluded) {
+                    return candidate;
+                }
+                candidate = lead.next();
+            }
+            return NO_MORE_DOCUMENTS;
+        }
+
+        @Override
+        long score() {
+            long score = 0;
+            for (QueryIterator operand : required) {
+                score += operand.score();
+            }
+            return score;
+        }
+    }
+
+    // documents matching at least one operand, scored by the sum of the operands they match
+    // queries have a handful of operands, so the smallest current document is found by a scan
+    // rather than kept in a heap
+    static final class OrIterator extends QueryIterator {
+        private final QueryIterator[] operands;
+        private int document = -1;
+
+        OrIterator(List<QueryIterator> operands) {
+            this.operands = operands.toArray(new QueryIterator[0]);
+        }
+
+        @Override
+        int documentNumber() {
+            return document;
+        }
+
+        @Override
+        int next() {
+            int smallest = NO_MORE_DOCUMENTS;
+            for (QueryIterator operand : operands) {
+                int current = operand.documentNumber();
+                if (current == document) {
+                    current = operand.next();
+                }
+                smallest = Math.min(smallest, current);
+            }
+            return document = smallest;
+        }
+
+        @Override
+        int advance(int target) {
+            if (document >= target) {
+                return document;
+            }
+            int smallest = NO_MORE_DOCUMENTS;
+            for (QueryIterator operand : operands) {
+                smallest = Math.min(smallest, operand.advance(target));
+            }
+            return document = smallest;
+        }
+
+        @Override
+        long score() {
+            long score = 0;
+            for (QueryIterator operand : operands) {
+                if (operand.documentNumber() == document) {
+                    score += operand.score();
+                }
+            }
+            return score;
+        }
+    }
+}
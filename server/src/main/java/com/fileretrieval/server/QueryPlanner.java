@@ -0,0 +1,195 @@
+package com.fileretrieval.server;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import com.fileretrieval.common.protocol.Query;
+import com.fileretrieval.common.protocol.Scoring;
+
+// turns the Query of a SEARCH REQUEST into the plan QueryEngine evaluates
+// - operands of the same operator are flattened, (a AND b) AND c is a AND b AND c
+// - empty branches are cut before anything is evaluated: a term without postings is empty, an AND
+//   with an empty operand is empty without planning the rest, an OR drops its empty operands and is
+//   empty without any, a NOT of an empty operand excludes nothing and is dropped
+// - an AND or OR left with a single operand is that operand
+// - the required operands of an AND are ordered by their estimated number of matches, the smallest
+//   leads and the others are only probed, so are the excluded ones, after the required ones
+// the estimate of a term is the length of its posting list, of an AND the smallest estimate of its
+// required operands, of an OR the sum of its operands, at most the number of documents
+// without optimization the plan follows the query as written, to measure what planning is worth
+final class QueryPlanner {
+    private final IndexStore store;
+    private final Scoring scoring;
+    private final boolean optimize;
+
+    QueryPlanner(IndexStore store, Scoring scoring, boolean optimize) {
+        this.store = store;
+        this.scoring = scoring;
+        this.optimize = optimize;
+    }
+
+    // a planned node: a term with its scorer, or an operator with its planned operands
+    static final class Node {
+        final Query.Operator operator;
+        final TermScorer scorer;
+        final List<Node> operands;
+        final List<Node> excluded;
+        final long estimate;
+
+        Node(Query.Operator operator, TermScorer scorer, List<Node> operands, List<Node> excluded, long estimate) {
+            this.operator = operator;
+            this.scorer = scorer;
+            this.operands = operands;
+            this.excluded = excluded;
+            this.estimate = estimate;
+        }
+
+        // a single term or an AND of terms excluding nothing, evaluated by QueryEngine's intersection
+        boolean isConjunction() {
+            if (operator == Query.Operator.TERM) {
+                return true;
+            }
+            if (operator != Query.Operator.AND || !excluded.isEmpty()) {
+                return false;
+            }
+            for (Node operand : operands) {
+                if (operand.operator != Query.Operator.TERM) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // the scorers of a conjunction
+        TermScorer[] scorers() {
+            if (operator == Query.Operator.TERM) {
+                return new TermScorer[] {scorer};
+            }
+            TermScorer[] scorers = new TermScorer[operands.size()];
+            for (int i = 0; i < scorers.length; i++) {
+                scorers[i] = operands.get(i).scorer;
+            }
+            return scorers;
+        }
+
+        QueryIterator iterator() {
+            switch (operator) {
+                case TERM:
+                    return new QueryIterator.TermIterator(scorer);
+                case AND:
+                    return new QueryIterator.AndIterator(iterators(operands), iterators(excluded));
+                default:
+                    return new QueryIterator.OrIterator(iterators(operands));
+            }
+        }
+
+        private static List<QueryIterator> iterators(List<Node> nodes) {
+            ArrayList<QueryIterator> iterators = new ArrayList<>(nodes.size());
+            for (Node node : nodes) {
+                iterators.add(node.iterator());
+            }
+            return iterators;
+        }
+    }
+
+    // the plan of a validated query, null if it cannot match any document
+    Node plan(Query query) {
+        switch (query.operator) {
+            case TERM:
+                return planTerm(query.term);
+            case AND:
+                return planAnd(query);
+            case OR:
+                return planOr(query);
+            default:
+                // Query.validate() only lets NOT through as an operand of an AND
+                throw new IllegalArgumentException("NOT needs documents to exclude from, as in moon AND NOT river");
+        }
+    }
+
+    private Node planTerm(String term) {
+        PostingsSnapshot postings = store.lookupIndex(term);
+        if (optimize && postings.isEmpty()) {
+            return null;
+        }
+        return new Node(Query.Operator.TERM, new TermScorer(postings, scoring, store), null, null, postings.size());
+    }
+
+    private Node planAnd(Query query) {
+        ArrayList<Query> required = new ArrayList<>();
+        ArrayList<Query> excluded = new ArrayList<>();
+        flatten(query, required, excluded);
+
+        ArrayList<Node> operands = new ArrayList<>();
+        long estimate = Long.MAX_VALUE;
+        for (Query operand : required) {
+            Node node = plan(operand);
+            if (node == null) {
+                // nothing else of the AND needs to be looked at
+                return null;
+            }
+            operands.add(node);
+            estimate = Math.min(estimate, node.estimate);
+        }
+        ArrayList<Node> exclusions = new ArrayList<>();
+        for (Query operand : excluded) {
+            Node node = plan(operand.operands.get(0));
+            if (node != null) {
+                exclusions.add(node);
+            }
+        }
+
+        if (optimize) {
+            operands.sort(Comparator.comparingLong(node -> node.estimate));
+            exclusions.sort(Comparator.comparingLong(node -> node.estimate));
+            if (operands.size() == 1 && exclusions.isEmpty()) {
+                return operands.get(0);
+            }
+        }
+        return new Node(Query.Operator.AND, null, operands, exclusions, estimate);
+    }
+
+    private Node planOr(Query query) {
+        ArrayList<Node> operands = new ArrayList<>();
+        long estimate = 0;
+        for (Query operand : optimize ? flattenOr(query, new ArrayList<>()) : query.operands) {
+            Node node = plan(operand);
+            if (node != null) {
+                operands.add(node);
+                estimate += node.estimate;
+            }
+        }
+        if (operands.isEmpty()) {
+            return null;
+        }
+        if (optimize && operands.size() == 1) {
+            return operands.get(0);
+        }
+        return new Node(Query.Operator.OR, null, operands, new ArrayList<>(),
+            Math.min(estimate, store.getDocumentCount()));
+    }
+
+    // the required and the excluded operands of an AND, through nested ANDs when optimizing
+    private void flatten(Query and, List<Query> required, List<Query> excluded) {
+        for (Query operand : and.operands) {
+            if (operand.operator == Query.Operator.NOT) {
+                excluded.add(operand);
+            } else if (optimize && operand.operator == Query.Operator.AND) {
+                flatten(operand, required, excluded);
+            } else {
+                required.add(operand);
+            }
+        }
+    }
+
+    private static List<Query> flattenOr(Query or, List<Query> operands) {
+        for (Query operand : or.operands) {
+            if (operand.operator == Query.Operator.OR) {
+                flattenOr(operand, operands);
+            } else {
+                operands.add(operand);
+            }
+        }
+        return operands;
+    }
+}
@@ -0,0 +1,308 @@
+package com.fileretrieval.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import com.fileretrieval.common.protocol.BinaryFrameReader;
+import com.fileretrieval.common.protocol.BinaryFrameWriter;
+import com.fileretrieval.common.protocol.DeleteRequest;
+import com.fileretrieval.common.protocol.IndexBatchRequest;
+import com.fileretrieval.common.protocol.IndexRequest;
+import com.fileretrieval.common.protocol.IndexResponse;
+import com.fileretrieval.common.protocol.MessageType;
+import com.fileretrieval.common.protocol.WireProtocol;
+
+// replication of the index to follower servers: the primary is connected to every follower like a
+// binary client and forwards every INDEX REQUEST, INDEX BATCH and DELETE REQUEST it applied, in the
+// order it forwards them, under the client ID of the original request, so the follower keys the
+// documents the same way, a worker only acknowledges its requests once every live follower
+// acknowledged them too (see awaitReplicated), so a search on any replica sees them
+// the connection registers as "REGISTER REQUEST binary replication": the follower applies its frames
+// in order without asking its ingest limiter, so it never answers BUSY, which would make it apply a
+// request after the ones forwarded behind it, and does not delete the documents when the connection
+// ends, even with --delete-on-disconnect, they belong to the primary's clients
+// a follower that fails is dropped and no longer waited for, it does not catch up by itself: it has
+// to be started again empty (or from its own data directory) and the folders indexed again
+public class Replicator {
+    // most forwarded requests a follower has not acknowledged yet, a worker forwarding more waits
+    public static final int MAX_IN_FLIGHT = 256;
+    // appended to the REGISTER REQUEST after the protocol, marks the connection as a replication link
+    static final String REGISTER_OPTION = "replication";
+
+    private final ArrayList<Follower> followers = new ArrayList<>();
+    // forwarding takes this lock, every follower gets the requests in the same order and under the
+    // same request IDs (the sequence numbers), workers also hold it while they apply a request to
+    // the primary's index (see lockOrder)
+    private final ReentrantLock forwardLock = new ReentrantLock();
+    private long sequence = 0;
+
+    // one follower connection, written by the forwarding workers, read by its reader thread
+    private static class Follower implements Runnable {
+        final String address;
+        final Socket socket;
+        final BinaryFrameReader reader;
+        final BinaryFrameWriter writer;
+        final Lock lock = new ReentrantLock();
+        final Condition acknowledged = lock.newCondition();
+        // forwarded requests without a reply, by sequence number
+        final TreeMap<Long, Object> inFlight = new TreeMap<>();
+        long lastSent = 0;
+        long lastFlushed = 0;
+        boolean failed = false;
+        long forwardedCount = 0;
+
+        Follower(String address) throws IOException {
+            this.address = address;
+            int colon = address.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IOException("Replica address is not <IP>:<port>: " + address);
+            }
+            socket = new Socket(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+            OutputStream out = socket.getOutputStream();
+            out.write((MessageType.REGISTER_REQUEST.toWireFormat() + " " + WireProtocol.BINARY.toWireFormat() + " "
+                + REGISTER_OPTION + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            // read the REGISTER REPLY byte by byte, nothing after it may be buffered, a follower that
+            // does not accept binary frames cannot be replicated to
+            InputStream in = socket.getInputStream();
+            StringBuilder reply = new StringBuilder();
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    throw new IOException("Replica " + address + " closed the connection");
+                }
+                reply.append((char) b);
+            }
+            if (!reply.toString().trim().endsWith(" binary")) {
+                socket.close();
+                throw new IOException("Replica " + address + " does not accept the binary protocol");
+            }
+            reader = new BinaryFrameReader(new BufferedInputStream(in));
+            writer = new BinaryFrameWriter(new BufferedOutputStream(out));
+        }
+
+        // called with the lock held
+        void write(Object request) throws IOException {
+            if (request instanceof IndexRequest) {
+                writer.writeIndexRequest((IndexRequest) request);
+            } else if (request instanceof IndexBatchRequest) {
+                writer.writeIndexBatch((IndexBatchRequest) request);
+            } else {
+                writer.writeDeleteRequest((DeleteRequest) request);
+            }
+        }
+
+        // called with the lock held
+        long acknowledgedThrough() {
+            return inFlight.isEmpty() ? lastSent : inFlight.firstKey() - 1;
+        }
+
+        // called with the lock held, the follower is dropped and nobody waits for it any more
+        void fail(IOException e) {
+            if (failed) {
+                return;
+            }
+            failed = true;
+            System.err.println("Replica " + address + " failed, no longer replicating to it: " + e.getMessage());
+            inFlight.clear();
+            acknowledged.signalAll();
+            try {
+                socket.close();
+            } catch (IOException closeException) {
+                // already failed
+            }
+        }
+
+        // match the replies of the follower with the forwarded requests
+        @Override
+        public void run() {
+            try {
+                MessageType message;
+                while ((message = reader.readFrame()) != null) {
+                    if (message == MessageType.INDEX_REPLY) {
+                        IndexResponse response = reader.readIndexReply();
+                        lock.lock();
+                        try {
+                            inFlight.remove(response.requestID);
+                            acknowledged.signalAll();
+                        } finally {
+                            lock.unlock();
+                        }
+                    } else if (message == MessageType.BUSY) {
+                        // followers admit every frame of a replication link, one that turned a request
+                        // away anyway has already applied the requests behind it, sending it again would
+                        // apply them out of order
+                        reader.readBusy();
+                        throw new IOException("Replica turned a forwarded request away, it does not keep their order");
+                    } else {
+                        throw new IOException("Unexpected frame " + message.toWireFormat() + " from replica");
+                    }
+                }
+                throw new IOException("Connection closed by the replica");
+            } catch (IOException e) {
+                lock.lock();
+                try {
+                    fail(e);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    // connect to every follower, "<IP>:<port>" each, a follower that cannot be reached is left out
+    public Replicator(List<String> addresses) {
+        for (String address : addresses) {
+            try {
+                Follower follower = new Follower(address);
+                followers.add(follower);
+                Thread readerThread = new Thread(follower, "replica-reader-" + address);
+                readerThread.setDaemon(true);
+                readerThread.start();
+                System.out.println("Replicating to " + address);
+            } catch (IOException | NumberFormatException e) {
+                System.err.println("Could not connect to replica " + address + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // a worker takes the order lock before it numbers, replaces or deletes documents of the primary's
+    // index and releases it once it forwarded the request, so the followers apply the requests in the
+    // order the primary did and number the documents and keep the versions of a key the same way
+    // the postings are merged after the lock is released, their order does not matter
+    public void lockOrder() {
+        forwardLock.lock();
+    }
+
+    public void unlockOrder() {
+        forwardLock.unlock();
+    }
+
+    // forward a request the caller applied to its own index, returns the sequence number to pass to
+    // awaitReplicated, the request object must not change afterwards, its request ID is overwritten
+    public long forward(IndexRequest request) {
+        return forwardRequest(request);
+    }
+
+    public long forward(IndexBatchRequest request) {
+        return forwardRequest(request);
+    }
+
+    public long forward(DeleteRequest request) {
+        return forwardRequest(request);
+    }
+
+    private long forwardRequest(Object request) {
+        forwardLock.lock();
+        try {
+            long requestSequence = ++sequence;
+            if (request instanceof IndexRequest) {
+                ((IndexRequest) request).requestID = requestSequence;
+            } else if (request instanceof IndexBatchRequest) {
+                ((IndexBatchRequest) request).requestID = requestSequence;
+            } else {
+                ((DeleteRequest) request).requestID = requestSequence;
+            }
+            for (Follower follower : followers) {
+                follower.lock.lock();
+                try {
+                    // a full window is flushed and waited on, the follower's replies free it
+                    while (!follower.failed && follower.inFlight.size() >= MAX_IN_FLIGHT) {
+                        if (follower.lastFlushed < follower.lastSent) {
+                            follower.writer.flush();
+                            follower.lastFlushed = follower.lastSent;
+                        }
+                        follower.acknowledged.awaitUninterruptibly();
+                    }
+                    if (follower.failed) {
+                        continue;
+                    }
+                    // written to the buffer only, awaitReplicated flushes a whole run of requests at once
+                    follower.inFlight.put(requestSequence, request);
+                    follower.write(request);
+                    follower.lastSent = requestSequence;
+                    follower.forwardedCount++;
+                } catch (IOException e) {
+                    follower.fail(e);
+                } finally {
+                    follower.lock.unlock();
+                }
+            }
+            return requestSequence;
+        } finally {
+            forwardLock.unlock();
+        }
+    }
+
+    // wait until every live follower acknowledged the requests up to the sequence number
+    public void awaitReplicated(long requestSequence) {
+        if (requestSequence <= 0) {
+            return;
+        }
+        for (Follower follower : followers) {
+            follower.lock.lock();
+            try {
+                if (!follower.failed && follower.lastFlushed < requestSequence) {
+                    try {
+                        follower.writer.flush();
+                        follower.lastFlushed = follower.lastSent;
+                    } catch (IOException e) {
+                        follower.fail(e);
+                    }
+                }
+                while (!follower.failed && follower.acknowledgedThrough() < requestSequence) {
+                    follower.acknowledged.awaitUninterruptibly();
+                }
+            } finally {
+                follower.lock.unlock();
+            }
+        }
+    }
+
+    public String describe() {
+        StringBuilder description = new StringBuilder("Replication:");
+        for (Follower follower : followers) {
+            follower.lock.lock();
+            try {
+                description.append(String.format(" %s %s, %d forwarded, %d waiting;",
+                    follower.address, follower.failed ? "failed" : "live", follower.forwardedCount,
+                    follower.inFlight.size()));
+            } finally {
+                follower.lock.unlock();
+            }
+        }
+        if (followers.isEmpty()) {
+            description.append(" no replica reachable");
+        }
+        return description.toString();
+    }
+
+    // say goodbye to the followers once every worker is done
+    public void close() {
+        for (Follower follower : followers) {
+            follower.lock.lock();
+            try {
+                if (!follower.failed) {
+                    follower.failed = true;
+                    follower.writer.writeQuit();
+                    follower.writer.flush();
+                    follower.socket.close();
+                }
+            } catch (IOException e) {
+                System.err.println("Could not close the connection to replica " + follower.address);
+            } finally {
+                follower.lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,602 @@
+package com.fileretrieval.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import com.fileretrieval.common.protocol.BinaryFrameReader;
+import com.fileretrieval.common.protocol.BinaryFrameWriter;
+import com.fileretrieval.common.protocol.MessageType;
+import com.fileretrieval.common.protocol.WireProtocol;
+
+// the non-blocking front end of --mode nio, it takes the place of the Dispatcher and the worker threads
+// one selector thread accepts connections and reads whatever bytes arrived into a single direct buffer,
+// cuts them into frames and queues the complete frames on their connection, a bounded pool of worker
+// threads then serves the queued frames of a connection in order through its ServerWorker (one worker
+// at a time per connection, so the pool queue never holds more tasks than there are connections)
+// replies are queued on the connection as one buffer per frame and written with a gathering write,
+// by the worker if the socket takes them, otherwise by the selector thread once it is writable
+// an idle connection holds no thread and no read buffer, only its Connection and ServerWorker
+// text protocol clients are handed over to a blocking ServerWorker thread after their REGISTER line
+public class SelectorServer implements Runnable {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    // payloads up to this size are read into arrays recycled through the payload pool
+    private static final int POOLED_PAYLOAD_SIZE = 8192;
+    private static final int PAYLOAD_POOL_SIZE = 256;
+    // stop reading from a connection while this many bytes of its frames wait for a worker
+    private static final long MAX_QUEUED_BYTES = 4 << 20;
+    private static final int MAX_REGISTER_LINE = 1024;
+
+    private final ServerProcessingEngine engine;
+    private final IndexStore store;
+    private final WriteAheadLog log;
+    private final String address;
+    private final int port;
+    private final int maxNumConnections;
+    private final int workerCount;
+    private volatile boolean terminate;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread selectorThread;
+    private ThreadPoolExecutor workers;
+
+    // only the selector thread reads, so one buffer serves every connection
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final ArrayBlockingQueue<byte[]> payloadPool = new ArrayBlockingQueue<>(PAYLOAD_POOL_SIZE);
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    // text connections whose key was cancelled, handed over once the selector dropped the key
+    private final ArrayList<Connection> handOffs = new ArrayList<>();
+    // frame decoder and reply encoder of each worker thread, connections don't keep any
+    private final ThreadLocal<ReplyStream> replyStreams = ThreadLocal.withInitial(ReplyStream::new);
+
+    public SelectorServer(ServerProcessingEngine engine, IndexStore store, WriteAheadLog log, int port,
+            int maxNumConnections, int workerCount) {
+        this.engine = engine;
+        this.store = store;
+        this.log = log;
+        this.address = "0.0.0.0";
+        this.port = port;
+        this.maxNumConnections = maxNumConnections;
+        this.workerCount = workerCount;
+    }
+
+    // stop accepting connections, the thread ends once the connected clients are gone
+    public void setTerminate() {
+        this.terminate = true;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    // connections served by the selector, handed over text connections are counted by the engine
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    @Override
+    public void run() {
+        selectorThread = Thread.currentThread();
+        workers = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, maxNumConnections)),
+            Thread.ofPlatform().name("selector-worker-", 0).daemon(true).factory());
+
+        try {
+            // create a non-blocking server channel and listen for new connections
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(address, port), maxNumConnections);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+            while (!terminate || connectionCount.get() > 0 || !handOffs.isEmpty()) {
+                if (terminate && serverChannel.isOpen()) {
+                    serverChannel.close();
+                }
+                // selectNow drops the keys of the cancelled text connections without waiting
+                if (handOffs.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                    handOffTextConnections();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    if (key.isWritable()) {
+                        connection.writable();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        read(connection);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // only print an error and stack trace if not exiting normally
+            if (!terminate) {
+                System.err.println("Socket error");
+                e.printStackTrace();
+            }
+        } finally {
+            workers.shutdown();
+            try {
+                workers.awaitTermination(10, TimeUnit.SECONDS);
+                if (selector != null) {
+                    selector.close();
+                }
+                if (serverChannel != null) {
+                    serverChannel.close();
+                }
+            } catch (InterruptedException | IOException e) {
+                System.err.println("Error closing the selector");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            // handed over text connections count against the limit as well
+            if (engine.getLiveConnectionCount() >= maxNumConnections) {
+                System.out.println("Cannot exceed " + maxNumConnections + " client connections");
+                channel.close(); // close rejected socket
+                continue;
+            }
+            channel.configureBlocking(false);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            connectionCount.incrementAndGet();
+        }
+    }
+
+    private void read(Connection connection) {
+        readBuffer.clear();
+        int count;
+        try {
+            count = connection.channel.read(readBuffer);
+        } catch (IOException e) {
+            count = -1; // reset by the client, served like a disconnect
+        }
+        if (count < 0) {
+            connection.endOfInput();
+            return;
+        }
+        readBuffer.flip();
+        try {
+            if (connection.registerLine != null && !readRegisterLine(connection)) {
+                return;
+            }
+            connection.consume(readBuffer);
+        } catch (IOException e) {
+            System.err.println("Dropping client: " + e.getMessage());
+            connection.endOfInput();
+        }
+    }
+
+    // the REGISTER exchange is text like in ServerWorker, returns true if the client registered for
+    // binary frames (the rest of the read buffer holds frames), false if the line is not complete yet
+    // or the connection was handed over
+    private boolean readRegisterLine(Connection connection) throws IOException {
+        while (readBuffer.hasRemaining()) {
+            byte b = readBuffer.get();
+            if (b != '\n') {
+                if (connection.registerLength == MAX_REGISTER_LINE) {
+                    throw new IOException("REGISTER REQUEST line too long");
+                }
+                if (connection.registerLength == connection.registerLine.length) {
+                    connection.registerLine = Arrays.copyOf(connection.registerLine, MAX_REGISTER_LINE);
+                }
+                connection.registerLine[connection.registerLength++] = b;
+                continue;
+            }
+
+            String line = new String(connection.registerLine, 0, connection.registerLength, StandardCharsets.UTF_8);
+            String registerPrefix = MessageType.REGISTER_REQUEST.toWireFormat() + " ";
+            if (line.startsWith(registerPrefix)
+                    && connection.worker.registerOptions(line.substring(registerPrefix.length())) == WireProtocol.BINARY) {
+                long clientID = connection.worker.register();
+                connection.registerLine = null;
+                String reply = clientID + " " + WireProtocol.BINARY.toWireFormat() + "\n";
+                connection.send(List.of(ByteBuffer.wrap(reply.getBytes(StandardCharsets.UTF_8))));
+                return true;
+            }
+
+            // a text client: replay the line and whatever followed it to a blocking ServerWorker
+            byte[] buffered = new byte[connection.registerLength + 1 + readBuffer.remaining()];
+            System.arraycopy(connection.registerLine, 0, buffered, 0, connection.registerLength);
+            buffered[connection.registerLength] = '\n';
+            readBuffer.get(buffered, connection.registerLength + 1, readBuffer.remaining());
+            connection.registerLine = buffered;
+            connection.key.cancel();
+            handOffs.add(connection);
+            return false;
+        }
+        return false;
+    }
+
+    private void handOffTextConnections() {
+        for (Connection connection : handOffs) {
+            connectionCount.decrementAndGet();
+            try {
+                connection.channel.configureBlocking(true);
+                InputStream inputStream = new SequenceInputStream(new ByteArrayInputStream(connection.registerLine),
+                    connection.channel.socket().getInputStream());
+                engine.handOff(new ServerWorker(store, log, engine, connection.channel.socket(), inputStream));
+            } catch (IOException e) {
+                System.err.println("Could not hand over text connection");
+                e.printStackTrace();
+                try {
+                    connection.channel.close();
+                } catch (IOException closeException) {
+                    System.err.println("Error closing client socket!");
+                }
+            }
+        }
+        handOffs.clear();
+    }
+
+    private byte[] allocatePayload(int length) {
+        if (length <= POOLED_PAYLOAD_SIZE) {
+            byte[] payload = payloadPool.poll();
+            return payload != null ? payload : new byte[POOLED_PAYLOAD_SIZE];
+        }
+        return new byte[length];
+    }
+
+    private void recyclePayload(byte[] payload) {
+        if (payload.length == POOLED_PAYLOAD_SIZE) {
+            payloadPool.offer(payload);
+        }
+    }
+
+    // a complete frame waiting for a worker
+    private static class Frame {
+        final MessageType type;
+        final byte[] payload;
+        final int length;
+
+        Frame(MessageType type, byte[] payload, int length) {
+            this.type = type;
+            this.payload = payload;
+            this.length = length;
+        }
+    }
+
+    // state of one client connection
+    // the frame being read is only touched by the selector thread, the queued frames, the replies
+    // and the interest set are guarded by the connection's lock
+    private class Connection implements Runnable {
+        final SocketChannel channel;
+        final ServerWorker worker;
+        SelectionKey key;
+        // REGISTER line until the client registered, the bytes to replay if it is handed over
+        byte[] registerLine = new byte[64];
+        int registerLength;
+
+        // header and payload of the frame being read
+        MessageType frameType;
+        long frameLength;
+        int headerShift;
+        byte[] payload;
+        int payloadFilled;
+
+        final Lock lock = new ReentrantLock();
+        final ArrayDeque<Frame> frames = new ArrayDeque<>(4);
+        long queuedBytes;
+        // a worker is serving the queued frames
+        boolean scheduled;
+        // the client closed the connection or broke the protocol, or sent QUIT
+        boolean inputClosed;
+        boolean closing;
+        boolean closed;
+        final ArrayDeque<ByteBuffer> replies = new ArrayDeque<>(4);
+        boolean writeBlocked;
+        int interestOps = SelectionKey.OP_READ;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.worker = new ServerWorker(store, log, engine, channel.socket());
+        }
+
+        // cut the bytes that arrived into frames (see BinaryFrameReader for the header format)
+        void consume(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (payload == null) {
+                    int b = buffer.get() & 0xFF;
+                    if (frameType == null) {
+                        try {
+                            frameType = MessageType.fromOpcode((byte) b);
+                        } catch (IllegalArgumentException e) {
+                            throw new IOException(e.getMessage());
+                        }
+                        frameLength = 0;
+                        headerShift = 0;
+                        continue;
+                    }
+                    frameLength |= (long) (b & 0x7F) << headerShift;
+                    if ((b & 0x80) != 0) {
+                        headerShift += 7;
+                        if (headerShift > 28) {
+                            throw new IOException("Malformed frame length");
+                        }
+                        continue;
+                    }
+                    if (frameLength > BinaryFrameReader.MAX_FRAME_SIZE) {
+                        throw new IOException("Frame of " + frameLength + " bytes exceeds the limit of "
+                            + BinaryFrameReader.MAX_FRAME_SIZE);
+                    }
+                    payload = allocatePayload((int) frameLength);
+                    payloadFilled = 0;
+                } else {
+                    int count = Math.min(buffer.remaining(), (int) frameLength - payloadFilled);
+                    buffer.get(payload, payloadFilled, count);
+                    payloadFilled += count;
+                }
+                if (payloadFilled == frameLength) {
+                    queue(new Frame(frameType, payload, (int) frameLength));
+                    frameType = null;
+                    payload = null;
+                }
+            }
+        }
+
+        private void queue(Frame frame) {
+            lock.lock();
+            try {
+                frames.add(frame);
+                queuedBytes += frame.length;
+                schedule();
+                updateInterest();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // the client is gone, the worker serves the frames that are queued and closes the connection
+        void endOfInput() {
+            lock.lock();
+            try {
+                inputClosed = true;
+                schedule();
+                updateInterest();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // called with the lock held
+        private void schedule() {
+            if (!scheduled) {
+                scheduled = true;
+                workers.execute(this);
+            }
+        }
+
+        // serve the queued frames on a worker thread, held back INDEX REPLYs are sent once the queue is
+        // empty, so a run of pipelined requests is acknowledged with one log sync and one write
+        @Override
+        public void run() {
+            ReplyStream replyStream = replyStreams.get();
+            replyStream.connection = this;
+            boolean idle = false;
+            try {
+                while (true) {
+                    Frame frame = nextFrame();
+                    if (frame == null) {
+                        worker.sendPendingReplies(replyStream.writer);
+                        // more frames may have been queued while the replies were sent
+                        lock.lock();
+                        try {
+                            if (!frames.isEmpty()) {
+                                continue;
+                            }
+                            if (!inputClosed) {
+                                scheduled = false;
+                                idle = true;
+                                return;
+                            }
+                        } finally {
+                            lock.unlock();
+                        }
+                        break;
+                    }
+                    replyStream.reader.setFrame(frame.payload, frame.length);
+                    boolean open = worker.serveFrame(frame.type, replyStream.reader, replyStream.writer);
+                    recyclePayload(frame.payload);
+                    if (!open) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Error serving client!");
+                e.printStackTrace();
+            } finally {
+                replyStream.connection = null;
+                if (!idle) {
+                    close();
+                }
+            }
+        }
+
+        private Frame nextFrame() {
+            lock.lock();
+            try {
+                Frame frame = frames.poll();
+                if (frame != null) {
+                    queuedBytes -= frame.length;
+                    updateInterest();
+                }
+                return frame;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // the worker is done: delete the documents of the client if configured to, then close the
+        // channel once the replies that are still queued are written
+        private void close() {
+            worker.disconnected();
+            lock.lock();
+            try {
+                inputClosed = true;
+                closing = true;
+                frames.clear();
+                if (replies.isEmpty()) {
+                    closeChannel();
+                } else {
+                    updateInterest();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // called with the lock held
+        private void closeChannel() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Error closing client socket!");
+                e.printStackTrace();
+            }
+            connectionCount.decrementAndGet();
+            System.out.println("Client disconnected.");
+            // the selector thread may be waiting for the last connection to end
+            selector.wakeup();
+        }
+
+        // queue the reply frames and write as much of them as the socket takes
+        void send(List<ByteBuffer> frames) {
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                replies.addAll(frames);
+                if (!writeBlocked) {
+                    writeReplies();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // the selector found the socket writable again
+        void writable() {
+            lock.lock();
+            try {
+                writeReplies();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // called with the lock held, one gathering write per call for every queued reply
+        private void writeReplies() {
+            try {
+                while (!replies.isEmpty()) {
+                    ByteBuffer[] buffers = replies.toArray(new ByteBuffer[0]);
+                    long written = channel.write(buffers);
+                    while (!replies.isEmpty() && !replies.peek().hasRemaining()) {
+                        replies.poll();
+                    }
+                    if (written == 0) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                // the client is gone, the read side sees it as well
+                replies.clear();
+            }
+            writeBlocked = !replies.isEmpty();
+            if (closing && replies.isEmpty()) {
+                closeChannel();
+                return;
+            }
+            updateInterest();
+        }
+
+        // called with the lock held: read while the input is open, no more than MAX_QUEUED_BYTES wait
+        // for a worker and the client takes the replies (like a blocked ServerWorker write), wait for
+        // writability while replies are left
+        private void updateInterest() {
+            int ops = 0;
+            if (!inputClosed && queuedBytes < MAX_QUEUED_BYTES && !writeBlocked) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (writeBlocked) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            if (ops == interestOps || closed || !key.isValid()) {
+                return;
+            }
+            interestOps = ops;
+            key.interestOps(ops);
+            if (Thread.currentThread() != selectorThread) {
+                selector.wakeup();
+            }
+        }
+    }
+
+    // decodes the frames a worker thread serves and collects the reply frames it encodes, one buffer
+    // per frame, flush() hands them to the connection
+    private static class ReplyStream extends OutputStream {
+        final BinaryFrameReader reader = new BinaryFrameReader(InputStream.nullInputStream());
+        final BinaryFrameWriter writer = new BinaryFrameWriter(this);
+        final ArrayList<ByteBuffer> frames = new ArrayList<>();
+        Connection connection;
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            // BinaryFrameWriter writes every frame with one call from a buffer it reuses
+            frames.add(ByteBuffer.wrap(Arrays.copyOfRange(bytes, offset, offset + length)));
+        }
+
+        @Override
+        public void flush() {
+            if (!frames.isEmpty()) {
+                connection.send(frames);
+                frames.clear();
+            }
+        }
+    }
+}
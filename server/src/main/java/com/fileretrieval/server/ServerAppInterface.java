@@ -36,10 +36,58 @@ public class ServerAppInterface {
                 for (String result : results) {
                     System.out.println(result);
                 }
+                System.out.println(engine.getLiveConnectionCount() + " live connections (" + engine.getMode().getName()
+                    + " mode, at most " + engine.getMaxConnections() + ")");
+                continue;
+            }
+            // if the command is flush, write the index to the data directory
+            if (command.equals("flush")) {
+                if (engine.flushIndex()) {
+                    System.out.println("Index flushed to disk");
+                } else {
+                    System.out.println("Index not flushed (no data directory or write error)");
+                }
+                continue;
+            }
+            // if the command is compact, drop the postings of deleted documents now
+            if (command.equals("compact")) {
+                CompactionStatistics pass = engine.compact();
+                if (pass == null) {
+                    System.out.println("Nothing to compact");
+                } else {
+                    printCompaction("Compaction", pass);
+                }
+                continue;
+            }
+            // if the command is stats, print the deleted documents, the compaction, the ingest and the
+            // replication figures
+            if (command.equals("stats")) {
+                IndexStore store = engine.getStore();
+                System.out.println("Documents: " + store.getDocumentCount() + ", deleted: "
+                    + store.getDeletedDocumentCount());
+                CompactionStatistics last = store.lastCompaction();
+                if (last.passes > 0) {
+                    System.out.println(String.format("Dead postings at the last pass: %.1f%% before, %.1f%% after",
+                        last.deadPostingRatio() * 100, last.remainingDeadPostingRatio() * 100));
+                }
+                printCompaction("All compactions", store.compactionTotals());
+                if (engine.getIngestLimiter() != null) {
+                    System.out.println(engine.getIngestLimiter().describe());
+                }
+                if (engine.getReplicator() != null) {
+                    System.out.println(engine.getReplicator().describe());
+                }
                 continue;
             }
             System.out.println("unrecognized command!");
         }
         sc.close();
     }
+
+    private static void printCompaction(String label, CompactionStatistics statistics) {
+        System.out.println(String.format("%s: %d passes, %d of %d terms rewritten, %d postings dropped, "
+            + "%d bytes reclaimed in %.3f s (%.0f postings/s)", label, statistics.passes,
+            statistics.rewrittenTerms, statistics.terms, statistics.droppedPostings, statistics.reclaimedBytes,
+            statistics.seconds(), statistics.rewrittenPostingsPerSecond()));
+    }
 }
\ No newline at end of file
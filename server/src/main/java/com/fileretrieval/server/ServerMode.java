@@ -0,0 +1,38 @@
+package com.fileretrieval.server;
+
+// how the server runs its ServerWorkers, chosen at startup with --mode
+public enum ServerMode {
+    // one platform thread per connection, each one reserves a full thread stack
+    PLATFORM("platform", 50),
+    // one virtual thread per connection, a blocked read only parks the virtual thread and frees its
+    // carrier, so thousands of mostly idle connections cost little more than their buffers
+    VIRTUAL("virtual", 10_000),
+    // one selector thread reads every connection without blocking and a small pool of worker threads
+    // serves the complete frames (see SelectorServer), text protocol clients still get a virtual thread
+    NIO("nio", 10_000);
+
+    private final String name;
+    private final int defaultMaxConnections;
+
+    ServerMode(String name, int defaultMaxConnections) {
+        this.name = name;
+        this.defaultMaxConnections = defaultMaxConnections;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getDefaultMaxConnections() {
+        return defaultMaxConnections;
+    }
+
+    public static ServerMode fromName(String name) {
+        for (ServerMode mode : values()) {
+            if (mode.name.equals(name)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown server mode: " + name);
+    }
+}
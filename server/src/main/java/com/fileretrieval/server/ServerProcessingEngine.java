@@ -4,26 +4,148 @@ import java.io.IOException;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class ServerProcessingEngine {
     private IndexStore store;
+    private WriteAheadLog log;
     private Dispatcher dispatcher;
-    private ArrayList<Thread> threads;
+    // takes the place of the dispatcher in nio mode
+    private SelectorServer selectorServer;
+    private Thread dispatcherThread;
+    private BlockSealer blockSealer;
+    private Thread blockSealerThread;
+    private Compactor compactor;
+    private Thread compactorThread;
+    // worker threads of the live connections, a worker removes its thread when its connection ends
+    private HashSet<Thread> workerThreads;
     private HashMap<Long, Socket> clientSockets;
-    private int maxNumConnections;
+    // platform or virtual worker threads or the selector, and the most connections served at once
+    // (the mode's default unless set)
+    private ServerMode mode = ServerMode.PLATFORM;
+    private int maxNumConnections = 0;
+    // worker threads serving the frames read by the selector in nio mode
+    public static final int DEFAULT_SELECTOR_WORKERS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    private int selectorWorkers = DEFAULT_SELECTOR_WORKERS;
+    // delete the documents of a client when its connection ends
+    private boolean deleteOnDisconnect = false;
+    // how often the compactor drops the postings of deleted documents, 0 disables it
+    public static final long DEFAULT_COMPACTION_INTERVAL_MILLIS = 5000L;
+    private long compactionIntervalMillis = DEFAULT_COMPACTION_INTERVAL_MILLIS;
 
-    // declare locks for clientSockets and threads
+    // admission control of INDEX REQUESTs and INDEX BATCHes, null admits every request at once
+    private IngestLimiter ingestLimiter = new IngestLimiter(IngestLimiter.DEFAULT_MAX_REQUESTS,
+        IngestLimiter.DEFAULT_MAX_BYTES, IngestLimiter.DEFAULT_MAX_QUEUED, IngestLimiter.DEFAULT_MAX_WAIT_MILLIS);
+
+    // threads a single large search is split over (1 keeps every search on its worker thread), and
+    // the postings of the shortest list of a query from which it is split (see QueryEngine)
+    public static final int DEFAULT_SEARCH_THREADS = Runtime.getRuntime().availableProcessors();
+    private int searchThreads = DEFAULT_SEARCH_THREADS;
+    private int parallelSearchThreshold = QueryEngine.DEFAULT_PARALLEL_THRESHOLD;
+    // created by initialize, null if searchThreads is 1
+    private ForkJoinPool searchPool;
+
+    // "<IP>:<port>" of the follower servers every indexed document is forwarded to, and the
+    // replicator connected to them by initialize, null without followers
+    private List<String> replicaAddresses = new ArrayList<>();
+    private Replicator replicator;
+
+    // declare locks for clientSockets and workerThreads
     private final Lock clientSocketLock = new ReentrantLock();
     private final Lock threadLock = new ReentrantLock();
 
-    public ServerProcessingEngine(IndexStore store) {
+    public ServerProcessingEngine(IndexStore store, WriteAheadLog log) {
         this.store = store;
-        threads = new ArrayList<Thread>();
+        this.log = log;
+        workerThreads = new HashSet<Thread>();
         clientSockets = new HashMap<Long, Socket>();
-        maxNumConnections = 50; // can't have more than 50 clients
+    }
+
+    // settings below are read by initialize and by the workers, set them before initialize
+    public void setDeleteOnDisconnect(boolean deleteOnDisconnect) {
+        this.deleteOnDisconnect = deleteOnDisconnect;
+    }
+
+    public boolean isDeleteOnDisconnect() {
+        return deleteOnDisconnect;
+    }
+
+    public void setCompactionInterval(long compactionIntervalMillis) {
+        this.compactionIntervalMillis = Math.max(0, compactionIntervalMillis);
+    }
+
+    // maxRequests 0 turns admission control off
+    public void setIngestLimits(int maxRequests, long maxBytes, int maxQueued, long maxWaitMillis) {
+        if (maxRequests <= 0) {
+            ingestLimiter = null;
+        } else {
+            ingestLimiter = new IngestLimiter(maxRequests, maxBytes, maxQueued, maxWaitMillis);
+        }
+    }
+
+    public IngestLimiter getIngestLimiter() {
+        return ingestLimiter;
+    }
+
+    public void setReplicas(List<String> replicaAddresses) {
+        this.replicaAddresses = new ArrayList<>(replicaAddresses);
+    }
+
+    public Replicator getReplicator() {
+        return replicator;
+    }
+
+    public void setSearchThreads(int searchThreads) {
+        this.searchThreads = Math.max(1, searchThreads);
+    }
+
+    public void setParallelSearchThreshold(int parallelSearchThreshold) {
+        this.parallelSearchThreshold = Math.max(1, parallelSearchThreshold);
+    }
+
+    public int getParallelSearchThreshold() {
+        return parallelSearchThreshold;
+    }
+
+    public ForkJoinPool getSearchPool() {
+        return searchPool;
+    }
+
+    public void setMode(ServerMode mode) {
+        this.mode = mode;
+    }
+
+    public ServerMode getMode() {
+        return mode;
+    }
+
+    // 0 uses the default of the mode
+    public void setMaxConnections(int maxNumConnections) {
+        this.maxNumConnections = Math.max(0, maxNumConnections);
+    }
+
+    public int getMaxConnections() {
+        return maxNumConnections > 0 ? maxNumConnections : mode.getDefaultMaxConnections();
+    }
+
+    public void setSelectorWorkers(int selectorWorkers) {
+        this.selectorWorkers = Math.max(1, selectorWorkers);
+    }
+
+    // connections currently served by a worker thread or by the selector
+    public int getLiveConnectionCount() {
+        int selectorConnections = selectorServer == null ? 0 : selectorServer.getConnectionCount();
+        threadLock.lock();
+        try {
+            return workerThreads.size() + selectorConnections;
+        } finally {
+            threadLock.unlock();
+        }
     }
 
     public void addConnectedClient(long clientID, Socket clientSocket) {
@@ -59,11 +181,37 @@ public class ServerProcessingEngine {
         threadLock.lock();
 
         try {
-            // create and start the Dispatcher thread
-            dispatcher = new Dispatcher(this, serverPort, maxNumConnections);
-            Thread dispatcherThread = new Thread(dispatcher);
-            threads.add(dispatcherThread);
+            // connect to the followers before the first client can index anything
+            if (!replicaAddresses.isEmpty()) {
+                replicator = new Replicator(replicaAddresses);
+            }
+            if (searchThreads > 1) {
+                searchPool = new ForkJoinPool(searchThreads);
+            }
+            // create and start the Dispatcher thread, or the selector thread in nio mode
+            maxNumConnections = getMaxConnections();
+            if (mode == ServerMode.NIO) {
+                selectorServer = new SelectorServer(this, store, log, serverPort, maxNumConnections, selectorWorkers);
+                dispatcherThread = new Thread(selectorServer);
+            } else {
+                dispatcher = new Dispatcher(this, serverPort, maxNumConnections);
+                dispatcherThread = new Thread(dispatcher);
+            }
             dispatcherThread.start();
+
+            // create and start the thread that compresses idle posting buffers every second
+            blockSealer = new BlockSealer(store, 1000L);
+            blockSealerThread = new Thread(blockSealer);
+            blockSealerThread.setDaemon(true);
+            blockSealerThread.start();
+
+            // create and start the thread that drops the postings of deleted documents
+            if (compactionIntervalMillis > 0) {
+                compactor = new Compactor(store, compactionIntervalMillis);
+                compactorThread = new Thread(compactor);
+                compactorThread.setDaemon(true);
+                compactorThread.start();
+            }
         } finally {
             // release the lock
             threadLock.unlock();
@@ -75,8 +223,8 @@ public class ServerProcessingEngine {
         threadLock.lock();
 
         try {
-            // check if max connections will be exceeded
-            if (threads.size() >= maxNumConnections) {
+            // check if max connections will be exceeded, finished workers no longer count
+            if (workerThreads.size() >= maxNumConnections) {
                 System.out.println("Cannot exceed " + maxNumConnections + " client connections");
                 try {
                     clientSocket.close(); // close rejected socket
@@ -86,17 +234,47 @@ public class ServerProcessingEngine {
                 return; // early return, don't spawn worker
             }
 
-            // create and start new Server Worker thread
-            ServerWorker serverWorker = new ServerWorker(store, this, clientSocket);
-            Thread serverWorkerThread = new Thread(serverWorker);
-            threads.add(serverWorkerThread);
-            serverWorkerThread.start();
+            // create and start new Server Worker thread, a platform or a virtual one
+            startWorker(new ServerWorker(store, log, this, clientSocket));
         } finally {
             // release the lock
             threadLock.unlock();
         }
     }
 
+    // serve a text protocol connection the selector accepted on a worker thread of its own, the
+    // connection was already admitted, it moves from the selector's count to the worker threads
+    void handOff(ServerWorker serverWorker) {
+        threadLock.lock();
+        try {
+            startWorker(serverWorker);
+        } finally {
+            threadLock.unlock();
+        }
+    }
+
+    // called with threadLock held
+    private void startWorker(ServerWorker serverWorker) {
+        Thread.Builder builder = mode == ServerMode.PLATFORM ? Thread.ofPlatform() : Thread.ofVirtual();
+        Thread serverWorkerThread = builder.unstarted(() -> runWorker(serverWorker));
+        // added before it starts, so it cannot remove itself first
+        workerThreads.add(serverWorkerThread);
+        serverWorkerThread.start();
+    }
+
+    private void runWorker(ServerWorker serverWorker) {
+        try {
+            serverWorker.run();
+        } finally {
+            threadLock.lock();
+            try {
+                workerThreads.remove(Thread.currentThread());
+            } finally {
+                threadLock.unlock();
+            }
+        }
+    }
+
     public void shutdown() {
         ArrayList<Thread> threadsToJoin;
 
@@ -104,12 +282,25 @@ public class ServerProcessingEngine {
         threadLock.lock();
 
         try {
-            // signal the Dispatcher thread to shutdown
-            dispatcher.setTerminate();
-            // close the server socket to unblock accept()
-            dispatcher.closeServerSocket();
-            // use copy of threads
-            threadsToJoin = new ArrayList<>(threads);
+            if (selectorServer != null) {
+                // the selector stops accepting and ends once its connections are gone
+                selectorServer.setTerminate();
+            } else {
+                // signal the Dispatcher thread to shutdown
+                dispatcher.setTerminate();
+                // close the server socket to unblock accept()
+                dispatcher.closeServerSocket();
+            }
+            // stop the block sealer, interrupt it out of its sleep
+            blockSealer.setTerminate();
+            blockSealerThread.interrupt();
+            if (compactor != null) {
+                compactor.setTerminate();
+                compactorThread.interrupt();
+            }
+            // use copy of the dispatcher and worker threads
+            threadsToJoin = new ArrayList<>(workerThreads);
+            threadsToJoin.add(dispatcherThread);
         } finally {
             // release the lock 
             threadLock.unlock();
@@ -123,6 +314,50 @@ public class ServerProcessingEngine {
                 e.printStackTrace();
             }
         }
+
+        // no search is running any more, stop the pool threads
+        if (searchPool != null) {
+            searchPool.shutdown();
+        }
+        // every worker is done, nothing more is forwarded to the followers
+        if (replicator != null) {
+            replicator.close();
+        }
+        // persist the final state of the index
+        flushIndex();
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    public boolean flushIndex() {
+        // nothing to do if the server was started without a data directory
+        if (!store.isPersistent()) {
+            return false;
+        }
+        try {
+            // roll the log over first: every document in the older generations is already in the
+            // index, so they are covered by the segment and can be deleted once it is written
+            long generation = log == null ? 0 : log.roll();
+            store.flush();
+            if (log != null) {
+                log.deleteBefore(generation);
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Could not flush index to disk");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // run a compaction pass now, null if no document was deleted since the last one
+    public CompactionStatistics compact() {
+        return store.compactDeletedPostings();
+    }
+
+    public IndexStore getStore() {
+        return store;
     }
 
     public ArrayList<String> getConnectedClients() {
@@ -1,44 +1,115 @@
 package com.fileretrieval.server;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import com.fileretrieval.common.dto.DocPathFreqPair;
+import com.fileretrieval.common.protocol.BinaryFrameReader;
+import com.fileretrieval.common.protocol.BinaryFrameWriter;
+import com.fileretrieval.common.protocol.BusyResponse;
+import com.fileretrieval.common.protocol.DeleteRequest;
+import com.fileretrieval.common.protocol.IndexBatchRequest;
+import com.fileretrieval.common.protocol.IndexRequest;
+import com.fileretrieval.common.protocol.IndexResponse;
 import com.fileretrieval.common.protocol.MessageType;
+import com.fileretrieval.common.protocol.Query;
+import com.fileretrieval.common.protocol.QueryParser;
+import com.fileretrieval.common.protocol.Scoring;
+import com.fileretrieval.common.protocol.SearchRequest;
+import com.fileretrieval.common.protocol.SearchResponse;
+import com.fileretrieval.common.protocol.WireProtocol;
 
 public class ServerWorker implements Runnable {
+    private static final String INDEX_REPLY_MESSAGE = "IndexStore updated successfully!";
+    private static final String DELETE_REPLY_MESSAGE = "Document deleted";
+    private static final String DELETE_NOT_FOUND_MESSAGE = "Document not found";
+    // most pipelined INDEX REQUESTs indexed before their replies are sent
+    private static final int MAX_PENDING_REPLIES = 64;
+
     private IndexStore store;
     private ServerProcessingEngine engine;
     private Socket clientSocket;
+    // null to read from the socket
+    private InputStream inputStream;
+    private QueryEngine queryEngine;
+    // null if the server runs without a data directory
+    private WriteAheadLog log;
+
+    // binary protocol: request IDs of indexed documents and batches whose INDEX REPLY was not sent yet,
+    // and the log sequence number that has to be durable before they are acknowledged
+    private long[] pendingReplies = new long[MAX_PENDING_REPLIES];
+    // set for DELETE REQUESTs of documents that do not exist, they are answered with success false
+    private boolean[] pendingNotFound = new boolean[MAX_PENDING_REPLIES];
+    // set for requests the ingest limiter turned away, they are answered with BUSY
+    private long[] pendingRetryAfter = new long[MAX_PENDING_REPLIES];
+    private int pendingReplyCount = 0;
+    private long pendingLogSequence = 0;
+    // replication sequence number of the last request forwarded to the followers (see Replicator)
+    private long pendingReplicaSequence = 0;
+    // client IDs this connection indexed documents under, deleted when it ends if the server is
+    // configured to (a client re-indexing a folder uses the ID of its first run, see Manifest)
+    private HashSet<Long> indexedClientIDs = new HashSet<>();
+    private long lastIndexedClientID = 0;
+    // 0 until the client registered
+    private long currentWorkerID = 0L;
+    // the connection is the replication link of a primary (see Replicator): its frames skip the
+    // ingest limiter so they are applied in the order they were forwarded, and its documents are not
+    // deleted when it ends
+    private boolean replication = false;
+
+    public ServerWorker(IndexStore store, WriteAheadLog log, ServerProcessingEngine engine, Socket clientSocket) {
+        this(store, log, engine, clientSocket, null);
+    }
 
-    public ServerWorker(IndexStore store, ServerProcessingEngine engine, Socket clientSocket) {
+    // a connection handed over by the selector front end, inputStream replays the bytes it already read
+    ServerWorker(IndexStore store, WriteAheadLog log, ServerProcessingEngine engine, Socket clientSocket,
+            InputStream inputStream) {
         this.store = store;
+        this.log = log;
         this.engine = engine;
         this.clientSocket = clientSocket;
+        this.inputStream = inputStream;
+        this.queryEngine = new QueryEngine(store, engine.getSearchPool(), engine.getParallelSearchThreshold());
     }
-    
+
     @Override
     public void run() {
-        long currentWorkerID = 0L; // track the client ID
-
         // receive a message from the client
         try {
-            BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+            // the REGISTER exchange is always text, clients only send their next message after
+            // the REGISTER REPLY, so nothing beyond the REGISTER line is buffered by the reader
+            // when the connection switches to binary frames
+            if (inputStream == null) {
+                inputStream = clientSocket.getInputStream();
+            }
+            BufferedReader in = new BufferedReader(new InputStreamReader(inputStream));
             PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true);
 
             String clientMessage;
 
             while((clientMessage = in.readLine()) != null) {
                 MessageType message = null;
+                // a new client appends the protocol it wants to the REGISTER REQUEST line
+                WireProtocol protocol = WireProtocol.TEXT;
+                String registerPrefix = MessageType.REGISTER_REQUEST.toWireFormat() + " ";
+                if (clientMessage.startsWith(registerPrefix)) {
+                    protocol = registerOptions(clientMessage.substring(registerPrefix.length()));
+                    clientMessage = MessageType.REGISTER_REQUEST.toWireFormat();
+                }
                 // assign correct message type to client message
                 try {
-                   message = MessageType.fromWireFormat(clientMessage); 
+                   message = MessageType.fromWireFormat(clientMessage);
                 } catch (IllegalArgumentException e) {
                     System.err.println("Unknown message type");
                     continue;
@@ -48,17 +119,22 @@ public class ServerWorker implements Runnable {
                 switch (message) {
         //       if the message is a REGISTER REQUEST, then
         //       generate a new client ID and return a REGISTER REPLY message containing the client ID
+        //       and the accepted protocol if the client asked for the binary one
                     case REGISTER_REQUEST:
-                        UUID uuid = UUID.randomUUID();
-                        long clientID = uuid.getMostSignificantBits() & Long.MAX_VALUE;
-                        engine.addConnectedClient(clientID, clientSocket);
-                        currentWorkerID = clientID;
+                        long clientID = register();
+                        if (protocol == WireProtocol.BINARY) {
+                            out.println(clientID + " " + WireProtocol.BINARY.toWireFormat());
+                            // the rest of the connection is served with binary frames, the text reader
+                            // and its buffers are dropped, an idle connection keeps only the frame buffers
+                            in = null;
+                            serveBinary(new BufferedInputStream(inputStream));
+                            return;
+                        }
                         out.println(clientID);
                         break;
         //       if the message is an INDEX REQUEST, then
         //       extract the document path, client ID and word frequencies from the message(s)
-        //       get the document number associated with the document path (call putDocument)
-        //       update the index store with the word frequencies and the document number
+        //       and index the document (see indexDocument)
         //       return an acknowledgement INDEX REPLY message
                     case INDEX_REQUEST:
                         long clientIdFromClient = Long.parseLong(in.readLine());
@@ -66,103 +142,89 @@ public class ServerWorker implements Runnable {
                         int pairsSize = Integer.parseInt(in.readLine());
 
                         HashMap<String, Long> wordFrequencies = new HashMap<>();
+                        long requestBytes = documentPath.length();
 
                         // iterate over lines by number of wordFrequency pairs
                         for (int i = 0; i < pairsSize; i++) {
                             String line = in.readLine();
+                            requestBytes += line.length() + 1;
                             String[] entry = line.split("=");
                             String key = entry[0];
                             long value = Long.parseLong(entry[1]);
                             wordFrequencies.put(key, value);
                         }
 
-                        long documentNumber = store.putDocument(documentPath, clientIdFromClient);
-
-                        store.updateIndex(documentNumber, wordFrequencies);
+                        // the lines are already decoded, the limiter still bounds the concurrent merges
+                        IngestLimiter limiter = engine.getIngestLimiter();
+                        if (limiter != null && !limiter.acquire(requestBytes)) {
+                            out.println(MessageType.BUSY.toWireFormat() + " " + limiter.retryAfterMillis());
+                            break;
+                        }
+                        long admittedTime = System.nanoTime();
+                        long logSequence;
+                        try {
+                            logSequence = indexDocument(clientIdFromClient, documentPath, wordFrequencies);
+                        } finally {
+                            release(requestBytes, admittedTime);
+                        }
+                        awaitLogged(logSequence);
+                        awaitReplicated();
 
-                        out.println("IndexStore updated successfully!");
+                        out.println(INDEX_REPLY_MESSAGE);
+                        break;
+        //       if the message is a DELETE REQUEST, then
+        //       extract the client ID and the document path and delete the document (see deleteDocument)
+        //       return a reply line telling whether there was such a document
+                    case DELETE_REQUEST:
+                        long deleteClientID = Long.parseLong(in.readLine());
+                        String deletePath = in.readLine();
+                        long deleteSequence = deleteDocument(deleteClientID, deletePath);
+                        if (deleteSequence < 0) {
+                            out.println(DELETE_NOT_FOUND_MESSAGE);
+                            break;
+                        }
+                        awaitLogged(deleteSequence);
+                        awaitReplicated();
+                        out.println(DELETE_REPLY_MESSAGE);
                         break;
         //       if the message is a SEARCH REQUEST, then
-        //       extract the terms from the message
-        //       for each term get the pairs of documents and frequencies from the index store
-        //       combine the returned documents and frequencies from all of the specified terms
-        //       sort the document and frequency pairs and keep only the top 10
-        //       for each document number get from the index store the document path
-        //       return a SEARCH REPLY message containing the top 10 results
+        //       extract the terms and the number of requested results from the message
+        //       and run the query (see search)
+        //       return a SEARCH REPLY message containing the top K results
                     case SEARCH_REQUEST:
-                        int termsSize = Integer.parseInt(in.readLine());
-                        ArrayList<ArrayList<DocFreqPair>> docFreqPairList = new ArrayList<>();
-                        ArrayList<DocPathFreqPair> results = new ArrayList<>();
+                        // the header line is "<number of terms> [top K [scoring [query]]]", top K defaults
+                        // to 10 and scoring to frequency, with "query" the lines that follow are not terms
+                        // but the query in the query language (see QueryParser)
+                        String[] header = in.readLine().trim().split(" ");
+                        int termsSize = Integer.parseInt(header[0]);
+                        int topK = SearchRequest.DEFAULT_TOP_K;
+                        if (header.length > 1) {
+                            topK = Integer.parseInt(header[1]);
+                        }
+                        Scoring scoring = Scoring.FREQUENCY;
+                        if (header.length > 2) {
+                            try {
+                                scoring = Scoring.fromWireFormat(header[2]);
+                            } catch (IllegalArgumentException e) {
+                                System.err.println(e.getMessage() + ", ranking by frequency");
+                            }
+                        }
+                        ArrayList<String> terms = new ArrayList<>();
 
                         for (int i = 0; i < termsSize; i++) {
-                            String term = in.readLine();
-                            docFreqPairList.add(store.lookupIndex(term));
+                            terms.add(in.readLine());
                         }
 
-                        // account for different terms cases
-                        if (docFreqPairList.isEmpty()) {
-                            // do nothing
-                        } else if (docFreqPairList.size() == 1) {
-                            for (DocFreqPair pair : docFreqPairList.get(0)) {
-                                // get document path from IndexStore 
-                                String docPath = store.getDocument(pair.documentNumber);
-                                // create new pair with document path
-                                DocPathFreqPair newPair = new DocPathFreqPair(docPath, pair.wordFrequency);
-                                
-                                // add the new pair to the result
-                                results.add(newPair);
+                        ArrayList<DocPathFreqPair> results;
+                        if (header.length > 3 && header[3].equals("query")) {
+                            try {
+                                results = search(QueryParser.parse(String.join(" ", terms)), topK, scoring);
+                            } catch (IllegalArgumentException e) {
+                                System.err.println(e.getMessage() + ", no results");
+                                results = new ArrayList<>();
                             }
                         } else {
-                            // extract the first term list of documents and frequency pairs
-                            ArrayList<DocFreqPair> termsList = docFreqPairList.get(0);
-                            // create new HashMap for the shared documents and their combined frequencies
-                            HashMap<Long, Long> shared = new HashMap<>();
-                    
-                            // for each pair in the extracted list, check if the document appears in the other lists
-                            for (DocFreqPair pair : termsList) {
-                                // keep track of frequency total and make sure document is in all lists
-                                Long frequencyAcc = pair.wordFrequency;
-                                boolean inAllTermsLists = true;
-                                for (int i = 1; i < docFreqPairList.size(); i++) {
-                                    // other terms lists
-                                    ArrayList<DocFreqPair> otherTermsList = docFreqPairList.get(i);
-                                    // assume document is not in the list
-                                    boolean inThisTermList = false;
-                                    // check pairs in the other terms lists
-                                    for (DocFreqPair otherPair : otherTermsList) {
-                                        // check if the documents match
-                                        if (otherPair.documentNumber == pair.documentNumber) {
-                                            frequencyAcc += otherPair.wordFrequency;
-                                            inThisTermList = true;
-                                            break;
-                                        } 
-                                    }
-                                    // document was not in all terms lists
-                                    if (!inThisTermList) {
-                                        inAllTermsLists = false;
-                                        break;
-                                    }
-                                }
-                                // check if all lists have the document
-                                if (inAllTermsLists) {
-                                    // add the documentNumber and total frequency to the shared HashMap
-                                    shared.put(pair.documentNumber, frequencyAcc);
-                                }
-                            }
-                            // create new DocPathFreqPairs for the final result
-                            for (Map.Entry<Long, Long> entry : shared.entrySet()) {
-                                String docPath = store.getDocument(entry.getKey());
-                                Long wordFrequency = entry.getValue();
-                                DocPathFreqPair newPair = new DocPathFreqPair(docPath, wordFrequency); 
-                                results.add(newPair);
-                            }
-                        }
-
-                        // sort the document and frequency pairs and keep only the top 10
-                        results.sort((pair1, pair2) -> Long.compare(pair2.wordFrequency, pair1.wordFrequency)); 	
-
-                        if (results.size() > 10) {
-                            results = new ArrayList<>(results.subList(0, 10));
+                            results = search(terms, topK, scoring);
                         }
 
                         out.println(results.size());
@@ -174,15 +236,16 @@ public class ServerWorker implements Runnable {
         //       if the message is a QUIT message, then finish running
                     case QUIT:
                         return;
+                    default:
+                        System.err.println("Unexpected message type " + message.toWireFormat());
+                        break;
                 }
             }
         } catch (IOException e) {
             System.err.println("Error receiving message from client!");
             e.printStackTrace();
         } finally {
-            if (currentWorkerID != 0L) {
-                engine.removeConnectedClient(currentWorkerID);
-            }
+            disconnected();
             try {
                 clientSocket.close();
             } catch (IOException e) {
@@ -192,4 +255,359 @@ public class ServerWorker implements Runnable {
             System.out.println("Client disconnected.");
         }
     }
-}
\ No newline at end of file
+
+    // the rest of a REGISTER REQUEST line, "<protocol> [replication]", returns the protocol and
+    // remembers whether the connection is a replication link, only a binary one can be
+    WireProtocol registerOptions(String options) {
+        String[] words = options.trim().split(" ");
+        WireProtocol protocol = WireProtocol.fromWireFormat(words[0]);
+        replication = protocol == WireProtocol.BINARY && words.length > 1 && words[1].equals(Replicator.REGISTER_OPTION);
+        return protocol;
+    }
+
+    // generate a new client ID and list the connection among the connected clients
+    long register() {
+        UUID uuid = UUID.randomUUID();
+        currentWorkerID = uuid.getMostSignificantBits() & Long.MAX_VALUE;
+        engine.addConnectedClient(currentWorkerID, clientSocket);
+        return currentWorkerID;
+    }
+
+    // the connection ended, delete the documents of the client if the server is configured to
+    // and drop it from the connected clients, the caller closes the socket
+    // a replication link carries the documents of every client of the primary, they are deleted when
+    // the primary forwards the deletes, not when the link goes down
+    void disconnected() {
+        if (engine.isDeleteOnDisconnect() && !replication) {
+            deleteClientDocuments();
+        }
+        if (currentWorkerID != 0L) {
+            engine.removeConnectedClient(currentWorkerID);
+        }
+    }
+
+    // same requests as the text loop above, carried in length-prefixed frames (see BinaryFrameWriter)
+    // a pipelining client sends INDEX REQUESTs without waiting for their replies: documents are
+    // indexed as they arrive, and the replies are held back until no more requests are queued up
+    // on the socket, so one log fsync and one socket write acknowledge the whole run of requests
+    private void serveBinary(InputStream inputStream) throws IOException {
+        BinaryFrameReader reader = new BinaryFrameReader(inputStream);
+        BinaryFrameWriter writer = new BinaryFrameWriter(new BufferedOutputStream(clientSocket.getOutputStream()));
+
+        MessageType message;
+        while ((message = reader.readFrame()) != null) {
+            if (!serveFrame(message, reader, writer)) {
+                return;
+            }
+            if (pendingReplyCount > 0 && inputStream.available() == 0) {
+                sendPendingReplies(writer);
+            }
+        }
+    }
+
+    // serve the frame the reader just loaded, returns false once the client sent QUIT
+    // INDEX REPLYs are held back until sendPendingReplies, or until MAX_PENDING_REPLIES are pending
+    boolean serveFrame(MessageType message, BinaryFrameReader reader, BinaryFrameWriter writer) throws IOException {
+        int frameBytes = reader.getFrameLength();
+        switch (message) {
+            case INDEX_REQUEST:
+                // the frame is only decoded once the limiter admitted it
+                if (!admit(reader)) {
+                    break;
+                }
+                long admittedTime = System.nanoTime();
+                try {
+                    IndexRequest indexRequest = reader.readIndexRequest();
+                    pendingLogSequence = indexDocument(indexRequest.clientID, indexRequest.documentPath,
+                        indexRequest.wordFrequencies);
+                    queueReply(indexRequest.requestID, false, 0);
+                } finally {
+                    release(frameBytes, admittedTime);
+                }
+                break;
+            case INDEX_BATCH:
+                if (!admit(reader)) {
+                    break;
+                }
+                long batchAdmittedTime = System.nanoTime();
+                try {
+                    IndexBatchRequest batchRequest = reader.readIndexBatch();
+                    pendingLogSequence = indexBatch(batchRequest);
+                    queueReply(batchRequest.requestID, false, 0);
+                } finally {
+                    release(frameBytes, batchAdmittedTime);
+                }
+                break;
+            case DELETE_REQUEST:
+                // acknowledged like an INDEX REQUEST, with success false if there was no such document
+                DeleteRequest deleteRequest = reader.readDeleteRequest();
+                long deleteSequence = deleteDocument(deleteRequest.clientID, deleteRequest.documentPath);
+                if (deleteSequence > 0) {
+                    pendingLogSequence = deleteSequence;
+                }
+                queueReply(deleteRequest.requestID, deleteSequence < 0, 0);
+                break;
+            case SEARCH_REQUEST:
+                sendPendingReplies(writer);
+                SearchRequest searchRequest = reader.readSearchRequest();
+                SearchResponse searchResponse = new SearchResponse();
+                if (searchRequest.query != null) {
+                    searchResponse.results = search(searchRequest.query, searchRequest.topK, searchRequest.scoring);
+                } else {
+                    searchResponse.results = search(searchRequest.terms, searchRequest.topK, searchRequest.scoring);
+                }
+                writer.writeSearchReply(searchResponse);
+                writer.flush();
+                break;
+            case QUIT:
+                sendPendingReplies(writer);
+                return false;
+            default:
+                System.err.println("Unexpected message type " + message.toWireFormat());
+                break;
+        }
+
+        if (pendingReplyCount == MAX_PENDING_REPLIES) {
+            sendPendingReplies(writer);
+        }
+        return true;
+    }
+
+    private void queueReply(long requestID, boolean notFound, long retryAfterMillis) {
+        pendingNotFound[pendingReplyCount] = notFound;
+        pendingRetryAfter[pendingReplyCount] = retryAfterMillis;
+        pendingReplies[pendingReplyCount++] = requestID;
+    }
+
+    // take a turn from the ingest limiter for the frame the reader holds, or queue a BUSY reply for it
+    // a replication link is always admitted, a request sent again after BUSY would be applied after
+    // the ones forwarded behind it, the primary's window of MAX_IN_FLIGHT requests bounds it instead
+    private boolean admit(BinaryFrameReader reader) throws IOException {
+        IngestLimiter limiter = engine.getIngestLimiter();
+        if (replication || limiter == null || limiter.acquire(reader.getFrameLength())) {
+            return true;
+        }
+        queueReply(reader.peekRequestID(), false, limiter.retryAfterMillis());
+        return false;
+    }
+
+    // the request is merged and logged, its frame and word frequencies can go, the log sync is not
+    // waited for while holding the turn
+    private void release(long requestBytes, long admittedTime) {
+        IngestLimiter limiter = engine.getIngestLimiter();
+        if (limiter != null && !replication) {
+            limiter.release(requestBytes, System.nanoTime() - admittedTime);
+        }
+    }
+
+    // wait until the pending documents are durable and replicated, then acknowledge all of them at once
+    void sendPendingReplies(BinaryFrameWriter writer) throws IOException {
+        if (pendingReplyCount == 0) {
+            return;
+        }
+        awaitLogged(pendingLogSequence);
+        awaitReplicated();
+
+        IndexResponse indexResponse = new IndexResponse();
+        BusyResponse busyResponse = new BusyResponse();
+        for (int i = 0; i < pendingReplyCount; i++) {
+            if (pendingRetryAfter[i] > 0) {
+                busyResponse.requestID = pendingReplies[i];
+                busyResponse.retryAfterMillis = pendingRetryAfter[i];
+                writer.writeBusy(busyResponse);
+                continue;
+            }
+            indexResponse.success = !pendingNotFound[i];
+            indexResponse.message = pendingNotFound[i] ? DELETE_NOT_FOUND_MESSAGE : INDEX_REPLY_MESSAGE;
+            indexResponse.requestID = pendingReplies[i];
+            writer.writeIndexReply(indexResponse);
+        }
+        writer.flush();
+        pendingReplyCount = 0;
+    }
+
+    // get the document number associated with the document path (call putDocument), update the
+    // index store with the word frequencies and the document number, then hand the document to
+    // the write-ahead log, returns its log sequence number (0 without a log)
+    private long indexDocument(long clientID, String documentPath, Map<String, Long> wordFrequencies)
+            throws IOException {
+        trackClientID(clientID);
+        // number the document and forward it in one turn of the order lock, so the followers number
+        // it the same way, the postings are merged after
+        Replicator replicator = lockOrder();
+        int documentNumber;
+        try {
+            documentNumber = store.putDocument(documentPath, clientID);
+            if (replicator != null) {
+                IndexRequest forwarded = new IndexRequest();
+                forwarded.clientID = clientID;
+                forwarded.documentPath = documentPath;
+                forwarded.wordFrequencies = wordFrequencies;
+                pendingReplicaSequence = replicator.forward(forwarded);
+            }
+        } finally {
+            unlockOrder(replicator);
+        }
+
+        store.updateIndex(documentNumber, wordFrequencies);
+
+        // log after updating the index, so that a flush started after the log rolled
+        // over always contains the documents of the older log generations
+        if (log == null) {
+            return 0;
+        }
+        return log.write(documentNumber, documentPath, clientID, wordFrequencies);
+    }
+
+    // number the documents of the batch in one critical section and merge all of them in one pass,
+    // then hand every document to the write-ahead log, returns the log sequence of the last one
+    private long indexBatch(IndexBatchRequest request) throws IOException {
+        trackClientID(request.clientID);
+        Replicator replicator = lockOrder();
+        int firstDocumentNumber;
+        try {
+            firstDocumentNumber = store.putDocuments(request.documentPaths, request.clientID);
+            if (replicator != null) {
+                // forwarded as a copy, the replicator overwrites the request ID the client is answered with
+                IndexBatchRequest forwarded = new IndexBatchRequest();
+                forwarded.clientID = request.clientID;
+                forwarded.documentPaths = request.documentPaths;
+                forwarded.wordFrequencies = request.wordFrequencies;
+                pendingReplicaSequence = replicator.forward(forwarded);
+            }
+        } finally {
+            unlockOrder(replicator);
+        }
+
+        store.updateIndexBatch(firstDocumentNumber, request.wordFrequencies);
+
+        long logSequence = 0;
+        if (log != null) {
+            for (int i = 0; i < request.documentPaths.size(); i++) {
+                logSequence = log.write(firstDocumentNumber + i, request.documentPaths.get(i),
+                    request.clientID, request.wordFrequencies.get(i));
+            }
+        }
+        return logSequence;
+    }
+
+    // delete the current version of the document, searches skip it from now on, then log the removal
+    // returns its log sequence number (0 without a log), -1 if there was no such document
+    private long deleteDocument(long clientID, String documentPath) throws IOException {
+        Replicator replicator = lockOrder();
+        int documentNumber;
+        try {
+            documentNumber = store.removeDocument(documentPath, clientID);
+            if (documentNumber >= 0) {
+                replicateRemoval(clientID, documentPath);
+            }
+        } finally {
+            unlockOrder(replicator);
+        }
+        if (documentNumber < 0) {
+            return -1;
+        }
+        if (log == null) {
+            return 0;
+        }
+        return log.writeRemoval(documentNumber, documentPath, clientID);
+    }
+
+    private void replicateRemoval(long clientID, String documentPath) {
+        Replicator replicator = engine.getReplicator();
+        if (replicator != null) {
+            DeleteRequest forwarded = new DeleteRequest();
+            forwarded.clientID = clientID;
+            forwarded.documentPath = documentPath;
+            pendingReplicaSequence = replicator.forward(forwarded);
+        }
+    }
+
+    // take the replicator's order lock (see Replicator.lockOrder), returns the replicator, null if the
+    // server does not replicate and there is nothing to keep in order
+    private Replicator lockOrder() {
+        Replicator replicator = engine.getReplicator();
+        if (replicator != null) {
+            replicator.lockOrder();
+        }
+        return replicator;
+    }
+
+    private void unlockOrder(Replicator replicator) {
+        if (replicator != null) {
+            replicator.unlockOrder();
+        }
+    }
+
+    private void trackClientID(long clientID) {
+        if (clientID != lastIndexedClientID) {
+            indexedClientIDs.add(clientID);
+            lastIndexedClientID = clientID;
+        }
+    }
+
+    // the connection ended: delete every document indexed under the client IDs it used, and log the
+    // removals so they survive a restart
+    private void deleteClientDocuments() {
+        long logSequence = 0;
+        int deleted = 0;
+        try {
+            for (long clientID : indexedClientIDs) {
+                String suffix = "_" + clientID;
+                Replicator replicator = lockOrder();
+                try {
+                    for (int documentNumber : store.removeClientDocuments(clientID)) {
+                        deleted++;
+                        if (log != null || replicator != null) {
+                            String fullKey = store.getDocument(documentNumber);
+                            String documentPath = fullKey.substring(0, fullKey.length() - suffix.length());
+                            replicateRemoval(clientID, documentPath);
+                            if (log != null) {
+                                logSequence = log.writeRemoval(documentNumber, documentPath, clientID);
+                            }
+                        }
+                    }
+                } finally {
+                    unlockOrder(replicator);
+                }
+            }
+            awaitLogged(logSequence);
+            awaitReplicated();
+        } catch (IOException e) {
+            System.err.println("Could not log the deleted documents of a disconnected client");
+            e.printStackTrace();
+        }
+        if (deleted > 0) {
+            System.out.println("Deleted " + deleted + " documents of the disconnected client");
+        }
+    }
+
+    // documents are only acknowledged once they are durable
+    // if the log cannot be written the connection is dropped without an acknowledgement
+    private void awaitLogged(long logSequence) throws IOException {
+        if (log != null) {
+            log.awaitDurable(logSequence);
+        }
+    }
+
+    // documents are only acknowledged once every live follower has them as well
+    private void awaitReplicated() {
+        Replicator replicator = engine.getReplicator();
+        if (replicator != null) {
+            replicator.awaitReplicated(pendingReplicaSequence);
+        }
+    }
+
+    // let the query engine combine the documents and frequencies of all the specified terms
+    // and keep only the top K, resolving document paths for those hits only
+    private ArrayList<DocPathFreqPair> search(List<String> terms, int topK, Scoring scoring) {
+        topK = Math.max(0, Math.min(topK, SearchRequest.MAX_TOP_K));
+        return queryEngine.search(terms, topK, scoring);
+    }
+
+    // the same for a query with OR and NOT, already validated by the parser or the frame reader
+    private ArrayList<DocPathFreqPair> search(Query query, int topK, Scoring scoring) {
+        topK = Math.max(0, Math.min(topK, SearchRequest.MAX_TOP_K));
+        return queryEngine.search(query, topK, scoring);
+    }
+}
@@ -0,0 +1,101 @@
+package com.fileretrieval.server;
+
+import com.fileretrieval.common.protocol.Scoring;
+
+// the postings of one query term and the share of a document's score its frequency is worth
+// the inverse document frequency is computed once per query: the document frequency of a term is
+// the length of its posting list, which indexing keeps up to date, and N the number of live
+// documents, postings of deleted documents count until the compactor drops them
+// TF-IDF and BM25 shares are rounded to millionths (Scoring.SCORE_SCALE), so hits are still
+// collected and merged as longs
+// every scoring grows with the frequency, so bound() of the largest frequency of a block is at least
+// the score of any of its postings, the shortest document has the smallest BM25 normalization
+final class TermScorer {
+    static final double K1 = 1.2;
+    static final double B = 0.75;
+    // 1 + ln tf of the frequencies most postings have, a logarithm per posting doubled the time of
+    // TF-IDF searches
+    private static final double[] LOG_FREQUENCIES = new double[256];
+
+    static {
+        for (int wordFrequency = 1; wordFrequency < LOG_FREQUENCIES.length; wordFrequency++) {
+            LOG_FREQUENCIES[wordFrequency] = 1.0 + Math.log(wordFrequency);
+        }
+    }
+
+    final PostingsSnapshot postings;
+    private final Scoring scoring;
+    private final IndexStore store;
+    // inverse document frequency times SCORE_SCALE, for BM25 also times (k1 + 1)
+    private final double weight;
+    // BM25: k1 * (1 - b), and k1 * b / average document length
+    private final double constantNorm;
+    private final double lengthNorm;
+    // the smallest normalization of any document, for bound()
+    private final double minimumNorm;
+
+    TermScorer(PostingsSnapshot postings, Scoring scoring, IndexStore store) {
+        this.postings = postings;
+        this.scoring = scoring;
+        this.store = store;
+        if (scoring == Scoring.FREQUENCY) {
+            weight = 1.0;
+            constantNorm = 0.0;
+            lengthNorm = 0.0;
+            minimumNorm = 0.0;
+            return;
+        }
+        int documentCount = Math.max(1, store.getLiveDocumentCount());
+        int documentFrequency = Math.max(1, Math.min(postings.size(), documentCount));
+        if (scoring == Scoring.TF_IDF) {
+            weight = Math.log((double) documentCount / documentFrequency) * Scoring.SCORE_SCALE;
+            constantNorm = 0.0;
+            lengthNorm = 0.0;
+            minimumNorm = 0.0;
+        } else {
+            double idf = Math.log(1.0 + (documentCount - documentFrequency + 0.5) / (documentFrequency + 0.5));
+            weight = idf * (K1 + 1.0) * Scoring.SCORE_SCALE;
+            double averageLength = store.getAverageDocumentLength();
+            constantNorm = K1 * (1.0 - B);
+            lengthNorm = averageLength > 0.0 ? K1 * B / averageLength : 0.0;
+            // a document without a known length is normalized by k1, as if it had the average length
+            minimumNorm = lengthNorm > 0.0 ? constantNorm + lengthNorm * store.getMinimumDocumentLength() : K1;
+        }
+    }
+
+    // the raw frequency, needs no statistics
+    static TermScorer frequency(PostingsSnapshot postings) {
+        return new TermScorer(postings, Scoring.FREQUENCY, null);
+    }
+
+    long score(int documentNumber, int wordFrequency) {
+        if (scoring == Scoring.FREQUENCY) {
+            return wordFrequency;
+        }
+        if (scoring == Scoring.TF_IDF) {
+            double logFrequency = wordFrequency < LOG_FREQUENCIES.length ? LOG_FREQUENCIES[wordFrequency]
+                : 1.0 + Math.log(wordFrequency);
+            return Math.round(logFrequency * weight);
+        }
+        // a document without a known length is normalized as if it had the average length
+        int length = store.getDocumentLength(documentNumber);
+        double norm = length > 0 && lengthNorm > 0.0 ? constantNorm + lengthNorm * length : K1;
+        return Math.round(weight * wordFrequency / (wordFrequency + norm));
+    }
+
+    // the highest score() of any posting whose frequency is at most maxFrequency
+    long bound(int maxFrequency) {
+        if (scoring == Scoring.FREQUENCY) {
+            return maxFrequency;
+        }
+        if (maxFrequency == 0) {
+            return 0;
+        }
+        if (scoring == Scoring.TF_IDF) {
+            double logFrequency = maxFrequency < LOG_FREQUENCIES.length ? LOG_FREQUENCIES[maxFrequency]
+                : 1.0 + Math.log(maxFrequency);
+            return Math.round(logFrequency * weight);
+        }
+        return Math.round(weight * maxFrequency / (maxFrequency + minimumNorm));
+    }
+}
@@ -0,0 +1,88 @@
+package com.fileretrieval.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// bitset of deleted document numbers: a document is deleted when a newer version with the same
+// path_clientID key is indexed, or when its file is removed, its postings stay in the posting
+// lists and searches skip it
+// contains() is lock-free, the bits live in an AtomicLongArray that is copied into a larger one
+// when it has to grow, writers are serialized by the monitor
+class Tombstones {
+    private volatile AtomicLongArray words = new AtomicLongArray(16);
+    private volatile int count = 0;
+
+    // returns false if the document was already deleted
+    synchronized boolean add(int documentNumber) {
+        int word = documentNumber >>> 6;
+        AtomicLongArray current = words;
+        if (word >= current.length()) {
+            AtomicLongArray grown = new AtomicLongArray(Math.max(word + 1, current.length() * 2));
+            for (int i = 0; i < current.length(); i++) {
+                grown.set(i, current.get(i));
+            }
+            words = grown;
+            current = grown;
+        }
+        long bit = 1L << documentNumber;
+        long previous = current.get(word);
+        if ((previous & bit) != 0) {
+            return false;
+        }
+        current.set(word, previous | bit);
+        count++;
+        return true;
+    }
+
+    boolean contains(int documentNumber) {
+        int word = documentNumber >>> 6;
+        AtomicLongArray current = words;
+        return word < current.length() && (current.get(word) & (1L << documentNumber)) != 0;
+    }
+
+    // the first deleted document at or after from, -1 if there is none
+    int nextDeleted(int from) {
+        AtomicLongArray current = words;
+        int word = from >>> 6;
+        if (word >= current.length()) {
+            return -1;
+        }
+        long bits = current.get(word) & (-1L << from);
+        while (bits == 0) {
+            if (++word == current.length()) {
+                return -1;
+            }
+            bits = current.get(word);
+        }
+        return word * 64 + Long.numberOfTrailingZeros(bits);
+    }
+
+    // number of deleted documents
+    int count() {
+        return count;
+    }
+
+    // the bits of the documents below documentCount as longs, bit n of word n / 64 stands for document n
+    // documents numbered after a flush started are left out, their removal is still in the log
+    long[] toArray(int documentCount) {
+        AtomicLongArray current = words;
+        long[] copy = new long[Math.min(current.length(), (documentCount + 63) >>> 6)];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = current.get(i);
+        }
+        if (copy.length > 0 && (documentCount & 63) != 0 && copy.length == (documentCount + 63) >>> 6) {
+            copy[copy.length - 1] &= (1L << documentCount) - 1;
+        }
+        return copy;
+    }
+
+    // restore the deleted documents of a segment file
+    synchronized void addAll(long[] bits) {
+        for (int word = 0; word < bits.length; word++) {
+            long remaining = bits[word];
+            while (remaining != 0) {
+                add(word * 64 + Long.numberOfTrailingZeros(remaining));
+                remaining &= remaining - 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.fileretrieval.server;
+
+// keeps the K best hits seen so far in a binary min-heap over primitive arrays
+// the root is the weakest kept hit, so a new hit costs one comparison unless it beats it,
+// and no objects or document paths are created for hits that never make the top K
+public class TopKCollector implements HitCollector {
+    private final int k;
+    private final int[] documentNumbers;
+    private final long[] scores;
+    private int size;
+
+    public TopKCollector(int k) {
+        this.k = k;
+        this.documentNumbers = new int[k];
+        this.scores = new long[k];
+        this.size = 0;
+    }
+
+    // higher score wins, ties go to the lower (older) document number so results are deterministic
+    private static boolean better(long score1, int document1, long score2, int document2) {
+        return score1 > score2 || (score1 == score2 && document1 < document2);
+    }
+
+    // true if the hit at index i is weaker than the hit at index j
+    private boolean weaker(int i, int j) {
+        return better(scores[j], documentNumbers[j], scores[i], documentNumbers[i]);
+    }
+
+    @Override
+    public void collect(int documentNumber, long score) {
+        if (size < k) {
+            documentNumbers[size] = documentNumber;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (k > 0 && better(score, documentNumber, scores[0], documentNumbers[0])) {
+            // replace the weakest kept hit
+            documentNumbers[0] = documentNumber;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // lowest score that a new hit has to beat once the heap is full, a top 0 keeps nothing
+    @Override
+    public long minCompetitiveScore() {
+        if (k == 0) {
+            return Long.MAX_VALUE;
+        }
+        return size < k ? Long.MIN_VALUE : scores[0];
+    }
+
+    // heap-sort the kept hits in place into best-first order, readable through
+    // documentNumber(i) and score(i), no more hits can be collected afterwards
+    public int sort() {
+        int count = size;
+        while (size > 1) {
+            // move the weakest hit behind the heap, the array fills up from the back
+            size--;
+            swap(0, size);
+            siftDown(0);
+        }
+        size = count;
+        return count;
+    }
+
+    public int documentNumber(int index) {
+        return documentNumbers[index];
+    }
+
+    public long score(int index) {
+        return scores[index];
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!weaker(index, parent)) {
+                break;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int left = 2 * index + 1;
+            if (left >= size) {
+                break;
+            }
+            int weakest = left;
+            int right = left + 1;
+            if (right < size && weaker(right, left)) {
+                weakest = right;
+            }
+            if (!weaker(weakest, index)) {
+                break;
+            }
+            swap(index, weakest);
+            index = weakest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int document = documentNumbers[i];
+        documentNumbers[i] = documentNumbers[j];
+        documentNumbers[j] = document;
+        long score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+    }
+}
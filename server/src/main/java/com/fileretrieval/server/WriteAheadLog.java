@@ -0,0 +1,415 @@
+package com.fileretrieval.server;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// write-ahead log of indexed and removed documents, so that acknowledged requests survive a crash
+// between two flushes of the segment file
+//
+// workers append a record and wait until it is on disk, a single sync thread writes everything
+// appended in the meantime with one write and one fsync (group commit), so the cost of an fsync
+// is shared by all the workers that were waiting on it
+//
+// the log is split in generations (index.wal.<n>): a flush rolls over to a new generation first,
+// and once the segment is written every older generation is covered by it and gets deleted
+//
+// record layout (big-endian): int payload length, int CRC32 of the payload, then the payload:
+//   int document number, long client ID, int length + UTF-8 document path, int pair count,
+//   per pair: int length + UTF-8 term, long frequency
+// a removal has a pair count of -1 and no pairs, its document number is the version that was removed
+public class WriteAheadLog {
+    static final String FILE_PREFIX = "index.wal.";
+
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+    // pair count of a removal record
+    private static final int REMOVAL = -1;
+
+    private final Path directory;
+    // how long the sync thread waits for more records after the first one of a batch arrived
+    private final long batchWindowNanos;
+    // generations found on startup, replayed before the server accepts connections
+    private final ArrayList<Long> replayGenerations;
+
+    // lock guarding the buffer and the sequence numbers below
+    private final Lock lock = new ReentrantLock();
+    // signalled when records are appended or a roll over is requested
+    private final Condition pending = lock.newCondition();
+    // signalled after every fsync
+    private final Condition durable = lock.newCondition();
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private long appendedSequence = 0;
+    private long durableSequence = 0;
+    private boolean rollRequested = false;
+    private boolean closed = false;
+    private IOException failure = null;
+    private long generation;
+
+    // only used by the sync thread
+    private FileChannel channel;
+    private final Thread syncThread;
+
+    // group commit statistics
+    private long syncCount = 0;
+    private long syncedRecords = 0;
+
+    private WriteAheadLog(Path directory, long batchWindowMicros, ArrayList<Long> replayGenerations,
+            long generation) throws IOException {
+        this.directory = directory;
+        this.batchWindowNanos = batchWindowMicros * 1000L;
+        this.replayGenerations = replayGenerations;
+        this.generation = generation;
+        this.channel = create(generation);
+        this.syncThread = new Thread(this::syncLoop, "wal-sync");
+        syncThread.setDaemon(true);
+        syncThread.start();
+    }
+
+    // open the log in the data directory, new records go to a fresh generation and the existing
+    // generations are kept for replay(), a batch window of 0 syncs as soon as records are pending
+    public static WriteAheadLog open(Path directory, long batchWindowMicros) throws IOException {
+        Files.createDirectories(directory);
+        ArrayList<Long> generations = generations(directory);
+        long next = generations.isEmpty() ? 1 : generations.get(generations.size() - 1) + 1;
+        return new WriteAheadLog(directory, batchWindowMicros, generations, next);
+    }
+
+    private static ArrayList<Long> generations(Path directory) throws IOException {
+        ArrayList<Long> generations = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(FILE_PREFIX)) {
+                    try {
+                        generations.add(Long.parseLong(name.substring(FILE_PREFIX.length())));
+                    } catch (NumberFormatException e) {
+                        // not one of ours, leave it alone
+                    }
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    private FileChannel create(long generation) throws IOException {
+        FileChannel created = FileChannel.open(directory.resolve(FILE_PREFIX + generation),
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        // make the new directory entry durable too, otherwise the file may vanish after a crash
+        try (FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            directoryChannel.force(true);
+        } catch (IOException e) {
+            // directories cannot be opened for syncing on every platform
+        }
+        return created;
+    }
+
+    // re-apply every document and removal logged before the restart, in log order
+    // a torn record at the end of a generation (crash in the middle of a write) ends its replay
+    // returns the number of replayed records
+    public long replay(IndexStore store) throws IOException {
+        long replayed = 0;
+        for (long replayGeneration : replayGenerations) {
+            Path file = directory.resolve(FILE_PREFIX + replayGeneration);
+            long remaining = Files.size(file);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                byte[] payload;
+                while ((payload = readRecord(in, remaining)) != null) {
+                    remaining -= RECORD_HEADER_SIZE + payload.length;
+                    DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                    int documentNumber = record.readInt();
+                    long clientID = record.readLong();
+                    String documentPath = readString(record);
+                    int pairsSize = record.readInt();
+                    if (pairsSize == REMOVAL) {
+                        store.replayRemoval(documentNumber, documentPath, clientID);
+                        replayed++;
+                        continue;
+                    }
+                    HashMap<String, Long> wordFrequencies = new HashMap<>();
+                    for (int i = 0; i < pairsSize; i++) {
+                        String term = readString(record);
+                        wordFrequencies.put(term, record.readLong());
+                    }
+                    store.replayDocument(documentNumber, documentPath, clientID, wordFrequencies);
+                    replayed++;
+                }
+            }
+        }
+        return replayed;
+    }
+
+    // the payload of the next complete record, null at the end of the log or at a torn record
+    private static byte[] readRecord(DataInputStream in, long remaining) throws IOException {
+        try {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            // a torn header can hold any length, never trust it beyond the end of the file
+            if (length < 0 || length > remaining - RECORD_HEADER_SIZE) {
+                return null;
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                return null;
+            }
+            return payload;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // log a document and block until it is durable
+    // throws an IOException if the log can no longer be written, the document must not be acknowledged then
+    public void append(int documentNumber, String documentPath, long clientID,
+            Map<String, Long> wordFrequencies) throws IOException {
+        awaitDurable(write(documentNumber, documentPath, clientID, wordFrequencies));
+    }
+
+    // hand a document to the sync thread without waiting for it, returns its sequence number
+    // a worker with more pipelined requests to process logs them all first and then waits once
+    // with awaitDurable() for the last one, before acknowledging all of them
+    public long write(int documentNumber, String documentPath, long clientID,
+            Map<String, Long> wordFrequencies) throws IOException {
+        return enqueue(encode(documentNumber, documentPath, clientID, wordFrequencies));
+    }
+
+    // hand the removal of a document to the sync thread, returns its sequence number
+    public long writeRemoval(int documentNumber, String documentPath, long clientID) throws IOException {
+        return enqueue(encode(documentNumber, documentPath, clientID, null));
+    }
+
+    // a complete record, without word frequencies it is a removal
+    private static byte[] encode(int documentNumber, String documentPath, long clientID,
+            Map<String, Long> wordFrequencies) throws IOException {
+        int pairsSize = wordFrequencies == null ? REMOVAL : wordFrequencies.size();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + Math.max(0, pairsSize) * 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0); // payload length, patched below
+        out.writeInt(0); // checksum, patched below
+        out.writeInt(documentNumber);
+        out.writeLong(clientID);
+        writeString(out, documentPath);
+        out.writeInt(pairsSize);
+        if (wordFrequencies != null) {
+            for (Map.Entry<String, Long> entry : wordFrequencies.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+        }
+        byte[] record = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(record, RECORD_HEADER_SIZE, record.length - RECORD_HEADER_SIZE);
+        ByteBuffer header = ByteBuffer.wrap(record);
+        header.putInt(0, record.length - RECORD_HEADER_SIZE);
+        header.putInt(4, (int) crc.getValue());
+        return record;
+    }
+
+    // encoding happens outside the lock, only the copy into the shared buffer is serialized
+    private long enqueue(byte[] record) throws IOException {
+        lock.lock();
+        try {
+            if (failure != null || closed) {
+                throw new IOException("Write-ahead log is not writable", failure);
+            }
+            buffer.write(record);
+            pending.signal();
+            return ++appendedSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // block until the sync thread wrote and fsynced a batch containing the given record
+    public void awaitDurable(long sequence) throws IOException {
+        lock.lock();
+        try {
+            while (durableSequence < sequence && failure == null) {
+                durable.awaitUninterruptibly();
+            }
+            if (durableSequence < sequence) {
+                throw new IOException("Write-ahead log is not writable", failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // switch to a new generation once every record appended so far is durable in the current one
+    // returns the new generation, all older generations may be deleted once the index has been
+    // flushed (records are only appended after the index was updated, so a flush that starts
+    // after the roll over contains every document of the older generations)
+    public long roll() throws IOException {
+        lock.lock();
+        try {
+            if (failure != null || closed) {
+                throw new IOException("Write-ahead log is not writable", failure);
+            }
+            rollRequested = true;
+            pending.signal();
+            while (rollRequested && failure == null) {
+                durable.awaitUninterruptibly();
+            }
+            if (rollRequested) {
+                throw new IOException("Write-ahead log is not writable", failure);
+            }
+            return generation;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // delete the generations before the given one, their documents are in the segment file
+    public void deleteBefore(long oldestNeeded) throws IOException {
+        for (long existing : generations(directory)) {
+            if (existing < oldestNeeded) {
+                Files.deleteIfExists(directory.resolve(FILE_PREFIX + existing));
+            }
+        }
+    }
+
+    // sync everything that is still pending and stop the sync thread
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            pending.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            syncThread.join();
+        } catch (InterruptedException e) {
+            System.err.println("Could not join write-ahead log thread");
+            e.printStackTrace();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Could not close write-ahead log");
+            e.printStackTrace();
+        }
+    }
+
+    // average number of records made durable by one fsync
+    public double recordsPerSync() {
+        lock.lock();
+        try {
+            return syncCount == 0 ? 0.0 : (double) syncedRecords / syncCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void syncLoop() {
+        while (true) {
+            boolean waitForBatch;
+            lock.lock();
+            try {
+                while (buffer.size() == 0 && !rollRequested && !closed) {
+                    pending.awaitUninterruptibly();
+                }
+                if (buffer.size() == 0 && !rollRequested) {
+                    return; // closed and fully synced
+                }
+                waitForBatch = buffer.size() > 0 && !closed && batchWindowNanos > 0;
+            } finally {
+                lock.unlock();
+            }
+
+            // give other workers the chance to join this batch
+            if (waitForBatch) {
+                LockSupport.parkNanos(batchWindowNanos);
+            }
+
+            byte[] batch;
+            long sequence;
+            boolean rolling;
+            lock.lock();
+            try {
+                batch = buffer.toByteArray();
+                buffer.reset();
+                sequence = appendedSequence;
+                rolling = rollRequested;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                if (batch.length > 0) {
+                    ByteBuffer data = ByteBuffer.wrap(batch);
+                    while (data.hasRemaining()) {
+                        channel.write(data);
+                    }
+                    channel.force(false);
+                }
+                if (rolling) {
+                    channel.close();
+                    channel = create(generation + 1);
+                }
+
+                lock.lock();
+                try {
+                    if (batch.length > 0) {
+                        syncCount++;
+                        syncedRecords += sequence - durableSequence;
+                    }
+                    durableSequence = sequence;
+                    if (rolling) {
+                        generation++;
+                        rollRequested = false;
+                    }
+                    durable.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            } catch (IOException e) {
+                System.err.println("Could not write to the write-ahead log");
+                e.printStackTrace();
+                lock.lock();
+                try {
+                    failure = e;
+                    durable.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.fileretrieval.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+public class CompactionTest {
+    private static int frequency(int documentNumber) {
+        return 1 + documentNumber % 9;
+    }
+
+    private static ArrayList<Integer> documents(PostingsSnapshot snapshot) {
+        ArrayList<Integer> documents = new ArrayList<>();
+        for (PostingsCursor cursor = snapshot.cursor(); !cursor.exhausted(); cursor.next()) {
+            documents.add(cursor.documentNumber());
+        }
+        return documents;
+    }
+
+    // the snapshot is sorted, its skip entries match its blocks and no sealed block holds a deleted document
+    private static void assertConsistent(PostingsSnapshot snapshot, Tombstones tombstones) {
+        int previous = -1;
+        int count = 0;
+        for (int b = 0; b < snapshot.blockCount; b++) {
+            PostingBlock block = snapshot.blocks[b];
+            assertEquals(block.lastDocument, snapshot.blockLastDocuments[b]);
+            assertTrue(block.firstDocument > previous);
+            int[] blockDocuments = new int[block.count];
+            int[] blockFrequencies = new int[block.count];
+            block.decode(blockDocuments, blockFrequencies);
+            for (int i = 0; i < block.count; i++) {
+                assertFalse("deleted document " + blockDocuments[i] + " left in a sealed block",
+                    tombstones.contains(blockDocuments[i]));
+            }
+            previous = block.lastDocument;
+            count += block.count;
+        }
+        for (int i = 0; i < snapshot.hotSize; i++) {
+            assertTrue(snapshot.hotDocuments[i] > previous);
+            previous = snapshot.hotDocuments[i];
+        }
+        assertEquals(snapshot.size(), count + snapshot.hotSize);
+    }
+
+    @Test
+    public void dropsTheSealedPostingsOfDeletedDocuments() {
+        PostingList postingList = new PostingList();
+        int total = 3 * PostingBlock.BLOCK_SIZE + 20;
+        for (int i = 0; i < total; i++) {
+            postingList.add(i, frequency(i));
+        }
+        Tombstones tombstones = new Tombstones();
+        // every third document, the whole second block and a document of the hot buffer
+        for (int i = 0; i < total; i += 3) {
+            tombstones.add(i);
+        }
+        for (int i = PostingBlock.BLOCK_SIZE; i < 2 * PostingBlock.BLOCK_SIZE; i++) {
+            tombstones.add(i);
+        }
+        int hotDeleted = total - 2;
+        tombstones.add(hotDeleted);
+
+        CompactionStatistics statistics = new CompactionStatistics();
+        assertTrue(postingList.compact(tombstones, statistics));
+        PostingsSnapshot snapshot = postingList.snapshot();
+        assertConsistent(snapshot, tombstones);
+
+        ArrayList<Integer> expected = new ArrayList<>();
+        int sealedDeleted = 0;
+        for (int i = 0; i < total; i++) {
+            boolean sealed = i < 3 * PostingBlock.BLOCK_SIZE;
+            if (tombstones.contains(i) && sealed) {
+                sealedDeleted++;
+            } else {
+                expected.add(i);
+            }
+        }
+        // the hot buffer is left as it is, searches skip its deleted documents
+        assertTrue(expected.contains(hotDeleted));
+        assertEquals(expected, documents(snapshot));
+        assertEquals(expected.size(), snapshot.size());
+        for (PostingsCursor cursor = snapshot.cursor(); !cursor.exhausted(); cursor.next()) {
+            assertEquals(frequency(cursor.documentNumber()), cursor.wordFrequency());
+        }
+        assertEquals(sealedDeleted, statistics.droppedPostings);
+        assertEquals(1, statistics.rewrittenTerms);
+        assertEquals(0, statistics.retriedTerms);
+
+        // nothing left to drop, the blocks are kept
+        PostingBlock[] blocks = snapshot.blocks;
+        assertTrue(postingList.compact(tombstones, new CompactionStatistics()));
+        assertTrue(blocks == postingList.snapshot().blocks);
+    }
+
+    @Test
+    public void storePassesOnlyRunForNewDeletions() {
+        IndexStore store = new IndexStore();
+        HashMap<String, Long> frequencies = new HashMap<>();
+        frequencies.put("moon", 2L);
+        int total = 2 * PostingBlock.BLOCK_SIZE + 10;
+        for (int i = 0; i < total; i++) {
+            store.updateIndex(store.putDocument("doc" + i + ".txt", 1), frequencies);
+        }
+        for (int i = 0; i < 2 * PostingBlock.BLOCK_SIZE; i += 2) {
+            store.removeDocument("doc" + i + ".txt", 1);
+        }
+
+        CompactionStatistics pass = store.compactDeletedPostings();
+        assertEquals(PostingBlock.BLOCK_SIZE, pass.droppedPostings);
+        assertEquals(total - PostingBlock.BLOCK_SIZE, store.lookupIndex("moon").size());
+        assertNull(store.compactDeletedPostings());
+        for (int document : documents(store.lookupIndex("moon"))) {
+            assertFalse(store.isDeleted(document));
+        }
+    }
+
+    @Test
+    public void compactionRacingAppendsLosesNoPosting() throws InterruptedException {
+        PostingList postingList = new PostingList();
+        Tombstones tombstones = new Tombstones();
+        AtomicInteger nextDocument = new AtomicInteger();
+        AtomicInteger appended = new AtomicInteger();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CompactionStatistics statistics = new CompactionStatistics();
+        int writers = 4;
+        int documentsPerWriter = 6000;
+
+        ArrayList<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int seed = w;
+            threads.add(new Thread(() -> {
+                // numbers are taken before the postings are added, like workers that merge their
+                // documents in a different order than they numbered them, so some arrive out of order
+                Random random = new Random(seed);
+                int written = 0;
+                while (written < documentsPerWriter) {
+                    int batch = Math.min(documentsPerWriter - written, random.nextBoolean() ? 1 : 1 + random.nextInt(6));
+                    int first = nextDocument.getAndAdd(batch);
+                    if (random.nextInt(8) == 0) {
+                        Thread.yield();
+                    }
+                    if (batch == 1) {
+                        postingList.add(first, frequency(first));
+                    } else {
+                        int[] documentNumbers = new int[batch];
+                        int[] wordFrequencies = new int[batch];
+                        for (int i = 0; i < batch; i++) {
+                            documentNumbers[i] = first + i;
+                            wordFrequencies[i] = frequency(first + i);
+                        }
+                        postingList.addAll(documentNumbers, wordFrequencies, batch);
+                    }
+                    appended.addAndGet(batch);
+                    written += batch;
+                }
+            }));
+        }
+        Thread deleter = new Thread(() -> {
+            Random random = new Random(100);
+            while (writing.get()) {
+                int bound = nextDocument.get();
+                if (bound > 0) {
+                    tombstones.add(random.nextInt(bound));
+                }
+                Thread.yield();
+            }
+        });
+        Thread compactor = new Thread(() -> {
+            try {
+                while (writing.get()) {
+                    postingList.compact(tombstones, statistics);
+                    // searches running next to the compaction always see a sorted, consistent list
+                    PostingsSnapshot snapshot = postingList.snapshot();
+                    int previous = -1;
+                    for (int document : documents(snapshot)) {
+                        assertTrue(document > previous);
+                        previous = document;
+                    }
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+
+        deleter.start();
+        compactor.start();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        writing.set(false);
+        deleter.join();
+        compactor.join();
+        if (failure.get() != null) {
+            throw new AssertionError("compaction failed while appending", failure.get());
+        }
+        assertEquals(writers * documentsPerWriter, appended.get());
+        assertTrue(statistics.rewrittenTerms > 0);
+
+        // nothing races the last pass, it always swaps its blocks in
+        assertTrue(postingList.compact(tombstones, new CompactionStatistics()));
+        PostingsSnapshot snapshot = postingList.snapshot();
+        assertConsistent(snapshot, tombstones);
+
+        ArrayList<Integer> found = documents(snapshot);
+        int hotStart = snapshot.hotSize == 0 ? Integer.MAX_VALUE : snapshot.hotDocuments[0];
+        int position = 0;
+        for (int document = 0; document < writers * documentsPerWriter; document++) {
+            boolean present = position < found.size() && found.get(position) == document;
+            if (!tombstones.contains(document)) {
+                assertTrue("live document " + document + " lost", present);
+            } else if (present) {
+                // only the hot buffer keeps postings of deleted documents
+                assertTrue(document >= hotStart);
+            }
+            if (present) {
+                position++;
+            }
+        }
+        assertEquals(found.size(), position);
+        assertEquals(found.size(), snapshot.size());
+        for (PostingsCursor cursor = snapshot.cursor(); !cursor.exhausted(); cursor.next()) {
+            assertEquals(frequency(cursor.documentNumber()), cursor.wordFrequency());
+        }
+        ArrayList<Integer> sorted = new ArrayList<>(found);
+        Collections.sort(sorted);
+        assertEquals(sorted, found);
+    }
+}
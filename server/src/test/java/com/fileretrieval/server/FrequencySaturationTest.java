@@ -0,0 +1,96 @@
+package com.fileretrieval.server;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+// frequencies arrive as longs from the client, a posting keeps an int of at least 1: out of range
+// values are saturated to 1 or Integer.MAX_VALUE on every path into the index, not rejected half way
+public class FrequencySaturationTest {
+    private static Map<String, Long> frequencies(long zero, long negative, long huge, long normal) {
+        HashMap<String, Long> frequencies = new HashMap<>();
+        frequencies.put("zero", zero);
+        frequencies.put("negative", negative);
+        frequencies.put("huge", huge);
+        frequencies.put("normal", normal);
+        return frequencies;
+    }
+
+    private static List<String> postings(IndexStore store, String word) {
+        ArrayList<String> postings = new ArrayList<>();
+        for (PostingsCursor cursor = store.lookupIndex(word).cursor(); !cursor.exhausted(); cursor.next()) {
+            postings.add(cursor.documentNumber() + ":" + cursor.wordFrequency());
+        }
+        return postings;
+    }
+
+    private static void assertSaturated(IndexStore store, List<Integer> documents) {
+        ArrayList<String> ones = new ArrayList<>();
+        ArrayList<String> maximums = new ArrayList<>();
+        ArrayList<String> normals = new ArrayList<>();
+        for (int document : documents) {
+            ones.add(document + ":1");
+            maximums.add(document + ":" + Integer.MAX_VALUE);
+            normals.add(document + ":7");
+        }
+        assertEquals(ones, postings(store, "zero"));
+        assertEquals(ones, postings(store, "negative"));
+        assertEquals(maximums, postings(store, "huge"));
+        assertEquals(normals, postings(store, "normal"));
+        for (int document : documents) {
+            // 1 + 1 + Integer.MAX_VALUE + 7 does not fit either, the length saturates as well
+            assertEquals(Integer.MAX_VALUE, store.getDocumentLength(document));
+        }
+    }
+
+    @Test
+    public void updateIndexSaturatesFrequencies() {
+        IndexStore store = new IndexStore();
+        int first = store.putDocument("first.txt", 1);
+        store.updateIndex(first, frequencies(0, -5, Long.MAX_VALUE, 7));
+        int second = store.putDocument("second.txt", 1);
+        store.updateIndex(second, frequencies(0, -5, Long.MAX_VALUE, 7));
+        assertSaturated(store, List.of(first, second));
+
+        // a document within range keeps its own length
+        int small = store.putDocument("small.txt", 1);
+        HashMap<String, Long> smallFrequencies = new HashMap<>();
+        smallFrequencies.put("zero", 0L);
+        smallFrequencies.put("negative", -5L);
+        smallFrequencies.put("normal", 7L);
+        store.updateIndex(small, smallFrequencies);
+        assertEquals(9, store.getDocumentLength(small));
+    }
+
+    @Test
+    public void updateIndexBatchSaturatesFrequencies() {
+        IndexStore store = new IndexStore();
+        List<String> paths = List.of("a.txt", "b.txt", "c.txt");
+        int first = store.putDocuments(paths, 1);
+        ArrayList<Map<String, Long>> wordFrequencies = new ArrayList<>();
+        for (int i = 0; i < paths.size(); i++) {
+            wordFrequencies.add(frequencies(0, -5, Long.MAX_VALUE, 7));
+        }
+        store.updateIndexBatch(first, wordFrequencies);
+        assertSaturated(store, List.of(first, first + 1, first + 2));
+    }
+
+    @Test
+    public void sealedBlocksKeepSaturatedFrequencies() {
+        IndexStore store = new IndexStore();
+        ArrayList<Integer> documents = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            int document = store.putDocument("file" + i + ".txt", 1);
+            store.updateIndex(document, frequencies(0, -5, Long.MAX_VALUE, 7));
+            documents.add(document);
+        }
+        // the first pass only notices the appends, the second finds the lists idle and seals them
+        store.sealIdleHotBuffers(1);
+        store.sealIdleHotBuffers(1);
+        assertSaturated(store, documents);
+    }
+}
@@ -0,0 +1,319 @@
+package com.fileretrieval.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IndexSegmentTest {
+    private static final int MAGIC = 0x46524958;
+    // count, first document, last document, largest frequency, byte length
+    private static final int BLOCK_HEADER_SIZE = 5 * Integer.BYTES;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // documents 0, 3, 6, ... with frequencies cycling through 1..maxFrequency, two sealed blocks and
+    // a hot buffer for 300 postings
+    private static int[][] postings(int count, int maxFrequency) {
+        int[] documents = new int[count];
+        int[] frequencies = new int[count];
+        for (int i = 0; i < count; i++) {
+            documents[i] = i * 3;
+            frequencies[i] = 1 + (i * 7) % maxFrequency;
+        }
+        return new int[][] {documents, frequencies};
+    }
+
+    private static PostingList postingList(int[][] postings) {
+        PostingList postingList = new PostingList();
+        for (int i = 0; i < postings[0].length; i++) {
+            postingList.add(postings[0][i], postings[1][i]);
+        }
+        return postingList;
+    }
+
+    private static int[][] read(PostingsSnapshot snapshot) {
+        ArrayList<int[]> read = new ArrayList<>();
+        for (PostingsCursor cursor = snapshot.cursor(); !cursor.exhausted(); cursor.next()) {
+            read.add(new int[] {cursor.documentNumber(), cursor.wordFrequency()});
+        }
+        int[][] postings = new int[2][read.size()];
+        for (int i = 0; i < read.size(); i++) {
+            postings[0][i] = read.get(i)[0];
+            postings[1][i] = read.get(i)[1];
+        }
+        return postings;
+    }
+
+    private static void assertPostings(int[][] expected, PostingsSnapshot actual) {
+        int[][] read = read(actual);
+        assertArrayEquals(expected[0], read[0]);
+        assertArrayEquals(expected[1], read[1]);
+        assertEquals(expected[0].length, actual.size());
+    }
+
+    // every block must know the largest frequency of its postings
+    private static void assertBlockMaxFrequencies(PostingsSnapshot snapshot) {
+        int[] documents = new int[PostingBlock.BLOCK_SIZE];
+        int[] frequencies = new int[PostingBlock.BLOCK_SIZE];
+        for (int b = 0; b < snapshot.blockCount; b++) {
+            PostingBlock block = snapshot.blocks[b];
+            block.decode(documents, frequencies);
+            int max = 0;
+            for (int i = 0; i < block.count; i++) {
+                max = Math.max(max, frequencies[i]);
+            }
+            assertEquals("block " + b, max, block.maxFrequency);
+        }
+    }
+
+    private IndexSegment write(IndexSegment previous, Map<String, PostingsSnapshot> terms, String[] documents,
+            long[] deleted, int[] lengths) throws IOException {
+        Path file = folder.newFile().toPath();
+        IndexSegment.write(file, previous, terms, number -> documents[number], documents.length, deleted, lengths);
+        return IndexSegment.open(file);
+    }
+
+    @Test
+    public void writesAndReadsTheCurrentVersion() throws IOException {
+        int[][] moon = postings(300, 40);
+        int[][] river = {{1, 4, 7}, {2, 1, 9}};
+        HashMap<String, PostingsSnapshot> terms = new HashMap<>();
+        terms.put("moon", postingList(moon).snapshot());
+        terms.put("river", postingList(river).snapshot());
+        terms.put("empty", new PostingList().snapshot());
+        String[] documents = {"a.txt_1", "b.txt_1", "c.txt_2", null};
+        long[] deleted = {1L << 2};
+        int[] lengths = {10, 20, -1, 0};
+
+        IndexSegment segment = write(null, terms, documents, deleted, lengths);
+
+        assertEquals(4, segment.documentCount);
+        assertEquals(2, segment.termCount);
+        assertEquals("a.txt_1", segment.document(0));
+        assertEquals("c.txt_2", segment.document(2));
+        assertNull(segment.document(3));
+        assertNull(segment.document(4));
+        assertNull(segment.document(-1));
+        assertArrayEquals(deleted, segment.deleted());
+        assertArrayEquals(lengths, segment.lengths());
+
+        PostingsSnapshot loaded = segment.load("moon").snapshot();
+        assertPostings(moon, loaded);
+        // the hot buffer is written as one more block
+        assertEquals(3, loaded.blockCount);
+        assertBlockMaxFrequencies(loaded);
+        assertEquals(40, loaded.maxFrequency);
+        assertPostings(river, segment.load("river").snapshot());
+        assertNull(segment.load("empty"));
+        assertNull(segment.load("galaxy"));
+    }
+
+    @Test
+    public void copiesTermsThatWereNotLoadedFromThePreviousSegment() throws IOException {
+        int[][] moon = postings(300, 40);
+        int[][] river = {{1, 4, 7}, {2, 1, 9}};
+        String[] documents = new String[900];
+        for (int i = 0; i < documents.length; i++) {
+            documents[i] = "doc" + i + "_1";
+        }
+        HashMap<String, PostingsSnapshot> terms = new HashMap<>();
+        terms.put("moon", postingList(moon).snapshot());
+        terms.put("river", postingList(river).snapshot());
+        IndexSegment first = write(null, terms, documents, new long[0], new int[documents.length]);
+
+        // river was loaded and appended to, apple is new, moon stays in the previous segment
+        PostingList riverList = first.load("river");
+        riverList.add(10, 5);
+        int[][] apple = {{0, 899}, {3, 3}};
+        HashMap<String, PostingsSnapshot> changed = new HashMap<>();
+        changed.put("river", riverList.snapshot());
+        changed.put("apple", postingList(apple).snapshot());
+        IndexSegment second = write(first, changed, documents, new long[0], new int[documents.length]);
+
+        assertEquals(3, second.termCount);
+        assertPostings(moon, second.load("moon").snapshot());
+        assertBlockMaxFrequencies(second.load("moon").snapshot());
+        assertPostings(new int[][] {{1, 4, 7, 10}, {2, 1, 9, 5}}, second.load("river").snapshot());
+        assertPostings(apple, second.load("apple").snapshot());
+    }
+
+    @Test
+    public void readsVersion3AndRewritesItsTermsAsVersion4() throws IOException {
+        int[][] moon = postings(300, 40);
+        int[][] river = {{1, 4, 7}, {2, 1, 9}};
+        TreeMap<String, int[][]> terms = new TreeMap<>();
+        terms.put("moon", moon);
+        terms.put("river", river);
+        String[] documents = new String[900];
+        for (int i = 0; i < documents.length; i++) {
+            documents[i] = "doc" + i + "_1";
+        }
+        long[] deleted = new long[(documents.length + 63) / 64];
+        deleted[0] = 1L << 3;
+        int[] lengths = new int[documents.length];
+        lengths[0] = 12;
+        lengths[3] = -1;
+        Path file = folder.newFile().toPath();
+        writeOldSegment(file, 3, documents, terms, deleted, lengths);
+
+        IndexSegment old = IndexSegment.open(file);
+        assertEquals("doc5_1", old.document(5));
+        assertArrayEquals(deleted, old.deleted());
+        assertArrayEquals(lengths, old.lengths());
+        PostingsSnapshot oldMoon = old.load("moon").snapshot();
+        assertPostings(moon, oldMoon);
+        for (int b = 0; b < oldMoon.blockCount; b++) {
+            // never lets a search skip the block
+            assertEquals(PostingBlock.UNKNOWN_MAX_FREQUENCY, oldMoon.blocks[b].maxFrequency);
+        }
+
+        // nothing was loaded into memory, every term is rewritten from the old segment
+        IndexSegment rewritten = write(old, new HashMap<>(), documents, deleted, lengths);
+        PostingsSnapshot newMoon = rewritten.load("moon").snapshot();
+        assertPostings(moon, newMoon);
+        assertBlockMaxFrequencies(newMoon);
+        assertEquals(40, newMoon.maxFrequency);
+        assertPostings(river, rewritten.load("river").snapshot());
+        assertArrayEquals(deleted, rewritten.deleted());
+        assertArrayEquals(lengths, rewritten.lengths());
+    }
+
+    @Test
+    public void readsVersions1And2WithoutTheSectionsTheyDidNotHave() throws IOException {
+        int[][] moon = postings(200, 9);
+        TreeMap<String, int[][]> terms = new TreeMap<>();
+        terms.put("moon", moon);
+        String[] documents = new String[600];
+        for (int i = 0; i < documents.length; i++) {
+            documents[i] = "doc" + i + "_1";
+        }
+        long[] deleted = new long[(documents.length + 63) / 64];
+        deleted[1] = 1L;
+
+        Path version1 = folder.newFile().toPath();
+        writeOldSegment(version1, 1, documents, terms, deleted, new int[documents.length]);
+        IndexSegment first = IndexSegment.open(version1);
+        assertEquals(0, first.deleted().length);
+        assertArrayEquals(new int[documents.length], first.lengths());
+        assertPostings(moon, first.load("moon").snapshot());
+
+        Path version2 = folder.newFile().toPath();
+        writeOldSegment(version2, 2, documents, terms, deleted, new int[documents.length]);
+        IndexSegment second = IndexSegment.open(version2);
+        assertArrayEquals(deleted, second.deleted());
+        assertArrayEquals(new int[documents.length], second.lengths());
+        assertPostings(moon, second.load("moon").snapshot());
+    }
+
+    @Test
+    public void rejectsFilesThatAreNotSegmentsOfAKnownVersion() throws IOException {
+        Path garbage = folder.newFile().toPath();
+        Files.write(garbage, "not an index segment at all".getBytes(StandardCharsets.UTF_8));
+        assertOpenFails(garbage);
+
+        Path empty = folder.newFile().toPath();
+        assertOpenFails(empty);
+
+        Path future = folder.newFile().toPath();
+        writeOldSegment(future, 5, new String[0], new TreeMap<>(), new long[0], new int[0]);
+        assertOpenFails(future);
+    }
+
+    private static void assertOpenFails(Path file) {
+        try {
+            IndexSegment.open(file);
+            fail("opened " + file);
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    // a segment in the layout of an older version: no largest frequency in the block headers,
+    // version 2 has no lengths section and version 1 no deleted section either
+    private static void writeOldSegment(Path file, int version, String[] documents, TreeMap<String, int[][]> terms,
+            long[] deleted, int[] lengths) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int[] documentOffsets = new int[documents.length];
+        for (int i = 0; i < documents.length; i++) {
+            documentOffsets[i] = out.size();
+            byte[] document = documents[i].getBytes(StandardCharsets.UTF_8);
+            out.writeInt(document.length);
+            out.write(document);
+        }
+        ArrayList<Integer> termOffsets = new ArrayList<>();
+        for (Map.Entry<String, int[][]> entry : terms.entrySet()) {
+            termOffsets.add(out.size());
+            byte[] term = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            int[][] postings = entry.getValue();
+            int count = postings[0].length;
+            out.writeInt(term.length);
+            out.write(term);
+            out.writeInt(count);
+            out.writeInt((count + PostingBlock.BLOCK_SIZE - 1) / PostingBlock.BLOCK_SIZE);
+            for (int from = 0; from < count; from += PostingBlock.BLOCK_SIZE) {
+                int length = Math.min(PostingBlock.BLOCK_SIZE, count - from);
+                int[] blockDocuments = new int[length];
+                int[] blockFrequencies = new int[length];
+                System.arraycopy(postings[0], from, blockDocuments, 0, length);
+                System.arraycopy(postings[1], from, blockFrequencies, 0, length);
+                ByteArrayOutputStream block = new ByteArrayOutputStream();
+                PostingBlock.encode(blockDocuments, blockFrequencies, length).writeTo(new DataOutputStream(block));
+                byte[] encoded = block.toByteArray();
+                out.writeInt(length);
+                out.writeInt(blockDocuments[0]);
+                out.writeInt(blockDocuments[length - 1]);
+                out.writeInt(encoded.length - BLOCK_HEADER_SIZE);
+                out.write(encoded, BLOCK_HEADER_SIZE, encoded.length - BLOCK_HEADER_SIZE);
+            }
+        }
+        int documentIndexOffset = out.size();
+        for (int offset : documentOffsets) {
+            out.writeInt(offset);
+        }
+        int termIndexOffset = out.size();
+        for (int offset : termOffsets) {
+            out.writeInt(offset);
+        }
+        int deletedOffset = out.size();
+        if (version >= 2) {
+            for (long bits : deleted) {
+                out.writeLong(bits);
+            }
+        }
+        int lengthsOffset = out.size();
+        if (version >= 3) {
+            for (int length : lengths) {
+                out.writeInt(length);
+            }
+            out.writeInt(lengthsOffset);
+        }
+        if (version >= 2) {
+            out.writeInt(deletedOffset);
+            out.writeInt(deleted.length);
+        }
+        out.writeInt(MAGIC);
+        out.writeInt(version);
+        out.writeInt(documents.length);
+        out.writeInt(termOffsets.size());
+        out.writeInt(documentIndexOffset);
+        out.writeInt(termIndexOffset);
+        Files.write(file, bytes.toByteArray());
+    }
+}
@@ -0,0 +1,127 @@
+package com.fileretrieval.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+public class IngestLimiterTest {
+    // start a thread that waits for a turn, returns once the limiter counts it as queued
+    private static Thread queue(IngestLimiter limiter, AtomicBoolean admitted, int queuedBefore)
+            throws InterruptedException {
+        Thread waiter = new Thread(() -> admitted.set(limiter.acquire(1)));
+        waiter.start();
+        String queued = (queuedBefore + 1) + " queued";
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!limiter.describe().endsWith(queued)) {
+            assertTrue("waiter never queued", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+        return waiter;
+    }
+
+    private static void awaitAdmitted(IngestLimiter limiter, long admitted) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (limiter.getAdmittedCount() < admitted) {
+            assertTrue("waiter never admitted", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void admitsARequestLargerThanTheByteLimitAlone() {
+        IngestLimiter limiter = new IngestLimiter(4, 100, 0, 0);
+        assertTrue(limiter.acquire(1000));
+        // nothing else fits next to it
+        assertFalse(limiter.acquire(10));
+        limiter.release(1000, 1000);
+        assertTrue(limiter.acquire(60));
+        assertTrue(limiter.acquire(40));
+        assertFalse(limiter.acquire(1));
+        assertEquals(3, limiter.getAdmittedCount());
+        assertEquals(2, limiter.getRejectedCount());
+    }
+
+    @Test
+    public void turnsAwayTheRequestBeyondTheQueueAtOnce() throws InterruptedException {
+        IngestLimiter limiter = new IngestLimiter(1, 1 << 20, 2, TimeUnit.MINUTES.toMillis(1));
+        assertTrue(limiter.acquire(1));
+        AtomicBoolean first = new AtomicBoolean();
+        AtomicBoolean second = new AtomicBoolean();
+        Thread firstWaiter = queue(limiter, first, 0);
+        Thread secondWaiter = queue(limiter, second, 1);
+
+        long start = System.nanoTime();
+        assertFalse(limiter.acquire(1));
+        // not after waiting for the minute the queued ones may wait
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(1, limiter.getRejectedCount());
+
+        // the queued requests get their turns one after the other
+        limiter.release(1, 1000);
+        awaitAdmitted(limiter, 2);
+        limiter.release(1, 1000);
+        awaitAdmitted(limiter, 3);
+        firstWaiter.join();
+        secondWaiter.join();
+        assertTrue(first.get() && second.get());
+        assertEquals(1, limiter.getPeakRequests());
+    }
+
+    @Test
+    public void aQueuedRequestGivesUpAfterTheWaitLimit() {
+        IngestLimiter limiter = new IngestLimiter(1, 1 << 20, 1, 100);
+        assertTrue(limiter.acquire(1));
+        long start = System.nanoTime();
+        assertFalse(limiter.acquire(1));
+        long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("waited " + waitedMillis + " ms", waitedMillis >= 90 && waitedMillis < 5000);
+        assertEquals(1, limiter.getAdmittedCount());
+        assertEquals(1, limiter.getRejectedCount());
+        assertTrue(limiter.describe().endsWith(" 0 queued"));
+    }
+
+    @Test
+    public void releaseWakesAWaiter() throws InterruptedException {
+        IngestLimiter limiter = new IngestLimiter(1, 1 << 20, 1, TimeUnit.MINUTES.toMillis(1));
+        assertTrue(limiter.acquire(1));
+        AtomicBoolean admitted = new AtomicBoolean();
+        Thread waiter = queue(limiter, admitted, 0);
+        long start = System.nanoTime();
+        limiter.release(1, 1000);
+        waiter.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(waiter.isAlive());
+        assertTrue(admitted.get());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+        assertEquals(2, limiter.getAdmittedCount());
+        assertEquals(0, limiter.getRejectedCount());
+    }
+
+    @Test
+    public void retryAfterStaysWithinItsBounds() {
+        IngestLimiter limiter = new IngestLimiter(1, 1 << 20, 4, 0);
+        // nothing measured yet
+        assertEquals(IngestLimiter.MIN_RETRY_AFTER_MILLIS, limiter.retryAfterMillis());
+
+        assertTrue(limiter.acquire(1));
+        limiter.release(1, TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(100, limiter.retryAfterMillis());
+
+        // requests that take an hour each still get a retry within the upper bound
+        for (int i = 0; i < 20; i++) {
+            assertTrue(limiter.acquire(1));
+            limiter.release(1, TimeUnit.HOURS.toNanos(1));
+        }
+        assertEquals(IngestLimiter.MAX_RETRY_AFTER_MILLIS, limiter.retryAfterMillis());
+
+        // and very fast ones at least the lower bound
+        for (int i = 0; i < 200; i++) {
+            assertTrue(limiter.acquire(1));
+            limiter.release(1, 1);
+        }
+        assertEquals(IngestLimiter.MIN_RETRY_AFTER_MILLIS, limiter.retryAfterMillis());
+    }
+}
@@ -0,0 +1,274 @@
+package com.fileretrieval.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+// searches read posting lists without locks while indexers append to them: every snapshot a searcher
+// takes has to be sorted, hold every posting that was added before it was taken, and hold either all
+// or none of the postings of a batch
+public class LockFreeReadTest {
+    private static final int INDEXERS = 4;
+    private static final int SEARCHERS = 3;
+
+    // the document numbers of a batch are consecutive: the first one and the count, per document,
+    // written before the batch is added
+    private final AtomicIntegerArray batchFirst = new AtomicIntegerArray(1 << 16);
+    private final AtomicIntegerArray batchCount = new AtomicIntegerArray(1 << 16);
+    // set once the document's postings were added
+    private final AtomicIntegerArray added = new AtomicIntegerArray(1 << 16);
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final AtomicBoolean indexing = new AtomicBoolean(true);
+    private final AtomicInteger searches = new AtomicInteger();
+
+    private static int frequency(int documentNumber) {
+        return 1 + documentNumber % 11;
+    }
+
+    // run the indexers until they are done and the searchers and the sealer until then
+    private void run(List<Runnable> indexers, List<Runnable> searchers, Runnable sealer) throws InterruptedException {
+        ArrayList<Thread> indexerThreads = new ArrayList<>();
+        ArrayList<Thread> otherThreads = new ArrayList<>();
+        for (Runnable indexer : indexers) {
+            indexerThreads.add(new Thread(guarded(indexer)));
+        }
+        for (Runnable searcher : searchers) {
+            otherThreads.add(new Thread(guarded(() -> {
+                while (indexing.get()) {
+                    searcher.run();
+                    searches.incrementAndGet();
+                }
+                // one more search of the complete list
+                searcher.run();
+            })));
+        }
+        otherThreads.add(new Thread(guarded(() -> {
+            while (indexing.get()) {
+                sealer.run();
+                Thread.yield();
+            }
+        })));
+        for (Thread thread : otherThreads) {
+            thread.start();
+        }
+        for (Thread thread : indexerThreads) {
+            thread.start();
+        }
+        for (Thread thread : indexerThreads) {
+            thread.join();
+        }
+        indexing.set(false);
+        for (Thread thread : otherThreads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("inconsistent read", failure.get());
+        }
+        assertTrue(searches.get() > 0);
+    }
+
+    private Runnable guarded(Runnable runnable) {
+        return () -> {
+            try {
+                runnable.run();
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+                indexing.set(false);
+            }
+        };
+    }
+
+    // the documents below bound that were added before this call, read before the snapshot is taken
+    private BitSet addedBefore(int bound) {
+        BitSet documents = new BitSet(bound);
+        for (int document = 0; document < bound; document++) {
+            if (added.get(document) == 1) {
+                documents.set(document);
+            }
+        }
+        return documents;
+    }
+
+    // sorted, complete and tear-free, returns the documents of the snapshot
+    private BitSet assertConsistent(PostingsSnapshot snapshot, BitSet addedBefore, Map<Integer, Integer> expectedFrequencies) {
+        BitSet documents = new BitSet();
+        int previous = -1;
+        int count = 0;
+        for (PostingsCursor cursor = snapshot.cursor(); !cursor.exhausted(); cursor.next()) {
+            int document = cursor.documentNumber();
+            assertTrue("document " + document + " after " + previous, document > previous);
+            int expected = expectedFrequencies == null ? frequency(document) : expectedFrequencies.get(document);
+            assertEquals(expected, cursor.wordFrequency());
+            documents.set(document);
+            previous = document;
+            count++;
+        }
+        assertEquals(snapshot.size(), count);
+        for (int document = addedBefore.nextSetBit(0); document >= 0; document = addedBefore.nextSetBit(document + 1)) {
+            if (expectedFrequencies == null || expectedFrequencies.containsKey(document)) {
+                assertTrue("document " + document + " added before the snapshot is missing", documents.get(document));
+            }
+        }
+        for (int document = documents.nextSetBit(0); document >= 0; document = documents.nextSetBit(document + 1)) {
+            int first = batchFirst.get(document);
+            for (int other = first; other < first + batchCount.get(document); other++) {
+                if (expectedFrequencies == null || expectedFrequencies.containsKey(other)) {
+                    assertTrue("batch of document " + document + " is torn at " + other, documents.get(other));
+                }
+            }
+        }
+        return documents;
+    }
+
+    @Test
+    public void postingListSnapshotsAreSortedCompleteAndTearFree() throws InterruptedException {
+        PostingList postingList = new PostingList();
+        AtomicInteger nextDocument = new AtomicInteger();
+        int documentsPerIndexer = 4000;
+
+        ArrayList<Runnable> indexers = new ArrayList<>();
+        for (int i = 0; i < INDEXERS; i++) {
+            long seed = i;
+            indexers.add(() -> {
+                // numbers are taken before the postings are added, so indexers add them out of order
+                // and some go through insertOutOfOrder or the merge of a batch into the tail
+                Random random = new Random(seed);
+                int written = 0;
+                while (written < documentsPerIndexer) {
+                    int count = Math.min(documentsPerIndexer - written, random.nextBoolean() ? 1 : 2 + random.nextInt(8));
+                    int first = nextDocument.getAndAdd(count);
+                    int[] documentNumbers = new int[count];
+                    int[] wordFrequencies = new int[count];
+                    for (int d = 0; d < count; d++) {
+                        documentNumbers[d] = first + d;
+                        wordFrequencies[d] = frequency(first + d);
+                        batchFirst.set(first + d, first);
+                        batchCount.set(first + d, count);
+                    }
+                    if (random.nextInt(4) == 0) {
+                        Thread.yield();
+                    }
+                    if (count == 1) {
+                        postingList.add(first, frequency(first));
+                    } else {
+                        postingList.addAll(documentNumbers, wordFrequencies, count);
+                    }
+                    for (int d = 0; d < count; d++) {
+                        added.set(first + d, 1);
+                    }
+                    written += count;
+                }
+            });
+        }
+        ArrayList<Runnable> searchers = new ArrayList<>();
+        for (int i = 0; i < SEARCHERS; i++) {
+            int[] lastSize = {0};
+            searchers.add(() -> {
+                BitSet addedBefore = addedBefore(nextDocument.get());
+                PostingsSnapshot snapshot = postingList.snapshot();
+                // a list only ever grows
+                assertTrue(snapshot.size() >= lastSize[0]);
+                lastSize[0] = snapshot.size();
+                assertConsistent(snapshot, addedBefore, null);
+                // skipping agrees with the scan
+                PostingsCursor cursor = snapshot.cursor();
+                int target = addedBefore.isEmpty() ? 0 : addedBefore.length() / 2;
+                cursor.advance(target);
+                if (addedBefore.get(target)) {
+                    assertEquals(target, cursor.documentNumber());
+                }
+            });
+        }
+
+        run(indexers, searchers, () -> postingList.sealIfIdle(16));
+        PostingsSnapshot snapshot = postingList.snapshot();
+        assertEquals(INDEXERS * documentsPerIndexer, snapshot.size());
+        assertEquals(INDEXERS * documentsPerIndexer, assertConsistent(snapshot, addedBefore(nextDocument.get()), null).cardinality());
+    }
+
+    @Test
+    public void storeSearchesOnlySeeNumberedDocuments() throws InterruptedException {
+        IndexStore store = new IndexStore();
+        int vocabulary = 50;
+        int documentsPerIndexer = 1500;
+        // the terms of every document, fixed by its number: "term<(7 * d + j) % vocabulary>" for j < 5,
+        // and the expected frequencies per term, filled in as documents are numbered
+        ArrayList<Map<Integer, Integer>> expected = new ArrayList<>();
+        for (int t = 0; t < vocabulary; t++) {
+            expected.add(new ConcurrentHashMap<>());
+        }
+
+        ArrayList<Runnable> indexers = new ArrayList<>();
+        for (int i = 0; i < INDEXERS; i++) {
+            long clientID = i + 1;
+            indexers.add(() -> {
+                Random random = new Random(clientID);
+                int written = 0;
+                while (written < documentsPerIndexer) {
+                    int count = Math.min(documentsPerIndexer - written, random.nextBoolean() ? 1 : 2 + random.nextInt(6));
+                    ArrayList<String> paths = new ArrayList<>();
+                    for (int d = 0; d < count; d++) {
+                        paths.add("file" + (written + d) + ".txt");
+                    }
+                    int first = count == 1 ? store.putDocument(paths.get(0), clientID) : store.putDocuments(paths, clientID);
+                    ArrayList<Map<String, Long>> wordFrequencies = new ArrayList<>();
+                    for (int d = first; d < first + count; d++) {
+                        HashMap<String, Long> frequencies = new HashMap<>();
+                        for (int j = 0; j < 5; j++) {
+                            int term = (7 * d + j) % vocabulary;
+                            frequencies.put("term" + term, (long) frequency(d + j));
+                            expected.get(term).put(d, frequency(d + j));
+                        }
+                        wordFrequencies.add(frequencies);
+                        batchFirst.set(d, first);
+                        batchCount.set(d, count);
+                    }
+                    if (count == 1) {
+                        store.updateIndex(first, wordFrequencies.get(0));
+                    } else {
+                        store.updateIndexBatch(first, wordFrequencies);
+                    }
+                    for (int d = first; d < first + count; d++) {
+                        added.set(d, 1);
+                    }
+                    written += count;
+                }
+            });
+        }
+        ArrayList<Runnable> searchers = new ArrayList<>();
+        for (int i = 0; i < SEARCHERS; i++) {
+            Random random = new Random(100 + i);
+            searchers.add(() -> {
+                int term = random.nextInt(vocabulary);
+                BitSet addedBefore = addedBefore(store.getDocumentCount());
+                PostingsSnapshot snapshot = store.lookupIndex("term" + term);
+                BitSet documents = assertConsistent(snapshot, addedBefore, expected.get(term));
+                // every posting belongs to a numbered document
+                for (int document = documents.nextSetBit(0); document >= 0; document = documents.nextSetBit(document + 1)) {
+                    assertNotNull(store.getDocument(document));
+                }
+            });
+        }
+
+        run(indexers, searchers, () -> store.sealIdleHotBuffers(16));
+        assertEquals(INDEXERS * documentsPerIndexer, store.getDocumentCount());
+        int postings = 0;
+        for (int term = 0; term < vocabulary; term++) {
+            postings += store.lookupIndex("term" + term).size();
+        }
+        assertEquals(5 * INDEXERS * documentsPerIndexer, postings);
+    }
+}
@@ -0,0 +1,153 @@
+package com.fileretrieval.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class PostingBlockTest {
+    // count, first document, last document, largest frequency, byte length
+    private static final int HEADER_SIZE = 5 * Integer.BYTES;
+
+    private static void assertRoundTrip(int[] documents, int[] frequencies, PostingBlock block) {
+        int length = documents.length;
+        assertEquals(length, block.count);
+        assertEquals(documents[0], block.firstDocument);
+        assertEquals(documents[length - 1], block.lastDocument);
+        assertEquals(Arrays.stream(frequencies).max().getAsInt(), block.maxFrequency);
+        int[] decodedDocuments = new int[length];
+        int[] decodedFrequencies = new int[length];
+        block.decode(decodedDocuments, decodedFrequencies);
+        assertArrayEquals(documents, decodedDocuments);
+        assertArrayEquals(frequencies, decodedFrequencies);
+    }
+
+    private static PostingBlock encode(int[] documents, int[] frequencies) {
+        return PostingBlock.encode(documents, frequencies, documents.length);
+    }
+
+    @Test
+    public void sparseGapsAreVariableByteEncoded() {
+        // one huge gap would make every packed gap 31 bits wide
+        int[] documents = new int[PostingBlock.BLOCK_SIZE];
+        int[] frequencies = new int[PostingBlock.BLOCK_SIZE];
+        for (int i = 0; i < documents.length; i++) {
+            documents[i] = i;
+            frequencies[i] = 1 + i % 3;
+        }
+        documents[documents.length - 1] = 1 << 30;
+        PostingBlock block = encode(documents, frequencies);
+        assertFalse(block.isBitPacked());
+        assertRoundTrip(documents, frequencies, block);
+    }
+
+    @Test
+    public void denseGapsAreBitPacked() {
+        int[] documents = new int[PostingBlock.BLOCK_SIZE];
+        int[] frequencies = new int[PostingBlock.BLOCK_SIZE];
+        for (int i = 0; i < documents.length; i++) {
+            documents[i] = 1000 + i * 2 + i % 2;
+            frequencies[i] = 1 + i % 4;
+        }
+        PostingBlock block = encode(documents, frequencies);
+        assertTrue(block.isBitPacked());
+        // 3 header bytes, 2 bits per gap, 2 bits per frequency
+        assertEquals(3 + 32 + 32, block.sizeInBytes());
+        assertRoundTrip(documents, frequencies, block);
+    }
+
+    @Test
+    public void packsWideValuesAcrossBufferBoundaries() {
+        // 21-bit gaps and 31-bit frequencies straddle the bytes and the 64-bit unpacking buffer
+        int[] documents = new int[PostingBlock.BLOCK_SIZE];
+        int[] frequencies = new int[PostingBlock.BLOCK_SIZE];
+        Random random = new Random(9);
+        int document = 0;
+        for (int i = 0; i < documents.length; i++) {
+            document += i == 0 ? 0 : (1 << 20) + random.nextInt(1 << 20);
+            documents[i] = document;
+            frequencies[i] = i % 2 == 0 ? Integer.MAX_VALUE - i : 1 + random.nextInt(Integer.MAX_VALUE - 1);
+        }
+        PostingBlock block = encode(documents, frequencies);
+        assertTrue(block.isBitPacked());
+        assertRoundTrip(documents, frequencies, block);
+    }
+
+    @Test
+    public void roundTripsSinglePostingsAndExtremeValues() {
+        assertRoundTrip(new int[] {0}, new int[] {1}, encode(new int[] {0}, new int[] {1}));
+        int[] documents = {Integer.MAX_VALUE - 1};
+        int[] frequencies = {Integer.MAX_VALUE};
+        assertRoundTrip(documents, frequencies, encode(documents, frequencies));
+        // equal frequencies pack into zero bits
+        int[] consecutive = {5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+        int[] ones = new int[consecutive.length];
+        Arrays.fill(ones, 1);
+        assertRoundTrip(consecutive, ones, encode(consecutive, ones));
+    }
+
+    @Test
+    public void roundTripsRandomBlocksInBothEncodings() {
+        Random random = new Random(42);
+        int packed = 0;
+        int vbyte = 0;
+        for (int round = 0; round < 500; round++) {
+            int length = 1 + random.nextInt(PostingBlock.BLOCK_SIZE);
+            int maxGap = 1 << random.nextInt(24);
+            int maxFrequency = 1 << random.nextInt(20);
+            int[] documents = new int[length];
+            int[] frequencies = new int[length];
+            int document = random.nextInt(1 << 20);
+            for (int i = 0; i < length; i++) {
+                // an occasional outlier favours variable bytes
+                int gap = random.nextInt(50) == 0 ? maxGap * 64 : 1 + random.nextInt(maxGap);
+                document += i == 0 ? 0 : gap;
+                documents[i] = document;
+                frequencies[i] = 1 + random.nextInt(maxFrequency);
+            }
+            PostingBlock block = encode(documents, frequencies);
+            if (block.isBitPacked()) {
+                packed++;
+            } else {
+                vbyte++;
+            }
+            assertRoundTrip(documents, frequencies, block);
+        }
+        assertTrue(packed > 0 && vbyte > 0);
+    }
+
+    @Test
+    public void decodesBlocksReadFromASegmentBuffer() throws IOException {
+        int[] documents = {3, 4, 9, 200, 201, 70000};
+        int[] frequencies = {1, 8, 2, 2, 300, 1};
+        for (PostingBlock heap : new PostingBlock[] {encode(documents, frequencies),
+                encode(new int[] {1, 2, 3, 4}, new int[] {1, 2, 1, 2})}) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            // something before the block, as in a segment
+            out.writeLong(-1L);
+            heap.writeTo(out);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            assertEquals(heap.count, buffer.getInt(8));
+            assertEquals(heap.maxFrequency, buffer.getInt(8 + 12));
+            assertEquals(heap.sizeInBytes(), buffer.getInt(8 + 16));
+
+            PostingBlock mapped = new PostingBlock(heap.count, heap.firstDocument, heap.lastDocument,
+                heap.maxFrequency, buffer, 8 + HEADER_SIZE, heap.sizeInBytes());
+            assertTrue(mapped.isMapped());
+            assertEquals(heap.isBitPacked(), mapped.isBitPacked());
+            int[] heapDocuments = new int[heap.count];
+            int[] heapFrequencies = new int[heap.count];
+            heap.decode(heapDocuments, heapFrequencies);
+            assertRoundTrip(heapDocuments, heapFrequencies, mapped);
+        }
+    }
+}
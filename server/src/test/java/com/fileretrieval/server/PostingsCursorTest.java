@@ -0,0 +1,140 @@
+package com.fileretrieval.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class PostingsCursorTest {
+    // documents 0, 2, 4, ...: five sealed blocks of 128 postings and 60 in the hot buffer
+    private static final int POSTINGS = 5 * PostingBlock.BLOCK_SIZE + 60;
+
+    private static PostingList evenDocuments() {
+        PostingList postingList = new PostingList();
+        for (int i = 0; i < POSTINGS; i++) {
+            postingList.add(i * 2, 1 + i % 5);
+        }
+        return postingList;
+    }
+
+    private static void assertAt(PostingsCursor cursor, int document) {
+        assertTrue("exhausted before " + document, !cursor.exhausted());
+        assertEquals(document, cursor.documentNumber());
+        assertEquals(1 + (document / 2) % 5, cursor.wordFrequency());
+    }
+
+    @Test
+    public void advancesOntoAndAcrossBlockEdges() {
+        PostingsSnapshot snapshot = evenDocuments().snapshot();
+        assertEquals(5, snapshot.blockCount);
+        int blockEnd = 2 * (PostingBlock.BLOCK_SIZE - 1);
+
+        PostingsCursor cursor = snapshot.cursor();
+        assertAt(cursor, 0);
+        // the last document of the first block, without leaving it
+        cursor.advance(blockEnd);
+        assertAt(cursor, blockEnd);
+        // past it: the first document of the next block
+        cursor.advance(blockEnd + 1);
+        assertAt(cursor, blockEnd + 2);
+        // a target that is behind the cursor leaves it where it is
+        cursor.advance(10);
+        assertAt(cursor, blockEnd + 2);
+        // skip two whole blocks onto the first document of the fourth
+        int fourthBlock = 2 * 3 * PostingBlock.BLOCK_SIZE;
+        cursor.advance(fourthBlock - 1);
+        assertAt(cursor, fourthBlock);
+        // from the last sealed block into the hot buffer
+        int hotBuffer = 2 * 5 * PostingBlock.BLOCK_SIZE;
+        cursor.advance(hotBuffer - 1);
+        assertAt(cursor, hotBuffer);
+        cursor.advance(2 * (POSTINGS - 1));
+        assertAt(cursor, 2 * (POSTINGS - 1));
+        cursor.advance(2 * POSTINGS);
+        assertTrue(cursor.exhausted());
+    }
+
+    @Test
+    public void nextWalksFromBlockToBlockAndIntoTheHotBuffer() {
+        PostingsCursor cursor = evenDocuments().snapshot().cursor();
+        for (int i = 0; i < POSTINGS; i++) {
+            assertAt(cursor, i * 2);
+            cursor.next();
+        }
+        assertTrue(cursor.exhausted());
+    }
+
+    @Test
+    public void advanceStraightFromTheStartIntoTheHotBuffer() {
+        PostingsCursor cursor = evenDocuments().snapshot().cursor();
+        cursor.advance(2 * (POSTINGS - 3) - 1);
+        assertAt(cursor, 2 * (POSTINGS - 3));
+        cursor.next();
+        assertAt(cursor, 2 * (POSTINGS - 2));
+    }
+
+    @Test
+    public void advanceAgreesWithALinearScanForRandomTargets() {
+        Random random = new Random(11);
+        for (int round = 0; round < 50; round++) {
+            // random gaps, so blocks cover ranges of different widths
+            int count = 1 + random.nextInt(8 * PostingBlock.BLOCK_SIZE);
+            int[] documents = new int[count];
+            PostingList postingList = new PostingList();
+            int document = random.nextInt(10);
+            for (int i = 0; i < count; i++) {
+                document += 1 + random.nextInt(random.nextBoolean() ? 3 : 300);
+                documents[i] = document;
+                postingList.add(document, 1 + i % 7);
+            }
+
+            PostingsCursor cursor = postingList.snapshot().cursor();
+            int expected = 0;
+            int target = 0;
+            while (expected < count) {
+                if (random.nextInt(4) == 0) {
+                    cursor.next();
+                    expected++;
+                } else {
+                    target += random.nextInt(random.nextBoolean() ? 10 : 5000);
+                    cursor.advance(target);
+                    while (expected < count && documents[expected] < target) {
+                        expected++;
+                    }
+                }
+                if (expected == count) {
+                    assertTrue(cursor.exhausted());
+                } else {
+                    assertEquals(documents[expected], cursor.documentNumber());
+                    assertEquals(1 + expected % 7, cursor.wordFrequency());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void aSnapshotIsNotChangedByLaterAppends() {
+        PostingList postingList = evenDocuments();
+        PostingsSnapshot snapshot = postingList.snapshot();
+        for (int i = POSTINGS; i < POSTINGS + 300; i++) {
+            postingList.add(i * 2, 1);
+        }
+        PostingsCursor cursor = snapshot.cursor();
+        int count = 0;
+        for (; !cursor.exhausted(); cursor.next()) {
+            count++;
+        }
+        assertEquals(POSTINGS, count);
+        assertEquals(POSTINGS, snapshot.size());
+        assertEquals(POSTINGS + 300, postingList.snapshot().size());
+    }
+
+    @Test
+    public void anEmptyListIsExhaustedFromTheStart() {
+        PostingsCursor cursor = new PostingList().snapshot().cursor();
+        assertTrue(cursor.exhausted());
+        cursor.advance(5);
+        assertTrue(cursor.exhausted());
+    }
+}
@@ -0,0 +1,264 @@
+package com.fileretrieval.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import com.fileretrieval.common.protocol.BinaryFrameReader;
+import com.fileretrieval.common.protocol.BinaryFrameWriter;
+import com.fileretrieval.common.protocol.DeleteRequest;
+import com.fileretrieval.common.protocol.IndexBatchRequest;
+import com.fileretrieval.common.protocol.IndexRequest;
+import com.fileretrieval.common.protocol.IndexResponse;
+import com.fileretrieval.common.protocol.MessageType;
+import com.fileretrieval.common.protocol.WireProtocol;
+import org.junit.Test;
+
+// a primary and a follower in this JVM, four binary clients index, re-index and delete the same keys
+// at once on the primary, the follower has to end up with the same documents, deletions and postings
+public class ReplicationTest {
+    private static final String[] WORDS = {"moon", "river", "galaxy", "comet", "orbit", "planet"};
+    private static final int PATHS = 6;
+    private static final int REQUESTS_PER_CLIENT = 1000;
+    private static final int WINDOW = 16;
+    private static final int CLIENTS = 4;
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static ServerProcessingEngine follower(ServerMode mode) {
+        ServerProcessingEngine engine = new ServerProcessingEngine(new IndexStore(), null);
+        engine.setMode(mode);
+        engine.setCompactionInterval(0);
+        engine.setDeleteOnDisconnect(true);
+        // one turn and no queue: a follower that asked its limiter would turn forwarded requests away
+        engine.setIngestLimits(1, 1 << 20, 0, 0);
+        return engine;
+    }
+
+    private static ServerProcessingEngine primary(int followerPort) {
+        ServerProcessingEngine engine = new ServerProcessingEngine(new IndexStore(), null);
+        engine.setCompactionInterval(0);
+        engine.setReplicas(Arrays.asList("127.0.0.1:" + followerPort));
+        return engine;
+    }
+
+    private static ServerProcessingEngine start(ServerProcessingEngine engine, int port)
+            throws IOException, InterruptedException {
+        engine.initialize(port);
+        for (int attempt = 0; ; attempt++) {
+            try {
+                new Socket("127.0.0.1", port).close();
+                return engine;
+            } catch (IOException e) {
+                if (attempt == 100) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    // a binary client connection, like the client's pipelined indexing but with the frames written here
+    private static class Client implements AutoCloseable {
+        final Socket socket;
+        final long clientID;
+        final BinaryFrameReader reader;
+        final BinaryFrameWriter writer;
+
+        Client(int port) throws IOException {
+            socket = new Socket("127.0.0.1", port);
+            OutputStream out = socket.getOutputStream();
+            out.write((MessageType.REGISTER_REQUEST.toWireFormat() + " " + WireProtocol.BINARY.toWireFormat() + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            StringBuilder reply = new StringBuilder();
+            int b;
+            while ((b = in.read()) != '\n') {
+                assertTrue("connection closed during REGISTER", b >= 0);
+                reply.append((char) b);
+            }
+            clientID = Long.parseLong(reply.toString().trim().split(" ")[0]);
+            reader = new BinaryFrameReader(new BufferedInputStream(in));
+            writer = new BinaryFrameWriter(new BufferedOutputStream(out));
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.writeQuit();
+            writer.flush();
+            socket.close();
+        }
+    }
+
+    private static Map<String, Long> frequencies(Random random) {
+        HashMap<String, Long> frequencies = new HashMap<>();
+        for (String word : WORDS) {
+            if (random.nextBoolean()) {
+                frequencies.put(word, 1L + random.nextInt(20));
+            }
+        }
+        frequencies.put(WORDS[random.nextInt(WORDS.length)], 1L + random.nextInt(20));
+        return frequencies;
+    }
+
+    // send requests in windows of WINDOW, every reply has to carry the ID of this connection's request
+    // in the order they were sent, IDs start at firstRequestID so another connection's would not match
+    private static void indexAndDelete(Client client, long clientID, long firstRequestID, long seed)
+            throws IOException {
+        Random random = new Random(seed);
+        long nextRequestID = firstRequestID;
+        long nextReplyID = firstRequestID;
+        int sent = 0;
+        while (sent < REQUESTS_PER_CLIENT) {
+            for (int i = 0; i < WINDOW && sent < REQUESTS_PER_CLIENT; i++, sent++) {
+                int kind = random.nextInt(10);
+                if (kind < 5) {
+                    IndexRequest request = new IndexRequest();
+                    request.clientID = clientID;
+                    request.requestID = nextRequestID++;
+                    request.documentPath = "doc" + random.nextInt(PATHS) + ".txt";
+                    request.wordFrequencies = frequencies(random);
+                    client.writer.writeIndexRequest(request);
+                } else if (kind < 8) {
+                    IndexBatchRequest request = new IndexBatchRequest();
+                    request.clientID = clientID;
+                    request.requestID = nextRequestID++;
+                    request.documentPaths = new ArrayList<>();
+                    request.wordFrequencies = new ArrayList<>();
+                    int documents = 2 + random.nextInt(3);
+                    for (int d = 0; d < documents; d++) {
+                        request.documentPaths.add("doc" + random.nextInt(PATHS) + ".txt");
+                        request.wordFrequencies.add(frequencies(random));
+                    }
+                    client.writer.writeIndexBatch(request);
+                } else {
+                    DeleteRequest request = new DeleteRequest();
+                    request.clientID = clientID;
+                    request.requestID = nextRequestID++;
+                    request.documentPath = "doc" + random.nextInt(PATHS) + ".txt";
+                    client.writer.writeDeleteRequest(request);
+                }
+            }
+            client.writer.flush();
+            while (nextReplyID < nextRequestID) {
+                MessageType message = client.reader.readFrame();
+                assertEquals(MessageType.INDEX_REPLY, message);
+                IndexResponse response = client.reader.readIndexReply();
+                assertEquals(nextReplyID++, response.requestID);
+            }
+        }
+    }
+
+    private static List<String> postings(IndexStore store, String word) {
+        ArrayList<String> postings = new ArrayList<>();
+        for (PostingsCursor cursor = store.lookupIndex(word).cursor(); !cursor.exhausted(); cursor.next()) {
+            postings.add(cursor.documentNumber() + ":" + cursor.wordFrequency());
+        }
+        return postings;
+    }
+
+    private static void assertSameIndex(IndexStore primary, IndexStore follower) {
+        assertEquals(primary.getDocumentCount(), follower.getDocumentCount());
+        assertEquals(primary.getDeletedDocumentCount(), follower.getDeletedDocumentCount());
+        for (int document = 0; document < primary.getDocumentCount(); document++) {
+            assertEquals(primary.getDocument(document), follower.getDocument(document));
+            assertEquals("tombstone of document " + document, primary.isDeleted(document), follower.isDeleted(document));
+            assertEquals(primary.getDocumentLength(document), follower.getDocumentLength(document));
+        }
+        for (String word : WORDS) {
+            assertEquals("postings of " + word, postings(primary, word), postings(follower, word));
+        }
+    }
+
+    private void replicate(ServerMode followerMode) throws Exception {
+        int followerPort = freePort();
+        ServerProcessingEngine follower = start(follower(followerMode), followerPort);
+        int primaryPort = freePort();
+        ServerProcessingEngine primary = start(primary(followerPort), primaryPort);
+        try {
+            Client[] clients = new Client[CLIENTS];
+            for (int c = 0; c < CLIENTS; c++) {
+                clients[c] = new Client(primaryPort);
+            }
+            // every connection indexes under the first one's ID, so they replace and delete the same keys
+            long sharedClientID = clients[0].clientID;
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread[] threads = new Thread[CLIENTS];
+            for (int t = 0; t < threads.length; t++) {
+                Client client = clients[t];
+                long firstRequestID = (t + 1) * 1_000_000L;
+                long seed = t;
+                threads[t] = new Thread(() -> {
+                    try {
+                        indexAndDelete(client, sharedClientID, firstRequestID, seed);
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            for (Client client : clients) {
+                client.close();
+            }
+            if (failure.get() != null) {
+                throw new AssertionError("client failed", failure.get());
+            }
+
+            // every request was acknowledged, so every follower applied it
+            IndexStore primaryStore = primary.getStore();
+            IndexStore followerStore = follower.getStore();
+            assertTrue(primaryStore.getDeletedDocumentCount() > 0);
+            assertSameIndex(primaryStore, followerStore);
+            assertTrue(primary.getReplicator().describe(), primary.getReplicator().describe().contains(" live,"));
+
+            // the follower runs with --delete-on-disconnect, the replication link ending deletes nothing
+            int liveDocuments = primaryStore.getLiveDocumentCount();
+            assertTrue(liveDocuments > 0);
+            primary.shutdown();
+            primary = null;
+            follower.shutdown();
+            follower = null;
+            assertEquals(liveDocuments, followerStore.getLiveDocumentCount());
+            assertSameIndex(primaryStore, followerStore);
+        } finally {
+            if (primary != null) {
+                primary.shutdown();
+            }
+            if (follower != null) {
+                follower.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void followerKeepsThePrimarysOrder() throws Exception {
+        replicate(ServerMode.PLATFORM);
+    }
+
+    @Test
+    public void selectorFollowerKeepsThePrimarysOrder() throws Exception {
+        replicate(ServerMode.NIO);
+    }
+}
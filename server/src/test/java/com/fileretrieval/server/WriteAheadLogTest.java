@@ -0,0 +1,176 @@
+package com.fileretrieval.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WriteAheadLogTest {
+    private static final long CLIENT_ID = 7;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+
+    @Before
+    public void setUp() {
+        directory = folder.getRoot().toPath();
+    }
+
+    private static Map<String, Long> frequencies(Object... pairs) {
+        HashMap<String, Long> frequencies = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            frequencies.put((String) pairs[i], ((Number) pairs[i + 1]).longValue());
+        }
+        return frequencies;
+    }
+
+    // the first generation written by the first log opened in the directory
+    private Path firstGeneration() {
+        return directory.resolve(WriteAheadLog.FILE_PREFIX + 1);
+    }
+
+    // log the three documents doc0, doc1 and doc2, returns the size of the generation after each one
+    private long[] writeThreeDocuments() throws IOException {
+        WriteAheadLog log = WriteAheadLog.open(directory, 0);
+        long[] sizes = new long[3];
+        for (int i = 0; i < 3; i++) {
+            log.append(i, "doc" + i + ".txt", CLIENT_ID, frequencies("moon", i + 1, "river", 10));
+            sizes[i] = Files.size(firstGeneration());
+        }
+        log.close();
+        return sizes;
+    }
+
+    // replay the directory into an empty store, the way the server does on startup
+    private IndexStore replay(long expectedRecords) throws IOException {
+        IndexStore store = new IndexStore();
+        WriteAheadLog log = WriteAheadLog.open(directory, 0);
+        try {
+            assertEquals(expectedRecords, log.replay(store));
+        } finally {
+            log.close();
+        }
+        return store;
+    }
+
+    private static int[] documents(PostingsSnapshot snapshot) {
+        ArrayList<Integer> documents = new ArrayList<>();
+        for (PostingsCursor cursor = snapshot.cursor(); !cursor.exhausted(); cursor.next()) {
+            documents.add(cursor.documentNumber());
+        }
+        return documents.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Test
+    public void replaysDocumentsAndRemovalsInLogOrder() throws IOException {
+        WriteAheadLog log = WriteAheadLog.open(directory, 0);
+        log.write(0, "a.txt", CLIENT_ID, frequencies("moon", 3, "river", 1));
+        log.write(1, "b.txt", CLIENT_ID, frequencies("moon", 2));
+        log.writeRemoval(0, "a.txt", CLIENT_ID);
+        // a.txt indexed again after its removal
+        log.awaitDurable(log.write(2, "a.txt", CLIENT_ID, frequencies("river", 4)));
+        log.close();
+
+        IndexStore store = replay(4);
+        assertEquals(3, store.getDocumentCount());
+        assertEquals("a.txt_7", store.getDocument(2));
+        assertEquals("b.txt_7", store.getDocument(1));
+        assertTrue(store.isDeleted(0));
+        assertFalse(store.isDeleted(1));
+        assertFalse(store.isDeleted(2));
+        assertArrayEquals(new int[] {0, 1}, documents(store.lookupIndex("moon")));
+        assertArrayEquals(new int[] {0, 2}, documents(store.lookupIndex("river")));
+        assertEquals(4, store.getDocumentLength(2));
+        // the current version of a.txt can be removed again
+        assertEquals(2, store.removeDocument("a.txt", CLIENT_ID));
+    }
+
+    @Test
+    public void replaysEveryGenerationLeftByEarlierRuns() throws IOException {
+        WriteAheadLog first = WriteAheadLog.open(directory, 0);
+        first.append(0, "a.txt", CLIENT_ID, frequencies("moon", 1));
+        first.roll();
+        first.append(1, "b.txt", CLIENT_ID, frequencies("moon", 1));
+        first.close();
+
+        IndexStore store = replay(2);
+        assertArrayEquals(new int[] {0, 1}, documents(store.lookupIndex("moon")));
+        // the replay itself logged to a new generation, which is empty
+        assertEquals(0, Files.size(directory.resolve(WriteAheadLog.FILE_PREFIX + 3)));
+    }
+
+    @Test
+    public void stopsAtATornRecordAtTheEndOfTheLog() throws IOException {
+        long[] sizes = writeThreeDocuments();
+        // crash in the middle of writing the last record's payload
+        truncate(firstGeneration(), sizes[2] - 5);
+
+        IndexStore store = replay(2);
+        assertEquals("doc1.txt_7", store.getDocument(1));
+        assertNull(store.getDocument(2));
+        assertArrayEquals(new int[] {0, 1}, documents(store.lookupIndex("moon")));
+    }
+
+    @Test
+    public void stopsAtATornRecordHeader() throws IOException {
+        long[] sizes = writeThreeDocuments();
+        // only part of the last record's length made it to disk
+        truncate(firstGeneration(), sizes[1] + 3);
+
+        IndexStore store = replay(2);
+        assertNull(store.getDocument(2));
+    }
+
+    @Test
+    public void ignoresALengthThatRunsPastTheEndOfTheLog() throws IOException {
+        long[] sizes = writeThreeDocuments();
+        try (RandomAccessFile file = new RandomAccessFile(firstGeneration().toFile(), "rw")) {
+            file.seek(sizes[1]);
+            file.writeInt(1 << 30);
+        }
+
+        IndexStore store = replay(2);
+        assertNull(store.getDocument(2));
+    }
+
+    @Test
+    public void stopsAtARecordWhoseChecksumDoesNotMatch() throws IOException {
+        long[] sizes = writeThreeDocuments();
+        // flip a bit in the payload of the second record, past its length and checksum
+        try (RandomAccessFile file = new RandomAccessFile(firstGeneration().toFile(), "rw")) {
+            long position = sizes[0] + 2 * Integer.BYTES + 1;
+            file.seek(position);
+            int b = file.read();
+            file.seek(position);
+            file.write(b ^ 0x10);
+        }
+
+        // the records after a damaged one are not trusted either
+        IndexStore store = replay(1);
+        assertEquals("doc0.txt_7", store.getDocument(0));
+        assertNull(store.getDocument(1));
+        assertNull(store.getDocument(2));
+        assertArrayEquals(new int[] {0}, documents(store.lookupIndex("moon")));
+    }
+
+    private static void truncate(Path file, long size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(size);
+        }
+    }
+}